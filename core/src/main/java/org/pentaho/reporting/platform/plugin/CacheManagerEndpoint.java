@@ -19,19 +19,41 @@
 package org.pentaho.reporting.platform.plugin;
 
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.pentaho.platform.api.engine.IAuthorizationPolicy;
 import org.pentaho.platform.api.engine.ICacheManager;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
+import org.pentaho.platform.security.policy.rolebased.actions.AdministerSecurityAction;
 import org.pentaho.reporting.engine.classic.core.cache.DataCacheFactory;
+import org.pentaho.reporting.platform.plugin.cache.CacheStatistics;
 import org.pentaho.reporting.platform.plugin.cache.IPluginCacheManager;
 import org.pentaho.reporting.platform.plugin.cache.IReportContentCache;
+import org.pentaho.reporting.platform.plugin.cache.InstrumentedCacheBackend;
+import org.pentaho.reporting.platform.plugin.cache.ReportVersionCache;
 
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+
+import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
 
 @Path( "/reporting/api/cache" )
 public class CacheManagerEndpoint {
 
+  private static final Log logger = LogFactory.getLog( CacheManagerEndpoint.class );
+
 
   @POST @Path( "clear" )
   public Response clear() {
@@ -53,4 +75,80 @@ public class CacheManagerEndpoint {
     }
   }
 
+  /**
+   * Counters and latencies of all caches, the report content cache is reported per segment if its backend is an
+   * {@link InstrumentedCacheBackend}.
+   */
+  @GET @Path( "stats" )
+  @Produces( APPLICATION_JSON )
+  public Response stats() {
+    final Map<String, Object> result = new LinkedHashMap<>();
+    for ( final Map.Entry<String, CacheStatistics> entry : CacheStatistics.getAll().entrySet() ) {
+      result.put( entry.getKey(), entry.getValue().toMap() );
+    }
+    return toJson( result );
+  }
+
+  /**
+   * Largest and most often read entries of the instrumented cache backends. The keys contain user names, so only
+   * administrators may list them.
+   */
+  @GET @Path( "entries" )
+  @Produces( APPLICATION_JSON )
+  public Response entries( @DefaultValue( "20" ) @QueryParam( "limit" ) final int limit ) {
+    if ( !isAdministrator() ) {
+      return Response.status( Response.Status.FORBIDDEN ).build();
+    }
+    final Map<String, Object> result = new LinkedHashMap<>();
+    result.put( "largest", top( InstrumentedCacheBackend::getLargestEntries,
+      Comparator.comparingLong( InstrumentedCacheBackend.EntryInfo::getSize ), limit ) );
+    result.put( "hottest", top( InstrumentedCacheBackend::getHottestEntries,
+      Comparator.comparingLong( InstrumentedCacheBackend.EntryInfo::getHits ), limit ) );
+    return toJson( result );
+  }
+
+  /**
+   * Purges the cached content of a changed report for all users, e.g. after it was deployed by a script. Without the
+   * {@link ReportVersionCache} the version is looked up on every request, so there is nothing to invalidate.
+   */
+  @POST @Path( "invalidate" )
+  public Response invalidate( @QueryParam( "path" ) final String path ) {
+    if ( !isAdministrator() ) {
+      return Response.status( Response.Status.FORBIDDEN ).build();
+    }
+    if ( path == null || path.isEmpty() ) {
+      return Response.status( Response.Status.BAD_REQUEST ).build();
+    }
+    final ReportVersionCache versionCache = PentahoSystem.get( ReportVersionCache.class );
+    if ( versionCache != null ) {
+      versionCache.invalidate( path );
+    }
+    return Response.ok().build();
+  }
+
+  protected boolean isAdministrator() {
+    final IAuthorizationPolicy policy = PentahoSystem.get( IAuthorizationPolicy.class );
+    return policy != null && policy.isAllowed( AdministerSecurityAction.NAME );
+  }
+
+  private static List<InstrumentedCacheBackend.EntryInfo> top(
+    final BiFunction<InstrumentedCacheBackend, Integer, List<InstrumentedCacheBackend.EntryInfo>> entries,
+    final Comparator<InstrumentedCacheBackend.EntryInfo> order, final int limit ) {
+    final List<InstrumentedCacheBackend.EntryInfo> result = new ArrayList<>();
+    for ( final InstrumentedCacheBackend backend : InstrumentedCacheBackend.getInstances() ) {
+      result.addAll( entries.apply( backend, limit ) );
+    }
+    result.sort( order.reversed() );
+    return result.size() > limit ? result.subList( 0, Math.max( 0, limit ) ) : result;
+  }
+
+  private static Response toJson( final Object value ) {
+    try {
+      return Response.ok( new ObjectMapper().writeValueAsString( value ) ).build();
+    } catch ( final Exception e ) {
+      logger.error( "Unable to serialize cache statistics: ", e );
+      return Response.serverError().build();
+    }
+  }
+
 }
@@ -22,6 +22,7 @@ import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.Map;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.logging.Log;
@@ -167,6 +168,14 @@ public class ExecuteReportContentHandler {
           response.setHeader( "Content-Disposition", disposition );
           response.setHeader( "Content-Description", file.getName() ); //$NON-NLS-1$
           response.setHeader( "Cache-Control", "private, max-age=0, must-revalidate" );
+          final String acceptEncoding = getAcceptEncoding( pathProviders );
+          if ( acceptEncoding != null ) {
+            // cached pages may be sent compressed, shared caches have to keep the variants apart
+            response.setHeader( "Vary", "Accept-Encoding" );
+            final HttpServletResponse encodedResponse = response;
+            reportComponent.setAcceptEncoding( acceptEncoding,
+              encoding -> encodedResponse.setHeader( "Content-Encoding", encoding ) );
+          }
         }
         if ( reportComponent.execute() ) {
           if ( response != null ) {
@@ -197,6 +206,15 @@ public class ExecuteReportContentHandler {
     }
   }
 
+  private static String getAcceptEncoding( final IParameterProvider pathProviders ) {
+    if ( pathProviders == null ) {
+      return null;
+    }
+    final Object httpRequest = pathProviders.getParameter( "httprequest" ); //$NON-NLS-1$
+    return httpRequest instanceof HttpServletRequest
+      ? ( (HttpServletRequest) httpRequest ).getHeader( "Accept-Encoding" ) : null; //$NON-NLS-1$
+  }
+
   // default visibility for testing purposes
   StagingMode getStagingMode( final Map<String, Object> inputs, final MasterReport report ) {
     final Object o = inputs.get( "report-staging-mode" );
@@ -29,9 +29,12 @@ public class LifecycleListener implements IPluginLifecycleListener {
   }
 
   public void loaded() throws PluginLifecycleException {
+    // the content cache is available once the plugin is loaded
+    new ReportingSystemStartupListener().importCacheSnapshot();
   }
 
   public void unLoaded() throws PluginLifecycleException {
+    new ReportingSystemStartupListener().exportCacheSnapshot();
   }
 
 }
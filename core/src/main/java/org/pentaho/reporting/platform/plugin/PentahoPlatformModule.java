@@ -51,6 +51,30 @@ public class PentahoPlatformModule extends AbstractModule {
   public static final String PIR_NAMESPACE =
       "http://reporting.pentaho.org/namespaces/engine/attributes/pentaho/interactive-reporting";
   public static String FORCE_ALL_PAGES = "org.pentaho.reporting.platform.plugin.ForceAllPages";
+  /**
+   * Report property marking the report content as independent of the user, so it can be cached for everyone with
+   * the same security profile.
+   */
+  public static final String SHARED_CONTENT_CACHE = "org.pentaho.reporting.platform.plugin.SharedContentCache";
+  /**
+   * Report property enabling the warm-up of its most requested parameter combinations by the cache warming service.
+   */
+  public static final String CACHE_WARMING = "org.pentaho.reporting.platform.plugin.CacheWarming";
+  /**
+   * Report property with the age in seconds after which its long-term cached content is stale. Stale content is still
+   * served while the cache warming service renders it again in the background.
+   */
+  public static final String CACHE_SOFT_TTL = "org.pentaho.reporting.platform.plugin.CacheSoftTtlSeconds";
+  /**
+   * Report property with the age in seconds after which its long-term cached content is not served anymore. The days
+   * to live of the cache are the upper bound.
+   */
+  public static final String CACHE_HARD_TTL = "org.pentaho.reporting.platform.plugin.CacheHardTtlSeconds";
+  /**
+   * Global property with the file the long-term cache is exported to on shutdown and imported from on startup. The
+   * shared cache uses the same file name with a {@code .shared} suffix. Empty disables the snapshot.
+   */
+  public static final String CACHE_SNAPSHOT_FILE = "org.pentaho.reporting.platform.plugin.CacheSnapshotFile";
 
   public PentahoPlatformModule() throws ModuleInitializeException {
     loadModuleInfo();
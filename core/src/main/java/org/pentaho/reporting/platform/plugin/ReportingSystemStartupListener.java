@@ -35,13 +35,26 @@ package org.pentaho.reporting.platform.plugin;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.pentaho.platform.api.engine.IApplicationContext;
 import org.pentaho.platform.api.engine.IPentahoSession;
 import org.pentaho.platform.api.engine.IPentahoSystemListener;
+import org.pentaho.platform.engine.core.system.PentahoSystem;
 import org.pentaho.reporting.engine.classic.core.ClassicEngineBoot;
+import org.pentaho.reporting.platform.plugin.cache.IPluginCacheManager;
+import org.pentaho.reporting.platform.plugin.cache.IReportContentCache;
+import org.pentaho.reporting.platform.plugin.cache.ReportVersionCache;
 import org.pentaho.reporting.platform.plugin.messages.Messages;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 public class ReportingSystemStartupListener implements IPentahoSystemListener {
   private static final Log logger = LogFactory.getLog( ReportingSystemStartupListener.class );
+  private static final AtomicBoolean snapshotImported = new AtomicBoolean();
+  private static final AtomicBoolean snapshotExported = new AtomicBoolean();
 
   public ReportingSystemStartupListener() {
   }
@@ -67,6 +80,7 @@ public class ReportingSystemStartupListener implements IPentahoSystemListener {
             logger.warn( Messages.getInstance().getString( "ReportPlugin.logErrorGeneralBootError" ), ClassicEngineBoot
                 .getInstance().getBootFailureReason() ); //$NON-NLS-1$
           }
+          importCacheSnapshot();
           return true;
         }
       }
@@ -77,7 +91,100 @@ public class ReportingSystemStartupListener implements IPentahoSystemListener {
   }
 
   public void shutdown() {
-    // Nothing required
+    exportCacheSnapshot();
+  }
+
+  /**
+   * Imports the snapshots of the long-term and the shared cache in the background, see
+   * {@link PentahoPlatformModule#CACHE_SNAPSHOT_FILE}. Only the content of unchanged reports is imported. The
+   * snapshots are imported once, as soon as the caches are available.
+   */
+  public void importCacheSnapshot() {
+    final Map<IReportContentCache, File> snapshots = getSnapshots();
+    snapshots.values().removeIf( file -> !file.isFile() );
+    if ( snapshots.isEmpty() || !snapshotImported.compareAndSet( false, true ) ) {
+      return;
+    }
+    final ReportVersionCache configuredVersions = PentahoSystem.get( ReportVersionCache.class );
+    final ReportVersionCache versions = configuredVersions != null ? configuredVersions : new ReportVersionCache();
+    final Thread thread = new Thread( () -> {
+      for ( final Map.Entry<IReportContentCache, File> snapshot : snapshots.entrySet() ) {
+        final File file = snapshot.getValue();
+        try {
+          final int count = snapshot.getKey().importSnapshot( file, versions::isCurrent );
+          logger.info( Messages.getInstance().getString( "ReportPlugin.logInfoCacheSnapshotImported",
+            String.valueOf( count ), file.getPath() ) ); //$NON-NLS-1$
+        } catch ( final IOException | RuntimeException e ) {
+          logger.warn( Messages.getInstance().getString( "ReportPlugin.logErrorCacheSnapshotImport",
+            file.getPath() ), e ); //$NON-NLS-1$
+        }
+      }
+    }, "report-cache-snapshot-import" );
+    thread.setDaemon( true );
+    thread.start();
+  }
+
+  /**
+   * Exports the long-term and the shared cache to their snapshot files, once per process.
+   */
+  public void exportCacheSnapshot() {
+    final Map<IReportContentCache, File> snapshots = getSnapshots();
+    if ( snapshots.isEmpty() || !snapshotExported.compareAndSet( false, true ) ) {
+      return;
+    }
+    for ( final Map.Entry<IReportContentCache, File> snapshot : snapshots.entrySet() ) {
+      final File file = snapshot.getValue();
+      try {
+        final int count = snapshot.getKey().exportSnapshot( file );
+        logger.info( Messages.getInstance().getString( "ReportPlugin.logInfoCacheSnapshotExported",
+          String.valueOf( count ), file.getPath() ) ); //$NON-NLS-1$
+      } catch ( final IOException | RuntimeException e ) {
+        logger.warn( Messages.getInstance().getString( "ReportPlugin.logErrorCacheSnapshotExport",
+          file.getPath() ), e ); //$NON-NLS-1$
+      }
+    }
+  }
+
+  /**
+   * @return the configured caches and their snapshot files, the shared cache uses the snapshot file name with a
+   * {@code .shared} suffix
+   */
+  private static Map<IReportContentCache, File> getSnapshots() {
+    final Map<IReportContentCache, File> result = new LinkedHashMap<>();
+    final File file = getCacheSnapshotFile();
+    final IPluginCacheManager cacheManager = PentahoSystem.get( IPluginCacheManager.class );
+    if ( file == null || cacheManager == null ) {
+      return result;
+    }
+    final IReportContentCache cache = cacheManager.getCache();
+    if ( cache != null ) {
+      result.put( cache, file );
+    }
+    final IReportContentCache sharedCache = cacheManager.getSharedCache();
+    if ( sharedCache != null && sharedCache != cache ) {
+      result.put( sharedCache, new File( file.getParentFile(), file.getName() + ".shared" ) );
+    }
+    return result;
+  }
+
+  /**
+   * @return snapshot file, relative paths are resolved against the solution directory, null if none is configured
+   */
+  private static File getCacheSnapshotFile() {
+    if ( !ClassicEngineBoot.getInstance().isBootDone() ) {
+      return null;
+    }
+    final String path = ClassicEngineBoot.getInstance().getGlobalConfig()
+      .getConfigProperty( PentahoPlatformModule.CACHE_SNAPSHOT_FILE );
+    if ( path == null || path.trim().isEmpty() ) {
+      return null;
+    }
+    final File file = new File( path.trim() );
+    final IApplicationContext context = PentahoSystem.getApplicationContext();
+    if ( file.isAbsolute() || context == null ) {
+      return file;
+    }
+    return new File( context.getSolutionPath( path.trim() ) );
   }
 
 }
@@ -71,6 +71,7 @@ import java.net.URL;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Map;
+import java.util.function.Consumer;
 
 public class SimpleReportingComponent implements IStreamingPojo, IAcceptsRuntimeInputs {
 
@@ -139,6 +140,8 @@ public class SimpleReportingComponent implements IStreamingPojo, IAcceptsRuntime
   private int acceptedPage;
   private int pageCount;
   private boolean dashboardMode;
+  private String acceptEncoding;
+  private Consumer<String> encodingListener;
   /*
    * These fields are for enabling printing
    */
@@ -308,6 +311,18 @@ public class SimpleReportingComponent implements IStreamingPojo, IAcceptsRuntime
     this.acceptedPage = acceptedPage;
   }
 
+  /**
+   * Allows the output to be written in a content encoding the client accepts, see
+   * {@link ReportOutputHandler#setAcceptEncoding}.
+   *
+   * @param acceptEncoding   value of the client's Accept-Encoding header
+   * @param encodingListener called with the content encoding before encoded output is written
+   */
+  public void setAcceptEncoding( final String acceptEncoding, final Consumer<String> encodingListener ) {
+    this.acceptEncoding = acceptEncoding;
+    this.encodingListener = encodingListener;
+  }
+
   /**
    * This method sets the IPentahoSession to use in order to access the pentaho platform file repository and content
    * repository.
@@ -961,9 +976,12 @@ public class SimpleReportingComponent implements IStreamingPojo, IAcceptsRuntime
       }
       synchronized ( reportOutputHandler.getReportLock() ) {
         try {
+          // handlers are reused by later requests, the encoding applies to this one only
+          reportOutputHandler.setAcceptEncoding( acceptEncoding, encodingListener );
           pageCount = reportOutputHandler.generate( report, acceptedPage, outputStream, getYieldRate() );
           return pageCount != -1;
         } finally {
+          reportOutputHandler.setAcceptEncoding( null, null );
           reportOutputHandler.close();
         }
       }
@@ -34,6 +34,8 @@ public class AsyncReportState implements IAsyncReportState {
   private final String errorMessage;
   private final int generatedPage;
   private final boolean isQueryLimitReached;
+  private final long contentTimestamp;
+  private final boolean isContentStale;
 
   public AsyncReportState( final UUID id, final String path ) {
     this.status = AsyncExecutionStatus.QUEUED;
@@ -49,6 +51,8 @@ public class AsyncReportState implements IAsyncReportState {
     this.mimeType = null;
     this.errorMessage = null;
     this.isQueryLimitReached = false;
+    this.contentTimestamp = 0;
+    this.isContentStale = false;
   }
 
   public AsyncReportState( final UUID uuid,
@@ -64,6 +68,25 @@ public class AsyncReportState implements IAsyncReportState {
                            final String mimeType,
                            final String errorMessage,
                            final boolean isQueryLimitReached ) {
+    this( uuid, path, status, progress, row, totalRows, page, totalPages, generatedPage, activity, mimeType,
+      errorMessage, isQueryLimitReached, 0, false );
+  }
+
+  public AsyncReportState( final UUID uuid,
+                           final String path,
+                           final AsyncExecutionStatus status,
+                           final int progress,
+                           final int row,
+                           final int totalRows,
+                           final int page,
+                           final int totalPages,
+                           final int generatedPage,
+                           final String activity,
+                           final String mimeType,
+                           final String errorMessage,
+                           final boolean isQueryLimitReached,
+                           final long contentTimestamp,
+                           final boolean isContentStale ) {
     this.uuid = uuid;
     this.path = path;
     this.status = status;
@@ -77,6 +100,8 @@ public class AsyncReportState implements IAsyncReportState {
     this.mimeType = mimeType;
     this.errorMessage = errorMessage;
     this.isQueryLimitReached = isQueryLimitReached;
+    this.contentTimestamp = contentTimestamp;
+    this.isContentStale = isContentStale;
   }
 
   @Override
@@ -141,4 +166,12 @@ public class AsyncReportState implements IAsyncReportState {
   public boolean getIsQueryLimitReached() {
     return isQueryLimitReached;
   }
+
+  @Override public long getContentTimestamp() {
+    return contentTimestamp;
+  }
+
+  @Override public boolean getIsContentStale() {
+    return isContentStale;
+  }
 }
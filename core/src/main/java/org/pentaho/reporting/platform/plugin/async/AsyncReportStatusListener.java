@@ -58,6 +58,8 @@ public class AsyncReportStatusListener implements IAsyncReportListener {
   private int requestedPage = 0;
   private int generatedPage = 0;
   private boolean isQueryLimitReached;
+  private long contentTimestamp;
+  private boolean contentStale;
   private boolean manuallyInterrupted;
 
 
@@ -207,7 +209,8 @@ public class AsyncReportStatusListener implements IAsyncReportListener {
   }
 
   public synchronized IAsyncReportState getState() {
-    return new AsyncReportState( uuid, path, status, progress, row, totalRows, page, totalPages, generatedPage, activity, mimeType, errorMessage, isQueryLimitReached );
+    return new AsyncReportState( uuid, path, status, progress, row, totalRows, page, totalPages, generatedPage, activity, mimeType, errorMessage, isQueryLimitReached,
+      contentTimestamp, contentStale );
   }
 
   public boolean isQueryLimitReached() {
@@ -223,6 +226,11 @@ public class AsyncReportStatusListener implements IAsyncReportListener {
     return totalRows;
   }
 
+  @Override public synchronized void setCachedContent( final long timestamp, final boolean stale ) {
+    this.contentTimestamp = timestamp;
+    this.contentStale = stale;
+  }
+
   public synchronized void cancel() {
     manuallyInterrupted = true;
     this.setStatus( AsyncExecutionStatus.CANCELED );
@@ -41,4 +41,13 @@ public interface IAsyncReportListener extends ReportProgressListener {
   default int getTotalRows() {
     return 0;
   }
+
+  /**
+   * Called when the content is served from the cache instead of being rendered.
+   *
+   * @param timestamp time the content was rendered, 0 if unknown
+   * @param stale     true if the content is older than its soft time to live and is being rendered again
+   */
+  default void setCachedContent( final long timestamp, final boolean stale ) {
+  }
 }
@@ -88,4 +88,18 @@ public interface IAsyncReportState extends Serializable {
    */
   boolean getIsQueryLimitReached();
 
+  /**
+   * @return time the content was rendered if it was served from the cache, 0 otherwise
+   */
+  default long getContentTimestamp() {
+    return 0;
+  }
+
+  /**
+   * @return true if the content was served from the cache while being rendered again
+   */
+  default boolean getIsContentStale() {
+    return false;
+  }
+
 }
@@ -55,6 +55,17 @@ public abstract class AbstractReportContentCache implements IReportContentCache
     return getBackend().readMetaData( computeKey( key ) );
   }
 
+  @Override public Serializable getMetaData( final String key, final String name ) {
+    return getBackend().readMetaDataField( computeKey( key ), name );
+  }
+
+  @Override
+  public boolean append( final String key, final IReportContent pages, final Map<String, Serializable> metaData ) {
+    final ICacheBackend backend = getBackend();
+    return backend instanceof IAppendableCacheBackend
+      && ( (IAppendableCacheBackend) backend ).append( computeKey( key ), pages, metaData );
+  }
+
   public ICacheBackend getBackend() {
     return backend;
   }
@@ -63,5 +74,12 @@ public abstract class AbstractReportContentCache implements IReportContentCache
     this.backend = backend;
   }
 
+  /**
+   * @return key of the entry in the backend, it tells apart the content of different sessions or users
+   */
+  public List<String> getEntryKey( final String key ) {
+    return computeKey( key );
+  }
+
   protected abstract List<String> computeKey( final String key );
 }
@@ -0,0 +1,210 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * TinyLFU-style admission policy in front of another cache. Requests are counted in a {@link FrequencySketch} keyed by
+ * the content cache key, and content is stored only if its key was requested often enough to be likely reused.
+ * One-off reports are therefore rendered but never written to the underlying cache.
+ * <p>
+ * Requests are counted by {@link #recordRequest}, once per view of a report, not by lookups. The admitted and rejected
+ * requests are published in {@link CacheStatistics} under the name of the filter.
+ */
+public class AdmissionFilterCache implements IReportContentCache {
+
+  private static final Log logger = LogFactory.getLog( AdmissionFilterCache.class );
+
+  private IReportContentCache delegate;
+  private int admissionThreshold = 2;
+  private volatile FrequencySketch sketch = new FrequencySketch( 10000 );
+  private final AtomicLong admitted = new AtomicLong();
+  private final AtomicLong rejected = new AtomicLong();
+  private String name = "report-content/admission";
+
+  public AdmissionFilterCache( final IReportContentCache delegate ) {
+    this();
+    this.delegate = delegate;
+  }
+
+  public AdmissionFilterCache() {
+    publish( name );
+  }
+
+  public IReportContentCache getDelegate() {
+    return delegate;
+  }
+
+  public void setDelegate( final IReportContentCache delegate ) {
+    this.delegate = delegate;
+  }
+
+  /**
+   * @param admissionThreshold number of requests of a key, including the current one, before its content is stored
+   */
+  public void setAdmissionThreshold( final int admissionThreshold ) {
+    if ( admissionThreshold < 0 || admissionThreshold > FrequencySketch.MAX_FREQUENCY ) {
+      throw new IllegalArgumentException( "Admission threshold must be between 0 and "
+        + FrequencySketch.MAX_FREQUENCY );
+    }
+    this.admissionThreshold = admissionThreshold;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @param name name of the statistics of the filter
+   */
+  public void setName( final String name ) {
+    final CacheStatistics previous = CacheStatistics.get( this.name );
+    previous.setGauge( "admitted", null );
+    previous.setGauge( "rejected", null );
+    previous.setGauge( "admissionRate", null );
+    this.name = name;
+    publish( name );
+  }
+
+  public int getAdmissionThreshold() {
+    return admissionThreshold;
+  }
+
+  /**
+   * @param expectedEntries number of distinct reports the frequency sketch should tell apart, resets the sketch
+   */
+  public void setExpectedEntries( final int expectedEntries ) {
+    this.sketch = new FrequencySketch( expectedEntries );
+  }
+
+  @Override public boolean put( final String key, final IReportContent value ) {
+    return !isRejected( key ) && delegate.put( key, value );
+  }
+
+  @Override public boolean put( final String key, final IReportContent value,
+                                final Map<String, Serializable> metaData ) {
+    return !isRejected( key ) && delegate.put( key, value, metaData );
+  }
+
+  /**
+   * Appended pages belong to an entry that was admitted already.
+   */
+  @Override public boolean append( final String key, final IReportContent pages,
+                                   final Map<String, Serializable> metaData ) {
+    return delegate.append( key, pages, metaData );
+  }
+
+  @Override public IReportContent get( final String key ) {
+    return delegate.get( key );
+  }
+
+  /**
+   * Counts the request and whether its content will be admitted.
+   */
+  @Override public void recordRequest( final String key ) {
+    sketch.increment( key );
+    if ( isRejected( key ) ) {
+      rejected.incrementAndGet();
+      logger.debug( "Content is not admitted to the cache: " + key );
+    } else {
+      admitted.incrementAndGet();
+    }
+  }
+
+  @Override public boolean isRejected( final String key ) {
+    return sketch.frequency( key ) < admissionThreshold;
+  }
+
+  @Override public Map<String, Serializable> getMetaData( final String key ) {
+    return delegate.getMetaData( key );
+  }
+
+  @Override public Serializable getMetaData( final String key, final String name ) {
+    return delegate.getMetaData( key, name );
+  }
+
+  @Override public void invalidate( final String name, final Serializable value ) {
+    delegate.invalidate( name, value );
+  }
+
+  @Override public boolean isSessionIndependent() {
+    return delegate.isSessionIndependent();
+  }
+
+  @Override public boolean isStale( final String key ) {
+    return delegate.isStale( key );
+  }
+
+  @Override public int exportSnapshot( final File file ) throws IOException {
+    return delegate.exportSnapshot( file );
+  }
+
+  @Override public int importSnapshot( final File file, final Predicate<Map<String, Serializable>> validator )
+    throws IOException {
+    return delegate.importSnapshot( file, validator );
+  }
+
+  @Override public void cleanup() {
+    delegate.cleanup();
+  }
+
+  @Override public void cleanupCurrentSession() {
+    delegate.cleanupCurrentSession();
+  }
+
+  public long getAdmittedCount() {
+    return admitted.get();
+  }
+
+  public long getRejectedCount() {
+    return rejected.get();
+  }
+
+  /**
+   * @return share of admitted requests, 1 if nothing was requested yet
+   */
+  public double getAdmissionRate() {
+    final long a = admitted.get();
+    final long total = a + rejected.get();
+    return total == 0 ? 1 : (double) a / total;
+  }
+
+  /**
+   * @return share of rejected requests, 0 if nothing was requested yet
+   */
+  public double getRejectionRate() {
+    return 1 - getAdmissionRate();
+  }
+
+  private void publish( final String statisticsName ) {
+    final CacheStatistics statistics = CacheStatistics.get( statisticsName );
+    statistics.setGauge( "admitted", this::getAdmittedCount );
+    statistics.setGauge( "rejected", this::getRejectedCount );
+    statistics.setGauge( "admissionRate", this::getAdmissionRate );
+  }
+}
@@ -0,0 +1,88 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Registry of read/write locks for cache keys. Locks are reference counted and dropped from the registry as soon as the
+ * last holder releases them, so the registry only ever contains keys that are currently in use. Registration is done
+ * per key with {@link ConcurrentHashMap#compute}, there is no registry-wide monitor.
+ */
+public class CacheLockRegistry {
+
+  private final ConcurrentHashMap<List<String>, Entry> locks = new ConcurrentHashMap<>();
+
+  /**
+   * Acquires the lock for the key, blocking until it is available.
+   *
+   * @param key       cache key
+   * @param exclusive true for the write lock, false for the read lock
+   * @return handle used to release the lock
+   */
+  public Handle acquire( final List<String> key, final boolean exclusive ) {
+    final Entry entry = locks.compute( key, ( k, existing ) -> {
+      final Entry result = existing == null ? new Entry() : existing;
+      result.references++;
+      return result;
+    } );
+    final Lock lock = exclusive ? entry.lock.writeLock() : entry.lock.readLock();
+    try {
+      lock.lock();
+    } catch ( final RuntimeException e ) {
+      dereference( key );
+      throw e;
+    }
+    return new Handle( key, lock );
+  }
+
+  /**
+   * @return number of keys currently locked or waited for
+   */
+  public int size() {
+    return locks.size();
+  }
+
+  private void dereference( final List<String> key ) {
+    locks.computeIfPresent( key, ( k, existing ) -> --existing.references == 0 ? null : existing );
+  }
+
+  private static final class Entry {
+    // guarded by the map's per-key compute
+    private int references;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+  }
+
+  public final class Handle {
+    private final List<String> key;
+    private final Lock lock;
+
+    private Handle( final List<String> key, final Lock lock ) {
+      this.key = key;
+      this.lock = lock;
+    }
+
+    public void release() {
+      lock.unlock();
+      dereference( key );
+    }
+  }
+}
@@ -0,0 +1,267 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Portable copy of a cache segment, so a restarted or newly deployed node starts with the content rendered by its
+ * predecessor. Binary layout:
+ * <pre>
+ *   header:  magic, version, creation time, segment
+ *   entries: key, metadata, page count, codec, dictionary, stored pages (number, decoded length, encoded page)
+ * </pre>
+ * Keys are stored as the backends report them and metadata in the {@link MetaDataCodec} format. Encoded pages are
+ * copied without decoding them.
+ */
+public final class CacheSnapshot {
+
+  private static final Log logger = LogFactory.getLog( CacheSnapshot.class );
+
+  public static final int MAGIC = 0x52435331;
+  public static final int VERSION = 1;
+
+  private CacheSnapshot() {
+  }
+
+  /**
+   * Writes the entries of a segment to a snapshot file. The file is replaced atomically, a running import never sees
+   * a partial snapshot.
+   *
+   * @param backend backend holding the segment
+   * @param segment first key segment of the entries
+   * @param filter  decides which entries are exported
+   * @param file    snapshot file
+   * @return number of exported entries
+   * @throws IOException if the snapshot can't be written
+   */
+  public static int write( final ICacheBackend backend, final String segment,
+                           final BiPredicate<List<String>, Map<String, Serializable>> filter, final File file )
+    throws IOException {
+    // the walk only collects the keys, content is read afterwards without holding the segment
+    final List<List<String>> keys = new ArrayList<>();
+    backend.purgeSegment( Collections.singletonList( segment ), ( k, md ) -> {
+      if ( filter.test( k, md ) ) {
+        keys.add( entryKey( k ) );
+      }
+      return false;
+    } );
+
+    final File parent = file.getAbsoluteFile().getParentFile();
+    if ( parent != null ) {
+      parent.mkdirs();
+    }
+    final File tmp = new File( file.getPath() + ".tmp" );
+    int count = 0;
+    try {
+      try ( final DataOutputStream out =
+              new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tmp ) ) ) ) {
+        out.writeInt( MAGIC );
+        out.writeInt( VERSION );
+        out.writeLong( System.currentTimeMillis() );
+        out.writeUTF( segment );
+        for ( final List<String> key : keys ) {
+          if ( writeEntry( backend, key, out ) ) {
+            count++;
+          }
+        }
+        out.writeBoolean( false );
+      }
+      Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE );
+    } finally {
+      tmp.delete();
+    }
+    logger.debug( "Exported " + count + " entries of cache segment " + segment + " to " + file );
+    return count;
+  }
+
+  /**
+   * Writes the entries of a snapshot to the backend. Entries the backend already holds are not overwritten.
+   *
+   * @param backend backend to fill
+   * @param segment first key segment of the entries, it has to match the exported segment
+   * @param filter  decides which entries are imported, e.g. only the ones rendered from the current report version
+   * @param file    snapshot file
+   * @return keys and metadata of the imported entries
+   * @throws IOException if the file is not a snapshot of the segment or can't be read
+   */
+  public static Map<List<String>, Map<String, Serializable>> read(
+    final ICacheBackend backend, final String segment,
+    final BiPredicate<List<String>, Map<String, Serializable>> filter, final File file ) throws IOException {
+    final Map<List<String>, Map<String, Serializable>> imported = new LinkedHashMap<>();
+    try ( final DataInputStream in =
+            new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) ) ) {
+      if ( in.readInt() != MAGIC ) {
+        throw new IOException( "Not a cache snapshot: " + file );
+      }
+      final int version = in.readInt();
+      if ( version != VERSION ) {
+        throw new IOException( "Unsupported cache snapshot version: " + version );
+      }
+      final long created = in.readLong();
+      final String exportedSegment = in.readUTF();
+      if ( !segment.equals( exportedSegment ) ) {
+        throw new IOException( "Snapshot of cache segment " + exportedSegment + " can't be imported into " + segment );
+      }
+      while ( in.readBoolean() ) {
+        final int keySize = in.readInt();
+        final List<String> key = new ArrayList<>( keySize );
+        for ( int i = 0; i < keySize; i++ ) {
+          key.add( in.readUTF() );
+        }
+        final Map<String, Serializable> metaData = MetaDataCodec.decode( readBytes( in ) );
+        final IReportContent content = readContent( in );
+        if ( key.isEmpty() || !segment.equals( key.get( 0 ) ) || !filter.test( key, metaData )
+          || backend.readMetaData( key ) != null ) {
+          continue;
+        }
+        if ( backend.write( key, content, new HashMap<>( metaData ) ) ) {
+          imported.put( key, metaData );
+        }
+      }
+      logger.debug( "Imported " + imported.size() + " entries of cache segment " + segment + " exported at "
+        + created + " from " + file );
+    }
+    return imported;
+  }
+
+  /**
+   * The file system backend reports keys with the extension of the data file, the snapshot holds the keys the entries
+   * were written with.
+   */
+  private static List<String> entryKey( final List<String> key ) {
+    final List<String> entryKey = new ArrayList<>( key );
+    final int last = entryKey.size() - 1;
+    entryKey.set( last, entryKey.get( last ).replaceAll( FileSystemCacheBackend.EXT, "" ) );
+    return entryKey;
+  }
+
+  /**
+   * @return false if the entry vanished or doesn't hold report content, nothing is written in this case
+   */
+  private static boolean writeEntry( final ICacheBackend backend, final List<String> key, final DataOutputStream out )
+    throws IOException {
+    final Map<String, Serializable> metaData = backend.readMetaData( key );
+    final Serializable value = backend.read( key );
+    if ( metaData == null || !( value instanceof IReportContent ) ) {
+      return false;
+    }
+    final IReportContent content;
+    if ( value instanceof IEncodedReportContent ) {
+      // pages of file backed content may vanish while they are read
+      content = CompressedReportContent.copyOf( (IEncodedReportContent) value );
+      if ( content == null ) {
+        return false;
+      }
+    } else {
+      content = (IReportContent) value;
+    }
+
+    out.writeBoolean( true );
+    out.writeInt( key.size() );
+    for ( final String component : key ) {
+      out.writeUTF( component );
+    }
+    writeBytes( out, MetaDataCodec.encode( metaData ) );
+    writeContent( content, out );
+    return true;
+  }
+
+  private static void writeContent( final IReportContent content, final DataOutputStream out ) throws IOException {
+    final IEncodedReportContent encoded = content instanceof IEncodedReportContent
+      ? (IEncodedReportContent) content : null;
+    out.writeInt( content.getPageCount() );
+    out.writeInt( encoded == null ? PageCodec.IDENTITY.getId() : encoded.getCodec().getId() );
+    writeBytes( out, encoded == null ? null : encoded.getDictionary() );
+
+    final Map<Integer, byte[]> pages = new LinkedHashMap<>();
+    final Map<Integer, Integer> lengths = new HashMap<>();
+    final int lastPage = Math.max( content.getPageCount(), content.getStoredPageCount() );
+    for ( int page = 0; page < lastPage && pages.size() < content.getStoredPageCount(); page++ ) {
+      final byte[] data = encoded == null ? content.getPageData( page ) : encoded.getEncodedPageData( page );
+      if ( data != null ) {
+        pages.put( page, data );
+        lengths.put( page, encoded == null ? data.length : encoded.getPageLength( page ) );
+      }
+    }
+    out.writeInt( pages.size() );
+    for ( final Map.Entry<Integer, byte[]> page : pages.entrySet() ) {
+      out.writeInt( page.getKey() );
+      out.writeInt( lengths.get( page.getKey() ) );
+      writeBytes( out, page.getValue() );
+    }
+  }
+
+  private static IReportContent readContent( final DataInputStream in ) throws IOException {
+    final int pageCount = in.readInt();
+    final PageCodec codec = PageCodec.forId( in.readInt() );
+    final byte[] dictionary = readBytes( in );
+    final int storedPages = in.readInt();
+    final Map<Integer, byte[]> pages = new HashMap<>();
+    final Map<Integer, Integer> lengths = new HashMap<>();
+    for ( int i = 0; i < storedPages; i++ ) {
+      final int page = in.readInt();
+      lengths.put( page, in.readInt() );
+      pages.put( page, readBytes( in ) );
+    }
+    if ( codec == PageCodec.IDENTITY ) {
+      return new ReportContentImpl( pageCount, pages );
+    }
+    return new CompressedReportContent( pageCount, codec, dictionary, pages, lengths );
+  }
+
+  private static void writeBytes( final DataOutputStream out, final byte[] data ) throws IOException {
+    if ( data == null ) {
+      out.writeInt( -1 );
+      return;
+    }
+    out.writeInt( data.length );
+    out.write( data );
+  }
+
+  private static byte[] readBytes( final DataInputStream in ) throws IOException {
+    final int length = in.readInt();
+    if ( length < 0 ) {
+      return null;
+    }
+    final byte[] data = new byte[ length ];
+    in.readFully( data );
+    return data;
+  }
+}
@@ -0,0 +1,299 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+/**
+ * Counters and latency histograms of a single cache or cache segment. Instances are registered by name, so the caches
+ * created by the platform and by the reporting engine can be inspected through one registry.
+ */
+public class CacheStatistics {
+
+  private static final ConcurrentHashMap<String, CacheStatistics> REGISTRY = new ConcurrentHashMap<>();
+
+  private final String name;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong writes = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private final AtomicLong purges = new AtomicLong();
+  private final AtomicLong entries = new AtomicLong();
+  private final AtomicLong bytes = new AtomicLong();
+  private final LatencyHistogram readLatency = new LatencyHistogram();
+  private final LatencyHistogram writeLatency = new LatencyHistogram();
+  private final ConcurrentHashMap<String, Supplier<? extends Number>> gauges = new ConcurrentHashMap<>();
+
+  CacheStatistics( final String name ) {
+    this.name = name;
+  }
+
+  /**
+   * @param name cache name, segments are separated by a slash
+   * @return statistics registered under the name, created on first use
+   */
+  public static CacheStatistics get( final String name ) {
+    return REGISTRY.computeIfAbsent( name, CacheStatistics::new );
+  }
+
+  /**
+   * @return all registered statistics sorted by name
+   */
+  public static Map<String, CacheStatistics> getAll() {
+    return Collections.unmodifiableMap( new TreeMap<>( REGISTRY ) );
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public void recordHit( final long nanos ) {
+    hits.incrementAndGet();
+    readLatency.record( nanos );
+  }
+
+  public void recordMiss( final long nanos ) {
+    misses.incrementAndGet();
+    readLatency.record( nanos );
+  }
+
+  public void recordWrite( final long nanos ) {
+    writes.incrementAndGet();
+    writeLatency.record( nanos );
+  }
+
+  /**
+   * Counts entries removed because they expired or the cache was over its quota.
+   */
+  public void recordEvictions( final long count ) {
+    evictions.addAndGet( count );
+  }
+
+  /**
+   * Counts entries removed explicitly, e.g. by an invalidation or the end of a session.
+   */
+  public void recordPurges( final long count ) {
+    purges.addAndGet( count );
+  }
+
+  /**
+   * Adjusts the entry count and size gauges. They only cover the entries the cache saw since startup.
+   */
+  public void addEntries( final long entryDelta, final long bytesDelta ) {
+    entries.addAndGet( entryDelta );
+    bytes.addAndGet( bytesDelta );
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public double getHitRate() {
+    final long hitCount = hits.get();
+    final long total = hitCount + misses.get();
+    return total == 0 ? 0 : (double) hitCount / total;
+  }
+
+  public long getWrites() {
+    return writes.get();
+  }
+
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  public long getPurges() {
+    return purges.get();
+  }
+
+  public long getEntries() {
+    return entries.get();
+  }
+
+  public long getBytes() {
+    return bytes.get();
+  }
+
+  /**
+   * Publishes a value the cache keeps itself, e.g. the depth of a queue. It is read whenever the statistics are.
+   *
+   * @param name  name of the value
+   * @param value supplier of the current value, null removes the value
+   */
+  public void setGauge( final String name, final Supplier<? extends Number> value ) {
+    if ( value == null ) {
+      gauges.remove( name );
+    } else {
+      gauges.put( name, value );
+    }
+  }
+
+  /**
+   * @return current values of the published gauges sorted by name
+   */
+  public Map<String, Number> getGauges() {
+    final Map<String, Number> result = new TreeMap<>();
+    for ( final Map.Entry<String, Supplier<? extends Number>> gauge : gauges.entrySet() ) {
+      result.put( gauge.getKey(), gauge.getValue().get() );
+    }
+    return result;
+  }
+
+  public LatencyHistogram getReadLatency() {
+    return readLatency;
+  }
+
+  public LatencyHistogram getWriteLatency() {
+    return writeLatency;
+  }
+
+  /**
+   * Resets all counters, histograms and the entry gauges. Published gauges are kept.
+   */
+  public void clear() {
+    hits.set( 0 );
+    misses.set( 0 );
+    writes.set( 0 );
+    evictions.set( 0 );
+    purges.set( 0 );
+    entries.set( 0 );
+    bytes.set( 0 );
+    readLatency.clear();
+    writeLatency.clear();
+  }
+
+  /**
+   * @return values suitable for a JSON representation
+   */
+  public Map<String, Object> toMap() {
+    final Map<String, Object> result = new LinkedHashMap<>();
+    result.put( "hits", getHits() );
+    result.put( "misses", getMisses() );
+    result.put( "hitRate", getHitRate() );
+    result.put( "writes", getWrites() );
+    result.put( "evictions", getEvictions() );
+    result.put( "purges", getPurges() );
+    // entries written or read since startup, not the whole cache
+    result.put( "trackedEntries", getEntries() );
+    result.put( "trackedBytes", getBytes() );
+    result.put( "readLatency", readLatency.toMap() );
+    result.put( "writeLatency", writeLatency.toMap() );
+    result.putAll( getGauges() );
+    return result;
+  }
+
+  /**
+   * Histogram with power-of-two microsecond buckets, from below one microsecond to above 16 seconds.
+   */
+  public static final class LatencyHistogram {
+
+    private static final int BUCKETS = 26;
+
+    private final AtomicLongArray counts = new AtomicLongArray( BUCKETS );
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public void record( final long nanos ) {
+      final long micros = Math.max( 0, nanos ) / 1000;
+      final int bucket = micros == 0 ? 0 : Math.min( BUCKETS - 1, 64 - Long.numberOfLeadingZeros( micros ) );
+      counts.incrementAndGet( bucket );
+      totalNanos.addAndGet( Math.max( 0, nanos ) );
+      maxNanos.accumulateAndGet( nanos, Math::max );
+    }
+
+    public long getCount() {
+      long count = 0;
+      for ( int i = 0; i < BUCKETS; i++ ) {
+        count += counts.get( i );
+      }
+      return count;
+    }
+
+    public double getAverageMillis() {
+      final long count = getCount();
+      return count == 0 ? 0 : totalNanos.get() / 1e6 / count;
+    }
+
+    public double getMaxMillis() {
+      return maxNanos.get() / 1e6;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return upper bound of the bucket holding the percentile in milliseconds
+     */
+    public double getPercentileMillis( final double percentile ) {
+      final long count = getCount();
+      if ( count == 0 ) {
+        return 0;
+      }
+      final long rank = (long) Math.ceil( count * percentile / 100 );
+      long seen = 0;
+      for ( int i = 0; i < BUCKETS; i++ ) {
+        seen += counts.get( i );
+        if ( seen >= Math.max( 1, rank ) ) {
+          return upperBoundMicros( i ) / 1000.0;
+        }
+      }
+      return getMaxMillis();
+    }
+
+    void clear() {
+      for ( int i = 0; i < BUCKETS; i++ ) {
+        counts.set( i, 0 );
+      }
+      totalNanos.set( 0 );
+      maxNanos.set( 0 );
+    }
+
+    Map<String, Object> toMap() {
+      final Map<String, Object> result = new LinkedHashMap<>();
+      result.put( "count", getCount() );
+      result.put( "averageMillis", getAverageMillis() );
+      result.put( "p50Millis", getPercentileMillis( 50 ) );
+      result.put( "p95Millis", getPercentileMillis( 95 ) );
+      result.put( "p99Millis", getPercentileMillis( 99 ) );
+      result.put( "maxMillis", getMaxMillis() );
+      final Map<String, Long> buckets = new LinkedHashMap<>();
+      for ( int i = 0; i < BUCKETS; i++ ) {
+        final long count = counts.get( i );
+        if ( count > 0 ) {
+          buckets.put( i == BUCKETS - 1 ? "inf" : "le" + upperBoundMicros( i ) + "us", count );
+        }
+      }
+      result.put( "buckets", buckets );
+      return result;
+    }
+
+    private static long upperBoundMicros( final int bucket ) {
+      return 1L << bucket;
+    }
+  }
+}
@@ -0,0 +1,444 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.pentaho.platform.engine.core.system.PentahoSystem;
+import org.pentaho.platform.engine.security.SecurityHelper;
+import org.pentaho.platform.util.messages.LocaleHelper;
+import org.pentaho.reporting.engine.classic.core.modules.output.table.html.HtmlTableModule;
+import org.pentaho.reporting.platform.plugin.SimpleReportingComponent;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records which report requests are most frequent and renders them again off-peak, so the long-term cache holds
+ * fresh content when the users arrive. Only reports with the configuration property
+ * {@link org.pentaho.reporting.platform.plugin.PentahoPlatformModule#CACHE_WARMING} set to "true" are recorded.
+ * <p>
+ * A warm-up renders the first page of the most requested reports as the user who requested them, on low-priority
+ * threads. It stops when the time budget is used up, the number of reports rendered in parallel is limited by the
+ * concurrency. Request counts are halved after each warm-up, so reports that are no longer used fall out.
+ * <p>
+ * The service also refreshes stale cache entries: {@link #refresh} renders a single request in the background, while
+ * the stale content is still served.
+ * <p>
+ * Reports are rendered under a session of their own, so warm-ups and refreshes only run if the configured cache keeps
+ * entries by user, see {@link IReportContentCache#isSessionIndependent()}. A session keyed cache would pile up
+ * content nobody requests again.
+ */
+public class CacheWarmingService {
+
+  private static final Log logger = LogFactory.getLog( CacheWarmingService.class );
+
+  private static final ThreadLocal<Boolean> WARMING = new ThreadLocal<>();
+
+  private final ConcurrentHashMap<WarmupRequest, AtomicLong> requests = new ConcurrentHashMap<>();
+  private final Set<WarmupRequest> refreshing = ConcurrentHashMap.newKeySet();
+
+  private LocalTime warmupTime = LocalTime.of( 6, 30 );
+  private long timeBudgetMinutes = 60;
+  private int concurrency = 2;
+  private int maxReports = 50;
+  private int minRequests = 2;
+  private int maxTrackedRequests = 10000;
+  private int refreshConcurrency = 1;
+  private int maxQueuedRefreshes = 100;
+
+  private IPluginCacheManager cacheManager;
+  private ScheduledExecutorService scheduler;
+  private ExecutorService refresher;
+
+  /**
+   * @return true if the current thread renders a report for a warm-up, the cached content is rendered again then
+   */
+  public static boolean isWarming() {
+    return Boolean.TRUE.equals( WARMING.get() );
+  }
+
+  /**
+   * @param warmupTime daily warm-up time as HH:mm, empty to disable the scheduled warm-up
+   */
+  public synchronized void setWarmupTime( final String warmupTime ) {
+    this.warmupTime = warmupTime == null || warmupTime.trim().isEmpty() ? null : LocalTime.parse( warmupTime.trim() );
+    if ( scheduler != null ) {
+      shutdown();
+      start();
+    }
+  }
+
+  public synchronized String getWarmupTime() {
+    return warmupTime == null ? "" : warmupTime.toString();
+  }
+
+  /**
+   * @param timeBudgetMinutes maximum duration of a warm-up, reports still rendering afterwards are interrupted
+   */
+  public void setTimeBudgetMinutes( final long timeBudgetMinutes ) {
+    this.timeBudgetMinutes = timeBudgetMinutes;
+  }
+
+  public long getTimeBudgetMinutes() {
+    return timeBudgetMinutes;
+  }
+
+  /**
+   * @param concurrency number of reports rendered in parallel
+   */
+  public void setConcurrency( final int concurrency ) {
+    if ( concurrency < 1 ) {
+      throw new IllegalArgumentException( "Concurrency must be positive: " + concurrency );
+    }
+    this.concurrency = concurrency;
+  }
+
+  public int getConcurrency() {
+    return concurrency;
+  }
+
+  /**
+   * @param maxReports maximum number of requests rendered by a warm-up
+   */
+  public void setMaxReports( final int maxReports ) {
+    this.maxReports = maxReports;
+  }
+
+  public int getMaxReports() {
+    return maxReports;
+  }
+
+  /**
+   * @param minRequests requests seen less often are not warmed
+   */
+  public void setMinRequests( final int minRequests ) {
+    this.minRequests = minRequests;
+  }
+
+  public int getMinRequests() {
+    return minRequests;
+  }
+
+  /**
+   * @param maxTrackedRequests maximum number of distinct requests counted, new requests are ignored beyond it
+   */
+  public void setMaxTrackedRequests( final int maxTrackedRequests ) {
+    this.maxTrackedRequests = maxTrackedRequests;
+  }
+
+  public int getMaxTrackedRequests() {
+    return maxTrackedRequests;
+  }
+
+  /**
+   * @param refreshConcurrency number of stale entries refreshed in parallel
+   */
+  public synchronized void setRefreshConcurrency( final int refreshConcurrency ) {
+    if ( refreshConcurrency < 1 ) {
+      throw new IllegalArgumentException( "Concurrency must be positive: " + refreshConcurrency );
+    }
+    this.refreshConcurrency = refreshConcurrency;
+  }
+
+  public int getRefreshConcurrency() {
+    return refreshConcurrency;
+  }
+
+  /**
+   * @param maxQueuedRefreshes maximum number of refreshes waiting for a thread, further refreshes are rejected
+   */
+  public synchronized void setMaxQueuedRefreshes( final int maxQueuedRefreshes ) {
+    this.maxQueuedRefreshes = maxQueuedRefreshes;
+  }
+
+  public int getMaxQueuedRefreshes() {
+    return maxQueuedRefreshes;
+  }
+
+  /**
+   * @param cacheManager caches the reports are rendered into, the one of the platform if it is not set
+   */
+  public void setCacheManager( final IPluginCacheManager cacheManager ) {
+    this.cacheManager = cacheManager;
+  }
+
+  /**
+   * @return true if content rendered under the session of a warm-up can be found by later requests
+   */
+  public boolean isCacheWarmable() {
+    final IPluginCacheManager manager =
+      cacheManager != null ? cacheManager : PentahoSystem.get( IPluginCacheManager.class );
+    return manager != null && ( isSessionIndependent( manager.getCache() )
+      || isSessionIndependent( manager.getSharedCache() ) );
+  }
+
+  private static boolean isSessionIndependent( final IReportContentCache cache ) {
+    return cache != null && cache.isSessionIndependent();
+  }
+
+  /**
+   * Counts a request of a report.
+   */
+  public void record( final WarmupRequest request ) {
+    if ( isWarming() ) {
+      return;
+    }
+    final AtomicLong count = requests.get( request );
+    if ( count != null ) {
+      count.incrementAndGet();
+    } else if ( requests.size() < maxTrackedRequests ) {
+      requests.computeIfAbsent( request, r -> new AtomicLong() ).incrementAndGet();
+    }
+  }
+
+  /**
+   * @return the requests to warm, most requested first
+   */
+  public List<WarmupRequest> getCandidates() {
+    final List<Map.Entry<WarmupRequest, Long>> counted = new ArrayList<>();
+    for ( final Map.Entry<WarmupRequest, AtomicLong> entry : requests.entrySet() ) {
+      final long count = entry.getValue().get();
+      if ( count >= minRequests ) {
+        counted.add( new AbstractMap.SimpleImmutableEntry<>( entry.getKey(), count ) );
+      }
+    }
+    counted.sort( ( a, b ) -> Long.compare( b.getValue(), a.getValue() ) );
+    final List<WarmupRequest> result = new ArrayList<>();
+    for ( int i = 0; i < counted.size() && i < maxReports; i++ ) {
+      result.add( counted.get( i ).getKey() );
+    }
+    return result;
+  }
+
+  long getRequestCount( final WarmupRequest request ) {
+    final AtomicLong count = requests.get( request );
+    return count == null ? 0 : count.get();
+  }
+
+  /**
+   * Renders the candidates within the time and concurrency budget.
+   *
+   * @return number of reports rendered
+   */
+  public int warmUp() {
+    if ( !isCacheWarmable() ) {
+      logger.debug( "Skipping cache warm-up, the report content cache is keyed by session" );
+      return 0;
+    }
+    final List<WarmupRequest> candidates = getCandidates();
+    logger.debug( "Starting cache warm-up of " + candidates.size() + " reports" );
+    final long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos( timeBudgetMinutes );
+    final AtomicInteger rendered = new AtomicInteger();
+    final ExecutorService executor = Executors.newFixedThreadPool( concurrency, lowPriority( "warmer" ) );
+    try {
+      final List<Future<?>> futures = new ArrayList<>();
+      for ( final WarmupRequest request : candidates ) {
+        futures.add( executor.submit( () -> {
+          if ( System.nanoTime() > deadline ) {
+            return;
+          }
+          WARMING.set( Boolean.TRUE );
+          try {
+            if ( render( request ) ) {
+              rendered.incrementAndGet();
+            }
+          } catch ( final Exception e ) {
+            logger.warn( "Cache warm-up failed for " + request + ": " + e.getMessage() );
+          } finally {
+            WARMING.remove();
+          }
+        } ) );
+      }
+      for ( final Future<?> future : futures ) {
+        future.get( Math.max( 0, deadline - System.nanoTime() ), TimeUnit.NANOSECONDS );
+      }
+    } catch ( final TimeoutException e ) {
+      logger.info( "Cache warm-up exceeded its time budget of " + timeBudgetMinutes + " minutes" );
+    } catch ( final InterruptedException e ) {
+      Thread.currentThread().interrupt();
+    } catch ( final Exception e ) {
+      logger.error( "Cache warm-up failed: ", e );
+    } finally {
+      executor.shutdownNow();
+      decay();
+    }
+    logger.debug( "Finished cache warm-up, rendered " + rendered.get() + " reports" );
+    return rendered.get();
+  }
+
+  /**
+   * Renders the request again in the background, bypassing and replacing its cached content. A request that is
+   * already being refreshed is not queued again.
+   *
+   * @return false if the cache is keyed by session or too many refreshes are waiting
+   */
+  public boolean refresh( final WarmupRequest request ) {
+    if ( !isCacheWarmable() ) {
+      return false;
+    }
+    if ( !refreshing.add( request ) ) {
+      return true;
+    }
+    try {
+      getRefresher().execute( () -> {
+        WARMING.set( Boolean.TRUE );
+        try {
+          render( request );
+        } catch ( final Exception e ) {
+          logger.warn( "Cache refresh failed for " + request + ": " + e.getMessage() );
+        } finally {
+          WARMING.remove();
+          refreshing.remove( request );
+        }
+      } );
+      return true;
+    } catch ( final RejectedExecutionException e ) {
+      refreshing.remove( request );
+      logger.debug( "Cache refresh rejected for " + request );
+      return false;
+    }
+  }
+
+  /**
+   * @return true if a refresh of the request is queued or running
+   */
+  public boolean isRefreshing( final WarmupRequest request ) {
+    return refreshing.contains( request );
+  }
+
+  private synchronized ExecutorService getRefresher() {
+    if ( refresher == null ) {
+      refresher = new ThreadPoolExecutor( refreshConcurrency, refreshConcurrency, 0, TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<>( Math.max( 1, maxQueuedRefreshes ) ), lowPriority( "refresher" ) );
+    }
+    return refresher;
+  }
+
+  /**
+   * Renders the first page of the report as the requesting user, bypassing the cached content.
+   *
+   * @return true if the report was rendered
+   */
+  protected boolean render( final WarmupRequest request ) throws Exception {
+    return SecurityHelper.getInstance().runAsUser( request.getUser(), () -> {
+      if ( request.getLocale() != null ) {
+        LocaleHelper.setThreadLocaleOverride( toLocale( request.getLocale() ) );
+      }
+      try {
+        final SimpleReportingComponent component = new SimpleReportingComponent();
+        component.setReportDefinitionPath( request.getPath() );
+        component.setDefaultOutputTarget( HtmlTableModule.TABLE_HTML_PAGE_EXPORT_TYPE );
+        component.setForceDefaultOutputTarget( true );
+        component.setPaginateOutput( true );
+        component.setAcceptedPage( 0 );
+        component.setInputs( new HashMap<>( request.getParameters() ) );
+        component.setOutputStream( new NullOutputStream() );
+        return component.execute();
+      } finally {
+        LocaleHelper.setThreadLocaleOverride( null );
+      }
+    } );
+  }
+
+  /**
+   * Starts the daily warm-up.
+   */
+  public synchronized void start() {
+    if ( scheduler != null || warmupTime == null ) {
+      return;
+    }
+    scheduler = Executors.newSingleThreadScheduledExecutor( lowPriority( "scheduler" ) );
+    scheduleNext();
+  }
+
+  public synchronized void shutdown() {
+    if ( scheduler != null ) {
+      scheduler.shutdownNow();
+      scheduler = null;
+    }
+    if ( refresher != null ) {
+      refresher.shutdownNow();
+      refresher = null;
+    }
+  }
+
+  private synchronized void scheduleNext() {
+    if ( scheduler == null || warmupTime == null ) {
+      return;
+    }
+    final LocalDateTime now = LocalDateTime.now();
+    LocalDateTime next = now.with( warmupTime );
+    if ( !next.isAfter( now ) ) {
+      next = next.plusDays( 1 );
+    }
+    scheduler.schedule( () -> {
+      try {
+        warmUp();
+      } finally {
+        scheduleNext();
+      }
+    }, Duration.between( now, next ).toMillis(), TimeUnit.MILLISECONDS );
+  }
+
+  /**
+   * Halves all request counts and forgets requests that are no longer made.
+   */
+  void decay() {
+    requests.values().removeIf( count -> count.updateAndGet( c -> c / 2 ) == 0 );
+  }
+
+  private static Locale toLocale( final String locale ) {
+    final String[] parts = locale.split( "_", 3 );
+    return new Locale( parts[ 0 ], parts.length > 1 ? parts[ 1 ] : "", parts.length > 2 ? parts[ 2 ] : "" );
+  }
+
+  private static ThreadFactory lowPriority( final String name ) {
+    final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+    return r -> {
+      final Thread thread = defaultFactory.newThread( r );
+      thread.setName( "CacheWarmingService-" + name );
+      thread.setPriority( Thread.MIN_PRIORITY );
+      thread.setDaemon( true );
+      return thread;
+    };
+  }
+}
@@ -0,0 +1,49 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * Buffered file stream that exposes the channel of its file, so cached {@link FileRegion}s are transferred to it
+ * without being copied through the heap.
+ */
+public class ChannelOutputStream extends BufferedOutputStream {
+
+  private final FileOutputStream fileOut;
+
+  public ChannelOutputStream( final FileOutputStream out ) {
+    super( out );
+    this.fileOut = out;
+  }
+
+  /**
+   * Flushes the buffer first, so data written to the channel follows the data written to the stream.
+   *
+   * @return channel of the file
+   * @throws IOException if the buffer can't be flushed
+   */
+  public FileChannel getChannel() throws IOException {
+    flush();
+    return fileOut.getChannel();
+  }
+}
@@ -0,0 +1,185 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * In-memory report content with individually compressed pages.
+ */
+public class CompressedReportContent implements IEncodedReportContent {
+
+  private static final Log logger = LogFactory.getLog( CompressedReportContent.class );
+
+  private final int pageCount;
+  private final PageCodec codec;
+  private final byte[] dictionary;
+  private final Map<Integer, byte[]> pages;
+  private final Map<Integer, Integer> lengths;
+
+  public CompressedReportContent( final int pageCount, final PageCodec codec, final byte[] dictionary,
+                                  final Map<Integer, byte[]> pages, final Map<Integer, Integer> lengths ) {
+    this.pageCount = pageCount;
+    this.codec = codec;
+    this.dictionary = dictionary;
+    this.pages = pages;
+    this.lengths = lengths;
+  }
+
+  /**
+   * Encodes all stored pages. Content that is already encoded with the same codec is copied without re-encoding.
+   *
+   * @param content report content
+   * @param codec   page codec
+   * @return encoded content, or the content itself for {@link PageCodec#IDENTITY}
+   * @throws IOException if a page can't be encoded
+   */
+  public static IReportContent compress( final IReportContent content, final PageCodec codec ) throws IOException {
+    if ( content == null || codec == PageCodec.IDENTITY ) {
+      return content;
+    }
+    if ( content instanceof IEncodedReportContent && ( (IEncodedReportContent) content ).getCodec() == codec ) {
+      return copyOf( (IEncodedReportContent) content );
+    }
+    return encode( content, codec, codec.isDictionaryBased() ? PageCodec.deriveDictionary( content ) : null );
+  }
+
+  /**
+   * Encodes all stored pages with the given dictionary, e.g. the one of the content the pages are appended to.
+   *
+   * @param content    report content
+   * @param codec      page codec
+   * @param dictionary dictionary or null
+   * @return encoded content
+   * @throws IOException if a page can't be encoded
+   */
+  public static CompressedReportContent encode( final IReportContent content, final PageCodec codec,
+                                                final byte[] dictionary ) throws IOException {
+    final Map<Integer, byte[]> pages = new HashMap<>();
+    final Map<Integer, Integer> lengths = new HashMap<>();
+    final int lastPage = Math.max( content.getPageCount(), content.getStoredPageCount() );
+    for ( int page = 0; page < lastPage && pages.size() < content.getStoredPageCount(); page++ ) {
+      final byte[] data = content.getPageData( page );
+      if ( data != null ) {
+        pages.put( page, codec.encode( data, dictionary ) );
+        lengths.put( page, data.length );
+      }
+    }
+    return new CompressedReportContent( content.getPageCount(), codec, dictionary, pages, lengths );
+  }
+
+  /**
+   * Copies encoded content into memory without decoding it.
+   *
+   * @param content encoded content, e.g. a lazily loaded file
+   * @return in-memory copy or null if pages vanished while copying
+   */
+  public static CompressedReportContent copyOf( final IEncodedReportContent content ) {
+    final Map<Integer, byte[]> pages = new HashMap<>();
+    final Map<Integer, Integer> lengths = new HashMap<>();
+    final int lastPage = Math.max( content.getPageCount(), content.getStoredPageCount() );
+    for ( int page = 0; page < lastPage && pages.size() < content.getStoredPageCount(); page++ ) {
+      final int length = content.getPageLength( page );
+      if ( length < 0 ) {
+        continue;
+      }
+      final byte[] data = content.getEncodedPageData( page );
+      if ( data == null ) {
+        return null;
+      }
+      pages.put( page, data );
+      lengths.put( page, length );
+    }
+    return new CompressedReportContent( content.getPageCount(), content.getCodec(), content.getDictionary(),
+      pages, lengths );
+  }
+
+  @Override public int getPageCount() {
+    return pageCount;
+  }
+
+  @Override public int getStoredPageCount() {
+    return pages.size();
+  }
+
+  @Override public byte[] getPageData( final int page ) {
+    final byte[] data = pages.get( page );
+    if ( data == null ) {
+      return null;
+    }
+    try {
+      return codec.decode( data, dictionary );
+    } catch ( final IOException e ) {
+      logger.debug( "Can't decode cached page: ", e );
+      return null;
+    }
+  }
+
+  @Override public int getPageLength( final int page ) {
+    final Integer length = lengths.get( page );
+    return length == null ? -1 : length;
+  }
+
+  @Override public boolean writePageTo( final int page, final OutputStream out ) throws IOException {
+    final byte[] data = pages.get( page );
+    if ( data == null ) {
+      return false;
+    }
+    codec.decode( new ByteArrayInputStream( data ), out, dictionary );
+    return true;
+  }
+
+  @Override public PageCodec getCodec() {
+    return codec;
+  }
+
+  @Override public byte[] getDictionary() {
+    return dictionary;
+  }
+
+  @Override public byte[] getEncodedPageData( final int page ) {
+    return pages.get( page );
+  }
+
+  @Override public boolean writeEncodedPageTo( final int page, final OutputStream out ) throws IOException {
+    final byte[] data = pages.get( page );
+    if ( data == null ) {
+      return false;
+    }
+    out.write( data );
+    return true;
+  }
+
+  /**
+   * @return size of the encoded pages and the dictionary in bytes
+   */
+  public long getStoredBytes() {
+    long result = dictionary == null ? 0 : dictionary.length;
+    for ( final byte[] data : pages.values() ) {
+      result += data.length;
+    }
+    return result;
+  }
+}
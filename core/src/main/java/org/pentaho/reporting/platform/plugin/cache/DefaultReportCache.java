@@ -50,6 +50,8 @@ public class DefaultReportCache implements ReportCache {
   private static final String CACHE_NAME = "report-output-handlers";
   private static final Log logger = LogFactory.getLog( DefaultReportCache.class );
 
+  private static final CacheStatistics statistics = CacheStatistics.get( CACHE_NAME );
+
   private static class LogoutHandler implements ILogoutListener {
     private LogoutHandler() {
     }
@@ -159,6 +161,7 @@ public class DefaultReportCache implements ReportCache {
       }
 
       final CacheHolder cacheHolder = (CacheHolder) o;
+      statistics.recordEvictions( 1 );
       logger.debug( "Shutting down report on element-expired event " + cacheHolder.getRealKey().getSessionId() );
       cacheHolder.close();
     }
@@ -177,6 +180,7 @@ public class DefaultReportCache implements ReportCache {
 
       final CacheHolder cacheHolder = (CacheHolder) o;
       cacheHolder.markEvicted();
+      statistics.recordEvictions( 1 );
       logger.debug( "Shutting down report on element-evicted event " + cacheHolder.getRealKey().getSessionId() );
       cacheHolder.close();
     }
@@ -256,6 +260,18 @@ public class DefaultReportCache implements ReportCache {
       return null;
     }
 
+    final long start = System.nanoTime();
+    final ReportOutputHandler handler = lookup( key );
+    if ( handler == null ) {
+      statistics.recordMiss( System.nanoTime() - start );
+    } else {
+      statistics.recordHit( System.nanoTime() - start );
+    }
+    return handler;
+  }
+
+  private ReportOutputHandler lookup( final ReportCacheKey key ) {
+
     final IPentahoSession session = PentahoSessionHolder.getSession();
     logger.debug( "id: " + session.getId() + " - Cache.get(..) started" );
     synchronized ( session ) {
@@ -347,8 +363,10 @@ public class DefaultReportCache implements ReportCache {
         }
       }
 
+      final long start = System.nanoTime();
       final CacheHolder cacheHolder = new CacheHolder( key, report );
       cache.put( new Element( key.getSessionId(), cacheHolder ) );
+      statistics.recordWrite( System.nanoTime() - start );
       logger.debug( "id: " + session.getId() + " - Cache.put(..): storing new report for key " + key.getSessionId() );
       return new CachedReportOutputHandler( cacheHolder );
     }
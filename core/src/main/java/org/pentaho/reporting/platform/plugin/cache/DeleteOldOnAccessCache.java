@@ -23,6 +23,8 @@ import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
 import org.pentaho.platform.util.StringUtil;
 import org.pentaho.reporting.libraries.xmlns.parser.Base64;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -31,18 +33,54 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 
 /**
- * Eviction strategy that kills old cache when accessed
+ * Eviction strategy that kills old cache entries. Write timestamps are kept in an in-memory {@link ExpiryIndex}, so
+ * an access checks the age of a single entry instead of scanning the cache. Expired entries are removed when they are
+ * accessed and by a background sweeper that takes them from the head of the index. The first sweep scans the backend
+ * once to index entries written before a restart.
+ * <p>
+ * Optionally the total size of the cache and the size per user are limited. Entry sizes are stored in the metadata and
+ * accounted in a {@link QuotaIndex}, when a limit is exceeded entries are evicted in the order of the configured
+ * {@link EvictionPolicy}.
+ * <p>
+ * With a soft time to live, entries older than it are stale: they are still returned, but {@link #isStale} tells the
+ * caller to refresh them. Reports can set their own soft and hard times to live in the {@link #SOFT_TTL} and
+ * {@link #HARD_TTL} metadata, the days to live of the cache are the upper bound.
+ * <p>
+ * The entries can be exported to a {@link CacheSnapshot} and imported on another node or after a restart, they keep
+ * their original timestamps.
  */
 public class DeleteOldOnAccessCache extends AbstractReportContentCache {
 
   private static final Log logger = LogFactory.getLog( DeleteOldOnAccessCache.class );
   private static final String SEGMENT = "long_term";
   public static final String TIMESTAMP = "timestamp";
+  public static final String SIZE = "size";
+  public static final String HITS = "hits";
+  /**
+   * Metadata with the soft time to live of the entry in milliseconds.
+   */
+  public static final String SOFT_TTL = "softTtl";
+  /**
+   * Metadata with the hard time to live of the entry in milliseconds.
+   */
+  public static final String HARD_TTL = "hardTtl";
   public static final int MILLIS_IN_DAY = 86400000;
   public static final String ANONYMOUS = "anonymous";
   private long millisToLive;
+  private long softMillisToLive;
+  private long sweepIntervalSeconds = 60;
+
+  private final ExpiryIndex index = new ExpiryIndex( this::getHardTtl );
+  private final QuotaIndex quota = new QuotaIndex();
+  private volatile boolean indexComplete;
+  private volatile ScheduledExecutorService sweeper;
 
 
   public DeleteOldOnAccessCache( final ICacheBackend backend ) {
@@ -54,21 +92,84 @@ public class DeleteOldOnAccessCache extends AbstractReportContentCache {
 
   public void setDaysToLive( final long daysToLive ) {
     this.millisToLive = MILLIS_IN_DAY * daysToLive;
+    index.requeue();
   }
 
   /*for testing purposes*/
   protected void setMillisToLive( final long millisToLive ) {
     this.millisToLive = millisToLive;
+    index.requeue();
+  }
+
+  /**
+   * @param softTtlSeconds age after which entries are stale and should be refreshed, 0 disables stale entries
+   */
+  public void setSoftTtlSeconds( final long softTtlSeconds ) {
+    this.softMillisToLive = TimeUnit.SECONDS.toMillis( softTtlSeconds );
+  }
+
+  public long getSoftTtlSeconds() {
+    return TimeUnit.MILLISECONDS.toSeconds( softMillisToLive );
+  }
+
+  /**
+   * @param sweepIntervalSeconds delay between background sweeps, 0 disables the sweeper and expired entries are only
+   *                             removed when accessed or on {@link #cleanup()}
+   */
+  public synchronized void setSweepIntervalSeconds( final long sweepIntervalSeconds ) {
+    this.sweepIntervalSeconds = sweepIntervalSeconds;
+    if ( sweeper != null ) {
+      shutdown();
+    }
+  }
+
+  /**
+   * @param maxBytes maximum total size of the cache entries in bytes, 0 means no limit
+   */
+  public void setMaxBytes( final long maxBytes ) {
+    quota.setMaxBytes( maxBytes );
+  }
+
+  /**
+   * @param maxBytesPerUser maximum size of the cache entries of a single user in bytes, 0 means no limit
+   */
+  public void setMaxBytesPerUser( final long maxBytesPerUser ) {
+    quota.setMaxOwnerBytes( maxBytesPerUser );
+  }
+
+  /**
+   * @param evictionPolicy order in which entries are evicted when a size limit is exceeded, LRU by default
+   */
+  public void setEvictionPolicy( final EvictionPolicy evictionPolicy ) {
+    quota.setPolicy( evictionPolicy );
+  }
+
+  public EvictionPolicy getEvictionPolicy() {
+    return quota.getPolicy();
   }
 
   @Override protected List<String> computeKey( final String key ) {
     final IPentahoSession session = PentahoSessionHolder.getSession();
+    return Collections.unmodifiableList( Arrays.asList( getSegment(), computeOwner( session ), key ) );
+  }
+
+  /**
+   * @return first key segment of all entries of this cache
+   */
+  protected String getSegment() {
+    return SEGMENT;
+  }
+
+  /**
+   * @return second key segment, entries of a single owner are cleaned up together and share the per user quota
+   */
+  protected String computeOwner( final IPentahoSession session ) {
     //Don't use username explicitly - compute hash
-    return Collections.unmodifiableList( Arrays.asList( SEGMENT, createKey( session.getName() ), key ) );
+    return createKey( session.getName() );
   }
 
   /**
-   * Cleans old entries Saves value with timestamp
+   * Saves value with timestamp
    *
    * @param key   key
    * @param value value
@@ -79,7 +180,7 @@ public class DeleteOldOnAccessCache extends AbstractReportContentCache {
   }
 
   /**
-   * Cleans old entries Saves value with timestamp
+   * Saves value with timestamp
    *
    * @param key   key
    * @param value value
@@ -87,21 +188,69 @@ public class DeleteOldOnAccessCache extends AbstractReportContentCache {
    * @return success
    */
   @Override public boolean put( final String key, final IReportContent value,  Map<String, Serializable> metaData ) {
-    cleanUp();
+    startSweeper();
 
-    metaData.put( TIMESTAMP, System.currentTimeMillis() );
-    getBackend().write( computeKey( key ), value, metaData );
+    final long timestamp = System.currentTimeMillis();
+    final List<String> cacheKey = computeKey( key );
+    final List<String> indexKey = indexKey( cacheKey );
+    final long size = MemoryCacheBackend.sizeOf( value );
+    final long hits = quota.getHits( indexKey ) + 1;
+    metaData.put( TIMESTAMP, timestamp );
+    metaData.put( SIZE, size );
+    metaData.put( HITS, hits );
+    if ( getBackend().write( cacheKey, value, metaData ) ) {
+      index.put( indexKey, timestamp, Lifetime.of( metaData ) );
+      purge( quota.put( indexKey, owner( indexKey ), size, hits, timestamp ) );
+    }
     return false;
   }
 
 
+  /**
+   * Appends pages and renews the timestamp. The pages are encoded like the stored ones first, so the entry grows by
+   * the size they take in the cache, like {@link #put} counts encoded content.
+   */
+  @Override public boolean append( final String key, final IReportContent pages,
+                                   final Map<String, Serializable> metaData ) {
+    final ICacheBackend backend = getBackend();
+    if ( !( backend instanceof IAppendableCacheBackend ) ) {
+      return false;
+    }
+    final long timestamp = System.currentTimeMillis();
+    final List<String> cacheKey = computeKey( key );
+    final List<String> indexKey = indexKey( cacheKey );
+    final IReportContent encoded = encodeLikeStored( backend.read( cacheKey ), pages );
+    if ( encoded == null ) {
+      return false;
+    }
+    final Object storedSize = metaData.get( SIZE );
+    final long size = ( storedSize instanceof Long ? (Long) storedSize : 0 ) + MemoryCacheBackend.sizeOf( encoded );
+    final long hits = quota.getHits( indexKey );
+    metaData.put( TIMESTAMP, timestamp );
+    metaData.put( SIZE, size );
+    if ( !( (IAppendableCacheBackend) backend ).append( cacheKey, encoded, metaData ) ) {
+      return false;
+    }
+    index.put( indexKey, timestamp, Lifetime.of( metaData ) );
+    purge( quota.put( indexKey, owner( indexKey ), size, Math.max( hits, 1 ), timestamp ) );
+    return true;
+  }
+
   /**
    * @param key key
    * @return ReportContent
    */
   @Override public IReportContent get( final String key ) {
-    cleanUp();
-    return super.get( key );
+    startSweeper();
+    final List<String> cacheKey = computeKey( key );
+    if ( purgeIfExpired( cacheKey ) ) {
+      return null;
+    }
+    final IReportContent content = (IReportContent) getBackend().read( cacheKey );
+    if ( content != null ) {
+      quota.touch( indexKey( cacheKey ), System.currentTimeMillis() );
+    }
+    return content;
   }
 
   /**
@@ -109,12 +258,46 @@ public class DeleteOldOnAccessCache extends AbstractReportContentCache {
    * @return Map<String, Serializable>
    */
   @Override public Map<String, Serializable> getMetaData( String key ) {
-    cleanUp();
-    return super.getMetaData( key );
+    startSweeper();
+    final List<String> cacheKey = computeKey( key );
+    if ( purgeIfExpired( cacheKey ) ) {
+      return null;
+    }
+    return getBackend().readMetaData( cacheKey );
+  }
+
+  @Override public Serializable getMetaData( final String key, final String name ) {
+    startSweeper();
+    final List<String> cacheKey = computeKey( key );
+    if ( purgeIfExpired( cacheKey ) ) {
+      return null;
+    }
+    return getBackend().readMetaDataField( cacheKey, name );
   }
 
   /**
-   * Cleans old files
+   * Entries are kept by user name.
+   */
+  @Override public boolean isSessionIndependent() {
+    return true;
+  }
+
+  /**
+   * Entries are stale once they are older than their soft time to live. The age is taken from the index, so the entry
+   * must have been accessed before.
+   */
+  @Override public boolean isStale( final String key ) {
+    final List<String> indexKey = indexKey( computeKey( key ) );
+    final Long timestamp = index.get( indexKey );
+    if ( timestamp == null ) {
+      return false;
+    }
+    final long softTtl = getSoftTtl( index.getLifetime( indexKey ) );
+    return softTtl > 0 && System.currentTimeMillis() - timestamp > softTtl;
+  }
+
+  /**
+   * Cleans old files, scanning the whole cache
    */
   @Override public void cleanup() {
     cleanUp();
@@ -122,36 +305,268 @@ public class DeleteOldOnAccessCache extends AbstractReportContentCache {
 
   @Override public void cleanupCurrentSession() {
     final IPentahoSession session = PentahoSessionHolder.getSession();
-    final List<String> key = Collections.unmodifiableList( Arrays.asList( SEGMENT, createKey( session.getName() ) ) );
+    final List<String> key = Collections.unmodifiableList( Arrays.asList( getSegment(), computeOwner( session ) ) );
     final ICacheBackend backend = getBackend();
-    backend.purgeSegment( key, ( k, m ) -> true );
+    backend.purge( key );
+    index.removePrefix( indexKey( key ) );
+    quota.removePrefix( indexKey( key ) );
   }
 
-  private void cleanUp() {
+  @Override public void invalidate( final String name, final Serializable value ) {
+    getBackend().purgeSegment( Collections.singletonList( getSegment() ), ( k, m ) -> {
+      if ( m == null || !value.equals( m.get( name ) ) ) {
+        return false;
+      }
+      logger.debug( "Invalidated long-term cache: " + k );
+      index.remove( indexKey( k ) );
+      quota.remove( indexKey( k ) );
+      return true;
+    } );
+  }
+
+  /**
+   * Exports the entries that are not expired.
+   */
+  @Override public int exportSnapshot( final File file ) throws IOException {
+    final long currentTimeMillis = System.currentTimeMillis();
+    return CacheSnapshot.write( getBackend(), getSegment(), ( k, md ) -> !isExpired( md, currentTimeMillis ), file );
+  }
+
+  /**
+   * Imports the valid entries that are not expired and indexes them, the quota is enforced afterwards.
+   */
+  @Override public int importSnapshot( final File file, final Predicate<Map<String, Serializable>> validator )
+    throws IOException {
+    final long currentTimeMillis = System.currentTimeMillis();
+    final Map<List<String>, Map<String, Serializable>> imported = CacheSnapshot.read( getBackend(), getSegment(),
+      ( k, md ) -> !isExpired( md, currentTimeMillis ) && validator.test( md ), file );
+    for ( final Map.Entry<List<String>, Map<String, Serializable>> entry : imported.entrySet() ) {
+      final List<String> key = indexKey( entry.getKey() );
+      final Map<String, Serializable> md = entry.getValue();
+      final long timestamp = (Long) md.get( TIMESTAMP );
+      index.put( key, timestamp, Lifetime.of( md ) );
+      final Object size = md.get( SIZE );
+      if ( size instanceof Long ) {
+        final Object hits = md.get( HITS );
+        quota.seed( key, owner( key ), (Long) size, hits instanceof Long ? (Long) hits : 1, timestamp );
+      }
+    }
+    purge( quota.evict() );
+    return imported.size();
+  }
+
+  /**
+   * Stops the background sweeper.
+   */
+  public synchronized void shutdown() {
+    if ( sweeper != null ) {
+      sweeper.shutdownNow();
+      sweeper = null;
+    }
+  }
+
+  /**
+   * Removes expired entries. The first run scans the whole cache to build the index, later runs only visit the
+   * entries the index reports as expired.
+   */
+  void sweep() {
+    if ( !indexComplete ) {
+      cleanUp();
+      return;
+    }
     logger.debug( "Starting periodical cache eviction" );
     final long currentTimeMillis = System.currentTimeMillis();
     final ICacheBackend backend = getBackend();
+    for ( final List<String> key : index.pollExpired( currentTimeMillis ) ) {
+      // the entry may have been rewritten through another cache instance
+      final Long timestamp = readTimestamp( key );
+      if ( timestamp == null ) {
+        index.remove( key );
+        continue;
+      }
+      if ( currentTimeMillis - timestamp > getHardTtl( index.getLifetime( key ) ) ) {
+        logger.debug( "Purged long-term cache: " + key );
+        backend.evict( key );
+        index.remove( key );
+        quota.remove( key );
+      } else {
+        index.put( key, timestamp );
+      }
+    }
+    logger.debug( "Finished periodical cache eviction" );
+  }
+
+  int getIndexSize() {
+    return index.size();
+  }
+
+  long getBytes() {
+    return quota.getBytes();
+  }
+
+  private void startSweeper() {
+    if ( sweeper != null || sweepIntervalSeconds <= 0 ) {
+      return;
+    }
+    synchronized ( this ) {
+      if ( sweeper != null || sweepIntervalSeconds <= 0 ) {
+        return;
+      }
+      final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+      sweeper = Executors.newSingleThreadScheduledExecutor( r -> {
+        final Thread thread = defaultFactory.newThread( r );
+        thread.setName( "DeleteOldOnAccessCache-sweeper" );
+        thread.setDaemon( true );
+        return thread;
+      } );
+      sweeper.scheduleWithFixedDelay( () -> {
+        try {
+          sweep();
+        } catch ( final RuntimeException e ) {
+          logger.error( "Cache eviction failed: ", e );
+        }
+      }, 0, sweepIntervalSeconds, TimeUnit.SECONDS );
+    }
+  }
+
+  /**
+   * Checks the age of a single entry and purges it if it is expired.
+   *
+   * @return true if the entry was expired
+   */
+  private boolean purgeIfExpired( final List<String> cacheKey ) {
+    final List<String> key = indexKey( cacheKey );
+    Long timestamp = index.get( key );
+    if ( timestamp == null ) {
+      // not written through this instance since startup
+      final Map<String, Serializable> metaData = getBackend().readMetaData( cacheKey );
+      final Object o = metaData == null ? null : metaData.get( TIMESTAMP );
+      if ( !( o instanceof Long ) ) {
+        return false;
+      }
+      timestamp = (Long) o;
+      index.put( key, timestamp, Lifetime.of( metaData ) );
+    }
+    if ( System.currentTimeMillis() - timestamp > getHardTtl( index.getLifetime( key ) ) ) {
+      logger.debug( "Purged long-term cache: " + key );
+      getBackend().evict( cacheKey );
+      index.remove( key );
+      quota.remove( key );
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * @return hard time to live of the entry, never more than the days to live of the cache
+   */
+  private long getHardTtl( final Lifetime lifetime ) {
+    return lifetime == null || lifetime.getHardMillis() <= 0
+      ? millisToLive : Math.min( lifetime.getHardMillis(), millisToLive );
+  }
+
+  /**
+   * @return soft time to live of the entry, 0 if it never gets stale
+   */
+  private long getSoftTtl( final Lifetime lifetime ) {
+    final long softTtl = lifetime == null || lifetime.getSoftMillis() <= 0 ? softMillisToLive : lifetime.getSoftMillis();
+    return softTtl < getHardTtl( lifetime ) ? softTtl : 0;
+  }
+
+  /**
+   * @return true if the entry has no timestamp or is older than its hard time to live
+   */
+  private boolean isExpired( final Map<String, Serializable> metaData, final long currentTimeMillis ) {
+    final Object o = metaData == null ? null : metaData.get( TIMESTAMP );
+    return !( o instanceof Long ) || currentTimeMillis - (Long) o > getHardTtl( Lifetime.of( metaData ) );
+  }
+
+  /**
+   * @return pages encoded with the codec and dictionary of the stored content, null if nothing can be appended
+   */
+  private static IReportContent encodeLikeStored( final Serializable stored, final IReportContent pages ) {
+    if ( !( stored instanceof IReportContent ) ) {
+      return null;
+    }
+    if ( !( stored instanceof IEncodedReportContent ) ) {
+      return pages;
+    }
+    final IEncodedReportContent encoded = (IEncodedReportContent) stored;
+    try {
+      return CompressedReportContent.encode( pages, encoded.getCodec(), encoded.getDictionary() );
+    } catch ( final IOException e ) {
+      logger.debug( "Can't encode appended pages: ", e );
+      return null;
+    }
+  }
+
+  private Long readTimestamp( final List<String> key ) {
+    final Object o = getBackend().readMetaDataField( key, TIMESTAMP );
+    return o instanceof Long ? (Long) o : null;
+  }
+
+  /**
+   * Removes entries evicted by the quota.
+   */
+  private void purge( final List<List<String>> keys ) {
+    final ICacheBackend backend = getBackend();
+    for ( final List<String> key : keys ) {
+      logger.debug( "Evicted long-term cache: " + key );
+      backend.evict( key );
+      index.remove( key );
+    }
+  }
+
+  private void cleanUp() {
+    logger.debug( "Starting full cache eviction" );
+    final long currentTimeMillis = System.currentTimeMillis();
+    final ICacheBackend backend = getBackend();
 
-    backend.purgeSegment( Collections.singletonList( SEGMENT ),
+    backend.evictSegment( Collections.singletonList( getSegment() ),
       new BiPredicate<List<String>, Map<String, Serializable>>() {
         @Override public boolean test( final List<String> key, final Map<String, Serializable> md ) {
-          final Object o = md.get( TIMESTAMP );
+          final Object o = md == null ? null : md.get( TIMESTAMP );
           if ( o instanceof Long ) {
             final long timestamp = (Long) o;
-            if ( currentTimeMillis - timestamp > millisToLive ) {
+            final Lifetime lifetime = Lifetime.of( md );
+            if ( currentTimeMillis - timestamp > getHardTtl( lifetime ) ) {
               logger.debug( "Purged long-term cache: " + key );
+              index.remove( indexKey( key ) );
+              quota.remove( indexKey( key ) );
               return true;
             }
+            index.put( indexKey( key ), timestamp, lifetime );
+            final Object size = md.get( SIZE );
+            if ( size instanceof Long ) {
+              final Object hits = md.get( HITS );
+              quota.seed( indexKey( key ), owner( indexKey( key ) ), (Long) size,
+                hits instanceof Long ? (Long) hits : 1, timestamp );
+            }
           }
           return false;
         }
       } );
+    indexComplete = true;
+    purge( quota.evict() );
 
-    logger.debug( "Finished periodical cache eviction" );
+    logger.debug( "Finished full cache eviction" );
   }
 
+  /**
+   * Backends report keys with sanitized segments, so the index uses them as well.
+   */
+  private static List<String> indexKey( final List<String> key ) {
+    return FileSystemCacheBackend.sanitizeKeySegments( key );
+  }
+
+  /**
+   * @return hashed user name segment of the key
+   */
+  private static String owner( final List<String> key ) {
+    return key.size() > 1 ? key.get( 1 ) : ANONYMOUS;
+  }
 
-  private String createKey( final String key ) {
+  protected String createKey( final String key ) {
     if ( StringUtil.isEmpty( key ) ) {
       return ANONYMOUS;
     }
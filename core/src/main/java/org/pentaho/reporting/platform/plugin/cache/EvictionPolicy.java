@@ -0,0 +1,63 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+/**
+ * Order in which cache entries are evicted when a byte quota is exceeded. Entries with the lowest rank go first, ties
+ * are broken by the time of the last access.
+ */
+public enum EvictionPolicy {
+
+  /**
+   * Least recently used entries are evicted first.
+   */
+  LRU {
+    @Override double rank( final long hits, final long size, final long lastAccess, final double inflation ) {
+      return lastAccess;
+    }
+  },
+
+  /**
+   * Least frequently used entries are evicted first.
+   */
+  LFU {
+    @Override double rank( final long hits, final long size, final long lastAccess, final double inflation ) {
+      return hits;
+    }
+  },
+
+  /**
+   * Size-aware GreedyDual: large and rarely used entries are evicted first. The rank of an evicted entry becomes the
+   * base value for the entries accessed later, so entries which are no longer used age out.
+   */
+  GREEDY_DUAL {
+    @Override double rank( final long hits, final long size, final long lastAccess, final double inflation ) {
+      return inflation + (double) hits / Math.max( size, 1 );
+    }
+  };
+
+  /**
+   * @param hits       number of accesses
+   * @param size       entry size in bytes
+   * @param lastAccess time of the last access in milliseconds
+   * @param inflation  rank of the last evicted entry
+   * @return rank of the entry, lower ranks are evicted first
+   */
+  abstract double rank( long hits, long size, long lastAccess, double inflation );
+}
@@ -0,0 +1,167 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+
+/**
+ * In-memory index of cache entry timestamps ordered by expiry. Each entry is queued at its timestamp plus the hard time
+ * to live of its {@link Lifetime}, so entries whose report sets a shorter time to live come due before older entries
+ * that use the cache default. Lookups by key are constant time, expired entries are taken from the head of a sorted
+ * set. Updated or removed keys leave stale queue items behind, they are dropped when they reach the head. Lifetimes
+ * are kept next to the timestamp until the key is removed.
+ */
+final class ExpiryIndex {
+
+  private final ConcurrentHashMap<List<String>, Long> timestamps = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<List<String>, Lifetime> lifetimes = new ConcurrentHashMap<>();
+  private final ConcurrentSkipListSet<Item> queue = new ConcurrentSkipListSet<>();
+  private final AtomicLong sequence = new AtomicLong();
+  private final ToLongFunction<Lifetime> hardTtl;
+
+  /**
+   * @param hardTtl hard time to live of an entry in milliseconds, called with null for entries without a lifetime
+   */
+  ExpiryIndex( final ToLongFunction<Lifetime> hardTtl ) {
+    this.hardTtl = hardTtl;
+  }
+
+  /**
+   * Updates the timestamp, the lifetime of the key is kept.
+   */
+  void put( final List<String> key, final long timestamp ) {
+    timestamps.put( key, timestamp );
+    enqueue( key, timestamp );
+  }
+
+  /**
+   * @param lifetime lifetime of the entry, null if the cache defaults apply
+   */
+  void put( final List<String> key, final long timestamp, final Lifetime lifetime ) {
+    if ( lifetime == null ) {
+      lifetimes.remove( key );
+    } else {
+      lifetimes.put( key, lifetime );
+    }
+    put( key, timestamp );
+  }
+
+  /**
+   * @return timestamp of the key or null if the key is not indexed
+   */
+  Long get( final List<String> key ) {
+    return timestamps.get( key );
+  }
+
+  /**
+   * @return lifetime of the key or null if the cache defaults apply
+   */
+  Lifetime getLifetime( final List<String> key ) {
+    return lifetimes.get( key );
+  }
+
+  void remove( final List<String> key ) {
+    timestamps.remove( key );
+    lifetimes.remove( key );
+  }
+
+  /**
+   * Removes the key and all keys below it.
+   */
+  void removePrefix( final List<String> prefix ) {
+    timestamps.keySet().removeIf( key -> key.size() >= prefix.size()
+      && key.subList( 0, prefix.size() ).equals( prefix ) );
+    lifetimes.keySet().removeIf( key -> key.size() >= prefix.size()
+      && key.subList( 0, prefix.size() ).equals( prefix ) );
+  }
+
+  /**
+   * Removes and returns all keys that expired before the given time. Their lifetimes are kept until the caller
+   * removes or puts the keys again.
+   *
+   * @param currentTimeMillis exclusive upper bound of the expiry
+   * @return keys in expiry order
+   */
+  List<List<String>> pollExpired( final long currentTimeMillis ) {
+    final List<List<String>> result = new ArrayList<>();
+    final Iterator<Item> it = queue.iterator();
+    while ( it.hasNext() ) {
+      final Item item = it.next();
+      if ( item.expiry >= currentTimeMillis ) {
+        break;
+      }
+      it.remove();
+      // skip items of keys that were updated or removed since
+      if ( timestamps.remove( item.key, item.timestamp ) ) {
+        result.add( item.key );
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Queues all keys again, needed when the hard time to live changes.
+   */
+  void requeue() {
+    queue.clear();
+    for ( final Map.Entry<List<String>, Long> entry : timestamps.entrySet() ) {
+      enqueue( entry.getKey(), entry.getValue() );
+    }
+  }
+
+  int size() {
+    return timestamps.size();
+  }
+
+  void clear() {
+    timestamps.clear();
+    lifetimes.clear();
+    queue.clear();
+  }
+
+  private void enqueue( final List<String> key, final long timestamp ) {
+    final long expiry = timestamp + hardTtl.applyAsLong( lifetimes.get( key ) );
+    queue.add( new Item( timestamp, expiry, sequence.incrementAndGet(), key ) );
+  }
+
+  private static final class Item implements Comparable<Item> {
+    private final long timestamp;
+    private final long expiry;
+    private final long sequence;
+    private final List<String> key;
+
+    private Item( final long timestamp, final long expiry, final long sequence, final List<String> key ) {
+      this.timestamp = timestamp;
+      this.expiry = expiry;
+      this.sequence = sequence;
+      this.key = key;
+    }
+
+    @Override public int compareTo( final Item o ) {
+      final int result = Long.compare( expiry, o.expiry );
+      return result != 0 ? result : Long.compare( sequence, o.sequence );
+    }
+  }
+}
@@ -0,0 +1,167 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Region of a cache file. The file stays open until the region is closed, so the region can still be read if the cache
+ * entry is replaced or purged meanwhile.
+ * <p>
+ * Streams backed by a file channel get the region with {@link FileChannel#transferTo}, the data never enters the heap.
+ * Servlet streams don't expose a channel, the region is copied through a pooled buffer of bounded size instead.
+ */
+public final class FileRegion implements Closeable {
+
+  static final int COPY_BUFFER_SIZE = 64 * 1024;
+  private static final int MAX_POOLED_BUFFERS = 16;
+  private static final BlockingQueue<byte[]> buffers = new ArrayBlockingQueue<>( MAX_POOLED_BUFFERS );
+
+  private final File file;
+  private final FileChannel channel;
+  private final long position;
+  private final long length;
+
+  FileRegion( final File file, final FileChannel channel, final long position, final long length ) {
+    this.file = file;
+    this.channel = channel;
+    this.position = position;
+    this.length = length;
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  public long getPosition() {
+    return position;
+  }
+
+  public long getLength() {
+    return length;
+  }
+
+  /**
+   * Writes the whole region to the stream.
+   *
+   * @param out target stream
+   * @throws IOException if the file is truncated or writing to the stream fails
+   */
+  public void transferTo( final OutputStream out ) throws IOException {
+    final FileChannel target = getChannel( out );
+    if ( target != null ) {
+      long current = position;
+      final long end = position + length;
+      while ( current < end ) {
+        final long transferred = channel.transferTo( current, end - current, target );
+        if ( transferred <= 0 && current >= channel.size() ) {
+          throw new EOFException( "Truncated cache file: " + file );
+        }
+        current += transferred;
+      }
+      return;
+    }
+    copyTo( out );
+  }
+
+  /**
+   * @return stream over the region, reads go straight to the file and are not buffered
+   */
+  public InputStream openStream() {
+    return new InputStream() {
+      private long current = position;
+
+      @Override public int read() throws IOException {
+        final byte[] single = new byte[ 1 ];
+        return read( single, 0, 1 ) < 0 ? -1 : single[ 0 ] & 0xff;
+      }
+
+      @Override public int read( final byte[] b, final int off, final int len ) throws IOException {
+        final long end = position + length;
+        if ( current >= end ) {
+          return -1;
+        }
+        if ( len == 0 ) {
+          return 0;
+        }
+        final int read = channel.read( ByteBuffer.wrap( b, off, (int) Math.min( len, end - current ) ), current );
+        if ( read < 0 ) {
+          throw new EOFException( "Truncated cache file: " + file );
+        }
+        current += read;
+        return read;
+      }
+
+      @Override public int available() {
+        return (int) Math.min( Integer.MAX_VALUE, position + length - current );
+      }
+    };
+  }
+
+  private void copyTo( final OutputStream out ) throws IOException {
+    byte[] buffer = buffers.poll();
+    if ( buffer == null ) {
+      buffer = new byte[ COPY_BUFFER_SIZE ];
+    }
+    try {
+      final ByteBuffer wrapped = ByteBuffer.wrap( buffer );
+      long current = position;
+      final long end = position + length;
+      while ( current < end ) {
+        wrapped.clear();
+        wrapped.limit( (int) Math.min( buffer.length, end - current ) );
+        final int read = channel.read( wrapped, current );
+        if ( read < 0 ) {
+          throw new EOFException( "Truncated cache file: " + file );
+        }
+        out.write( buffer, 0, read );
+        current += read;
+      }
+    } finally {
+      buffers.offer( buffer );
+    }
+  }
+
+  /**
+   * @return channel the stream writes to, null if the stream is not backed by a file
+   */
+  private static FileChannel getChannel( final OutputStream out ) throws IOException {
+    if ( out instanceof FileOutputStream ) {
+      return ( (FileOutputStream) out ).getChannel();
+    }
+    if ( out instanceof ChannelOutputStream ) {
+      return ( (ChannelOutputStream) out ).getChannel();
+    }
+    return null;
+  }
+
+  @Override public void close() throws IOException {
+    channel.close();
+  }
+}
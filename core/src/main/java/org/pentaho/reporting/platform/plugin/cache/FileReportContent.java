@@ -0,0 +1,253 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectStreamException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Report content backed by a {@link ReportContentFile}. Only the page index is held in memory, every page is read on
+ * demand with a single positioned read. If the cache entry was replaced or purged in the meantime, pages are reported
+ * as missing so the caller regenerates them. Encoded pages are decoded on read, pages written to a stream are decoded
+ * straight from the file.
+ */
+public class FileReportContent implements IEncodedReportContent {
+
+  private static final Log logger = LogFactory.getLog( FileReportContent.class );
+
+  private final transient File file;
+  private final long stamp;
+  private final int pageCount;
+  private final int[] pages;
+  private final long[] offsets;
+  private final int[] lengths;
+  private final int[] decodedLengths;
+  private final PageCodec codec;
+  private final byte[] dictionary;
+
+  FileReportContent( final File file, final long stamp, final int pageCount, final int[] pages,
+                     final long[] offsets, final int[] lengths, final int[] decodedLengths, final PageCodec codec,
+                     final byte[] dictionary ) {
+    this.file = file;
+    this.stamp = stamp;
+    this.pageCount = pageCount;
+    this.pages = pages;
+    this.offsets = offsets;
+    this.lengths = lengths;
+    this.decodedLengths = decodedLengths;
+    this.codec = codec;
+    this.dictionary = dictionary;
+  }
+
+  @Override public int getPageCount() {
+    return pageCount;
+  }
+
+  @Override public int getStoredPageCount() {
+    return pages.length;
+  }
+
+  @Override public byte[] getPageData( final int page ) {
+    final byte[] data = getEncodedPageData( page );
+    if ( data == null ) {
+      return null;
+    }
+    try {
+      return codec.decode( data, dictionary );
+    } catch ( final IOException e ) {
+      logger.debug( "Can't decode cached page: ", e );
+      return null;
+    }
+  }
+
+  @Override public byte[] getEncodedPageData( final int page ) {
+    final int slot = findSlot( page );
+    if ( slot < 0 ) {
+      return null;
+    }
+    try ( final FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ) ) {
+      if ( ReportContentFile.read( channel, ReportContentFile.STAMP_POSITION, 8 ).getLong() != stamp ) {
+        logger.debug( "Cache entry was replaced: " + file );
+        return null;
+      }
+      final ByteBuffer data = ReportContentFile.read( channel, offsets[ slot ], lengths[ slot ] );
+      return data.array();
+    } catch ( final NoSuchFileException e ) {
+      logger.debug( "Cache entry was purged: " + file );
+      return null;
+    } catch ( final IOException e ) {
+      logger.debug( "Can't read cached page: ", e );
+      return null;
+    }
+  }
+
+  @Override public int getPageLength( final int page ) {
+    final int slot = findSlot( page );
+    return slot < 0 ? -1 : decodedLengths[ slot ];
+  }
+
+  @Override public boolean writePageTo( final int page, final OutputStream out ) throws IOException {
+    if ( codec == PageCodec.IDENTITY ) {
+      return writeEncodedPageTo( page, out );
+    }
+    try ( final FileRegion region = openEncodedPageRegion( page ) ) {
+      if ( region == null ) {
+        return false;
+      }
+      codec.decode( region.openStream(), out, dictionary );
+      return true;
+    }
+  }
+
+  /**
+   * Transfers the page from the file channel to the stream, the page is never held in memory as a whole.
+   */
+  @Override public boolean writeEncodedPageTo( final int page, final OutputStream out ) throws IOException {
+    try ( final FileRegion region = openEncodedPageRegion( page ) ) {
+      if ( region == null ) {
+        return false;
+      }
+      region.transferTo( out );
+      return true;
+    }
+  }
+
+  /**
+   * @return region of the page, null if the entry was replaced or purged
+   */
+  @Override public FileRegion openEncodedPageRegion( final int page ) throws IOException {
+    final int slot = findSlot( page );
+    if ( slot < 0 ) {
+      return null;
+    }
+    final FileChannel channel;
+    try {
+      channel = FileChannel.open( file.toPath(), StandardOpenOption.READ );
+    } catch ( final NoSuchFileException e ) {
+      logger.debug( "Cache entry was purged: " + file );
+      return null;
+    }
+    try {
+      if ( ReportContentFile.read( channel, ReportContentFile.STAMP_POSITION, 8 ).getLong() != stamp ) {
+        logger.debug( "Cache entry was replaced: " + file );
+        channel.close();
+        return null;
+      }
+      // the channel keeps the file contents even if the entry is replaced or purged from now on
+      return new FileRegion( file, channel, offsets[ slot ], lengths[ slot ] );
+    } catch ( final IOException | RuntimeException e ) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  @Override public PageCodec getCodec() {
+    return codec;
+  }
+
+  @Override public byte[] getDictionary() {
+    return dictionary;
+  }
+
+  long getStamp() {
+    return stamp;
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * @return total size of the stored pages and the dictionary in bytes
+   */
+  public long getStoredBytes() {
+    long result = dictionary == null ? 0 : dictionary.length;
+    for ( final int length : lengths ) {
+      result += length;
+    }
+    return result;
+  }
+
+  /**
+   * @return number of stored pages if they are the pages 0 to n-1, -1 if there are gaps
+   */
+  int getContiguousPageCount() {
+    for ( int i = 0; i < pages.length; i++ ) {
+      if ( pages[ i ] != i ) {
+        return -1;
+      }
+    }
+    return pages.length;
+  }
+
+  /**
+   * @return offset, stored length and decoded length of every stored page in file order
+   */
+  Map<Integer, long[]> getIndexEntries() {
+    final Map<Integer, long[]> result = new LinkedHashMap<>();
+    for ( int i = 0; i < pages.length; i++ ) {
+      result.put( pages[ i ], new long[] { offsets[ i ], lengths[ i ], decodedLengths[ i ] } );
+    }
+    return result;
+  }
+
+  private int findSlot( final int page ) {
+    // pages are stored in ascending order and are usually contiguous
+    if ( page >= 0 && page < pages.length && pages[ page ] == page ) {
+      return page;
+    }
+    for ( int i = 0; i < pages.length; i++ ) {
+      if ( pages[ i ] == page ) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Serialized as a detached in-memory copy, the backing file is local to this node. Encoded pages stay encoded.
+   */
+  protected Object writeReplace() throws ObjectStreamException {
+    if ( codec != PageCodec.IDENTITY ) {
+      final CompressedReportContent copy = CompressedReportContent.copyOf( this );
+      if ( copy != null ) {
+        return copy;
+      }
+    }
+    final Map<Integer, byte[]> data = new HashMap<>();
+    for ( final int page : pages ) {
+      final byte[] pageData = getPageData( page );
+      if ( pageData != null ) {
+        data.put( page, pageData );
+      }
+    }
+    return new ReportContentImpl( pageCount, data );
+  }
+}
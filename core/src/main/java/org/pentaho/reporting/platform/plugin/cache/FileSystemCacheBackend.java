@@ -31,19 +31,26 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Default interface for cache backend
+ * <p>
+ * Purged directories are renamed into a trash directory next to the cache directory, so the next write to the same
+ * key starts with a fresh directory and the caller doesn't wait for the files to be deleted. A low-priority reaper
+ * thread deletes the trashed generations, including the ones left behind by a previous run.
  */
-public class FileSystemCacheBackend implements ICacheBackend {
+public class FileSystemCacheBackend implements IAppendableCacheBackend {
 
   private static final Log logger = LogFactory.getLog( FileSystemCacheBackend.class );
   public static final String REPLACEMENT = "_";
@@ -51,23 +58,30 @@ public class FileSystemCacheBackend implements ICacheBackend {
   public static final String EXT = "\\.metadata|\\.data";
   public static final String DATA = ".data";
   public static final String METADATA = ".metadata";
-  private final Map<List<String>, ReentrantReadWriteLock> syncMap;
+  public static final String TRASH = ".trash";
+  private final CacheLockRegistry lockRegistry;
+  private final AtomicLong generation = new AtomicLong();
+  private final AtomicBoolean reaping = new AtomicBoolean();
 
   private String cachePath;
 
   public FileSystemCacheBackend() {
-    syncMap = new HashMap<>();
+    lockRegistry = new CacheLockRegistry();
   }
 
   public void setCachePath( final String cachePath ) {
     this.cachePath = getSystemTmp() + cachePath;
+    final String[] leftovers = getTrashDir().list();
+    if ( leftovers != null && leftovers.length > 0 ) {
+      startReaper();
+    }
   }
 
   @Override
   public boolean write( final List<String> key, final Serializable value,
                         final Map<String, Serializable> metaData ) {
     final List<String> cleanKey = sanitizeKeySegments( key );
-    final List<Lock> locks = lockForWrite( cleanKey );
+    final List<CacheLockRegistry.Handle> locks = lockForWrite( cleanKey );
     try {
       final String filePath = cachePath + StringUtils.join( cleanKey, File.separator );
       if ( writeFile( value, filePath + DATA ) ) {
@@ -78,17 +92,63 @@ public class FileSystemCacheBackend implements ICacheBackend {
       if ( metaData != null ) {
         writeableMetaData.putAll( metaData );
       }
-      if ( writeFile( writeableMetaData, filePath + METADATA ) ) {
+      return writeMetaData( writeableMetaData, filePath + METADATA );
+    } finally {
+      unlock( locks );
+    }
+  }
+
+  @Override
+  public boolean append( final List<String> key, final IReportContent pages,
+                         final Map<String, Serializable> metaData ) {
+    final List<String> cleanKey = sanitizeKeySegments( key );
+    final List<CacheLockRegistry.Handle> locks = lockForWrite( cleanKey );
+    try {
+      final String filePath = cachePath + StringUtils.join( cleanKey, File.separator );
+      final File dataFile = new File( filePath + DATA );
+      if ( !ReportContentFile.isReportContentFile( dataFile ) ) {
         return false;
       }
-      return true;
+      try {
+        if ( !ReportContentFile.append( pages, dataFile ) ) {
+          return false;
+        }
+      } catch ( final IOException e ) {
+        logger.error( "Can't append to cache: ", e );
+        return false;
+      }
+
+      final HashMap<String, Serializable> writeableMetaData = new HashMap<>();
+      if ( metaData != null ) {
+        writeableMetaData.putAll( metaData );
+      }
+      return writeMetaData( writeableMetaData, filePath + METADATA );
     } finally {
       unlock( locks );
     }
   }
 
+  private boolean writeMetaData( final Map<String, Serializable> metaData, final String filePath ) {
+    try {
+      MetaDataCodec.write( metaData, new File( filePath ) );
+      return true;
+    } catch ( final IOException e ) {
+      logger.error( "Can't write cache: ", e );
+      return false;
+    }
+  }
+
   private boolean writeFile( Serializable value, String filePath ) {
     final File file = new File( filePath );
+    if ( value instanceof IReportContent ) {
+      try {
+        ReportContentFile.write( (IReportContent) value, file );
+      } catch ( final IOException e ) {
+        logger.error( "Can't write cache: ", e );
+        return true;
+      }
+      return false;
+    }
     try {
       //create file structure
       file.getParentFile().mkdirs();
@@ -112,7 +172,7 @@ public class FileSystemCacheBackend implements ICacheBackend {
   public Serializable read( final List<String> key ) {
     Object result = null;
     final List<String> cleanKey = sanitizeKeySegments( key );
-    final List<Lock> locks = lockForRead( cleanKey );
+    final List<CacheLockRegistry.Handle> locks = lockForRead( cleanKey );
     try {
       final String filePath = cachePath + StringUtils.join( cleanKey, File.separator ) + DATA;
       final File f = new File( filePath );
@@ -120,6 +180,16 @@ public class FileSystemCacheBackend implements ICacheBackend {
         return null;
       }
 
+      //report content is read page by page on demand
+      if ( ReportContentFile.isReportContentFile( f ) ) {
+        try {
+          return ReportContentFile.open( f );
+        } catch ( final IOException e ) {
+          logger.debug( "Can't read cache: ", e );
+          return null;
+        }
+      }
+
       try ( final FileInputStream fis = new FileInputStream( f );
             final ObjectInputStream ois = new ObjectInputStream( fis ) ) {
         result = ois.readObject();
@@ -133,7 +203,18 @@ public class FileSystemCacheBackend implements ICacheBackend {
   }
 
   public Map<String, Serializable> readMetaData( final List<String> key ) {
-    Object result = null;
+    return readMetaData( key, MetaDataCodec::read );
+  }
+
+  /**
+   * Decodes only the requested field of the metadata file.
+   */
+  @Override
+  public Serializable readMetaDataField( final List<String> key, final String name ) {
+    return readMetaData( key, f -> MetaDataCodec.readField( f, name ) );
+  }
+
+  private <T> T readMetaData( final List<String> key, final MetaDataReader<T> reader ) {
     final List<String> cleanKey = sanitizeKeySegments( key );
     final List<String> noExtCleanKey = new ArrayList<>( cleanKey.size() );
 
@@ -141,99 +222,97 @@ public class FileSystemCacheBackend implements ICacheBackend {
       noExtCleanKey.add( cleanSegment.replaceAll( EXT, "" ) );
     }
 
-    final List<Lock> locks = lockForRead( noExtCleanKey );
+    final List<CacheLockRegistry.Handle> locks = lockForRead( noExtCleanKey );
     try {
       final String filePath = cachePath + StringUtils.join( noExtCleanKey, File.separator ) + METADATA;
       final File f = new File( filePath );
       if ( !f.exists() ) {
         return null;
       }
-
-      try ( final FileInputStream fis = new FileInputStream( f );
-            final ObjectInputStream ois = new ObjectInputStream( fis ) ) {
-        result = ois.readObject();
-      } catch ( final Exception e ) {
-        logger.debug( "Can't read cache: ", e );
-      }
-      if ( result instanceof Map ) {
-        return (Map<String, Serializable>) result;
-      } else {
-        return null;
-      }
+      return reader.read( f );
+    } catch ( final IOException e ) {
+      logger.debug( "Can't read cache: ", e );
+      return null;
     } finally {
       unlock( locks );
     }
   }
 
+  private interface MetaDataReader<T> {
+    T read( File file ) throws IOException;
+  }
+
   /**
    * Locks are released in reverse order. First we release the more specialized locks and traverse upwards towards the
    * root directory.
    *
    * @param locks
    */
-  private void unlock( final List<Lock> locks ) {
+  private void unlock( final List<CacheLockRegistry.Handle> locks ) {
     for ( int i = locks.size() - 1; i >= 0; i-- ) {
-      final Lock lock = locks.get( i );
-      lock.unlock();
+      locks.get( i ).release();
     }
   }
 
-  private List<Lock> lockForRead( List<String> key ) {
-    List<Lock> retval;
-    if ( !key.isEmpty() ) {
-      final List<String> parent = key.subList( 0, key.size() - 1 );
-      retval = lockForRead( parent );
-    } else {
-      retval = new ArrayList<>();
+  /**
+   * Readers are guarded by a read lock on their directory and a lock on the entry itself. They never create
+   * directories, so a purge excludes them by locking every existing sub-directory, see {@link #lockTree}.
+   */
+  private List<CacheLockRegistry.Handle> lockForRead( final List<String> key ) {
+    final List<CacheLockRegistry.Handle> retval = new ArrayList<>( 2 );
+    if ( CollectionUtils.isNotEmpty( key ) ) {
+      retval.add( lockRegistry.acquire( key.subList( 0, key.size() - 1 ), false ) );
     }
-
-    final Lock lock = getLock( key ).readLock();
-    lock.lock();
-    retval.add( lock );
+    retval.add( lockRegistry.acquire( key, false ) );
     return retval;
   }
 
   /**
-   * Acquires read locks for all sub-directories, and a final write lock for the current working directory. It acquires
-   * the parent locks first, before trying to get more local locks.
-   *
-   * @param key
-   * @return
+   * Writers may create missing directories, so they take read locks on all of their ancestors, parents first. A
+   * write lock on any directory then excludes writers below it, whether the directory exists yet or not.
    */
-  private List<Lock> lockForWrite( final List<String> key ) {
-    final List<Lock> retval;
-    if ( CollectionUtils.isNotEmpty( key ) ) {
-      final List<String> parent = key.subList( 0, key.size() - 1 );
-      retval = lockForRead( parent );
-    } else {
-      retval = new ArrayList<>();
+  private List<CacheLockRegistry.Handle> lockForWrite( final List<String> key ) {
+    final List<CacheLockRegistry.Handle> retval = new ArrayList<>( key.size() + 1 );
+    for ( int i = 0; i < key.size(); i++ ) {
+      retval.add( lockRegistry.acquire( key.subList( 0, i ), false ) );
     }
-
-    final Lock lock = getLock( key ).writeLock();
-    lock.lock();
-    retval.add( lock );
+    retval.add( lockRegistry.acquire( key, true ) );
     return retval;
   }
 
   /**
-   * Returns an object for read/write synchronization
+   * Acquires write locks for a directory and all of its existing sub-directories, parents first, so that no entry
+   * operation can run anywhere inside the tree while it is deleted in place.
    *
-   * @param key compound key
-   * @return lock object
+   * @param key directory key
+   * @return acquired locks, parents first
    */
-  private synchronized ReentrantReadWriteLock getLock( final List<String> key ) {
-    final ReentrantReadWriteLock lock = new ReentrantReadWriteLock( true );
-    if ( !syncMap.containsKey( key ) ) {
-      syncMap.put( key, lock );
-      return lock;
+  private List<CacheLockRegistry.Handle> lockTree( final List<String> key ) {
+    final List<CacheLockRegistry.Handle> retval = lockForWrite( key );
+    lockSubSegments( key, retval );
+    return retval;
+  }
+
+  private void lockSubSegments( final List<String> key, final List<CacheLockRegistry.Handle> locks ) {
+    final List<String> names = new ArrayList<>( listSegments( key ) );
+    Collections.sort( names );
+    for ( final String name : names ) {
+      final List<String> segment = new ArrayList<>( key );
+      segment.add( name );
+      locks.add( lockRegistry.acquire( segment, true ) );
+      lockSubSegments( segment, locks );
     }
-    return syncMap.get( key );
+  }
+
+  //for testing purpose
+  CacheLockRegistry getLockRegistry() {
+    return lockRegistry;
   }
 
   public void purgeSegment( final List<String> key,
                             final BiPredicate<List<String>, Map<String, Serializable>> p ) {
     final List<String> cleanKey = sanitizeKeySegments( key );
-    final List<Lock> locks = lockForWrite( cleanKey );
+    final List<CacheLockRegistry.Handle> locks = lockForWrite( cleanKey );
     try {
       for ( String name : listKeys( cleanKey ) ) {
         ArrayList<String> entryKey = new ArrayList<>( cleanKey );
@@ -243,22 +322,31 @@ public class FileSystemCacheBackend implements ICacheBackend {
           purge( entryKey );
         }
       }
-      for ( String name : listSegments( cleanKey ) ) {
-        ArrayList<String> entryKey = new ArrayList<>( cleanKey );
-        entryKey.add( name );
-        purgeSegment( entryKey, p );
-      }
     } finally {
       unlock( locks );
     }
+    //sub-segments are locked one by one, so entries of this segment are not blocked meanwhile
+    for ( String name : listSegments( cleanKey ) ) {
+      ArrayList<String> entryKey = new ArrayList<>( cleanKey );
+      entryKey.add( name );
+      purgeSegment( entryKey, p );
+    }
   }
 
   @Override
   public boolean purge( final List<String> key ) {
     final List<String> cleanKey = sanitizeKeySegments( key );
-    final List<Lock> locks = lockForWrite( cleanKey );
+    final List<String> lockKey = new ArrayList<>( cleanKey.size() );
+    for ( final String cleanSegment : cleanKey ) {
+      lockKey.add( cleanSegment.replaceAll( EXT, "" ) );
+    }
+    final String fileName = cachePath + StringUtils.join( cleanKey, File.separator );
+    if ( new File( fileName ).isDirectory() && moveToTrash( lockKey, new File( fileName ) ) ) {
+      return true;
+    }
+    final List<CacheLockRegistry.Handle> locks =
+      new File( fileName ).isDirectory() ? lockTree( lockKey ) : lockForWrite( lockKey );
     try {
-      final String fileName = cachePath + StringUtils.join( cleanKey, File.separator );
 
       if ( fileName.endsWith( DATA ) ) {
         final File data = new File( fileName );
@@ -298,10 +386,83 @@ public class FileSystemCacheBackend implements ICacheBackend {
       return false;
     } finally {
       unlock( locks );
-      syncMap.remove( cleanKey );
     }
   }
 
+  /**
+   * Renames the directory into the trash as a new generation. Reads running inside the directory finish on the
+   * trashed files, writers below it are held off by the directory lock and recreate it afterwards.
+   *
+   * @return false if the directory can't be renamed and has to be deleted in place
+   */
+  private boolean moveToTrash( final List<String> key, final File directory ) {
+    final List<CacheLockRegistry.Handle> locks = lockForWrite( key );
+    try {
+      final File trash = getTrashDir();
+      final File target = new File( trash, Long.toHexString( System.currentTimeMillis() ) + "-"
+        + generation.incrementAndGet() );
+      trash.mkdirs();
+      Files.move( directory.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE );
+    } catch ( final IOException e ) {
+      logger.debug( "Can't move cache directory to trash, deleting it: ", e );
+      return false;
+    } finally {
+      unlock( locks );
+    }
+    startReaper();
+    return true;
+  }
+
+  private void startReaper() {
+    if ( !reaping.compareAndSet( false, true ) ) {
+      return;
+    }
+    final Thread reaper = new Thread( this::reap, "report-cache-reaper" );
+    reaper.setDaemon( true );
+    reaper.setPriority( Thread.MIN_PRIORITY );
+    reaper.start();
+  }
+
+  /**
+   * Deletes trashed generations until the trash is empty.
+   */
+  private void reap() {
+    final File trash = getTrashDir();
+    while ( true ) {
+      final File[] generations = trash.listFiles();
+      if ( generations == null || generations.length == 0 ) {
+        reaping.set( false );
+        // a generation trashed meanwhile may have found the reaper still running
+        final String[] late = trash.list();
+        if ( late == null || late.length == 0 || !reaping.compareAndSet( false, true ) ) {
+          return;
+        }
+        continue;
+      }
+      boolean deleted = false;
+      for ( final File generationDir : generations ) {
+        if ( FileUtils.deleteQuietly( generationDir ) ) {
+          deleted = true;
+        } else {
+          logger.debug( "Can't delete trashed cache files: " + generationDir );
+        }
+      }
+      if ( !deleted ) {
+        // retried with the next purge
+        reaping.set( false );
+        return;
+      }
+    }
+  }
+
+  /**
+   * @return trash directory next to the cache directory, on the same file system
+   */
+  File getTrashDir() {
+    final File root = new File( cachePath );
+    return new File( root.getParentFile(), root.getName() + TRASH );
+  }
+
   private Set<String> listKeys( final List<String> unsafeKey ) {
     final List<String> sanitized = sanitizeKeySegments( unsafeKey );
     final Set<String> resultSet = new HashSet<>();
@@ -344,7 +505,7 @@ public class FileSystemCacheBackend implements ICacheBackend {
     return s;
   }
 
-  private static List<String> sanitizeKeySegments( final List<String> key ) {
+  static List<String> sanitizeKeySegments( final List<String> key ) {
     final List<String> clean = new ArrayList<>();
     if ( key != null ) {
       for ( final String segment : key ) {
@@ -0,0 +1,183 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import java.util.List;
+
+/**
+ * Membership filter of 32-bit key fingerprints, kept in an open addressing table with linear probing. Unlike a Bloom
+ * filter, fingerprints can be removed and the table grows without access to the keys. Two keys share a fingerprint
+ * with a probability of about n / 2^32, every fingerprint therefore counts the keys added with it and is only dropped
+ * when the last of them is removed.
+ */
+final class FingerprintFilter {
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private int[] table = new int[ INITIAL_CAPACITY ];
+  private int[] counts = new int[ INITIAL_CAPACITY ];
+  private int size;
+
+  /**
+   * @return non-zero fingerprint of the key, components are length-prefixed so they can't run into each other
+   */
+  static int fingerprint( final List<String> key ) {
+    long h = 0xcbf29ce484222325L;
+    for ( final String component : key ) {
+      final int length = component == null ? -1 : component.length();
+      h = ( h ^ length ) * 0x100000001b3L;
+      for ( int i = 0; i < length; i++ ) {
+        h = ( h ^ component.charAt( i ) ) * 0x100000001b3L;
+      }
+    }
+    // MurmurHash3 finalizer
+    h = ( h ^ ( h >>> 33 ) ) * 0xff51afd7ed558ccdL;
+    h = ( h ^ ( h >>> 33 ) ) * 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    final int fingerprint = (int) ( h ^ ( h >>> 32 ) );
+    return fingerprint == 0 ? 1 : fingerprint;
+  }
+
+  /**
+   * Adds the fingerprint or raises its count.
+   *
+   * @return false if the fingerprint was present already
+   */
+  synchronized boolean add( final int fingerprint ) {
+    final int i = find( fingerprint );
+    if ( i >= 0 ) {
+      counts[ i ]++;
+      return false;
+    }
+    if ( ( size + 1 ) * 4 > table.length * 3 ) {
+      resize( table.length * 2 );
+    }
+    insert( table, counts, fingerprint, 1 );
+    size++;
+    return true;
+  }
+
+  synchronized boolean contains( final int fingerprint ) {
+    return find( fingerprint ) >= 0;
+  }
+
+  /**
+   * Lowers the count of the fingerprint. The last removal drops it and shifts the following entries of its probe
+   * sequence back, so lookups never need tombstones.
+   *
+   * @return false if the fingerprint was not present or is still counted for other keys
+   */
+  synchronized boolean remove( final int fingerprint ) {
+    int hole = find( fingerprint );
+    if ( hole < 0 ) {
+      return false;
+    }
+    if ( --counts[ hole ] > 0 ) {
+      return false;
+    }
+    final int mask = table.length - 1;
+    int i = hole;
+    while ( true ) {
+      i = ( i + 1 ) & mask;
+      if ( table[ i ] == 0 ) {
+        break;
+      }
+      final int home = slot( table[ i ], mask );
+      // entries whose home slot lies cyclically in (hole, i] stay where they are
+      final boolean stays = hole <= i ? hole < home && home <= i : hole < home || home <= i;
+      if ( !stays ) {
+        table[ hole ] = table[ i ];
+        counts[ hole ] = counts[ i ];
+        hole = i;
+      }
+    }
+    table[ hole ] = 0;
+    counts[ hole ] = 0;
+    size--;
+    if ( table.length > INITIAL_CAPACITY && size * 8 < table.length ) {
+      resize( table.length / 2 );
+    }
+    return true;
+  }
+
+  /**
+   * @return number of distinct fingerprints
+   */
+  synchronized int size() {
+    return size;
+  }
+
+  /**
+   * @return all fingerprints, each repeated by its count, so adding them to an empty filter restores the counts
+   */
+  synchronized int[] toArray() {
+    int total = 0;
+    for ( final int count : counts ) {
+      total += count;
+    }
+    final int[] result = new int[ total ];
+    int n = 0;
+    for ( int i = 0; i < table.length; i++ ) {
+      for ( int c = 0; c < counts[ i ]; c++ ) {
+        result[ n++ ] = table[ i ];
+      }
+    }
+    return result;
+  }
+
+  private int find( final int fingerprint ) {
+    final int mask = table.length - 1;
+    for ( int i = slot( fingerprint, mask ); table[ i ] != 0; i = ( i + 1 ) & mask ) {
+      if ( table[ i ] == fingerprint ) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private void resize( final int capacity ) {
+    final int[] resized = new int[ capacity ];
+    final int[] resizedCounts = new int[ capacity ];
+    for ( int i = 0; i < table.length; i++ ) {
+      if ( table[ i ] != 0 ) {
+        insert( resized, resizedCounts, table[ i ], counts[ i ] );
+      }
+    }
+    table = resized;
+    counts = resizedCounts;
+  }
+
+  /**
+   * Stores a fingerprint that is not in the table yet.
+   */
+  private static void insert( final int[] table, final int[] counts, final int fingerprint, final int count ) {
+    final int mask = table.length - 1;
+    int i = slot( fingerprint, mask );
+    while ( table[ i ] != 0 ) {
+      i = ( i + 1 ) & mask;
+    }
+    table[ i ] = fingerprint;
+    counts[ i ] = count;
+  }
+
+  private static int slot( final int fingerprint, final int mask ) {
+    final int h = fingerprint * 0x9E3779B9;
+    return ( h ^ ( h >>> 16 ) ) & mask;
+  }
+}
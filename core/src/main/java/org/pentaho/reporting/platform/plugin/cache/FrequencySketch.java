@@ -0,0 +1,96 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+/**
+ * Count-min sketch of access frequencies with 4-bit counters, as used by TinyLFU. Every key updates one counter in
+ * each of four rows and the estimate is the smallest of them. Once the number of increments reaches the sample size,
+ * all counters are halved, so old popularity fades away.
+ */
+final class FrequencySketch {
+
+  static final int MAX_FREQUENCY = 15;
+
+  private static final long[] SEEDS = {
+    0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+  private static final long RESET_MASK = 0x7777777777777777L;
+
+  private final long[] table;
+  private final int tableMask;
+  private final int sampleSize;
+  private int additions;
+
+  /**
+   * @param expectedEntries number of distinct keys the sketch should tell apart
+   */
+  FrequencySketch( final int expectedEntries ) {
+    final int size = Integer.highestOneBit( Math.max( expectedEntries, 16 ) - 1 ) << 1;
+    this.table = new long[ size ];
+    this.tableMask = size - 1;
+    this.sampleSize = 10 * size;
+  }
+
+  synchronized void increment( final Object key ) {
+    final int hash = key.hashCode();
+    boolean added = false;
+    for ( int row = 0; row < SEEDS.length; row++ ) {
+      final int h = rehash( hash, row );
+      final int index = ( h >>> 4 ) & tableMask;
+      final int offset = ( h & 15 ) << 2;
+      if ( ( ( table[ index ] >>> offset ) & 15 ) < MAX_FREQUENCY ) {
+        table[ index ] += 1L << offset;
+        added = true;
+      }
+    }
+    if ( added && ++additions >= sampleSize ) {
+      reset();
+    }
+  }
+
+  /**
+   * @return estimated number of increments of the key, at most {@link #MAX_FREQUENCY}
+   */
+  synchronized int frequency( final Object key ) {
+    final int hash = key.hashCode();
+    int result = MAX_FREQUENCY;
+    for ( int row = 0; row < SEEDS.length; row++ ) {
+      final int h = rehash( hash, row );
+      final int count = (int) ( ( table[ ( h >>> 4 ) & tableMask ] >>> ( ( h & 15 ) << 2 ) ) & 15 );
+      result = Math.min( result, count );
+    }
+    return result;
+  }
+
+  int getSampleSize() {
+    return sampleSize;
+  }
+
+  private void reset() {
+    for ( int i = 0; i < table.length; i++ ) {
+      table[ i ] = ( table[ i ] >>> 1 ) & RESET_MASK;
+    }
+    additions /= 2;
+  }
+
+  private static int rehash( final int hash, final int row ) {
+    long h = ( hash + SEEDS[ row ] ) * SEEDS[ row ];
+    h += h >>> 32;
+    return (int) h;
+  }
+}
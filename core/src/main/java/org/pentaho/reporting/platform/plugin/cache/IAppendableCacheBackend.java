@@ -0,0 +1,41 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache backend that can add pages to stored report content without rewriting the pages stored before.
+ */
+public interface IAppendableCacheBackend extends ICacheBackend {
+
+  /**
+   * Appends the pages following the stored ones and replaces the metadata. Readers see either the old or the new
+   * pages and metadata, never a mix of them.
+   *
+   * @param key      path
+   * @param pages    new pages, its page count replaces the stored one
+   * @param metaData new metadata
+   * @return false if nothing was appended, e.g. the entry does not exist, the caller has to write the whole content
+   */
+  boolean append( List<String> key, IReportContent pages, Map<String, Serializable> metaData );
+
+}
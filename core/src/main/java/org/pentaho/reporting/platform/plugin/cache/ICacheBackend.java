@@ -44,6 +44,18 @@ public interface ICacheBackend {
 
   Map<String, Serializable> readMetaData( final List<String> key );
 
+  /**
+   * Reads a single metadata field, backends with a field-addressable format don't decode the other fields.
+   *
+   * @param key  path
+   * @param name field name
+   * @return value or null if there is no such entry or field
+   */
+  default Serializable readMetaDataField( final List<String> key, final String name ) {
+    final Map<String, Serializable> metaData = readMetaData( key );
+    return metaData == null ? null : metaData.get( name );
+  }
+
   /**
    * Remove object from storage
    *
@@ -54,4 +66,22 @@ public interface ICacheBackend {
 
   void purgeSegment( final List<String> key, final BiPredicate<List<String>, Map<String, Serializable>> p );
 
+  /**
+   * Removes an entry because it expired or the cache is over its quota, {@link #purge(List)} is an explicit removal.
+   * Backends that don't tell them apart purge it.
+   *
+   * @param key path
+   * @return if operation succeed
+   */
+  default boolean evict( final List<String> key ) {
+    return purge( key );
+  }
+
+  /**
+   * Removes the entries of a segment that expired or are over the quota, see {@link #evict(List)}.
+   */
+  default void evictSegment( final List<String> key, final BiPredicate<List<String>, Map<String, Serializable>> p ) {
+    purgeSegment( key, p );
+  }
+
 }
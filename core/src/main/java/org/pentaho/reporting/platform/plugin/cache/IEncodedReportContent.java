@@ -0,0 +1,64 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Report content whose pages are stored encoded with a {@link PageCodec}. {@link #getPageData} and
+ * {@link #writePageTo} return decoded pages, the encoded form is available for storage and for clients that accept
+ * the codec's content encoding.
+ */
+public interface IEncodedReportContent extends IStreamableReportContent {
+
+  PageCodec getCodec();
+
+  /**
+   * @return dictionary shared by all pages or null
+   */
+  byte[] getDictionary();
+
+  /**
+   * @param page page number
+   * @return encoded page or null if the page is not available
+   */
+  byte[] getEncodedPageData( final int page );
+
+  /**
+   * Writes the encoded page to the stream.
+   *
+   * @param page page number
+   * @param out  target stream
+   * @return false if the page is not available, nothing is written in this case
+   * @throws IOException if writing to the stream fails
+   */
+  boolean writeEncodedPageTo( final int page, final OutputStream out ) throws IOException;
+
+  /**
+   * Opens the region of the cache file holding the encoded page, the caller has to close it.
+   *
+   * @param page page number
+   * @return region or null if the page is not available or not stored in a file
+   * @throws IOException if the file can't be read
+   */
+  default FileRegion openEncodedPageRegion( final int page ) throws IOException {
+    return null;
+  }
+
+}
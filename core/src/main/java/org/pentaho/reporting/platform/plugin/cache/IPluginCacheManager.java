@@ -18,4 +18,13 @@ package org.pentaho.reporting.platform.plugin.cache;
 
 public interface IPluginCacheManager {
   IReportContentCache getCache();
+
+  /**
+   * Cache for reports marked as user independent, their content is shared by all users with the same security profile.
+   *
+   * @return shared cache or null if it is not configured
+   */
+  default IReportContentCache getSharedCache() {
+    return null;
+  }
 }
@@ -16,8 +16,11 @@
  */
 package org.pentaho.reporting.platform.plugin.cache;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.Map;
+import java.util.function.Predicate;
 
 public interface IReportContentCache {
 
@@ -29,6 +32,95 @@ public interface IReportContentCache {
 
   Map<String, Serializable> getMetaData( String key );
 
+  /**
+   * @param key  key
+   * @param name metadata field
+   * @return value of a single metadata field or null
+   */
+  default Serializable getMetaData( final String key, final String name ) {
+    final Map<String, Serializable> metaData = getMetaData( key );
+    return metaData == null ? null : metaData.get( name );
+  }
+
+  /**
+   * Adds pages to a stored entry without rewriting the pages stored before, see {@link IAppendableCacheBackend}.
+   *
+   * @param key      key
+   * @param pages    pages following the stored ones, its page count replaces the stored one
+   * @param metaData new metadata
+   * @return false if nothing was appended, the caller has to put the whole content instead
+   */
+  default boolean append( final String key, final IReportContent pages, final Map<String, Serializable> metaData ) {
+    return false;
+  }
+
+  /**
+   * Removes the entries of all sessions and users that carry the given metadata value, e.g. the content rendered from
+   * a report definition that has changed.
+   *
+   * @param name  metadata name
+   * @param value metadata value
+   */
+  default void invalidate( final String name, final Serializable value ) {
+  }
+
+  /**
+   * Counts a request for the content of the key. A view of a report may look the content up several times, callers
+   * count it once per view.
+   *
+   * @param key key
+   */
+  default void recordRequest( final String key ) {
+  }
+
+  /**
+   * @param key key
+   * @return true if content of the key would not be stored by {@link #put} now, the caller may keep it itself
+   */
+  default boolean isRejected( final String key ) {
+    return false;
+  }
+
+  /**
+   * @return true if entries are kept by user rather than by session, so content rendered in the background under a
+   * session of its own is found by later requests
+   */
+  default boolean isSessionIndependent() {
+    return false;
+  }
+
+  /**
+   * @param key key
+   * @return true if the entry is older than its soft time to live, it is still valid but should be rendered again
+   */
+  default boolean isStale( final String key ) {
+    return false;
+  }
+
+  /**
+   * Writes the valid entries to a portable snapshot, see {@link CacheSnapshot}.
+   *
+   * @param file snapshot file
+   * @return number of exported entries, 0 if the cache doesn't outlive the session
+   * @throws IOException if the snapshot can't be written
+   */
+  default int exportSnapshot( final File file ) throws IOException {
+    return 0;
+  }
+
+  /**
+   * Adds the entries of a snapshot written by {@link #exportSnapshot(File)}, entries the cache already holds are kept.
+   *
+   * @param file      snapshot file
+   * @param validator decides by the metadata of an entry whether it is still valid
+   * @return number of imported entries
+   * @throws IOException if the snapshot can't be read
+   */
+  default int importSnapshot( final File file, final Predicate<Map<String, Serializable>> validator )
+    throws IOException {
+    return 0;
+  }
+
   void cleanup();
 
   void cleanupCurrentSession();
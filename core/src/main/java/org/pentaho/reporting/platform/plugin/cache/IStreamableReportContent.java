@@ -0,0 +1,44 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Report content that can write a page directly to a stream without materializing it as a byte array first.
+ */
+public interface IStreamableReportContent extends IReportContent {
+
+  /**
+   * @param page page number
+   * @return page size in bytes or -1 if the page is not available
+   */
+  int getPageLength( final int page );
+
+  /**
+   * Writes the page to the stream.
+   *
+   * @param page page number
+   * @param out  target stream
+   * @return false if the page is not available, nothing is written in this case
+   * @throws IOException if writing to the stream fails
+   */
+  boolean writePageTo( final int page, final OutputStream out ) throws IOException;
+
+}
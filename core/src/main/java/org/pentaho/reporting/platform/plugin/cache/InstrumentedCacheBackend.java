@@ -0,0 +1,316 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache backend decorator that records hits, misses, writes, evictions, purges and latencies per segment, the first
+ * element of the key, e.g. {@code session} or {@code long_term}. Statistics are registered in
+ * {@link CacheStatistics} as {@code <name>/<segment>}.
+ * <p>
+ * The size and hit count of up to {@code maxTrackedEntries} entries are tracked to list the largest and the hottest
+ * ones. Entry count and bytes only cover entries written or read since startup, sizes are taken from the
+ * {@link DeleteOldOnAccessCache#SIZE} metadata or the stored size of report content, values are never serialized.
+ */
+public class InstrumentedCacheBackend implements IAppendableCacheBackend {
+
+  private static final Set<InstrumentedCacheBackend> INSTANCES =
+    Collections.synchronizedSet( Collections.newSetFromMap( new WeakHashMap<>() ) );
+
+  private ICacheBackend delegate;
+  private String name = "report-content";
+  private int maxTrackedEntries = 10000;
+
+  private final ConcurrentHashMap<List<String>, EntryInfo> entries = new ConcurrentHashMap<>();
+
+  public InstrumentedCacheBackend() {
+    INSTANCES.add( this );
+  }
+
+  public InstrumentedCacheBackend( final ICacheBackend delegate ) {
+    this();
+    this.delegate = delegate;
+  }
+
+  /**
+   * @return instrumented backends currently in use
+   */
+  public static List<InstrumentedCacheBackend> getInstances() {
+    synchronized ( INSTANCES ) {
+      return new ArrayList<>( INSTANCES );
+    }
+  }
+
+  public ICacheBackend getDelegate() {
+    return delegate;
+  }
+
+  public void setDelegate( final ICacheBackend delegate ) {
+    this.delegate = delegate;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public void setName( final String name ) {
+    this.name = name;
+  }
+
+  public int getMaxTrackedEntries() {
+    return maxTrackedEntries;
+  }
+
+  public void setMaxTrackedEntries( final int maxTrackedEntries ) {
+    this.maxTrackedEntries = maxTrackedEntries;
+  }
+
+  @Override
+  public boolean write( final List<String> key, final Serializable value, final Map<String, Serializable> metaData ) {
+    final long start = System.nanoTime();
+    final boolean written = delegate.write( key, value, metaData );
+    final CacheStatistics statistics = statistics( key );
+    statistics.recordWrite( System.nanoTime() - start );
+    if ( written ) {
+      track( key, sizeOf( metaData == null ? null : metaData.get( DeleteOldOnAccessCache.SIZE ), value ), false );
+    }
+    return written;
+  }
+
+  @Override
+  public boolean append( final List<String> key, final IReportContent pages,
+                         final Map<String, Serializable> metaData ) {
+    if ( !( delegate instanceof IAppendableCacheBackend ) ) {
+      return false;
+    }
+    final long start = System.nanoTime();
+    final boolean appended = ( (IAppendableCacheBackend) delegate ).append( key, pages, metaData );
+    statistics( key ).recordWrite( System.nanoTime() - start );
+    final EntryInfo entry = entries.get( FileSystemCacheBackend.sanitizeKeySegments( key ) );
+    if ( appended && entry != null ) {
+      final Object size = metaData == null ? null : metaData.get( DeleteOldOnAccessCache.SIZE );
+      // the pages follow the stored ones
+      track( key, size instanceof Long ? (Long) size : entry.getSize() + sizeOf( null, pages ), false );
+    }
+    return appended;
+  }
+
+  @Override
+  public Serializable read( final List<String> key ) {
+    final long start = System.nanoTime();
+    final Serializable value = delegate.read( key );
+    final long duration = System.nanoTime() - start;
+    final CacheStatistics statistics = statistics( key );
+    if ( value == null ) {
+      statistics.recordMiss( duration );
+    } else {
+      statistics.recordHit( duration );
+      final EntryInfo entry = entries.get( FileSystemCacheBackend.sanitizeKeySegments( key ) );
+      if ( entry != null ) {
+        entry.hit();
+      } else {
+        track( key, sizeOf( delegate.readMetaDataField( key, DeleteOldOnAccessCache.SIZE ), value ), true );
+      }
+    }
+    return value;
+  }
+
+  @Override
+  public Map<String, Serializable> readMetaData( final List<String> key ) {
+    return delegate.readMetaData( key );
+  }
+
+  @Override
+  public Serializable readMetaDataField( final List<String> key, final String name ) {
+    return delegate.readMetaDataField( key, name );
+  }
+
+  @Override
+  public boolean purge( final List<String> key ) {
+    return remove( key, false );
+  }
+
+  @Override
+  public void purgeSegment( final List<String> key, final BiPredicate<List<String>, Map<String, Serializable>> p ) {
+    delegate.purgeSegment( key, counting( p, false ) );
+  }
+
+  @Override
+  public boolean evict( final List<String> key ) {
+    return remove( key, true );
+  }
+
+  @Override
+  public void evictSegment( final List<String> key, final BiPredicate<List<String>, Map<String, Serializable>> p ) {
+    delegate.evictSegment( key, counting( p, true ) );
+  }
+
+  /**
+   * @param limit maximum number of entries
+   * @return tracked entries, largest first
+   */
+  public List<EntryInfo> getLargestEntries( final int limit ) {
+    return top( Comparator.comparingLong( EntryInfo::getSize ).reversed(), limit );
+  }
+
+  /**
+   * @param limit maximum number of entries
+   * @return tracked entries, most often read first
+   */
+  public List<EntryInfo> getHottestEntries( final int limit ) {
+    return top( Comparator.comparingLong( EntryInfo::getHits ).reversed(), limit );
+  }
+
+  private List<EntryInfo> top( final Comparator<EntryInfo> order, final int limit ) {
+    final List<EntryInfo> result = new ArrayList<>( entries.values() );
+    result.sort( order );
+    return result.size() > limit ? new ArrayList<>( result.subList( 0, Math.max( 0, limit ) ) ) : result;
+  }
+
+  private boolean remove( final List<String> key, final boolean eviction ) {
+    final List<String> cleanKey = FileSystemCacheBackend.sanitizeKeySegments( key );
+    final boolean removed = eviction ? delegate.evict( key ) : delegate.purge( key );
+    long count = 0;
+    for ( final List<String> entryKey : new ArrayList<>( entries.keySet() ) ) {
+      if ( entryKey.size() >= cleanKey.size() && entryKey.subList( 0, cleanKey.size() ).equals( cleanKey ) ) {
+        untrack( entryKey );
+        count++;
+      }
+    }
+    // an untracked entry
+    if ( count == 0 && removed ) {
+      count = 1;
+    }
+    record( statistics( key ), count, eviction );
+    return removed;
+  }
+
+  private BiPredicate<List<String>, Map<String, Serializable>> counting(
+    final BiPredicate<List<String>, Map<String, Serializable>> p, final boolean eviction ) {
+    return ( entryKey, metaData ) -> {
+      if ( p.test( entryKey, metaData ) ) {
+        untrack( FileSystemCacheBackend.sanitizeKeySegments( entryKey ) );
+        record( statistics( entryKey ), 1, eviction );
+        return true;
+      }
+      return false;
+    };
+  }
+
+  private static void record( final CacheStatistics statistics, final long count, final boolean eviction ) {
+    if ( eviction ) {
+      statistics.recordEvictions( count );
+    } else {
+      statistics.recordPurges( count );
+    }
+  }
+
+  /**
+   * @return size from the metadata, the stored size of report content or 0
+   */
+  private static long sizeOf( final Object metaDataSize, final Serializable value ) {
+    if ( metaDataSize instanceof Long ) {
+      return (Long) metaDataSize;
+    }
+    return Math.max( 0, MemoryCacheBackend.storedSizeOf( value ) );
+  }
+
+  private CacheStatistics statistics( final List<String> key ) {
+    return CacheStatistics.get( key.isEmpty() ? name : name + "/" + key.get( 0 ) );
+  }
+
+  private void track( final List<String> key, final long size, final boolean hit ) {
+    final List<String> cleanKey = FileSystemCacheBackend.sanitizeKeySegments( key );
+    final CacheStatistics statistics = statistics( key );
+    final EntryInfo previous = entries.get( cleanKey );
+    if ( previous == null && entries.size() >= maxTrackedEntries ) {
+      return;
+    }
+    final EntryInfo entry = new EntryInfo( name, cleanKey, size, previous == null ? 0 : previous.getHits() );
+    if ( hit ) {
+      entry.hit();
+    }
+    final EntryInfo replaced = entries.put( cleanKey, entry );
+    if ( replaced == null ) {
+      statistics.addEntries( 1, size );
+    } else {
+      statistics.addEntries( 0, size - replaced.getSize() );
+    }
+  }
+
+  private void untrack( final List<String> cleanKey ) {
+    final EntryInfo removed = entries.remove( cleanKey );
+    if ( removed != null ) {
+      statistics( cleanKey ).addEntries( -1, -removed.getSize() );
+    }
+  }
+
+  /**
+   * Size and usage of a single cache entry.
+   */
+  public static final class EntryInfo {
+    private final String cache;
+    private final List<String> key;
+    private final long size;
+    private final AtomicLong hits;
+    private volatile long lastAccess = System.currentTimeMillis();
+
+    EntryInfo( final String cache, final List<String> key, final long size, final long hits ) {
+      this.cache = cache;
+      this.key = key;
+      this.size = size;
+      this.hits = new AtomicLong( hits );
+    }
+
+    void hit() {
+      hits.incrementAndGet();
+      lastAccess = System.currentTimeMillis();
+    }
+
+    public String getCache() {
+      return cache;
+    }
+
+    public List<String> getKey() {
+      return key;
+    }
+
+    public long getSize() {
+      return size;
+    }
+
+    public long getHits() {
+      return hits.get();
+    }
+
+    public long getLastAccess() {
+      return lastAccess;
+    }
+  }
+}
@@ -0,0 +1,430 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache backend decorator that keeps an in-memory filter of the stored keys per segment, i.e. the key without its
+ * last component. Reads of keys the filter doesn't contain return right away, without locking or probing the
+ * delegate. Writes add keys to the filter before they are stored, purges remove them afterwards. Both hold the lock of
+ * the segment meanwhile, so a key written while it is purged stays in the filter. Keys are only removed once they are
+ * gone from the delegate, a rewrite of a stored key doesn't add it again.
+ * <p>
+ * The filters are persisted to {@code snapshotPath} periodically and on shutdown. Without a snapshot they are rebuilt
+ * in the background by walking the delegate, all reads pass through until then. Keys stored after the last snapshot
+ * before a crash are missing from the filter, which costs one regeneration of the content, never a wrong result.
+ * The delegate must only be written through this backend.
+ */
+public class KeyFilterCacheBackend implements IAppendableCacheBackend {
+
+  private static final Log logger = LogFactory.getLog( KeyFilterCacheBackend.class );
+
+  private static final int MAGIC = 0x524b4631;
+
+  private final ConcurrentHashMap<List<String>, FingerprintFilter> filters = new ConcurrentHashMap<>();
+  private final AtomicLong filteredReads = new AtomicLong();
+  private final CacheLockRegistry locks = new CacheLockRegistry();
+
+  private ICacheBackend delegate;
+  private String snapshotPath;
+  private long persistIntervalSeconds = 60;
+  private volatile boolean ready;
+  private volatile boolean opened;
+  private ScheduledExecutorService executor;
+
+  public KeyFilterCacheBackend() {
+  }
+
+  public KeyFilterCacheBackend( final ICacheBackend delegate ) {
+    this.delegate = delegate;
+  }
+
+  public ICacheBackend getDelegate() {
+    return delegate;
+  }
+
+  public void setDelegate( final ICacheBackend delegate ) {
+    this.delegate = delegate;
+  }
+
+  public String getSnapshotPath() {
+    return snapshotPath;
+  }
+
+  /**
+   * @param snapshotPath snapshot file, relative to the temp directory; null keeps the filters in memory only
+   */
+  public void setSnapshotPath( final String snapshotPath ) {
+    this.snapshotPath = snapshotPath;
+  }
+
+  public long getPersistIntervalSeconds() {
+    return persistIntervalSeconds;
+  }
+
+  /**
+   * @param persistIntervalSeconds delay between snapshots, 0 only writes a snapshot on shutdown
+   */
+  public void setPersistIntervalSeconds( final long persistIntervalSeconds ) {
+    this.persistIntervalSeconds = persistIntervalSeconds;
+  }
+
+  /**
+   * @return true once the filters cover the stored keys and misses are answered from memory
+   */
+  public boolean isReady() {
+    open();
+    return ready;
+  }
+
+  /**
+   * @return number of reads answered by the filters
+   */
+  public long getFilteredReads() {
+    return filteredReads.get();
+  }
+
+  @Override
+  public boolean write( final List<String> key, final Serializable value, final Map<String, Serializable> metaData ) {
+    open();
+    final List<String> cleanKey = filterKey( key );
+    final List<String> segment = segmentOf( cleanKey );
+    final CacheLockRegistry.Handle lock = locks.acquire( segment, false );
+    try {
+      final FingerprintFilter filter = filters.computeIfAbsent( segment, k -> new FingerprintFilter() );
+      final int fingerprint = FingerprintFilter.fingerprint( cleanKey );
+      // added first, so concurrent readers never miss a stored entry
+      if ( !filter.contains( fingerprint ) || delegate.readMetaData( key ) == null ) {
+        filter.add( fingerprint );
+      }
+      return delegate.write( key, value, metaData );
+    } finally {
+      lock.release();
+    }
+  }
+
+  @Override
+  public boolean append( final List<String> key, final IReportContent pages,
+                         final Map<String, Serializable> metaData ) {
+    open();
+    if ( !( delegate instanceof IAppendableCacheBackend ) || isFilteredOut( key ) ) {
+      return false;
+    }
+    return ( (IAppendableCacheBackend) delegate ).append( key, pages, metaData );
+  }
+
+  @Override
+  public Serializable read( final List<String> key ) {
+    open();
+    return isFilteredOut( key ) ? null : delegate.read( key );
+  }
+
+  @Override
+  public Map<String, Serializable> readMetaData( final List<String> key ) {
+    open();
+    return isFilteredOut( key ) ? null : delegate.readMetaData( key );
+  }
+
+  @Override
+  public Serializable readMetaDataField( final List<String> key, final String name ) {
+    open();
+    return isFilteredOut( key ) ? null : delegate.readMetaDataField( key, name );
+  }
+
+  @Override
+  public boolean purge( final List<String> key ) {
+    open();
+    final List<String> cleanKey = filterKey( key );
+    // the segment of the key and all segments below it, writers to them wait until the filters are updated
+    final List<List<String>> segments = new ArrayList<>();
+    segments.add( segmentOf( cleanKey ) );
+    for ( final List<String> segment : filters.keySet() ) {
+      if ( startsWith( segment, cleanKey ) && !segments.contains( segment ) ) {
+        segments.add( segment );
+      }
+    }
+    final List<CacheLockRegistry.Handle> handles = lockSegments( segments );
+    try {
+      final boolean stored = delegate.readMetaData( key ) != null;
+      final boolean purged = delegate.purge( key );
+      if ( stored ) {
+        remove( cleanKey );
+      }
+      for ( final List<String> segment : segments ) {
+        if ( startsWith( segment, cleanKey ) ) {
+          filters.remove( segment );
+        }
+      }
+      return purged;
+    } finally {
+      for ( final CacheLockRegistry.Handle handle : handles ) {
+        handle.release();
+      }
+    }
+  }
+
+  @Override
+  public void purgeSegment( final List<String> key, final BiPredicate<List<String>, Map<String, Serializable>> p ) {
+    open();
+    final List<List<String>> purged = Collections.synchronizedList( new ArrayList<>() );
+    delegate.purgeSegment( key, ( k, md ) -> {
+      if ( p.test( k, md ) ) {
+        purged.add( k );
+        return true;
+      }
+      return false;
+    } );
+    synchronized ( purged ) {
+      for ( final List<String> k : purged ) {
+        final List<String> cleanKey = filterKey( k );
+        final CacheLockRegistry.Handle lock = locks.acquire( segmentOf( cleanKey ), true );
+        try {
+          // rewritten meanwhile, the write kept the key in the filter
+          if ( delegate.readMetaData( k ) == null ) {
+            remove( cleanKey );
+          }
+        } finally {
+          lock.release();
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes the snapshot and stops the background tasks.
+   */
+  public synchronized void shutdown() {
+    if ( executor != null ) {
+      executor.shutdownNow();
+      executor = null;
+    }
+    if ( opened ) {
+      persist();
+    }
+  }
+
+  /**
+   * Writes the filters to the snapshot file, unless they are still being rebuilt.
+   */
+  public void persist() {
+    final File file = getSnapshotFile();
+    if ( file == null || !ready ) {
+      return;
+    }
+    final File tmp = new File( file.getPath() + ".tmp" );
+    synchronized ( this ) {
+      try {
+        file.getParentFile().mkdirs();
+        try ( final DataOutputStream out =
+                new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tmp ) ) ) ) {
+          out.writeInt( MAGIC );
+          for ( final Map.Entry<List<String>, FingerprintFilter> entry : filters.entrySet() ) {
+            final int[] fingerprints = entry.getValue().toArray();
+            out.writeBoolean( true );
+            out.writeInt( entry.getKey().size() );
+            for ( final String component : entry.getKey() ) {
+              out.writeUTF( component );
+            }
+            out.writeInt( fingerprints.length );
+            for ( final int fingerprint : fingerprints ) {
+              out.writeInt( fingerprint );
+            }
+          }
+          out.writeBoolean( false );
+        }
+        Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE );
+      } catch ( final IOException e ) {
+        logger.warn( "Can't persist cache key filter: ", e );
+        tmp.delete();
+      }
+    }
+  }
+
+  private boolean isFilteredOut( final List<String> key ) {
+    if ( !ready ) {
+      return false;
+    }
+    final List<String> cleanKey = filterKey( key );
+    final FingerprintFilter filter = filters.get( segmentOf( cleanKey ) );
+    if ( filter != null && filter.contains( FingerprintFilter.fingerprint( cleanKey ) ) ) {
+      return false;
+    }
+    filteredReads.incrementAndGet();
+    return true;
+  }
+
+  private void remove( final List<String> cleanKey ) {
+    final FingerprintFilter filter = filters.get( segmentOf( cleanKey ) );
+    if ( filter != null ) {
+      filter.remove( FingerprintFilter.fingerprint( cleanKey ) );
+    }
+  }
+
+  private void open() {
+    if ( opened ) {
+      return;
+    }
+    synchronized ( this ) {
+      if ( opened ) {
+        return;
+      }
+      opened = true;
+      executor = Executors.newSingleThreadScheduledExecutor( r -> {
+        final Thread thread = Executors.defaultThreadFactory().newThread( r );
+        thread.setDaemon( true );
+        thread.setName( "cache-key-filter" );
+        return thread;
+      } );
+      if ( load() ) {
+        ready = true;
+      } else {
+        executor.execute( this::rebuild );
+      }
+      if ( getSnapshotFile() != null && persistIntervalSeconds > 0 ) {
+        executor.scheduleWithFixedDelay( this::persist, persistIntervalSeconds, persistIntervalSeconds,
+          TimeUnit.SECONDS );
+      }
+    }
+  }
+
+  /**
+   * Walks all stored entries. Keys written meanwhile are added by the writers, reads pass through until it is done.
+   */
+  private void rebuild() {
+    try {
+      delegate.purgeSegment( Collections.<String>emptyList(), ( k, md ) -> {
+        final List<String> cleanKey = filterKey( k );
+        filters.computeIfAbsent( segmentOf( cleanKey ), s -> new FingerprintFilter() )
+          .add( FingerprintFilter.fingerprint( cleanKey ) );
+        return false;
+      } );
+      ready = true;
+      logger.debug( "Cache key filter rebuilt, segments: " + filters.size() );
+    } catch ( final RuntimeException e ) {
+      logger.warn( "Can't rebuild cache key filter, lookups are not filtered: ", e );
+    }
+  }
+
+  private boolean load() {
+    final File file = getSnapshotFile();
+    if ( file == null || !file.exists() ) {
+      return false;
+    }
+    try ( final DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) ) ) {
+      if ( in.readInt() != MAGIC ) {
+        return false;
+      }
+      while ( in.readBoolean() ) {
+        final int keySize = in.readInt();
+        final List<String> segment = new ArrayList<>( keySize );
+        for ( int i = 0; i < keySize; i++ ) {
+          segment.add( in.readUTF() );
+        }
+        final FingerprintFilter filter = new FingerprintFilter();
+        final int count = in.readInt();
+        for ( int i = 0; i < count; i++ ) {
+          filter.add( in.readInt() );
+        }
+        filters.put( segment, filter );
+      }
+      return true;
+    } catch ( final IOException e ) {
+      logger.warn( "Can't load cache key filter, rebuilding it: ", e );
+      filters.clear();
+      return false;
+    }
+  }
+
+  private File getSnapshotFile() {
+    return snapshotPath == null ? null : new File( System.getProperty( "java.io.tmpdir" ), snapshotPath );
+  }
+
+  /**
+   * Locks the segments in a fixed order, so concurrent purges can't deadlock.
+   */
+  private List<CacheLockRegistry.Handle> lockSegments( final List<List<String>> segments ) {
+    segments.sort( KeyFilterCacheBackend::compare );
+    final List<CacheLockRegistry.Handle> handles = new ArrayList<>( segments.size() );
+    try {
+      for ( final List<String> segment : segments ) {
+        handles.add( locks.acquire( segment, true ) );
+      }
+    } catch ( final RuntimeException e ) {
+      for ( final CacheLockRegistry.Handle handle : handles ) {
+        handle.release();
+      }
+      throw e;
+    }
+    return handles;
+  }
+
+  /**
+   * @return sanitized key without the file extensions the file system backend reports when it walks its entries
+   */
+  private static List<String> filterKey( final List<String> key ) {
+    final List<String> cleanKey = FileSystemCacheBackend.sanitizeKeySegments( key );
+    final List<String> result = new ArrayList<>( cleanKey.size() );
+    for ( final String component : cleanKey ) {
+      result.add( component.replaceAll( FileSystemCacheBackend.EXT, "" ) );
+    }
+    return result;
+  }
+
+  private static int compare( final List<String> a, final List<String> b ) {
+    for ( int i = 0; i < a.size() && i < b.size(); i++ ) {
+      final int result = a.get( i ).compareTo( b.get( i ) );
+      if ( result != 0 ) {
+        return result;
+      }
+    }
+    return Integer.compare( a.size(), b.size() );
+  }
+
+  private static List<String> segmentOf( final List<String> key ) {
+    return key.isEmpty() ? key : new ArrayList<>( key.subList( 0, key.size() - 1 ) );
+  }
+
+  private static boolean startsWith( final List<String> key, final List<String> prefix ) {
+    return key.size() >= prefix.size() && key.subList( 0, prefix.size() ).equals( prefix );
+  }
+}
@@ -0,0 +1,60 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * Times to live a report sets for its cache entries, stored in the metadata as {@link DeleteOldOnAccessCache#SOFT_TTL}
+ * and {@link DeleteOldOnAccessCache#HARD_TTL}. Unset values are 0, the cache defaults apply then.
+ */
+final class Lifetime {
+
+  private final long softMillis;
+  private final long hardMillis;
+
+  private Lifetime( final long softMillis, final long hardMillis ) {
+    this.softMillis = softMillis;
+    this.hardMillis = hardMillis;
+  }
+
+  /**
+   * @return the lifetime stored in the metadata or null if the report uses the cache defaults
+   */
+  static Lifetime of( final Map<String, Serializable> metaData ) {
+    if ( metaData == null ) {
+      return null;
+    }
+    final long soft = toMillis( metaData.get( DeleteOldOnAccessCache.SOFT_TTL ) );
+    final long hard = toMillis( metaData.get( DeleteOldOnAccessCache.HARD_TTL ) );
+    return soft == 0 && hard == 0 ? null : new Lifetime( soft, hard );
+  }
+
+  private static long toMillis( final Object value ) {
+    return value instanceof Long && (Long) value > 0 ? (Long) value : 0;
+  }
+
+  long getSoftMillis() {
+    return softMillis;
+  }
+
+  long getHardMillis() {
+    return hardMillis;
+  }
+}
@@ -0,0 +1,313 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Heap cache backend bounded by the total size of the stored entries rather than by their number. Entries are
+ * evicted in least-recently-used order once the byte budget is exceeded. Report content is accounted by its page
+ * bytes, other values by their serialized size.
+ */
+public class MemoryCacheBackend implements ICacheBackend {
+
+  private static final Log logger = LogFactory.getLog( MemoryCacheBackend.class );
+
+  /**
+   * Rough per-entry overhead of keys, metadata and map nodes.
+   */
+  private static final int ENTRY_OVERHEAD = 512;
+
+  /**
+   * Callback for entries leaving the cache because of the byte budget.
+   */
+  public interface EvictionListener {
+    void evicted( List<String> key, Serializable value, Map<String, Serializable> metaData );
+
+    /**
+     * Called before an entry is evicted, while the backend is locked.
+     *
+     * @return false if the listener is not interested in the entry, so backends that don't keep values on the heap
+     * don't have to copy it
+     */
+    default boolean accepts( final List<String> key ) {
+      return true;
+    }
+  }
+
+  private final LinkedHashMap<List<String>, Entry> entries = new LinkedHashMap<>( 16, 0.75f, true );
+  private long maxBytes = 64L * 1024 * 1024;
+  private long maxEntryBytes = 8L * 1024 * 1024;
+  private long bytes;
+  private EvictionListener evictionListener;
+
+  public MemoryCacheBackend() {
+  }
+
+  public MemoryCacheBackend( final long maxBytes ) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * @param maxBytes total size of all entries in bytes
+   */
+  public synchronized void setMaxBytes( final long maxBytes ) {
+    this.maxBytes = maxBytes;
+    evict();
+  }
+
+  public synchronized long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * @param maxEntryBytes entries larger than this are not kept in memory
+   */
+  public synchronized void setMaxEntryBytes( final long maxEntryBytes ) {
+    this.maxEntryBytes = maxEntryBytes;
+  }
+
+  public synchronized long getMaxEntryBytes() {
+    return maxEntryBytes;
+  }
+
+  public synchronized void setEvictionListener( final EvictionListener evictionListener ) {
+    this.evictionListener = evictionListener;
+  }
+
+  /**
+   * @return current size of all entries in bytes
+   */
+  public synchronized long getBytes() {
+    return bytes;
+  }
+
+  public synchronized int getEntryCount() {
+    return entries.size();
+  }
+
+  @Override
+  public boolean write( final List<String> key, final Serializable value, final Map<String, Serializable> metaData ) {
+    final HashMap<String, Serializable> writeableMetaData = new HashMap<>();
+    if ( metaData != null ) {
+      writeableMetaData.putAll( metaData );
+    }
+    final long size = sizeOf( value ) + sizeOf( writeableMetaData ) + ENTRY_OVERHEAD;
+    final List<EvictedEntry> evicted;
+    synchronized ( this ) {
+      final List<String> cleanKey = FileSystemCacheBackend.sanitizeKeySegments( key );
+      final Entry previous = entries.remove( cleanKey );
+      if ( previous != null ) {
+        bytes -= previous.size;
+      }
+      if ( size > maxEntryBytes || size > maxBytes ) {
+        logger.debug( "Entry is too large for the memory cache: " + cleanKey );
+        return false;
+      }
+      entries.put( cleanKey, new Entry( value, writeableMetaData, size ) );
+      bytes += size;
+      evicted = evict();
+    }
+    notifyEvicted( evicted );
+    return true;
+  }
+
+  @Override
+  public synchronized Serializable read( final List<String> key ) {
+    final Entry entry = entries.get( FileSystemCacheBackend.sanitizeKeySegments( key ) );
+    return entry == null ? null : entry.value;
+  }
+
+  @Override
+  public synchronized Map<String, Serializable> readMetaData( final List<String> key ) {
+    final Entry entry = entries.get( FileSystemCacheBackend.sanitizeKeySegments( key ) );
+    return entry == null ? null : new HashMap<>( entry.metaData );
+  }
+
+  /**
+   * Removes the entry and all entries stored below it.
+   */
+  @Override
+  public synchronized boolean purge( final List<String> key ) {
+    final List<String> cleanKey = FileSystemCacheBackend.sanitizeKeySegments( key );
+    final Iterator<Map.Entry<List<String>, Entry>> it = entries.entrySet().iterator();
+    while ( it.hasNext() ) {
+      final Map.Entry<List<String>, Entry> entry = it.next();
+      if ( startsWith( entry.getKey(), cleanKey ) ) {
+        bytes -= entry.getValue().size;
+        it.remove();
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public void purgeSegment( final List<String> key, final BiPredicate<List<String>, Map<String, Serializable>> p ) {
+    final List<String> cleanKey = FileSystemCacheBackend.sanitizeKeySegments( key );
+    final List<List<String>> candidates = new ArrayList<>();
+    synchronized ( this ) {
+      for ( final List<String> entryKey : entries.keySet() ) {
+        if ( entryKey.size() > cleanKey.size() && startsWith( entryKey, cleanKey ) ) {
+          candidates.add( entryKey );
+        }
+      }
+    }
+    //the predicate may call back into cache code, so don't hold the monitor while testing
+    for ( final List<String> entryKey : candidates ) {
+      final Map<String, Serializable> metaData = readMetaData( entryKey );
+      if ( metaData != null && p.test( entryKey, metaData ) ) {
+        purge( entryKey );
+      }
+    }
+  }
+
+  private List<EvictedEntry> evict() {
+    List<EvictedEntry> evicted = Collections.emptyList();
+    final Iterator<Map.Entry<List<String>, Entry>> it = entries.entrySet().iterator();
+    while ( bytes > maxBytes && it.hasNext() ) {
+      final Map.Entry<List<String>, Entry> eldest = it.next();
+      it.remove();
+      bytes -= eldest.getValue().size;
+      if ( evictionListener != null && evictionListener.accepts( eldest.getKey() ) ) {
+        if ( evicted.isEmpty() ) {
+          evicted = new ArrayList<>();
+        }
+        evicted.add( new EvictedEntry( eldest.getKey(), eldest.getValue() ) );
+      }
+    }
+    return evicted;
+  }
+
+  private void notifyEvicted( final List<EvictedEntry> evicted ) {
+    final EvictionListener listener;
+    synchronized ( this ) {
+      listener = evictionListener;
+    }
+    if ( listener == null ) {
+      return;
+    }
+    for ( final EvictedEntry entry : evicted ) {
+      listener.evicted( entry.key, entry.entry.value, entry.entry.metaData );
+    }
+  }
+
+  /**
+   * Estimates the heap footprint of a cached value.
+   *
+   * @param value cached value
+   * @return size in bytes
+   */
+  public static long sizeOf( final Serializable value ) {
+    final long storedSize = storedSizeOf( value );
+    if ( storedSize >= 0 ) {
+      return storedSize;
+    }
+    final CountingOutputStream counter = new CountingOutputStream();
+    try ( final ObjectOutputStream out = new ObjectOutputStream( counter ) ) {
+      out.writeObject( value );
+    } catch ( final IOException e ) {
+      logger.debug( "Can't estimate cache entry size: ", e );
+      return Long.MAX_VALUE;
+    }
+    return counter.count;
+  }
+
+  /**
+   * Size of byte arrays and report content without serializing them.
+   *
+   * @param value cached value
+   * @return size in bytes or -1 if it is only known after serialization
+   */
+  static long storedSizeOf( final Serializable value ) {
+    if ( value == null ) {
+      return 0;
+    }
+    if ( value instanceof byte[] ) {
+      return ( (byte[]) value ).length;
+    }
+    if ( value instanceof FileReportContent ) {
+      return ( (FileReportContent) value ).getStoredBytes();
+    }
+    if ( value instanceof CompressedReportContent ) {
+      return ( (CompressedReportContent) value ).getStoredBytes();
+    }
+    if ( value instanceof ReportContentImpl ) {
+      final IReportContent content = (IReportContent) value;
+      long result = 0;
+      for ( int page = 0; page < content.getStoredPageCount(); page++ ) {
+        final byte[] data = content.getPageData( page );
+        if ( data != null ) {
+          result += data.length;
+        }
+      }
+      return result;
+    }
+    return -1;
+  }
+
+  private static boolean startsWith( final List<String> key, final List<String> prefix ) {
+    return key.size() >= prefix.size() && key.subList( 0, prefix.size() ).equals( prefix );
+  }
+
+  private static final class Entry {
+    private final Serializable value;
+    private final Map<String, Serializable> metaData;
+    private final long size;
+
+    private Entry( final Serializable value, final Map<String, Serializable> metaData, final long size ) {
+      this.value = value;
+      this.metaData = metaData;
+      this.size = size;
+    }
+  }
+
+  private static final class EvictedEntry {
+    private final List<String> key;
+    private final Entry entry;
+
+    private EvictedEntry( final List<String> key, final Entry entry ) {
+      this.key = key;
+      this.entry = entry;
+    }
+  }
+
+  private static final class CountingOutputStream extends OutputStream {
+    private long count;
+
+    @Override public void write( final int b ) {
+      count++;
+    }
+
+    @Override public void write( final byte[] b, final int off, final int len ) {
+      count += len;
+    }
+  }
+}
@@ -0,0 +1,275 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Binary layout of the metadata of a cache entry:
+ * <pre>
+ *   header: magic, version, field count
+ *   fields: name, type, value
+ * </pre>
+ * Strings, booleans, integers, longs, doubles and byte arrays are stored typed, other values are Java serialized
+ * into a length-prefixed field. Every value can be skipped without decoding it, so a single field is read without
+ * building the map or resolving any class. Metadata written with Java serialization by earlier versions is still
+ * decoded, it is written in this format the next time the entry is written.
+ */
+public final class MetaDataCodec {
+
+  public static final int MAGIC = 0x52434D44;
+  public static final int VERSION = 1;
+
+  static final byte NULL = 0;
+  static final byte STRING = 1;
+  static final byte BOOLEAN = 2;
+  static final byte INTEGER = 3;
+  static final byte LONG = 4;
+  static final byte DOUBLE = 5;
+  static final byte BYTES = 6;
+  static final byte SERIALIZED = 7;
+
+  private MetaDataCodec() {
+  }
+
+  public static byte[] encode( final Map<String, ? extends Serializable> metaData ) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream( bytes );
+    out.writeInt( MAGIC );
+    out.writeInt( VERSION );
+    out.writeInt( metaData == null ? 0 : metaData.size() );
+    if ( metaData != null ) {
+      for ( final Map.Entry<String, ? extends Serializable> field : metaData.entrySet() ) {
+        if ( field.getKey() == null ) {
+          throw new IOException( "Metadata fields need a name" );
+        }
+        writeString( out, field.getKey() );
+        writeValue( out, field.getValue() );
+      }
+    }
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  /**
+   * @param data encoded or Java serialized metadata
+   * @return metadata
+   * @throws IOException if the data is neither
+   */
+  @SuppressWarnings( "unchecked" )
+  public static Map<String, Serializable> decode( final byte[] data ) throws IOException {
+    if ( !isEncoded( data ) ) {
+      final Object legacy = deserialize( data );
+      if ( legacy instanceof Map ) {
+        return (Map<String, Serializable>) legacy;
+      }
+      throw new IOException( "Not a metadata map: " + ( legacy == null ? null : legacy.getClass() ) );
+    }
+    final DataInputStream in = open( data );
+    final int count = in.readInt();
+    final Map<String, Serializable> result = new HashMap<>();
+    for ( int i = 0; i < count; i++ ) {
+      final String name = readString( in );
+      result.put( name, readValue( in ) );
+    }
+    return result;
+  }
+
+  /**
+   * Decodes a single field, skipping the values of all others.
+   *
+   * @param data encoded or Java serialized metadata
+   * @param name field name
+   * @return value or null if there is no such field
+   */
+  public static Serializable decodeField( final byte[] data, final String name ) throws IOException {
+    if ( !isEncoded( data ) ) {
+      return decode( data ).get( name );
+    }
+    final DataInputStream in = open( data );
+    final int count = in.readInt();
+    for ( int i = 0; i < count; i++ ) {
+      if ( name.equals( readString( in ) ) ) {
+        return readValue( in );
+      }
+      skipValue( in );
+    }
+    return null;
+  }
+
+  public static boolean isEncoded( final byte[] data ) {
+    return data != null && data.length >= 12
+      && ( ( data[ 0 ] & 0xff ) << 24 | ( data[ 1 ] & 0xff ) << 16 | ( data[ 2 ] & 0xff ) << 8 | data[ 3 ] & 0xff )
+      == MAGIC;
+  }
+
+  public static void write( final Map<String, ? extends Serializable> metaData, final File file ) throws IOException {
+    final File parent = file.getParentFile();
+    if ( parent != null ) {
+      parent.mkdirs();
+    }
+    Files.write( file.toPath(), encode( metaData ) );
+  }
+
+  public static Map<String, Serializable> read( final File file ) throws IOException {
+    return decode( Files.readAllBytes( file.toPath() ) );
+  }
+
+  public static Serializable readField( final File file, final String name ) throws IOException {
+    return decodeField( Files.readAllBytes( file.toPath() ), name );
+  }
+
+  private static DataInputStream open( final byte[] data ) throws IOException {
+    final DataInputStream in = new DataInputStream( new ByteArrayInputStream( data ) );
+    in.readInt();
+    final int version = in.readInt();
+    if ( version < 1 || version > VERSION ) {
+      throw new IOException( "Unsupported metadata version: " + version );
+    }
+    return in;
+  }
+
+  private static void writeValue( final DataOutputStream out, final Serializable value ) throws IOException {
+    if ( value == null ) {
+      out.writeByte( NULL );
+    } else if ( value instanceof String ) {
+      out.writeByte( STRING );
+      writeString( out, (String) value );
+    } else if ( value instanceof Boolean ) {
+      out.writeByte( BOOLEAN );
+      out.writeBoolean( (Boolean) value );
+    } else if ( value instanceof Integer ) {
+      out.writeByte( INTEGER );
+      out.writeInt( (Integer) value );
+    } else if ( value instanceof Long ) {
+      out.writeByte( LONG );
+      out.writeLong( (Long) value );
+    } else if ( value instanceof Double ) {
+      out.writeByte( DOUBLE );
+      out.writeDouble( (Double) value );
+    } else if ( value instanceof byte[] ) {
+      out.writeByte( BYTES );
+      writeBytes( out, (byte[]) value );
+    } else {
+      out.writeByte( SERIALIZED );
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try ( final ObjectOutputStream oos = new ObjectOutputStream( bytes ) ) {
+        oos.writeObject( value );
+      }
+      writeBytes( out, bytes.toByteArray() );
+    }
+  }
+
+  private static Serializable readValue( final DataInputStream in ) throws IOException {
+    final byte type = in.readByte();
+    switch ( type ) {
+      case NULL:
+        return null;
+      case STRING:
+        return readString( in );
+      case BOOLEAN:
+        return in.readBoolean();
+      case INTEGER:
+        return in.readInt();
+      case LONG:
+        return in.readLong();
+      case DOUBLE:
+        return in.readDouble();
+      case BYTES:
+        return readBytes( in );
+      case SERIALIZED:
+        return (Serializable) deserialize( readBytes( in ) );
+      default:
+        throw new IOException( "Unknown metadata type: " + type );
+    }
+  }
+
+  private static void skipValue( final DataInputStream in ) throws IOException {
+    final byte type = in.readByte();
+    switch ( type ) {
+      case NULL:
+        return;
+      case BOOLEAN:
+        skip( in, 1 );
+        return;
+      case INTEGER:
+        skip( in, 4 );
+        return;
+      case LONG:
+      case DOUBLE:
+        skip( in, 8 );
+        return;
+      case STRING:
+      case BYTES:
+      case SERIALIZED:
+        skip( in, in.readInt() );
+        return;
+      default:
+        throw new IOException( "Unknown metadata type: " + type );
+    }
+  }
+
+  private static void skip( final DataInputStream in, final int length ) throws IOException {
+    if ( length < 0 || in.skipBytes( length ) != length ) {
+      throw new IOException( "Truncated metadata" );
+    }
+  }
+
+  private static void writeString( final DataOutputStream out, final String value ) throws IOException {
+    writeBytes( out, value.getBytes( StandardCharsets.UTF_8 ) );
+  }
+
+  private static String readString( final DataInputStream in ) throws IOException {
+    return new String( readBytes( in ), StandardCharsets.UTF_8 );
+  }
+
+  private static void writeBytes( final DataOutputStream out, final byte[] value ) throws IOException {
+    out.writeInt( value.length );
+    out.write( value );
+  }
+
+  private static byte[] readBytes( final DataInputStream in ) throws IOException {
+    final int length = in.readInt();
+    if ( length < 0 || length > in.available() ) {
+      throw new IOException( "Truncated metadata" );
+    }
+    final byte[] value = new byte[ length ];
+    in.readFully( value );
+    return value;
+  }
+
+  private static Object deserialize( final byte[] data ) throws IOException {
+    try ( final ObjectInputStream ois = new ObjectInputStream( new ByteArrayInputStream( data ) ) ) {
+      return ois.readObject();
+    } catch ( final ClassNotFoundException e ) {
+      throw new IOException( e );
+    }
+  }
+}
@@ -0,0 +1,807 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Cache backend that keeps the values outside of the Java heap, so large amounts of rendered pages do not add to the
+ * garbage collection work. Memory is taken from direct {@link ByteBuffer} slabs of {@link #setSlabSize slabSize}
+ * bytes, which are split into fixed-size blocks. Every page occupies a chain of blocks. Slabs are allocated lazily up
+ * to {@link #setCapacity capacity} and are reused afterwards; once no free block is left, entries are evicted in
+ * least-recently-used order.
+ * <p>
+ * Report content is returned as an {@link IStreamableReportContent} view that writes pages straight from the slabs to
+ * the output stream. A view pins its entry while a page is being copied, blocks of an evicted or replaced entry are
+ * reused only after that. Views of such entries report their pages as missing. Other values are stored serialized and
+ * deserialized on read. Metadata stays on the heap.
+ */
+public class OffHeapCacheBackend implements ICacheBackend {
+
+  private static final Log logger = LogFactory.getLog( OffHeapCacheBackend.class );
+
+  private final LinkedHashMap<List<String>, Entry> entries = new LinkedHashMap<>( 16, 0.75f, true );
+  /**
+   * Replaced on shutdown, entries keep a reference to the list their blocks belong to.
+   */
+  private List<ByteBuffer> slabs = new CopyOnWriteArrayList<>();
+  private int[] freeBlocks = new int[ 0 ];
+  private int freeCount;
+
+  private long capacity = 256L * 1024 * 1024;
+  private int slabSize = 4 * 1024 * 1024;
+  private int blockSize = 8 * 1024;
+  private long storedBytes;
+  private long evictions;
+  private MemoryCacheBackend.EvictionListener evictionListener;
+
+  public OffHeapCacheBackend() {
+  }
+
+  public OffHeapCacheBackend( final long capacity, final int slabSize, final int blockSize ) {
+    setBlockSize( blockSize );
+    setSlabSize( slabSize );
+    setCapacity( capacity );
+  }
+
+  /**
+   * @param capacity maximum amount of direct memory in bytes, rounded down to whole slabs
+   */
+  public synchronized void setCapacity( final long capacity ) {
+    if ( !slabs.isEmpty() && capacity < (long) slabs.size() * slabSize ) {
+      throw new IllegalStateException( "Capacity can't be reduced below the allocated slabs" );
+    }
+    this.capacity = capacity;
+  }
+
+  public synchronized long getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * @param slabSize size of a single direct buffer, must be a multiple of the block size
+   */
+  public synchronized void setSlabSize( final int slabSize ) {
+    checkNotAllocated();
+    if ( slabSize <= 0 || slabSize % blockSize != 0 ) {
+      throw new IllegalArgumentException( "Slab size must be a positive multiple of the block size: " + slabSize );
+    }
+    this.slabSize = slabSize;
+  }
+
+  public synchronized int getSlabSize() {
+    return slabSize;
+  }
+
+  /**
+   * @param blockSize allocation unit, the last block of a page wastes on average half of it
+   */
+  public synchronized void setBlockSize( final int blockSize ) {
+    checkNotAllocated();
+    if ( blockSize <= 0 ) {
+      throw new IllegalArgumentException( "Block size must be positive: " + blockSize );
+    }
+    this.blockSize = blockSize;
+    if ( slabSize % blockSize != 0 ) {
+      slabSize = Math.max( 1, slabSize / blockSize ) * blockSize;
+    }
+  }
+
+  public synchronized int getBlockSize() {
+    return blockSize;
+  }
+
+  public synchronized void setEvictionListener( final MemoryCacheBackend.EvictionListener evictionListener ) {
+    this.evictionListener = evictionListener;
+  }
+
+  private void checkNotAllocated() {
+    if ( !slabs.isEmpty() ) {
+      throw new IllegalStateException( "Slab layout can't be changed after the first allocation" );
+    }
+  }
+
+  @Override
+  public boolean write( final List<String> key, final Serializable value, final Map<String, Serializable> metaData ) {
+    final HashMap<String, Serializable> writeableMetaData = new HashMap<>();
+    if ( metaData != null ) {
+      writeableMetaData.putAll( metaData );
+    }
+    final int[] pages;
+    final int[] lengths;
+    final byte[] serialized;
+    final int pageCount;
+    if ( value instanceof IReportContent ) {
+      final IReportContent content = (IReportContent) value;
+      pageCount = content.getPageCount();
+      pages = storedPages( content );
+      lengths = new int[ pages.length ];
+      serialized = null;
+    } else {
+      pageCount = -1;
+      pages = new int[] { 0 };
+      try {
+        serialized = serialize( value );
+      } catch ( final IOException e ) {
+        logger.debug( "Can't serialize cache entry: ", e );
+        return false;
+      }
+      lengths = new int[] { serialized.length };
+    }
+
+    final List<String> cleanKey = FileSystemCacheBackend.sanitizeKeySegments( key );
+    final Entry entry = new Entry( cleanKey, pageCount, pages, lengths, writeableMetaData );
+    final List<EvictedEntry> evicted = new ArrayList<>();
+    try {
+      for ( int i = 0; i < pages.length; i++ ) {
+        if ( !writePage( entry, i, value, serialized, evicted ) ) {
+          free( entry );
+          return false;
+        }
+      }
+      final Entry previous;
+      synchronized ( this ) {
+        if ( entry.slabs != null && entry.slabs != slabs ) {
+          // shut down while the entry was written
+          return false;
+        }
+        previous = entries.put( cleanKey, entry );
+        storedBytes += entry.storedBytes();
+        if ( previous != null ) {
+          retire( previous );
+        }
+      }
+      return true;
+    } catch ( final IOException e ) {
+      logger.debug( "Can't copy cache entry: ", e );
+      free( entry );
+      return false;
+    } finally {
+      notifyEvicted( evicted );
+    }
+  }
+
+  /**
+   * Copies a single page into freshly allocated blocks. Streamable sources are copied without a page-sized heap
+   * buffer.
+   */
+  private boolean writePage( final Entry entry, final int slot, final Serializable value, final byte[] serialized,
+                             final List<EvictedEntry> evicted ) throws IOException {
+    final int page = entry.pages[ slot ];
+    if ( serialized == null && value instanceof IStreamableReportContent ) {
+      final IStreamableReportContent content = (IStreamableReportContent) value;
+      final int length = content.getPageLength( page );
+      if ( length < 0 || !allocate( entry, slot, length, evicted ) ) {
+        return false;
+      }
+      entry.lengths[ slot ] = length;
+      final BlockOutputStream out = new BlockOutputStream( entry, slot );
+      // the source content may be gone meanwhile, e.g. a file entry that was purged
+      return content.writePageTo( page, out ) && out.written == length;
+    }
+    final byte[] data = serialized != null ? serialized : ( (IReportContent) value ).getPageData( page );
+    if ( data == null || !allocate( entry, slot, data.length, evicted ) ) {
+      return false;
+    }
+    entry.lengths[ slot ] = data.length;
+    int offset = 0;
+    for ( final int block : entry.blocks[ slot ] ) {
+      final int length = Math.min( blockSize, data.length - offset );
+      block( entry, block ).put( data, offset, length );
+      offset += length;
+    }
+    return true;
+  }
+
+  @Override
+  public Serializable read( final List<String> key ) {
+    final Entry entry;
+    synchronized ( this ) {
+      entry = entries.get( FileSystemCacheBackend.sanitizeKeySegments( key ) );
+    }
+    if ( entry == null ) {
+      return null;
+    }
+    if ( entry.pageCount >= 0 ) {
+      return new OffHeapReportContent( this, entry );
+    }
+    final byte[] data = copyOut( entry, 0 );
+    if ( data == null ) {
+      return null;
+    }
+    try {
+      return deserialize( data );
+    } catch ( final IOException | ClassNotFoundException e ) {
+      logger.debug( "Can't deserialize cache entry: ", e );
+      return null;
+    }
+  }
+
+  @Override
+  public synchronized Map<String, Serializable> readMetaData( final List<String> key ) {
+    final Entry entry = entries.get( FileSystemCacheBackend.sanitizeKeySegments( key ) );
+    return entry == null ? null : new HashMap<>( entry.metaData );
+  }
+
+  /**
+   * Removes the entry and all entries stored below it.
+   */
+  @Override
+  public synchronized boolean purge( final List<String> key ) {
+    final List<String> cleanKey = FileSystemCacheBackend.sanitizeKeySegments( key );
+    final Iterator<Map.Entry<List<String>, Entry>> it = entries.entrySet().iterator();
+    while ( it.hasNext() ) {
+      final Entry entry = it.next().getValue();
+      if ( startsWith( entry.key, cleanKey ) ) {
+        it.remove();
+        retire( entry );
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public void purgeSegment( final List<String> key, final BiPredicate<List<String>, Map<String, Serializable>> p ) {
+    final List<String> cleanKey = FileSystemCacheBackend.sanitizeKeySegments( key );
+    final List<List<String>> candidates = new ArrayList<>();
+    synchronized ( this ) {
+      for ( final List<String> entryKey : entries.keySet() ) {
+        if ( entryKey.size() > cleanKey.size() && startsWith( entryKey, cleanKey ) ) {
+          candidates.add( entryKey );
+        }
+      }
+    }
+    //the predicate may call back into cache code, so don't hold the monitor while testing
+    for ( final List<String> entryKey : candidates ) {
+      final Map<String, Serializable> metaData = readMetaData( entryKey );
+      if ( metaData != null && p.test( entryKey, metaData ) ) {
+        purge( entryKey );
+      }
+    }
+  }
+
+  /**
+   * Drops all entries and releases the slabs. Pinned entries keep their slab reachable until they are released.
+   */
+  public synchronized void shutdown() {
+    for ( final Entry entry : entries.values() ) {
+      entry.removed = true;
+    }
+    entries.clear();
+    slabs = new CopyOnWriteArrayList<>();
+    freeBlocks = new int[ 0 ];
+    freeCount = 0;
+    storedBytes = 0;
+  }
+
+  /**
+   * @return snapshot of the allocator state
+   */
+  public synchronized SlabStats getStats() {
+    final int blocksPerSlab = slabSize / blockSize;
+    final int[] freePerSlab = new int[ slabs.size() ];
+    for ( int i = 0; i < freeCount; i++ ) {
+      freePerSlab[ freeBlocks[ i ] / blocksPerSlab ]++;
+    }
+    int partialSlabs = 0;
+    long scatteredBlocks = 0;
+    for ( final int free : freePerSlab ) {
+      if ( free > 0 && free < blocksPerSlab ) {
+        partialSlabs++;
+        scatteredBlocks += free;
+      }
+    }
+    final long usedBlocks = (long) slabs.size() * blocksPerSlab - freeCount;
+    return new SlabStats( capacity, slabs.size(), slabSize, blockSize, usedBlocks, freeCount, partialSlabs,
+      scatteredBlocks, entries.size(), storedBytes, evictions );
+  }
+
+  /**
+   * Hands out the blocks for a page of the given length, allocating slabs and evicting entries as needed.
+   *
+   * @return false if the blocks can't be provided
+   */
+  private synchronized boolean allocate( final Entry entry, final int slot, final int length,
+                                         final List<EvictedEntry> evicted ) {
+    if ( entry.slabs == null ) {
+      entry.slabs = slabs;
+    } else if ( entry.slabs != slabs ) {
+      // shut down while the entry was written
+      return false;
+    }
+    final int count = Math.max( 1, ( length + blockSize - 1 ) / blockSize );
+    final int blocksPerSlab = slabSize / blockSize;
+    final long maxBlocks = capacity / slabSize * blocksPerSlab;
+    if ( count > maxBlocks ) {
+      logger.debug( "Entry is too large for the off-heap cache: " + entry.key );
+      return false;
+    }
+    while ( freeCount < count ) {
+      if ( (long) ( slabs.size() + 1 ) * slabSize <= capacity ) {
+        addSlab( blocksPerSlab );
+        continue;
+      }
+      final Iterator<Entry> it = entries.values().iterator();
+      if ( !it.hasNext() ) {
+        // everything left is pinned by readers
+        return false;
+      }
+      final Entry eldest = it.next();
+      it.remove();
+      evictions++;
+      if ( evictionListener != null && evictionListener.accepts( eldest.key ) ) {
+        // the blocks are reused right away, so the listener gets a heap copy
+        evicted.add( new EvictedEntry( eldest.key, materialize( eldest ), eldest.metaData ) );
+      }
+      retire( eldest );
+    }
+    final int[] blocks = new int[ count ];
+    freeCount -= count;
+    System.arraycopy( freeBlocks, freeCount, blocks, 0, count );
+    entry.blocks[ slot ] = blocks;
+    return true;
+  }
+
+  private void addSlab( final int blocksPerSlab ) {
+    final int slab = slabs.size();
+    slabs.add( ByteBuffer.allocateDirect( slabSize ) );
+    if ( freeBlocks.length < freeCount + blocksPerSlab ) {
+      freeBlocks = Arrays.copyOf( freeBlocks, slabs.size() * blocksPerSlab );
+    }
+    // push in reverse, so blocks of a page are handed out in address order
+    for ( int i = blocksPerSlab - 1; i >= 0; i-- ) {
+      freeBlocks[ freeCount++ ] = slab * blocksPerSlab + i;
+    }
+  }
+
+  /**
+   * Marks an entry that left the index as removed and frees its blocks unless it is pinned.
+   */
+  private void retire( final Entry entry ) {
+    if ( !entry.removed ) {
+      entry.removed = true;
+      storedBytes -= entry.storedBytes();
+    }
+    if ( entry.pins == 0 ) {
+      free( entry );
+    }
+  }
+
+  private synchronized void free( final Entry entry ) {
+    if ( entry.slabs != slabs ) {
+      // blocks of slabs dropped by shutdown are not returned to the pool
+      return;
+    }
+    for ( int i = 0; i < entry.blocks.length; i++ ) {
+      final int[] blocks = entry.blocks[ i ];
+      if ( blocks != null ) {
+        System.arraycopy( blocks, 0, freeBlocks, freeCount, blocks.length );
+        freeCount += blocks.length;
+        entry.blocks[ i ] = null;
+      }
+    }
+  }
+
+  private synchronized boolean pin( final Entry entry ) {
+    if ( entry.removed ) {
+      return false;
+    }
+    entry.pins++;
+    return true;
+  }
+
+  private synchronized void unpin( final Entry entry ) {
+    entry.pins--;
+    if ( entry.pins == 0 && entry.removed ) {
+      free( entry );
+    }
+  }
+
+  private void notifyEvicted( final List<EvictedEntry> evicted ) {
+    if ( evicted.isEmpty() ) {
+      return;
+    }
+    final MemoryCacheBackend.EvictionListener listener;
+    synchronized ( this ) {
+      listener = evictionListener;
+    }
+    if ( listener == null ) {
+      return;
+    }
+    for ( final EvictedEntry entry : evicted ) {
+      if ( entry.value != null ) {
+        listener.evicted( entry.key, entry.value, entry.metaData );
+      }
+    }
+  }
+
+  /**
+   * Copies an entry whose blocks are still allocated to the heap.
+   */
+  private Serializable materialize( final Entry entry ) {
+    if ( entry.pageCount >= 0 ) {
+      final Map<Integer, byte[]> data = new HashMap<>();
+      for ( int slot = 0; slot < entry.pages.length; slot++ ) {
+        data.put( entry.pages[ slot ], readPage( entry, slot ) );
+      }
+      return new ReportContentImpl( entry.pageCount, data );
+    }
+    try {
+      return deserialize( readPage( entry, 0 ) );
+    } catch ( final IOException | ClassNotFoundException e ) {
+      logger.debug( "Can't deserialize cache entry: ", e );
+      return null;
+    }
+  }
+
+  private ByteBuffer block( final Entry entry, final int block ) {
+    // slab and block size can't change once slabs exist
+    final int blocksPerSlab = slabSize / blockSize;
+    final ByteBuffer slab = entry.slabs.get( block / blocksPerSlab );
+    // duplicates have their own position, so concurrent copies don't interfere
+    final ByteBuffer buffer = slab.duplicate();
+    final int offset = ( block % blocksPerSlab ) * blockSize;
+    buffer.limit( offset + blockSize );
+    buffer.position( offset );
+    return buffer;
+  }
+
+  /**
+   * Copies a page to the heap, the entry must be pinned or still be in the index.
+   */
+  private byte[] readPage( final Entry entry, final int slot ) {
+    final byte[] result = new byte[ entry.lengths[ slot ] ];
+    int offset = 0;
+    for ( final int block : entry.blocks[ slot ] ) {
+      final int length = Math.min( blockSize, result.length - offset );
+      block( entry, block ).get( result, offset, length );
+      offset += length;
+    }
+    return result;
+  }
+
+  private byte[] copyOut( final Entry entry, final int slot ) {
+    if ( !pin( entry ) ) {
+      return null;
+    }
+    try {
+      return readPage( entry, slot );
+    } finally {
+      unpin( entry );
+    }
+  }
+
+  /**
+   * Streams a page block by block through a single block-sized buffer.
+   */
+  private boolean writeTo( final Entry entry, final int slot, final OutputStream out ) throws IOException {
+    if ( !pin( entry ) ) {
+      return false;
+    }
+    try {
+      final byte[] chunk = new byte[ Math.min( blockSize, Math.max( 1, entry.lengths[ slot ] ) ) ];
+      int remaining = entry.lengths[ slot ];
+      for ( final int block : entry.blocks[ slot ] ) {
+        final int length = Math.min( blockSize, remaining );
+        int offset = 0;
+        final ByteBuffer buffer = block( entry, block );
+        while ( offset < length ) {
+          final int n = Math.min( chunk.length, length - offset );
+          buffer.get( chunk, 0, n );
+          out.write( chunk, 0, n );
+          offset += n;
+        }
+        remaining -= length;
+      }
+      return true;
+    } finally {
+      unpin( entry );
+    }
+  }
+
+  /**
+   * Fills the blocks of a page. Writing beyond the allocated blocks fails.
+   */
+  private final class BlockOutputStream extends OutputStream {
+    private final Entry entry;
+    private final int[] blocks;
+    private int written;
+
+    private BlockOutputStream( final Entry entry, final int slot ) {
+      this.entry = entry;
+      this.blocks = entry.blocks[ slot ];
+    }
+
+    @Override public void write( final int b ) throws IOException {
+      write( new byte[] { (byte) b }, 0, 1 );
+    }
+
+    @Override public void write( final byte[] b, final int off, final int len ) throws IOException {
+      int offset = off;
+      int remaining = len;
+      while ( remaining > 0 ) {
+        final int index = written / blockSize;
+        if ( index >= blocks.length ) {
+          throw new IOException( "Page is larger than announced" );
+        }
+        final ByteBuffer buffer = block( entry, blocks[ index ] );
+        buffer.position( buffer.position() + written % blockSize );
+        final int n = Math.min( remaining, buffer.remaining() );
+        buffer.put( b, offset, n );
+        offset += n;
+        remaining -= n;
+        written += n;
+      }
+    }
+  }
+
+  private static int[] storedPages( final IReportContent content ) {
+    if ( content instanceof OffHeapReportContent ) {
+      return ( (OffHeapReportContent) content ).entry.pages.clone();
+    }
+    final int[] result = new int[ content.getStoredPageCount() ];
+    int slot = 0;
+    // stored pages are usually 0..n-1, but the count is all we are told
+    for ( int page = 0; slot < result.length && page < Math.max( content.getPageCount(), result.length ); page++ ) {
+      if ( content instanceof IStreamableReportContent
+        ? ( (IStreamableReportContent) content ).getPageLength( page ) >= 0
+        : content.getPageData( page ) != null ) {
+        result[ slot++ ] = page;
+      }
+    }
+    return slot == result.length ? result : Arrays.copyOf( result, slot );
+  }
+
+  private static byte[] serialize( final Serializable value ) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try ( final ObjectOutputStream out = new ObjectOutputStream( bytes ) ) {
+      out.writeObject( value );
+    }
+    return bytes.toByteArray();
+  }
+
+  private static Serializable deserialize( final byte[] data ) throws IOException, ClassNotFoundException {
+    if ( data == null ) {
+      return null;
+    }
+    try ( final ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( data ) ) ) {
+      return (Serializable) in.readObject();
+    }
+  }
+
+  private static boolean startsWith( final List<String> key, final List<String> prefix ) {
+    return key.size() >= prefix.size() && key.subList( 0, prefix.size() ).equals( prefix );
+  }
+
+  private static final class Entry {
+    private final List<String> key;
+    private final int pageCount;
+    private final int[] pages;
+    private final int[][] blocks;
+    private final int[] lengths;
+    private final Map<String, Serializable> metaData;
+    private List<ByteBuffer> slabs;
+    private volatile boolean removed;
+    private int pins;
+
+    private Entry( final List<String> key, final int pageCount, final int[] pages, final int[] lengths,
+                   final Map<String, Serializable> metaData ) {
+      this.key = key;
+      this.pageCount = pageCount;
+      this.pages = pages;
+      this.lengths = lengths;
+      this.blocks = new int[ pages.length ][];
+      this.metaData = metaData;
+    }
+
+    private long storedBytes() {
+      long result = 0;
+      for ( final int length : lengths ) {
+        result += length;
+      }
+      return result;
+    }
+
+    private int findSlot( final int page ) {
+      if ( page >= 0 && page < pages.length && pages[ page ] == page ) {
+        return page;
+      }
+      for ( int i = 0; i < pages.length; i++ ) {
+        if ( pages[ i ] == page ) {
+          return i;
+        }
+      }
+      return -1;
+    }
+  }
+
+  private static final class EvictedEntry {
+    private final List<String> key;
+    private final Serializable value;
+    private final Map<String, Serializable> metaData;
+
+    private EvictedEntry( final List<String> key, final Serializable value, final Map<String, Serializable> metaData ) {
+      this.key = key;
+      this.value = value;
+      this.metaData = metaData;
+    }
+  }
+
+  /**
+   * View of an off-heap entry. Serialized as a detached in-memory copy.
+   */
+  private static final class OffHeapReportContent implements IStreamableReportContent {
+
+    private final transient OffHeapCacheBackend backend;
+    private final transient Entry entry;
+
+    private OffHeapReportContent( final OffHeapCacheBackend backend, final Entry entry ) {
+      this.backend = backend;
+      this.entry = entry;
+    }
+
+    @Override public int getPageCount() {
+      return entry.pageCount;
+    }
+
+    @Override public int getStoredPageCount() {
+      return entry.pages.length;
+    }
+
+    @Override public byte[] getPageData( final int page ) {
+      final int slot = entry.findSlot( page );
+      return slot < 0 ? null : backend.copyOut( entry, slot );
+    }
+
+    @Override public int getPageLength( final int page ) {
+      final int slot = entry.findSlot( page );
+      return slot < 0 || entry.removed ? -1 : entry.lengths[ slot ];
+    }
+
+    @Override public boolean writePageTo( final int page, final OutputStream out ) throws IOException {
+      final int slot = entry.findSlot( page );
+      return slot >= 0 && backend.writeTo( entry, slot, out );
+    }
+
+    protected Object writeReplace() throws ObjectStreamException {
+      final Map<Integer, byte[]> data = new HashMap<>();
+      for ( final int page : entry.pages ) {
+        final byte[] pageData = getPageData( page );
+        if ( pageData != null ) {
+          data.put( page, pageData );
+        }
+      }
+      return new ReportContentImpl( entry.pageCount, data );
+    }
+  }
+
+  /**
+   * Allocator statistics. Internal fragmentation is the unused tail of the last block of every page, slab
+   * fragmentation is the share of free blocks scattered over slabs that are still partially in use.
+   */
+  public static final class SlabStats {
+    private final long capacity;
+    private final int slabCount;
+    private final int slabSize;
+    private final int blockSize;
+    private final long usedBlocks;
+    private final long freeBlocks;
+    private final int partiallyUsedSlabs;
+    private final long scatteredBlocks;
+    private final int entryCount;
+    private final long storedBytes;
+    private final long evictions;
+
+    SlabStats( final long capacity, final int slabCount, final int slabSize, final int blockSize,
+               final long usedBlocks, final long freeBlocks, final int partiallyUsedSlabs,
+               final long scatteredBlocks, final int entryCount, final long storedBytes, final long evictions ) {
+      this.capacity = capacity;
+      this.slabCount = slabCount;
+      this.slabSize = slabSize;
+      this.blockSize = blockSize;
+      this.usedBlocks = usedBlocks;
+      this.freeBlocks = freeBlocks;
+      this.partiallyUsedSlabs = partiallyUsedSlabs;
+      this.scatteredBlocks = scatteredBlocks;
+      this.entryCount = entryCount;
+      this.storedBytes = storedBytes;
+      this.evictions = evictions;
+    }
+
+    public long getCapacity() {
+      return capacity;
+    }
+
+    public int getSlabCount() {
+      return slabCount;
+    }
+
+    public long getAllocatedBytes() {
+      return (long) slabCount * slabSize;
+    }
+
+    public int getBlockSize() {
+      return blockSize;
+    }
+
+    public long getUsedBlocks() {
+      return usedBlocks;
+    }
+
+    public long getFreeBlocks() {
+      return freeBlocks;
+    }
+
+    public int getPartiallyUsedSlabs() {
+      return partiallyUsedSlabs;
+    }
+
+    public int getEntryCount() {
+      return entryCount;
+    }
+
+    public long getStoredBytes() {
+      return storedBytes;
+    }
+
+    public long getEvictions() {
+      return evictions;
+    }
+
+    /**
+     * @return bytes of used blocks that don't hold data, including blocks of pinned entries waiting to be freed
+     */
+    public long getWastedBytes() {
+      return Math.max( 0, usedBlocks * blockSize - storedBytes );
+    }
+
+    /**
+     * @return share of the used block bytes that don't hold data, between 0 and 1
+     */
+    public double getInternalFragmentation() {
+      return usedBlocks == 0 ? 0 : (double) getWastedBytes() / ( usedBlocks * blockSize );
+    }
+
+    /**
+     * @return share of the free blocks that lie in partially used slabs, between 0 and 1
+     */
+    public double getSlabFragmentation() {
+      return freeBlocks == 0 ? 0 : (double) scatteredBlocks / freeBlocks;
+    }
+  }
+}
@@ -0,0 +1,238 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Encoding of a single cached page. Every page is encoded on its own, so any page can be decoded without its
+ * neighbours.
+ */
+public enum PageCodec {
+
+  /**
+   * Pages are stored as they are.
+   */
+  IDENTITY( 0, "identity", null ) {
+    @Override public byte[] encode( final byte[] data, final byte[] dictionary ) {
+      return data;
+    }
+
+    @Override public void decode( final InputStream in, final OutputStream out, final byte[] dictionary )
+      throws IOException {
+      copy( in, out );
+    }
+  },
+
+  /**
+   * Every page is a complete gzip stream and can be sent as is to clients accepting the gzip content encoding.
+   */
+  GZIP( 1, "gzip", "gzip" ) {
+    @Override public byte[] encode( final byte[] data, final byte[] dictionary ) throws IOException {
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream( data.length / 4 + 64 );
+      try ( final GZIPOutputStream out = new GZIPOutputStream( bytes ) ) {
+        out.write( data );
+      }
+      return bytes.toByteArray();
+    }
+
+    @Override public void decode( final InputStream in, final OutputStream out, final byte[] dictionary )
+      throws IOException {
+      copy( new GZIPInputStream( in ), out );
+    }
+  },
+
+  /**
+   * Deflate with a preset dictionary shared by all pages of a report. Small pages compress much better, as the
+   * styles and table markup they repeat are already in the dictionary, but a client can't decode them.
+   */
+  DEFLATE_DICTIONARY( 2, "deflate-dictionary", null ) {
+    @Override public byte[] encode( final byte[] data, final byte[] dictionary ) {
+      final Deflater deflater = new Deflater( Deflater.BEST_COMPRESSION );
+      try {
+        if ( dictionary != null && dictionary.length > 0 ) {
+          deflater.setDictionary( dictionary );
+        }
+        deflater.setInput( data );
+        deflater.finish();
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream( data.length / 4 + 64 );
+        final byte[] buffer = new byte[ 8192 ];
+        while ( !deflater.finished() ) {
+          bytes.write( buffer, 0, deflater.deflate( buffer ) );
+        }
+        return bytes.toByteArray();
+      } finally {
+        deflater.end();
+      }
+    }
+
+    @Override public void decode( final InputStream in, final OutputStream out, final byte[] dictionary )
+      throws IOException {
+      final Inflater inflater = new Inflater();
+      try {
+        final byte[] input = new byte[ 8192 ];
+        final byte[] buffer = new byte[ 8192 ];
+        while ( !inflater.finished() ) {
+          if ( inflater.needsInput() ) {
+            final int read = in.read( input );
+            if ( read < 0 ) {
+              throw new IOException( "Truncated page data" );
+            }
+            inflater.setInput( input, 0, read );
+          }
+          final int inflated = inflater.inflate( buffer );
+          if ( inflated > 0 ) {
+            out.write( buffer, 0, inflated );
+          } else if ( inflater.needsDictionary() ) {
+            if ( dictionary == null ) {
+              throw new IOException( "Page data requires a dictionary" );
+            }
+            inflater.setDictionary( dictionary );
+          }
+        }
+      } catch ( final DataFormatException e ) {
+        throw new IOException( "Corrupted page data", e );
+      } finally {
+        inflater.end();
+      }
+    }
+  };
+
+  /**
+   * Deflate can't reference data further back than its 32K window.
+   */
+  public static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+
+  /**
+   * Number of leading pages the dictionary is taken from.
+   */
+  public static final int DICTIONARY_PAGES = 2;
+
+  private final int id;
+  private final String codecName;
+  private final String contentEncoding;
+
+  PageCodec( final int id, final String codecName, final String contentEncoding ) {
+    this.id = id;
+    this.codecName = codecName;
+    this.contentEncoding = contentEncoding;
+  }
+
+  /**
+   * @return stable identifier used in the on-disk format
+   */
+  public int getId() {
+    return id;
+  }
+
+  /**
+   * @return name used in configuration and cache metadata
+   */
+  public String getCodecName() {
+    return codecName;
+  }
+
+  /**
+   * @return HTTP content encoding of the encoded pages or null if they can't be sent to a client as they are
+   */
+  public String getContentEncoding() {
+    return contentEncoding;
+  }
+
+  public boolean isDictionaryBased() {
+    return this == DEFLATE_DICTIONARY;
+  }
+
+  public abstract byte[] encode( final byte[] data, final byte[] dictionary ) throws IOException;
+
+  public abstract void decode( final InputStream in, final OutputStream out, final byte[] dictionary )
+    throws IOException;
+
+  public byte[] decode( final byte[] data, final byte[] dictionary ) throws IOException {
+    if ( this == IDENTITY ) {
+      return data;
+    }
+    final ByteArrayOutputStream out = new ByteArrayOutputStream( data.length * 4 );
+    decode( new ByteArrayInputStream( data ), out, dictionary );
+    return out.toByteArray();
+  }
+
+  /**
+   * Derives a dictionary from the leading pages of a report. Paginated HTML repeats the style sheet and the table
+   * markup of the first pages on every page. Deflate finds matches near the end of the dictionary cheapest, so the
+   * first page goes last.
+   *
+   * @param content report content
+   * @return dictionary, empty if there are no pages
+   */
+  public static byte[] deriveDictionary( final IReportContent content ) {
+    final ByteArrayOutputStream dictionary = new ByteArrayOutputStream( MAX_DICTIONARY_SIZE );
+    final int perPage = MAX_DICTIONARY_SIZE / DICTIONARY_PAGES;
+    for ( int page = DICTIONARY_PAGES - 1; page >= 0; page-- ) {
+      final byte[] data = content.getPageData( page );
+      if ( data != null ) {
+        dictionary.write( data, 0, Math.min( perPage, data.length ) );
+      }
+    }
+    return dictionary.toByteArray();
+  }
+
+  /**
+   * @param id identifier as returned by {@link #getId()}
+   * @return codec
+   * @throws IOException if the identifier is unknown
+   */
+  public static PageCodec forId( final int id ) throws IOException {
+    for ( final PageCodec codec : values() ) {
+      if ( codec.id == id ) {
+        return codec;
+      }
+    }
+    throw new IOException( "Unknown page codec: " + id );
+  }
+
+  /**
+   * @param name codec name, case-insensitive
+   * @return codec, {@link #IDENTITY} for unknown or empty names
+   */
+  public static PageCodec forName( final String name ) {
+    for ( final PageCodec codec : values() ) {
+      if ( codec.codecName.equalsIgnoreCase( name == null ? "" : name.trim() ) ) {
+        return codec;
+      }
+    }
+    return IDENTITY;
+  }
+
+  private static void copy( final InputStream in, final OutputStream out ) throws IOException {
+    final byte[] buffer = new byte[ 8192 ];
+    int read;
+    while ( ( read = in.read( buffer ) ) >= 0 ) {
+      out.write( buffer, 0, read );
+    }
+  }
+}
@@ -46,6 +46,8 @@ public class PentahoDataCache implements DataCache, ILogoutListener {
 
   private static final String CACHE_NAME = "report-dataset-cache";
 
+  private static final CacheStatistics statistics = CacheStatistics.get( CACHE_NAME );
+
   /**
    * this as a public class so that if necessary someone can get access to a session key and clear the cache in their
    * own way via javascript rule / etc
@@ -117,6 +119,7 @@ public class PentahoDataCache implements DataCache, ILogoutListener {
                 CompositeKey key = (CompositeKey) k;
                 if ( key.sessionId.equals( session.getId() ) ) {
                   cacheManager.removeFromRegionCache( CACHE_NAME, key );
+                  statistics.recordEvictions( 1 );
                 }
               }
             }
@@ -176,7 +179,15 @@ public class PentahoDataCache implements DataCache, ILogoutListener {
       log.debug( "looking up key for session " + session.getId() );
     }
 
-    return (TableModel) cacheManager.getFromRegionCache( CACHE_NAME, new CompositeKey( session.getId(), key ) );
+    final long start = System.nanoTime();
+    final TableModel model =
+      (TableModel) cacheManager.getFromRegionCache( CACHE_NAME, new CompositeKey( session.getId(), key ) );
+    if ( model == null ) {
+      statistics.recordMiss( System.nanoTime() - start );
+    } else {
+      statistics.recordHit( System.nanoTime() - start );
+    }
+    return model;
   }
 
   public synchronized TableModel put( final DataCacheKey key, final TableModel model ) {
@@ -205,8 +216,10 @@ public class PentahoDataCache implements DataCache, ILogoutListener {
       if ( log.isDebugEnabled() ) {
         log.debug( "placing model in cache for session " + session.getId() + " (rows=" + model.getColumnCount() + ")" );
       }
+      final long start = System.nanoTime();
       final TableModel cacheModel = new CachableTableModel( model );
       cacheManager.putInRegionCache( CACHE_NAME, new CompositeKey( session.getId(), key ), cacheModel );
+      statistics.recordWrite( System.nanoTime() - start );
       return cacheModel;
     }
     return model;
@@ -27,6 +27,8 @@ public class PluginCacheManagerImpl implements IPluginCacheManager {
 
   private IReportContentCache strategy;
 
+  private IReportContentCache sharedStrategy;
+
   public IReportContentCache getStrategy() {
     return strategy;
   }
@@ -40,4 +42,13 @@ public class PluginCacheManagerImpl implements IPluginCacheManager {
     return strategy;
   }
 
+  public void setSharedStrategy( final IReportContentCache sharedStrategy ) {
+    this.sharedStrategy = sharedStrategy;
+  }
+
+  @Override
+  public IReportContentCache getSharedCache() {
+    return sharedStrategy;
+  }
+
 }
@@ -23,6 +23,7 @@ import org.pentaho.platform.api.engine.IPentahoSession;
 import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
 
+import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -68,6 +69,10 @@ public class PluginSessionCache extends AbstractReportContentCache {
     getBackend().purge(  Collections.unmodifiableList( Arrays.asList( SEGMENT, session.getId() ) ) );
   }
 
+  @Override public void invalidate( final String name, final Serializable value ) {
+    getBackend().purgeSegment( Collections.singletonList( SEGMENT ), ( k, m ) -> m != null && value.equals( m.get( name ) ) );
+  }
+
   /**
    * Logout listener that purges cache
    */
@@ -0,0 +1,275 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * In-memory accounting of cache entry sizes, grouped by owner. Entries are kept ordered by the rank of the
+ * {@link EvictionPolicy}, so a victim is found without scanning the cache. A limit of 0 means no limit.
+ */
+final class QuotaIndex {
+
+  private final Map<List<String>, Usage> entries = new HashMap<>();
+  private final Map<String, Owner> owners = new HashMap<>();
+  private TreeSet<Usage> queue;
+  private EvictionPolicy policy;
+  private long maxBytes;
+  private long maxOwnerBytes;
+  private long bytes;
+  private long sequence;
+  private double inflation;
+
+  QuotaIndex() {
+    setPolicy( EvictionPolicy.LRU );
+  }
+
+  synchronized void setPolicy( final EvictionPolicy policy ) {
+    if ( policy == null ) {
+      throw new NullPointerException();
+    }
+    this.policy = policy;
+    this.queue = newQueue();
+    for ( final Owner owner : owners.values() ) {
+      owner.queue = newQueue();
+    }
+    for ( final Usage usage : entries.values() ) {
+      usage.rank = policy.rank( usage.hits, usage.size, usage.lastAccess, inflation );
+      queue.add( usage );
+      usage.owner.queue.add( usage );
+    }
+  }
+
+  synchronized EvictionPolicy getPolicy() {
+    return policy;
+  }
+
+  synchronized void setMaxBytes( final long maxBytes ) {
+    this.maxBytes = maxBytes;
+  }
+
+  synchronized void setMaxOwnerBytes( final long maxOwnerBytes ) {
+    this.maxOwnerBytes = maxOwnerBytes;
+  }
+
+  /**
+   * Records a written entry and evicts entries until the limits hold again. The new entry itself is evicted only if
+   * it does not fit on its own.
+   *
+   * @return keys of the evicted entries, they still have to be removed from the backend
+   */
+  synchronized List<List<String>> put( final List<String> key, final String owner, final long size, final long hits,
+                                       final long timestamp ) {
+    return evict( owner, add( key, owner, size, hits, timestamp ) );
+  }
+
+  /**
+   * Records an entry found in the backend without enforcing the limits, see {@link #evict()}.
+   */
+  synchronized void seed( final List<String> key, final String owner, final long size, final long hits,
+                          final long timestamp ) {
+    if ( !entries.containsKey( key ) ) {
+      add( key, owner, size, hits, timestamp );
+    }
+  }
+
+  /**
+   * Evicts entries until all limits hold.
+   *
+   * @return keys of the evicted entries
+   */
+  synchronized List<List<String>> evict() {
+    final List<List<String>> result = new ArrayList<>();
+    for ( final String owner : new ArrayList<>( owners.keySet() ) ) {
+      result.addAll( evict( owner, null ) );
+    }
+    return result;
+  }
+
+  synchronized void touch( final List<String> key, final long timestamp ) {
+    final Usage usage = entries.get( key );
+    if ( usage != null ) {
+      unlink( usage );
+      usage.hits += 1;
+      usage.lastAccess = timestamp;
+      link( usage );
+    }
+  }
+
+  /**
+   * @return number of accesses of the key or 0 if the key is not indexed
+   */
+  synchronized long getHits( final List<String> key ) {
+    final Usage usage = entries.get( key );
+    return usage == null ? 0 : usage.hits;
+  }
+
+  synchronized void remove( final List<String> key ) {
+    final Usage usage = entries.remove( key );
+    if ( usage != null ) {
+      unlink( usage );
+      release( usage );
+    }
+  }
+
+  /**
+   * Removes the key and all keys below it.
+   */
+  synchronized void removePrefix( final List<String> prefix ) {
+    final Iterator<Usage> it = entries.values().iterator();
+    while ( it.hasNext() ) {
+      final Usage usage = it.next();
+      if ( usage.key.size() >= prefix.size() && usage.key.subList( 0, prefix.size() ).equals( prefix ) ) {
+        it.remove();
+        unlink( usage );
+        release( usage );
+      }
+    }
+  }
+
+  synchronized long getBytes() {
+    return bytes;
+  }
+
+  synchronized long getBytes( final String owner ) {
+    final Owner o = owners.get( owner );
+    return o == null ? 0 : o.bytes;
+  }
+
+  synchronized int size() {
+    return entries.size();
+  }
+
+  synchronized void clear() {
+    entries.clear();
+    owners.clear();
+    queue.clear();
+    bytes = 0;
+    inflation = 0;
+  }
+
+  private Usage add( final List<String> key, final String ownerName, final long size, final long hits,
+                    final long timestamp ) {
+    remove( key );
+    Owner owner = owners.get( ownerName );
+    if ( owner == null ) {
+      owner = new Owner( ownerName, newQueue() );
+      owners.put( ownerName, owner );
+    }
+    final Usage usage = new Usage( key, owner, size, sequence++ );
+    usage.hits = hits;
+    usage.lastAccess = timestamp;
+    entries.put( key, usage );
+    owner.bytes += size;
+    bytes += size;
+    link( usage );
+    return usage;
+  }
+
+  private List<List<String>> evict( final String ownerName, final Usage protect ) {
+    final List<List<String>> result = new ArrayList<>();
+    final Owner owner = owners.get( ownerName );
+    while ( owner != null && maxOwnerBytes > 0 && owner.bytes > maxOwnerBytes && !owner.queue.isEmpty() ) {
+      result.add( evict( victim( owner.queue, protect ) ) );
+    }
+    while ( maxBytes > 0 && bytes > maxBytes && !queue.isEmpty() ) {
+      result.add( evict( victim( queue, protect ) ) );
+    }
+    return result;
+  }
+
+  /**
+   * @return entry with the lowest rank, the protected entry only if there is no other one
+   */
+  private static Usage victim( final TreeSet<Usage> queue, final Usage protect ) {
+    final Usage first = queue.first();
+    if ( first != protect ) {
+      return first;
+    }
+    final Usage next = queue.higher( first );
+    return next == null ? first : next;
+  }
+
+  private List<String> evict( final Usage usage ) {
+    entries.remove( usage.key );
+    unlink( usage );
+    release( usage );
+    inflation = Math.max( inflation, usage.rank );
+    return usage.key;
+  }
+
+  private void link( final Usage usage ) {
+    usage.rank = policy.rank( usage.hits, usage.size, usage.lastAccess, inflation );
+    queue.add( usage );
+    usage.owner.queue.add( usage );
+  }
+
+  private void unlink( final Usage usage ) {
+    queue.remove( usage );
+    usage.owner.queue.remove( usage );
+  }
+
+  private void release( final Usage usage ) {
+    bytes -= usage.size;
+    usage.owner.bytes -= usage.size;
+    if ( usage.owner.queue.isEmpty() ) {
+      owners.remove( usage.owner.name );
+    }
+  }
+
+  private static TreeSet<Usage> newQueue() {
+    return new TreeSet<>( Comparator.<Usage>comparingDouble( u -> u.rank )
+      .thenComparingLong( u -> u.lastAccess )
+      .thenComparingLong( u -> u.sequence ) );
+  }
+
+  private static final class Owner {
+    private final String name;
+    private TreeSet<Usage> queue;
+    private long bytes;
+
+    private Owner( final String name, final TreeSet<Usage> queue ) {
+      this.name = name;
+      this.queue = queue;
+    }
+  }
+
+  private static final class Usage {
+    private final List<String> key;
+    private final Owner owner;
+    private final long size;
+    private final long sequence;
+    private long hits;
+    private long lastAccess;
+    private double rank;
+
+    private Usage( final List<String> key, final Owner owner, final long size, final long sequence ) {
+      this.key = key;
+      this.owner = owner;
+      this.size = size;
+      this.sequence = sequence;
+    }
+  }
+}
@@ -0,0 +1,538 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache backend stored by a {@link RemoteCacheServer}, so several report servers share their cached content.
+ * <p>
+ * Connections are pooled and kept open. Purging a segment lists the entries once and sends all purges at once
+ * without waiting for each answer. Values read or written recently are kept in a small near cache in memory; another
+ * node's changes of an entry are seen once it expires from there. If the server can't be reached, the cache behaves
+ * as empty and the server is not tried again for a while, so requests don't wait for connection timeouts.
+ */
+public class RemoteCacheBackend implements ICacheBackend {
+
+  private static final Log logger = LogFactory.getLog( RemoteCacheBackend.class );
+
+  /**
+   * Metadata of near cache entries holding the time they were read.
+   */
+  private static final String NEAR_CACHE_TIME = "RemoteCacheBackend.NearCacheTime";
+
+  private String host = "localhost";
+  private int port = RemoteCacheServer.DEFAULT_PORT;
+  private String secret;
+  private int connectTimeoutMillis = 2000;
+  private int readTimeoutMillis = 10000;
+  private long retryIntervalMillis = 5000;
+  private long maxEntryBytes = 64L * 1024 * 1024;
+  private long nearCacheTtlMillis = 10000;
+  private volatile MemoryCacheBackend nearCache = new MemoryCacheBackend( 16L * 1024 * 1024 );
+  private volatile Semaphore permits = new Semaphore( 8 );
+  private volatile long unavailableUntil;
+  private final LinkedBlockingDeque<Connection> idle = new LinkedBlockingDeque<>();
+  private final AtomicLong nearHits = new AtomicLong();
+  private final AtomicLong remoteCalls = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+
+  public RemoteCacheBackend() {
+  }
+
+  public RemoteCacheBackend( final String host, final int port ) {
+    this.host = host;
+    this.port = port;
+  }
+
+  public String getHost() {
+    return host;
+  }
+
+  public void setHost( final String host ) {
+    this.host = host;
+  }
+
+  public int getPort() {
+    return port;
+  }
+
+  public void setPort( final int port ) {
+    this.port = port;
+  }
+
+  public void setSecret( final String secret ) {
+    this.secret = secret;
+  }
+
+  /**
+   * @param maxConnections number of connections to the server, callers wait for a free one beyond that
+   */
+  public void setMaxConnections( final int maxConnections ) {
+    this.permits = new Semaphore( maxConnections );
+  }
+
+  public int getConnectTimeoutMillis() {
+    return connectTimeoutMillis;
+  }
+
+  public void setConnectTimeoutMillis( final int connectTimeoutMillis ) {
+    this.connectTimeoutMillis = connectTimeoutMillis;
+  }
+
+  public int getReadTimeoutMillis() {
+    return readTimeoutMillis;
+  }
+
+  public void setReadTimeoutMillis( final int readTimeoutMillis ) {
+    this.readTimeoutMillis = readTimeoutMillis;
+  }
+
+  public long getRetryIntervalMillis() {
+    return retryIntervalMillis;
+  }
+
+  /**
+   * @param retryIntervalMillis how long the server is not contacted after it couldn't be reached
+   */
+  public void setRetryIntervalMillis( final long retryIntervalMillis ) {
+    this.retryIntervalMillis = retryIntervalMillis;
+  }
+
+  public long getMaxEntryBytes() {
+    return maxEntryBytes;
+  }
+
+  /**
+   * @param maxEntryBytes largest serialized value accepted from the server
+   */
+  public void setMaxEntryBytes( final long maxEntryBytes ) {
+    this.maxEntryBytes = maxEntryBytes;
+  }
+
+  /**
+   * @param nearCacheMaxBytes size of the near cache, 0 disables it
+   */
+  public void setNearCacheMaxBytes( final long nearCacheMaxBytes ) {
+    this.nearCache = nearCacheMaxBytes > 0 ? new MemoryCacheBackend( nearCacheMaxBytes ) : null;
+  }
+
+  public long getNearCacheTtlMillis() {
+    return nearCacheTtlMillis;
+  }
+
+  /**
+   * @param nearCacheTtlMillis how long an entry is served from the near cache without asking the server
+   */
+  public void setNearCacheTtlMillis( final long nearCacheTtlMillis ) {
+    this.nearCacheTtlMillis = nearCacheTtlMillis;
+  }
+
+  public long getNearHitCount() {
+    return nearHits.get();
+  }
+
+  public long getRemoteCallCount() {
+    return remoteCalls.get();
+  }
+
+  public long getFailureCount() {
+    return failures.get();
+  }
+
+  public int getIdleConnectionCount() {
+    return idle.size();
+  }
+
+  @Override
+  public boolean write( final List<String> key, final Serializable value, final Map<String, Serializable> metaData ) {
+    final HashMap<String, Serializable> writeableMetaData = new HashMap<>();
+    if ( metaData != null ) {
+      writeableMetaData.putAll( metaData );
+    }
+    final byte[] valueData;
+    final byte[] metaDataData;
+    try {
+      valueData = RemoteCacheProtocol.serialize( value );
+      metaDataData = RemoteCacheProtocol.serialize( writeableMetaData );
+    } catch ( final IOException e ) {
+      logger.debug( "Can't serialize cache entry: ", e );
+      return false;
+    }
+    final Boolean written = call( connection -> {
+      final DataOutputStream out = connection.out;
+      out.writeByte( RemoteCacheProtocol.WRITE );
+      RemoteCacheProtocol.writeKey( out, key );
+      RemoteCacheProtocol.writeBytes( out, valueData );
+      RemoteCacheProtocol.writeBytes( out, metaDataData );
+      out.flush();
+      return readStatus( connection.in ) == RemoteCacheProtocol.OK && connection.in.readBoolean();
+    }, Boolean.FALSE );
+    if ( written ) {
+      putNear( key, value, writeableMetaData );
+    } else {
+      purgeNear( key );
+    }
+    return written;
+  }
+
+  @Override
+  public Serializable read( final List<String> key ) {
+    if ( getNearMetaData( key ) != null ) {
+      final Serializable value = nearCache.read( key );
+      if ( value != null ) {
+        nearHits.incrementAndGet();
+        return value;
+      }
+    }
+    final Object[] entry = call( connection -> {
+      connection.out.writeByte( RemoteCacheProtocol.READ );
+      RemoteCacheProtocol.writeKey( connection.out, key );
+      connection.out.flush();
+      if ( readStatus( connection.in ) != RemoteCacheProtocol.OK ) {
+        return null;
+      }
+      final Serializable value = RemoteCacheProtocol.readObject( connection.in, maxEntryBytes );
+      final Serializable metaData = RemoteCacheProtocol.readObject( connection.in, maxEntryBytes );
+      return new Object[] { value, metaData };
+    }, null );
+    if ( entry == null ) {
+      purgeNear( key );
+      return null;
+    }
+    @SuppressWarnings( "unchecked" )
+    final Map<String, Serializable> metaData = (Map<String, Serializable>) entry[ 1 ];
+    putNear( key, (Serializable) entry[ 0 ], metaData );
+    return (Serializable) entry[ 0 ];
+  }
+
+  @Override
+  public Map<String, Serializable> readMetaData( final List<String> key ) {
+    final Map<String, Serializable> nearMetaData = getNearMetaData( key );
+    if ( nearMetaData != null ) {
+      nearHits.incrementAndGet();
+      return nearMetaData;
+    }
+    return call( connection -> {
+      connection.out.writeByte( RemoteCacheProtocol.READ_META_DATA );
+      RemoteCacheProtocol.writeKey( connection.out, key );
+      connection.out.flush();
+      if ( readStatus( connection.in ) != RemoteCacheProtocol.OK ) {
+        return null;
+      }
+      @SuppressWarnings( "unchecked" )
+      final Map<String, Serializable> metaData =
+        (Map<String, Serializable>) RemoteCacheProtocol.readObject( connection.in, maxEntryBytes );
+      return metaData;
+    }, null );
+  }
+
+  /**
+   * The server reads the field from its backend, so only the field is decoded and transferred.
+   */
+  @Override
+  public Serializable readMetaDataField( final List<String> key, final String name ) {
+    final Map<String, Serializable> nearMetaData = getNearMetaData( key );
+    if ( nearMetaData != null ) {
+      nearHits.incrementAndGet();
+      return nearMetaData.get( name );
+    }
+    return call( connection -> {
+      connection.out.writeByte( RemoteCacheProtocol.READ_META_DATA_FIELD );
+      RemoteCacheProtocol.writeKey( connection.out, key );
+      connection.out.writeUTF( name );
+      connection.out.flush();
+      if ( readStatus( connection.in ) != RemoteCacheProtocol.OK ) {
+        return null;
+      }
+      return RemoteCacheProtocol.readObject( connection.in, maxEntryBytes );
+    }, null );
+  }
+
+  @Override
+  public boolean purge( final List<String> key ) {
+    purgeNear( key );
+    return call( connection -> {
+      connection.out.writeByte( RemoteCacheProtocol.PURGE );
+      RemoteCacheProtocol.writeKey( connection.out, key );
+      connection.out.flush();
+      return readStatus( connection.in ) == RemoteCacheProtocol.OK && connection.in.readBoolean();
+    }, Boolean.FALSE );
+  }
+
+  /**
+   * Tests the entries locally, the predicate can't be sent to the server. The purges are pipelined on one
+   * connection.
+   */
+  @Override
+  public void purgeSegment( final List<String> key, final BiPredicate<List<String>, Map<String, Serializable>> p ) {
+    final List<List<String>> keys = new ArrayList<>();
+    final List<Map<String, Serializable>> metaData = new ArrayList<>();
+    final Boolean listed = call( connection -> {
+      connection.out.writeByte( RemoteCacheProtocol.LIST );
+      RemoteCacheProtocol.writeKey( connection.out, key );
+      connection.out.flush();
+      if ( readStatus( connection.in ) != RemoteCacheProtocol.OK ) {
+        return Boolean.FALSE;
+      }
+      final int count = connection.in.readInt();
+      for ( int i = 0; i < count; i++ ) {
+        keys.add( RemoteCacheProtocol.readKey( connection.in ) );
+        @SuppressWarnings( "unchecked" )
+        final Map<String, Serializable> entryMetaData =
+          (Map<String, Serializable>) RemoteCacheProtocol.readObject( connection.in, maxEntryBytes );
+        metaData.add( entryMetaData );
+      }
+      return Boolean.TRUE;
+    }, Boolean.FALSE );
+    if ( !listed ) {
+      return;
+    }
+    final List<List<String>> purged = new ArrayList<>();
+    for ( int i = 0; i < keys.size(); i++ ) {
+      if ( p.test( keys.get( i ), metaData.get( i ) ) ) {
+        purged.add( keys.get( i ) );
+      }
+    }
+    if ( purged.isEmpty() ) {
+      return;
+    }
+    for ( final List<String> entryKey : purged ) {
+      purgeNear( entryKey );
+    }
+    call( connection -> {
+      for ( final List<String> entryKey : purged ) {
+        connection.out.writeByte( RemoteCacheProtocol.PURGE );
+        RemoteCacheProtocol.writeKey( connection.out, entryKey );
+      }
+      connection.out.flush();
+      // all answers have to be read, even after an error
+      for ( int i = 0; i < purged.size(); i++ ) {
+        final byte status = connection.in.readByte();
+        if ( status == RemoteCacheProtocol.OK ) {
+          connection.in.readBoolean();
+        } else if ( status == RemoteCacheProtocol.ERROR ) {
+          logger.debug( "Remote cache purge failed: " + connection.in.readUTF() );
+        }
+      }
+      return Boolean.TRUE;
+    }, Boolean.FALSE );
+  }
+
+  /**
+   * Closes the pooled connections.
+   */
+  public void shutdown() {
+    Connection connection;
+    while ( ( connection = idle.pollFirst() ) != null ) {
+      connection.close();
+    }
+  }
+
+  private Map<String, Serializable> getNearMetaData( final List<String> key ) {
+    final MemoryCacheBackend near = nearCache;
+    if ( near == null ) {
+      return null;
+    }
+    final Map<String, Serializable> metaData = near.readMetaData( key );
+    if ( metaData == null ) {
+      return null;
+    }
+    final Serializable time = metaData.remove( NEAR_CACHE_TIME );
+    if ( !( time instanceof Long ) || System.currentTimeMillis() - (Long) time > nearCacheTtlMillis ) {
+      near.purge( key );
+      return null;
+    }
+    return metaData;
+  }
+
+  private void putNear( final List<String> key, final Serializable value, final Map<String, Serializable> metaData ) {
+    final MemoryCacheBackend near = nearCache;
+    if ( near == null ) {
+      return;
+    }
+    final HashMap<String, Serializable> nearMetaData = new HashMap<>();
+    if ( metaData != null ) {
+      nearMetaData.putAll( metaData );
+    }
+    nearMetaData.put( NEAR_CACHE_TIME, System.currentTimeMillis() );
+    near.write( key, value, nearMetaData );
+  }
+
+  private void purgeNear( final List<String> key ) {
+    final MemoryCacheBackend near = nearCache;
+    if ( near != null ) {
+      near.purge( key );
+    }
+  }
+
+  /**
+   * Runs an exchange on a pooled connection. A pooled connection may have been closed by the server meanwhile, so
+   * the exchange is tried once more on a new connection.
+   */
+  private <T> T call( final Exchange<T> exchange, final T fallback ) {
+    if ( System.currentTimeMillis() < unavailableUntil ) {
+      return fallback;
+    }
+    remoteCalls.incrementAndGet();
+    for ( int attempt = 0; ; attempt++ ) {
+      final Connection connection;
+      try {
+        connection = borrow( attempt > 0 );
+      } catch ( final IOException e ) {
+        failures.incrementAndGet();
+        unavailableUntil = System.currentTimeMillis() + retryIntervalMillis;
+        logger.warn( "Remote cache server " + host + ":" + port + " is not available: " + e.getMessage() );
+        return fallback;
+      }
+      try {
+        final T result = exchange.run( connection );
+        release( connection );
+        return result;
+      } catch ( final RemoteCacheException e ) {
+        release( connection );
+        failures.incrementAndGet();
+        logger.debug( "Remote cache request failed: " + e.getMessage() );
+        return fallback;
+      } catch ( final IOException e ) {
+        discard( connection );
+        if ( !connection.reused || attempt > 0 ) {
+          failures.incrementAndGet();
+          logger.debug( "Remote cache request failed: ", e );
+          return fallback;
+        }
+      }
+    }
+  }
+
+  private Connection borrow( final boolean fresh ) throws IOException {
+    final Semaphore semaphore = permits;
+    try {
+      if ( !semaphore.tryAcquire( readTimeoutMillis, TimeUnit.MILLISECONDS ) ) {
+        throw new IOException( "No free remote cache connection" );
+      }
+    } catch ( final InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw new IOException( "Interrupted while waiting for a remote cache connection" );
+    }
+    final Connection pooled = fresh ? null : idle.pollFirst();
+    if ( pooled != null ) {
+      pooled.permits = semaphore;
+      return pooled;
+    }
+    try {
+      return connect( semaphore );
+    } catch ( final IOException | RuntimeException e ) {
+      semaphore.release();
+      throw e;
+    }
+  }
+
+  private void release( final Connection connection ) {
+    connection.reused = true;
+    idle.offerFirst( connection );
+    connection.permits.release();
+  }
+
+  private void discard( final Connection connection ) {
+    connection.close();
+    connection.permits.release();
+  }
+
+  private Connection connect( final Semaphore semaphore ) throws IOException {
+    final Socket socket = new Socket();
+    try {
+      socket.connect( new InetSocketAddress( host, port ), connectTimeoutMillis );
+      socket.setSoTimeout( readTimeoutMillis );
+      socket.setTcpNoDelay( true );
+      final Connection connection = new Connection( socket, semaphore );
+      connection.out.writeInt( RemoteCacheProtocol.MAGIC );
+      connection.out.writeUTF( secret == null ? "" : secret );
+      connection.out.flush();
+      if ( connection.in.readByte() != RemoteCacheProtocol.OK ) {
+        throw new IOException( "Remote cache server rejected the connection, check the secret" );
+      }
+      return connection;
+    } catch ( final IOException e ) {
+      socket.close();
+      throw e;
+    }
+  }
+
+  private static byte readStatus( final DataInputStream in ) throws IOException {
+    final byte status = in.readByte();
+    if ( status == RemoteCacheProtocol.ERROR ) {
+      throw new RemoteCacheException( in.readUTF() );
+    }
+    return status;
+  }
+
+  private interface Exchange<T> {
+    T run( Connection connection ) throws IOException;
+  }
+
+  /**
+   * The server answered with an error, the connection is still usable.
+   */
+  private static class RemoteCacheException extends IOException {
+    private RemoteCacheException( final String message ) {
+      super( message );
+    }
+  }
+
+  private static final class Connection {
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private Semaphore permits;
+    private boolean reused;
+
+    private Connection( final Socket socket, final Semaphore permits ) throws IOException {
+      this.socket = socket;
+      this.permits = permits;
+      this.in = new DataInputStream( new BufferedInputStream( socket.getInputStream() ) );
+      this.out = new DataOutputStream( new BufferedOutputStream( socket.getOutputStream() ) );
+    }
+
+    private void close() {
+      try {
+        socket.close();
+      } catch ( final IOException e ) {
+        logger.debug( "Can't close remote cache connection: ", e );
+      }
+    }
+  }
+}
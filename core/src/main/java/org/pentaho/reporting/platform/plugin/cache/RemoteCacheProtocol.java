@@ -0,0 +1,170 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Wire format shared by {@link RemoteCacheServer} and {@link RemoteCacheBackend}. A connection starts with the magic
+ * number and the shared secret, then carries requests of an operation code and its arguments. Requests are answered
+ * in order, so a client may send several before reading the answers. Values are Java serialized and length-prefixed,
+ * only classes of the cache package and basic JDK classes are deserialized.
+ */
+final class RemoteCacheProtocol {
+
+  static final int MAGIC = 0x50524331;
+
+  static final byte WRITE = 1;
+  static final byte READ = 2;
+  static final byte READ_META_DATA = 3;
+  static final byte PURGE = 4;
+  static final byte LIST = 5;
+  static final byte PING = 6;
+  static final byte READ_META_DATA_FIELD = 7;
+
+  static final byte OK = 0;
+  static final byte NOT_FOUND = 1;
+  static final byte ERROR = 2;
+
+  private static final int MAX_KEY_SEGMENTS = 64;
+
+  private static final Pattern ALLOWED_CLASSES = Pattern.compile(
+    "(java\\.lang|java\\.util|org\\.pentaho\\.reporting\\.platform\\.plugin\\.cache)\\.[^.]+" );
+
+  private RemoteCacheProtocol() {
+  }
+
+  static void writeKey( final DataOutputStream out, final List<String> key ) throws IOException {
+    out.writeInt( key.size() );
+    for ( final String segment : key ) {
+      out.writeUTF( segment );
+    }
+  }
+
+  static List<String> readKey( final DataInputStream in ) throws IOException {
+    final int size = in.readInt();
+    if ( size < 0 || size > MAX_KEY_SEGMENTS ) {
+      throw new IOException( "Invalid cache key length: " + size );
+    }
+    final List<String> key = new ArrayList<>( size );
+    for ( int i = 0; i < size; i++ ) {
+      key.add( in.readUTF() );
+    }
+    return key;
+  }
+
+  static void writeObject( final DataOutputStream out, final Serializable value ) throws IOException {
+    writeBytes( out, serialize( value ) );
+  }
+
+  static Serializable readObject( final DataInputStream in, final long maxBytes ) throws IOException {
+    return deserialize( readBytes( in, maxBytes ) );
+  }
+
+  static byte[] serialize( final Serializable value ) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try ( final ObjectOutputStream oos = new ObjectOutputStream( bytes ) ) {
+      oos.writeObject( value );
+    }
+    return bytes.toByteArray();
+  }
+
+  static void writeBytes( final DataOutputStream out, final byte[] data ) throws IOException {
+    out.writeInt( data.length );
+    out.write( data );
+  }
+
+  /**
+   * @param maxBytes largest value accepted
+   */
+  static byte[] readBytes( final DataInputStream in, final long maxBytes ) throws IOException {
+    final int length = in.readInt();
+    if ( length < 0 || length > maxBytes ) {
+      throw new IOException( "Invalid cache value length: " + length );
+    }
+    final byte[] data = new byte[ length ];
+    in.readFully( data );
+    return data;
+  }
+
+  /**
+   * Values are read completely before they are deserialized, so a value that can't be deserialized doesn't break
+   * the stream.
+   */
+  static Serializable deserialize( final byte[] data ) throws IOException {
+    try ( final ObjectInputStream ois = new AllowListObjectInputStream( new ByteArrayInputStream( data ) ) ) {
+      return (Serializable) ois.readObject();
+    } catch ( final ClassNotFoundException | ClassCastException e ) {
+      throw new InvalidClassException( e.getMessage() );
+    }
+  }
+
+  static boolean isSecretValid( final String expected, final String actual ) {
+    final String secret = expected == null ? "" : expected;
+    return MessageDigest.isEqual( secret.getBytes( StandardCharsets.UTF_8 ),
+      ( actual == null ? "" : actual ).getBytes( StandardCharsets.UTF_8 ) );
+  }
+
+  static boolean isAllowed( final String className ) {
+    String name = className;
+    while ( name.startsWith( "[" ) ) {
+      name = name.substring( 1 );
+    }
+    if ( name.length() == 1 ) {
+      // primitive array
+      return true;
+    }
+    if ( name.startsWith( "L" ) && name.endsWith( ";" ) ) {
+      name = name.substring( 1, name.length() - 1 );
+    }
+    return ALLOWED_CLASSES.matcher( name ).matches();
+  }
+
+  private static final class AllowListObjectInputStream extends ObjectInputStream {
+    private AllowListObjectInputStream( final InputStream in ) throws IOException {
+      super( in );
+    }
+
+    @Override protected Class<?> resolveClass( final ObjectStreamClass desc )
+      throws IOException, ClassNotFoundException {
+      if ( !isAllowed( desc.getName() ) ) {
+        throw new InvalidClassException( desc.getName(), "Class is not allowed in the remote cache" );
+      }
+      return super.resolveClass( desc );
+    }
+
+    @Override protected Class<?> resolveProxyClass( final String[] interfaces ) throws IOException {
+      throw new InvalidClassException( "Proxies are not allowed in the remote cache" );
+    }
+  }
+}
@@ -0,0 +1,435 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves a cache backend to the {@link RemoteCacheBackend} of several report servers, so content rendered on one node
+ * is found by the others. It can be embedded in one of the nodes as a bean or run as a process of its own, see
+ * {@link #main(String[])}.
+ * <p>
+ * Each connection is served by its own thread, clients keep their connections open and reuse them. Clients have to
+ * send the configured secret, the server binds to the loopback interface unless a bind address is set. The traffic
+ * is not encrypted, so a server listening on another interface refuses to start without a secret of at least
+ * {@link #MIN_SECRET_LENGTH} characters.
+ */
+public class RemoteCacheServer {
+
+  private static final Log logger = LogFactory.getLog( RemoteCacheServer.class );
+
+  public static final int DEFAULT_PORT = 11380;
+  public static final String SECRET_PROPERTY = "org.pentaho.reporting.platform.plugin.cache.RemoteCacheSecret";
+  public static final int MIN_SECRET_LENGTH = 16;
+  private static final int MAX_MESSAGE_LENGTH = 1000;
+
+  private ICacheBackend backend;
+  private String bindAddress;
+  private int port = DEFAULT_PORT;
+  private String secret;
+  private int maxConnections = 64;
+  private int idleTimeoutSeconds = 300;
+  private long maxEntryBytes = 64L * 1024 * 1024;
+  private ServerSocket serverSocket;
+  private ThreadPoolExecutor workers;
+  private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+
+  public RemoteCacheServer() {
+  }
+
+  public RemoteCacheServer( final ICacheBackend backend ) {
+    this.backend = backend;
+  }
+
+  public ICacheBackend getBackend() {
+    return backend;
+  }
+
+  public void setBackend( final ICacheBackend backend ) {
+    this.backend = backend;
+  }
+
+  public String getBindAddress() {
+    return bindAddress;
+  }
+
+  /**
+   * @param bindAddress interface to listen on, empty for all interfaces, the loopback interface if not set
+   */
+  public void setBindAddress( final String bindAddress ) {
+    this.bindAddress = bindAddress;
+  }
+
+  /**
+   * @return configured port, or the actual port once started
+   */
+  public synchronized int getPort() {
+    return serverSocket != null ? serverSocket.getLocalPort() : port;
+  }
+
+  /**
+   * @param port port to listen on, 0 picks a free one
+   */
+  public void setPort( final int port ) {
+    this.port = port;
+  }
+
+  public void setSecret( final String secret ) {
+    this.secret = secret;
+  }
+
+  public int getMaxConnections() {
+    return maxConnections;
+  }
+
+  public void setMaxConnections( final int maxConnections ) {
+    this.maxConnections = maxConnections;
+  }
+
+  public int getIdleTimeoutSeconds() {
+    return idleTimeoutSeconds;
+  }
+
+  /**
+   * @param idleTimeoutSeconds connections without requests for this long are closed
+   */
+  public void setIdleTimeoutSeconds( final int idleTimeoutSeconds ) {
+    this.idleTimeoutSeconds = idleTimeoutSeconds;
+  }
+
+  public long getMaxEntryBytes() {
+    return maxEntryBytes;
+  }
+
+  /**
+   * @param maxEntryBytes largest serialized value accepted from a client
+   */
+  public void setMaxEntryBytes( final long maxEntryBytes ) {
+    this.maxEntryBytes = maxEntryBytes;
+  }
+
+  public int getConnectionCount() {
+    return connections.size();
+  }
+
+  public synchronized void start() throws IOException {
+    if ( serverSocket != null ) {
+      return;
+    }
+    if ( backend == null ) {
+      throw new IllegalStateException( "Remote cache server has no backend" );
+    }
+    final ServerSocket socket = new ServerSocket();
+    socket.setReuseAddress( true );
+    final InetSocketAddress address;
+    if ( bindAddress == null ) {
+      address = new InetSocketAddress( InetAddress.getLoopbackAddress(), port );
+    } else if ( bindAddress.isEmpty() ) {
+      address = new InetSocketAddress( port );
+    } else {
+      address = new InetSocketAddress( bindAddress, port );
+    }
+    if ( ( address.getAddress() == null || !address.getAddress().isLoopbackAddress() )
+      && ( secret == null || secret.length() < MIN_SECRET_LENGTH ) ) {
+      throw new IllegalStateException( "Remote cache server on " + address + " needs a secret of at least "
+        + MIN_SECRET_LENGTH + " characters" );
+    }
+    socket.bind( address );
+    serverSocket = socket;
+    final AtomicInteger threadCount = new AtomicInteger();
+    workers = new ThreadPoolExecutor( 1, maxConnections + 1, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+      final Thread thread = new Thread( r, "remote-cache-server-" + threadCount.incrementAndGet() );
+      thread.setDaemon( true );
+      return thread;
+    } );
+    workers.execute( () -> accept( socket ) );
+    logger.info( "Remote cache server listening on " + socket.getLocalSocketAddress() );
+  }
+
+  public synchronized void shutdown() {
+    if ( serverSocket == null ) {
+      return;
+    }
+    try {
+      serverSocket.close();
+    } catch ( final IOException e ) {
+      logger.debug( "Can't close server socket: ", e );
+    }
+    for ( final Socket connection : connections ) {
+      closeQuietly( connection );
+    }
+    workers.shutdownNow();
+    serverSocket = null;
+    workers = null;
+  }
+
+  private void accept( final ServerSocket socket ) {
+    while ( !socket.isClosed() ) {
+      final Socket connection;
+      try {
+        connection = socket.accept();
+      } catch ( final IOException e ) {
+        if ( !socket.isClosed() ) {
+          logger.warn( "Remote cache server can't accept connections: ", e );
+        }
+        return;
+      }
+      final ThreadPoolExecutor executor;
+      synchronized ( this ) {
+        executor = workers;
+      }
+      try {
+        if ( executor == null ) {
+          throw new RejectedExecutionException();
+        }
+        executor.execute( () -> serve( connection ) );
+      } catch ( final RejectedExecutionException e ) {
+        logger.warn( "Too many remote cache connections, rejected " + connection.getRemoteSocketAddress() );
+        closeQuietly( connection );
+      }
+    }
+  }
+
+  private void serve( final Socket connection ) {
+    connections.add( connection );
+    try {
+      connection.setSoTimeout( idleTimeoutSeconds * 1000 );
+      connection.setTcpNoDelay( true );
+      final DataInputStream in = new DataInputStream( new BufferedInputStream( connection.getInputStream() ) );
+      final DataOutputStream out = new DataOutputStream( new BufferedOutputStream( connection.getOutputStream() ) );
+      if ( in.readInt() != RemoteCacheProtocol.MAGIC || !RemoteCacheProtocol.isSecretValid( secret, in.readUTF() ) ) {
+        logger.warn( "Rejected remote cache client " + connection.getRemoteSocketAddress() );
+        out.writeByte( RemoteCacheProtocol.ERROR );
+        out.flush();
+        return;
+      }
+      out.writeByte( RemoteCacheProtocol.OK );
+      out.flush();
+      while ( true ) {
+        final byte operation;
+        try {
+          operation = in.readByte();
+        } catch ( final EOFException e ) {
+          return;
+        }
+        handle( operation, in, out );
+        // answers of pipelined requests are sent together
+        if ( in.available() == 0 ) {
+          out.flush();
+        }
+      }
+    } catch ( final SocketException e ) {
+      logger.debug( "Remote cache connection closed: ", e );
+    } catch ( final IOException e ) {
+      logger.debug( "Remote cache connection failed: ", e );
+    } finally {
+      connections.remove( connection );
+      closeQuietly( connection );
+    }
+  }
+
+  /**
+   * Reads a whole request before processing it and prepares the whole answer before sending it, so a failing request
+   * is answered with an error and the connection stays usable.
+   */
+  private void handle( final byte operation, final DataInputStream in, final DataOutputStream out )
+    throws IOException {
+    switch ( operation ) {
+      case RemoteCacheProtocol.WRITE: {
+        final List<String> key = RemoteCacheProtocol.readKey( in );
+        final byte[] value = RemoteCacheProtocol.readBytes( in, maxEntryBytes );
+        final byte[] metaData = RemoteCacheProtocol.readBytes( in, maxEntryBytes );
+        respond( out, () -> {
+          @SuppressWarnings( "unchecked" )
+          final Map<String, Serializable> map = (Map<String, Serializable>) RemoteCacheProtocol.deserialize( metaData );
+          final boolean written = backend.write( key, RemoteCacheProtocol.deserialize( value ), map );
+          return answer -> answer.writeBoolean( written );
+        } );
+        break;
+      }
+      case RemoteCacheProtocol.READ: {
+        final List<String> key = RemoteCacheProtocol.readKey( in );
+        respond( out, () -> {
+          final Serializable value = backend.read( key );
+          if ( value == null ) {
+            return null;
+          }
+          final Map<String, Serializable> metaData = backend.readMetaData( key );
+          final byte[] valueData = RemoteCacheProtocol.serialize( value );
+          final byte[] metaDataData =
+            RemoteCacheProtocol.serialize( metaData == null ? new HashMap<>() : new HashMap<>( metaData ) );
+          return answer -> {
+            RemoteCacheProtocol.writeBytes( answer, valueData );
+            RemoteCacheProtocol.writeBytes( answer, metaDataData );
+          };
+        } );
+        break;
+      }
+      case RemoteCacheProtocol.READ_META_DATA: {
+        final List<String> key = RemoteCacheProtocol.readKey( in );
+        respond( out, () -> {
+          final Map<String, Serializable> metaData = backend.readMetaData( key );
+          if ( metaData == null ) {
+            return null;
+          }
+          final byte[] data = RemoteCacheProtocol.serialize( new HashMap<>( metaData ) );
+          return answer -> RemoteCacheProtocol.writeBytes( answer, data );
+        } );
+        break;
+      }
+      case RemoteCacheProtocol.READ_META_DATA_FIELD: {
+        final List<String> key = RemoteCacheProtocol.readKey( in );
+        final String name = in.readUTF();
+        respond( out, () -> {
+          final Serializable value = backend.readMetaDataField( key, name );
+          if ( value == null ) {
+            return null;
+          }
+          final byte[] data = RemoteCacheProtocol.serialize( value );
+          return answer -> RemoteCacheProtocol.writeBytes( answer, data );
+        } );
+        break;
+      }
+      case RemoteCacheProtocol.PURGE: {
+        final List<String> key = RemoteCacheProtocol.readKey( in );
+        respond( out, () -> {
+          final boolean purged = backend.purge( key );
+          return answer -> answer.writeBoolean( purged );
+        } );
+        break;
+      }
+      case RemoteCacheProtocol.LIST: {
+        final List<String> key = RemoteCacheProtocol.readKey( in );
+        respond( out, () -> {
+          final List<List<String>> keys = new ArrayList<>();
+          final List<byte[]> metaData = new ArrayList<>();
+          final IOException[] failure = new IOException[ 1 ];
+          backend.purgeSegment( key, ( k, m ) -> {
+            try {
+              metaData.add( RemoteCacheProtocol.serialize( m == null ? null : new HashMap<>( m ) ) );
+              keys.add( new ArrayList<>( k ) );
+            } catch ( final IOException e ) {
+              failure[ 0 ] = e;
+            }
+            return false;
+          } );
+          if ( failure[ 0 ] != null ) {
+            throw failure[ 0 ];
+          }
+          return answer -> {
+            answer.writeInt( keys.size() );
+            for ( int i = 0; i < keys.size(); i++ ) {
+              RemoteCacheProtocol.writeKey( answer, keys.get( i ) );
+              RemoteCacheProtocol.writeBytes( answer, metaData.get( i ) );
+            }
+          };
+        } );
+        break;
+      }
+      case RemoteCacheProtocol.PING:
+        out.writeByte( RemoteCacheProtocol.OK );
+        break;
+      default:
+        throw new IOException( "Unknown remote cache operation: " + operation );
+    }
+  }
+
+  private static void respond( final DataOutputStream out, final Request request ) throws IOException {
+    final Answer answer;
+    try {
+      answer = request.process();
+    } catch ( final IOException | RuntimeException e ) {
+      logger.warn( "Remote cache request failed: ", e );
+      out.writeByte( RemoteCacheProtocol.ERROR );
+      final String message = String.valueOf( e.getMessage() );
+      out.writeUTF( message.length() > MAX_MESSAGE_LENGTH ? message.substring( 0, MAX_MESSAGE_LENGTH ) : message );
+      return;
+    }
+    if ( answer == null ) {
+      out.writeByte( RemoteCacheProtocol.NOT_FOUND );
+    } else {
+      out.writeByte( RemoteCacheProtocol.OK );
+      answer.write( out );
+    }
+  }
+
+  private interface Request {
+    /**
+     * @return answer to send, null if the entry was not found
+     */
+    Answer process() throws IOException;
+  }
+
+  private interface Answer {
+    void write( DataOutputStream out ) throws IOException;
+  }
+
+  private static void closeQuietly( final Socket socket ) {
+    try {
+      socket.close();
+    } catch ( final IOException e ) {
+      logger.debug( "Can't close remote cache connection: ", e );
+    }
+  }
+
+  /**
+   * Runs a server with a file system backend until the process is stopped. Arguments are the port, the cache path
+   * below the temporary directory and the bind address; the secret is read from the system property
+   * {@link #SECRET_PROPERTY}.
+   */
+  public static void main( final String[] args ) throws Exception {
+    final FileSystemCacheBackend backend = new FileSystemCacheBackend();
+    backend.setCachePath( args.length > 1 ? args[ 1 ] : "/reporting-plugin-remote/" );
+    final RemoteCacheServer server = new RemoteCacheServer( backend );
+    if ( args.length > 0 ) {
+      server.setPort( Integer.parseInt( args[ 0 ] ) );
+    }
+    if ( args.length > 2 ) {
+      server.setBindAddress( args[ 2 ] );
+    }
+    server.setSecret( System.getProperty( SECRET_PROPERTY ) );
+    server.start();
+    Runtime.getRuntime().addShutdownHook( new Thread( server::shutdown ) );
+    Thread.currentThread().join();
+  }
+}
@@ -0,0 +1,286 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Page-addressable on-disk layout of an {@link IReportContent}:
+ * <pre>
+ *   header: magic, version, stamp, index offset
+ *   page bodies
+ *   index:  page count, stored page count, codec, dictionary length, dictionary,
+ *           (page, offset, stored length, decoded length) for every stored page
+ * </pre>
+ * The index follows the pages and is referenced from the fixed-size header, so page counts are answered from the
+ * header and the index alone and every page costs one positioned read. The stamp identifies one written instance of
+ * the file: a reader holding an outdated stamp knows the entry was replaced. Pages of {@link IEncodedReportContent}
+ * are stored encoded. Version 1 files have neither codec nor dictionary and are still readable.
+ * <p>
+ * Pages can be appended in place: they are written over the old index, followed by a new index. The header points to
+ * no index while this happens, so an interrupted append leaves a file that is rejected rather than a corrupt one.
+ */
+public final class ReportContentFile {
+
+  public static final int MAGIC = 0x52435047;
+  public static final int VERSION = 2;
+  static final int VERSION_1 = 1;
+
+  static final int HEADER_SIZE = 24;
+  static final int STAMP_POSITION = 8;
+  static final int INDEX_POSITION = 16;
+  private static final int INDEX_ENTRY_SIZE_1 = 16;
+  private static final int INDEX_ENTRY_SIZE = 20;
+
+  private ReportContentFile() {
+  }
+
+  /**
+   * @param file file to probe
+   * @return true if the file starts with the paged content header
+   */
+  public static boolean isReportContentFile( final File file ) {
+    if ( !file.isFile() || file.length() < HEADER_SIZE ) {
+      return false;
+    }
+    try ( final FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ) ) {
+      final ByteBuffer header = read( channel, 0, 8 );
+      return header.getInt( 0 ) == MAGIC && isSupportedVersion( header.getInt( 4 ) );
+    } catch ( final IOException e ) {
+      return false;
+    }
+  }
+
+  /**
+   * Writes the content to a temporary sibling and moves it over the target, so readers never see a partial file.
+   *
+   * @param content report content
+   * @param file    target file
+   * @throws IOException if the file can't be written
+   */
+  public static void write( final IReportContent content, final File file ) throws IOException {
+    final File parent = file.getParentFile();
+    if ( parent != null ) {
+      parent.mkdirs();
+    }
+    final File tmp = new File( parent, file.getName() + "." + Long.toHexString( System.nanoTime() ) + ".tmp" );
+    try {
+      try ( final FileChannel channel = FileChannel.open( tmp.toPath(), StandardOpenOption.CREATE_NEW,
+        StandardOpenOption.WRITE ) ) {
+        final ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+        header.putInt( MAGIC ).putInt( VERSION ).putLong( ThreadLocalRandom.current().nextLong() ).putLong( 0 );
+        header.flip();
+        long position = write( channel, 0, header );
+
+        final IEncodedReportContent encoded =
+          content instanceof IEncodedReportContent ? (IEncodedReportContent) content : null;
+        final Map<Integer, long[]> pages = new LinkedHashMap<>();
+        final int lastPage = Math.max( content.getPageCount(), content.getStoredPageCount() );
+        for ( int page = 0; page < lastPage && pages.size() < content.getStoredPageCount(); page++ ) {
+          final byte[] data = encoded != null ? encoded.getEncodedPageData( page ) : content.getPageData( page );
+          if ( data != null ) {
+            final int length = encoded != null ? encoded.getPageLength( page ) : data.length;
+            pages.put( page, new long[] { position, data.length, length } );
+            position = write( channel, position, ByteBuffer.wrap( data ) );
+          }
+        }
+
+        final PageCodec codec = encoded != null ? encoded.getCodec() : PageCodec.IDENTITY;
+        writeIndex( channel, position, content.getPageCount(), codec, encoded != null ? encoded.getDictionary() : null,
+          pages );
+        writeIndexPosition( channel, position );
+      }
+      Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE );
+    } finally {
+      Files.deleteIfExists( tmp.toPath() );
+    }
+  }
+
+  /**
+   * Appends the pages following the stored ones and updates the page count. Pages are encoded with the codec and
+   * dictionary of the file. The stamp does not change, content opened before keeps reading its pages, content opened
+   * afterwards sees the longer prefix. The caller must hold exclusive access to the file.
+   *
+   * @param content new pages, pages that are already stored are skipped; its page count replaces the stored one
+   * @param file    existing cache file
+   * @return false if the file can't be appended to, because it is missing, has an old version or gaps in its pages
+   * @throws IOException if the file can't be written, it is left invalid in this case
+   */
+  public static boolean append( final IReportContent content, final File file ) throws IOException {
+    if ( !file.isFile() ) {
+      return false;
+    }
+    final FileReportContent stored = open( file );
+    final int storedPages = stored.getContiguousPageCount();
+    if ( storedPages < 0 ) {
+      return false;
+    }
+    try ( final FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ,
+      StandardOpenOption.WRITE ) ) {
+      final ByteBuffer header = read( channel, 0, HEADER_SIZE );
+      if ( header.getInt( 4 ) != VERSION || header.getLong( STAMP_POSITION ) != stored.getStamp() ) {
+        return false;
+      }
+      long position = header.getLong( INDEX_POSITION );
+      writeIndexPosition( channel, 0 );
+
+      final PageCodec codec = stored.getCodec();
+      final byte[] dictionary = stored.getDictionary();
+      final Map<Integer, long[]> pages = stored.getIndexEntries();
+      // pages encoded like the stored ones are written as they are
+      final IEncodedReportContent encodedContent = content instanceof IEncodedReportContent
+        && ( (IEncodedReportContent) content ).getCodec() == codec
+        && Arrays.equals( ( (IEncodedReportContent) content ).getDictionary(), dictionary )
+        ? (IEncodedReportContent) content : null;
+      // stop at the first missing page, so the stored pages stay a prefix
+      for ( int page = storedPages; page < content.getPageCount(); page++ ) {
+        final byte[] encoded;
+        final int length;
+        if ( encodedContent != null ) {
+          encoded = encodedContent.getEncodedPageData( page );
+          length = encodedContent.getPageLength( page );
+        } else {
+          final byte[] data = content.getPageData( page );
+          encoded = data == null ? null : codec.encode( data, dictionary );
+          length = data == null ? -1 : data.length;
+        }
+        if ( encoded == null ) {
+          break;
+        }
+        pages.put( page, new long[] { position, encoded.length, length } );
+        position = write( channel, position, ByteBuffer.wrap( encoded ) );
+      }
+      writeIndex( channel, position, content.getPageCount(), codec, dictionary, pages );
+      writeIndexPosition( channel, position );
+    }
+    return true;
+  }
+
+  /**
+   * Reads the header and the page index. Page bodies are read lazily by the returned content.
+   *
+   * @param file cache file
+   * @return page-addressable content
+   * @throws IOException if the file is not a valid paged content file
+   */
+  public static FileReportContent open( final File file ) throws IOException {
+    try ( final FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ) ) {
+      final ByteBuffer header = read( channel, 0, HEADER_SIZE );
+      final int version = header.getInt( 4 );
+      if ( header.getInt( 0 ) != MAGIC || !isSupportedVersion( version ) ) {
+        throw new IOException( "Not a paged report content file: " + file );
+      }
+      final long stamp = header.getLong( STAMP_POSITION );
+      final long indexPosition = header.getLong( INDEX_POSITION );
+      if ( indexPosition < HEADER_SIZE ) {
+        throw new IOException( "Incomplete paged report content file: " + file );
+      }
+
+      final ByteBuffer counts = read( channel, indexPosition, 8 );
+      final int pageCount = counts.getInt( 0 );
+      final int storedPageCount = counts.getInt( 4 );
+      long entriesPosition = indexPosition + 8;
+      PageCodec codec = PageCodec.IDENTITY;
+      byte[] dictionary = null;
+      if ( version > VERSION_1 ) {
+        final ByteBuffer codecHeader = read( channel, entriesPosition, 8 );
+        codec = PageCodec.forId( codecHeader.getInt( 0 ) );
+        final int dictionaryLength = codecHeader.getInt( 4 );
+        entriesPosition += 8;
+        if ( dictionaryLength > 0 ) {
+          dictionary = read( channel, entriesPosition, dictionaryLength ).array();
+          entriesPosition += dictionaryLength;
+        }
+      }
+      final int entrySize = version > VERSION_1 ? INDEX_ENTRY_SIZE : INDEX_ENTRY_SIZE_1;
+      final ByteBuffer entries = read( channel, entriesPosition, storedPageCount * entrySize );
+      final int[] pages = new int[ storedPageCount ];
+      final long[] offsets = new long[ storedPageCount ];
+      final int[] lengths = new int[ storedPageCount ];
+      final int[] decodedLengths = new int[ storedPageCount ];
+      for ( int i = 0; i < storedPageCount; i++ ) {
+        pages[ i ] = entries.getInt();
+        offsets[ i ] = entries.getLong();
+        lengths[ i ] = entries.getInt();
+        decodedLengths[ i ] = version > VERSION_1 ? entries.getInt() : lengths[ i ];
+      }
+      return new FileReportContent( file, stamp, pageCount, pages, offsets, lengths, decodedLengths, codec,
+        dictionary );
+    }
+  }
+
+  /**
+   * @param pages offset, stored length and decoded length of every stored page
+   */
+  static void writeIndex( final FileChannel channel, final long position, final int pageCount,
+                          final PageCodec codec, final byte[] dictionary, final Map<Integer, long[]> pages )
+    throws IOException {
+    final int dictionaryLength = dictionary == null ? 0 : dictionary.length;
+    final ByteBuffer index = ByteBuffer.allocate( 16 + dictionaryLength + pages.size() * INDEX_ENTRY_SIZE );
+    index.putInt( pageCount ).putInt( pages.size() ).putInt( codec.getId() ).putInt( dictionaryLength );
+    if ( dictionaryLength > 0 ) {
+      index.put( dictionary );
+    }
+    for ( final Map.Entry<Integer, long[]> entry : pages.entrySet() ) {
+      final long[] page = entry.getValue();
+      index.putInt( entry.getKey() ).putLong( page[ 0 ] ).putInt( (int) page[ 1 ] ).putInt( (int) page[ 2 ] );
+    }
+    index.flip();
+    write( channel, position, index );
+  }
+
+  private static void writeIndexPosition( final FileChannel channel, final long position ) throws IOException {
+    final ByteBuffer indexPosition = ByteBuffer.allocate( 8 );
+    indexPosition.putLong( position ).flip();
+    write( channel, INDEX_POSITION, indexPosition );
+  }
+
+  private static boolean isSupportedVersion( final int version ) {
+    return version == VERSION || version == VERSION_1;
+  }
+
+  static ByteBuffer read( final FileChannel channel, final long position, final int length ) throws IOException {
+    final ByteBuffer buffer = ByteBuffer.allocate( length );
+    while ( buffer.hasRemaining() ) {
+      if ( channel.read( buffer, position + buffer.position() ) < 0 ) {
+        throw new IOException( "Unexpected end of paged report content file" );
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  static long write( final FileChannel channel, final long position, final ByteBuffer buffer ) throws IOException {
+    long current = position;
+    while ( buffer.hasRemaining() ) {
+      current += channel.write( buffer, current );
+    }
+    return current;
+  }
+}
@@ -0,0 +1,301 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.pentaho.platform.api.repository2.unified.IUnifiedRepository;
+import org.pentaho.platform.api.repository2.unified.RepositoryFile;
+import org.pentaho.platform.engine.core.system.PentahoSystem;
+import org.pentaho.platform.engine.security.SecurityHelper;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Remembers the versions of the report definitions, so computing a content cache key doesn't look up the repository
+ * on every request. Versions are checked again in the background every revalidation interval, and a report can be
+ * invalidated explicitly when it is known to have changed. Either way the cached content of the old version is
+ * purged from the content caches; it carries the report path in its {@link #REPORT_SOURCE} metadata.
+ * <p>
+ * Each check only looks up the reports used since the previous one, at most {@code maxChecksPerRevalidation} of
+ * them, the rest are checked by the next run. A changed report is served from the cache for about one revalidation
+ * interval after it is used. With an interval of 0 versions are only dropped by {@link #invalidate(String)}.
+ */
+public class ReportVersionCache {
+
+  private static final Log logger = LogFactory.getLog( ReportVersionCache.class );
+
+  /**
+   * Metadata of cached report content holding the path of the report definition.
+   */
+  public static final String REPORT_SOURCE = "ReportSource";
+
+  /**
+   * Metadata of cached report content holding the version of the report definition it was rendered from.
+   */
+  public static final String REPORT_VERSION = "ReportVersion";
+
+  private final LinkedHashMap<String, Long> versions = new LinkedHashMap<>( 16, 0.75f, true );
+  // reports used since the last check and their known versions, oldest use first
+  private final LinkedHashMap<String, Long> used = new LinkedHashMap<>();
+  private int maxEntries = 2000;
+  private int revalidateIntervalSeconds = 300;
+  private int maxChecksPerRevalidation = 200;
+  private ScheduledExecutorService scheduler;
+  // incremented on every change, loads that overlap a change don't store their version
+  private long changeSequence;
+  private long hits;
+  private long misses;
+  private long changes;
+
+  public synchronized int getMaxEntries() {
+    return maxEntries;
+  }
+
+  /**
+   * @param maxEntries number of reports whose versions are kept, the least recently used are dropped
+   */
+  public synchronized void setMaxEntries( final int maxEntries ) {
+    this.maxEntries = maxEntries;
+    trim();
+  }
+
+  public synchronized int getRevalidateIntervalSeconds() {
+    return revalidateIntervalSeconds;
+  }
+
+  /**
+   * @param revalidateIntervalSeconds seconds between the background version checks, 0 disables them
+   */
+  public synchronized void setRevalidateIntervalSeconds( final int revalidateIntervalSeconds ) {
+    this.revalidateIntervalSeconds = revalidateIntervalSeconds;
+  }
+
+  public synchronized int getMaxChecksPerRevalidation() {
+    return maxChecksPerRevalidation;
+  }
+
+  /**
+   * @param maxChecksPerRevalidation maximum number of repository lookups of a background check
+   */
+  public synchronized void setMaxChecksPerRevalidation( final int maxChecksPerRevalidation ) {
+    this.maxChecksPerRevalidation = maxChecksPerRevalidation;
+  }
+
+  /**
+   * @param path   report path
+   * @param loader looks up the version in the repository if it is not known, returns null if it can't
+   * @return version of the report or null
+   */
+  public Long getVersion( final String path, final Supplier<Long> loader ) {
+    final long sequence;
+    synchronized ( this ) {
+      final Long version = versions.get( path );
+      if ( version != null ) {
+        hits++;
+        used.putIfAbsent( path, version );
+        return version;
+      }
+      misses++;
+      sequence = changeSequence;
+    }
+    final Long version = loader.get();
+    if ( version != null ) {
+      synchronized ( this ) {
+        if ( sequence == changeSequence ) {
+          versions.put( path, version );
+          used.put( path, version );
+          trim();
+        }
+      }
+    }
+    return version;
+  }
+
+  /**
+   * Checks content that was cached by another process, e.g. imported from a snapshot.
+   *
+   * @param metaData metadata of the cached content
+   * @return true if the content was rendered from the current version of its report
+   */
+  public boolean isCurrent( final Map<String, Serializable> metaData ) {
+    final Object path = metaData.get( REPORT_SOURCE );
+    final Object version = metaData.get( REPORT_VERSION );
+    if ( !( path instanceof String ) || !( version instanceof Long ) ) {
+      return false;
+    }
+    return version.equals( getVersion( (String) path, () -> loadVersion( (String) path ) ) );
+  }
+
+  /**
+   * Drops the version of a changed report and purges its cached content.
+   *
+   * @param path report path
+   */
+  public void invalidate( final String path ) {
+    synchronized ( this ) {
+      changeSequence++;
+      changes++;
+      versions.remove( path );
+      used.remove( path );
+    }
+    logger.debug( "Invalidated report version: " + path );
+    purgeContent( path );
+  }
+
+  /**
+   * Looks up the versions of the reports used since the last check and purges the content of the reports that have
+   * changed.
+   */
+  public void revalidate() {
+    final List<Map.Entry<String, Long>> due;
+    synchronized ( this ) {
+      due = new ArrayList<>( Math.min( used.size(), Math.max( 0, maxChecksPerRevalidation ) ) );
+      final Iterator<Map.Entry<String, Long>> it = used.entrySet().iterator();
+      while ( it.hasNext() && due.size() < maxChecksPerRevalidation ) {
+        due.add( new AbstractMap.SimpleImmutableEntry<>( it.next() ) );
+        it.remove();
+      }
+    }
+    for ( final Map.Entry<String, Long> entry : due ) {
+      final Long version = loadVersion( entry.getKey() );
+      if ( version == null ) {
+        // check again next time
+        synchronized ( this ) {
+          if ( versions.containsKey( entry.getKey() ) ) {
+            used.putIfAbsent( entry.getKey(), entry.getValue() );
+          }
+        }
+        continue;
+      }
+      if ( version.equals( entry.getValue() ) ) {
+        continue;
+      }
+      synchronized ( this ) {
+        changeSequence++;
+        changes++;
+        if ( versions.containsKey( entry.getKey() ) ) {
+          versions.put( entry.getKey(), version );
+        }
+      }
+      logger.debug( "Report has changed: " + entry.getKey() );
+      purgeContent( entry.getKey() );
+    }
+  }
+
+  public synchronized int getEntryCount() {
+    return versions.size();
+  }
+
+  public synchronized long getHitCount() {
+    return hits;
+  }
+
+  public synchronized long getMissCount() {
+    return misses;
+  }
+
+  public synchronized long getChangeCount() {
+    return changes;
+  }
+
+  public synchronized void start() {
+    if ( scheduler != null || revalidateIntervalSeconds <= 0 ) {
+      return;
+    }
+    scheduler = Executors.newSingleThreadScheduledExecutor( r -> {
+      final Thread thread = new Thread( r, "report-version-cache" );
+      thread.setDaemon( true );
+      return thread;
+    } );
+    scheduler.scheduleWithFixedDelay( () -> {
+      try {
+        revalidate();
+      } catch ( final RuntimeException e ) {
+        logger.warn( "Report version revalidation failed: ", e );
+      }
+    }, revalidateIntervalSeconds, revalidateIntervalSeconds, TimeUnit.SECONDS );
+  }
+
+  public synchronized void shutdown() {
+    if ( scheduler != null ) {
+      scheduler.shutdownNow();
+      scheduler = null;
+    }
+  }
+
+  /**
+   * Looks up the version of a report as the system user, the background thread has no session.
+   *
+   * @param path report path
+   * @return last modification time, -1 if the report doesn't exist or null if the repository can't be read
+   */
+  protected Long loadVersion( final String path ) {
+    final IUnifiedRepository repository = PentahoSystem.get( IUnifiedRepository.class );
+    if ( repository == null ) {
+      return null;
+    }
+    try {
+      return SecurityHelper.getInstance().runAsSystem( () -> {
+        final RepositoryFile file = repository.getFile( path );
+        return file == null || file.getLastModifiedDate() == null ? -1L : file.getLastModifiedDate().getTime();
+      } );
+    } catch ( final Exception e ) {
+      logger.debug( "Can't look up report version: " + path, e );
+      return null;
+    }
+  }
+
+  /**
+   * Removes the content rendered from a report from all content caches.
+   *
+   * @param path report path
+   */
+  protected void purgeContent( final String path ) {
+    final IPluginCacheManager cacheManager = PentahoSystem.get( IPluginCacheManager.class );
+    if ( cacheManager == null ) {
+      return;
+    }
+    final IReportContentCache cache = cacheManager.getCache();
+    if ( cache != null ) {
+      cache.invalidate( REPORT_SOURCE, path );
+    }
+    final IReportContentCache sharedCache = cacheManager.getSharedCache();
+    if ( sharedCache != null ) {
+      sharedCache.invalidate( REPORT_SOURCE, path );
+    }
+  }
+
+  private void trim() {
+    final Iterator<String> it = versions.keySet().iterator();
+    while ( versions.size() > maxEntries && it.hasNext() ) {
+      used.remove( it.next() );
+      it.remove();
+    }
+  }
+}
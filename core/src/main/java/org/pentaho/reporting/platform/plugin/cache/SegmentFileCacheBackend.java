@@ -0,0 +1,786 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Log-structured cache backend. Entries are appended to rolling segment files and located through an in-memory
+ * offset index, so a write costs one sequential append and a read costs one positioned read. A prefix purge is a
+ * single tombstone record. Segments that are mostly superseded are rewritten by a background compaction.
+ * <p>
+ * A tombstone counts as live only while another segment still holds a record it shadows. Once those segments are
+ * compacted, the tombstone is dead and is dropped when its own segment is compacted.
+ * <p>
+ * Every record carries a sequence number, and the index is rebuilt on startup by replaying all records in sequence
+ * order. This keeps the replay correct even though compaction moves live records into newer segments.
+ * <p>
+ * The index and the superseded keys of every segment are sorted by key, so the keys below a prefix are a contiguous
+ * range and purges and tombstone checks only visit the keys they affect. If the cache directory can't be opened the
+ * backend behaves as an empty cache and tries again after {@link #OPEN_RETRY_MILLIS}.
+ */
+public class SegmentFileCacheBackend implements ICacheBackend {
+
+  private static final Log logger = LogFactory.getLog( SegmentFileCacheBackend.class );
+
+  public static final String SEGMENT_PREFIX = "segment-";
+  public static final String SEGMENT_EXT = ".log";
+
+  private static final int MAGIC = 0x52435347;
+  private static final int HEADER_SIZE = 12;
+  private static final byte PUT = 1;
+  private static final byte DELETE = 2;
+  private static final int NULL_LENGTH = -1;
+  static final long OPEN_RETRY_MILLIS = 60000;
+
+  /**
+   * Orders keys segment by segment, a prefix sorts right before the keys below it.
+   */
+  private static final Comparator<List<String>> KEY_ORDER = ( a, b ) -> {
+    final Comparator<String> segmentOrder = Comparator.nullsFirst( Comparator.naturalOrder() );
+    for ( int i = 0; i < a.size() && i < b.size(); i++ ) {
+      final int result = segmentOrder.compare( a.get( i ), b.get( i ) );
+      if ( result != 0 ) {
+        return result;
+      }
+    }
+    return Integer.compare( a.size(), b.size() );
+  };
+
+  private final ConcurrentNavigableMap<List<String>, Location> index = new ConcurrentSkipListMap<>( KEY_ORDER );
+  private final Map<Long, Record> tombstones = new ConcurrentHashMap<>();
+  private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+  private final ReentrantReadWriteLock segmentLock = new ReentrantReadWriteLock();
+  private final Object appendLock = new Object();
+  private final Object compactionLock = new Object();
+  private final AtomicLong sequence = new AtomicLong();
+
+  private String cachePath;
+  private long maxSegmentSize = 64L * 1024 * 1024;
+  private double compactionThreshold = 0.5;
+  private long compactionIntervalSeconds = 60;
+
+  private File cacheDir;
+  private volatile Segment active;
+  private ScheduledExecutorService compactor;
+  private volatile boolean opened;
+  private long nextOpenAttempt;
+
+  public SegmentFileCacheBackend() {
+  }
+
+  public void setCachePath( final String cachePath ) {
+    this.cachePath = cachePath;
+  }
+
+  public String getCachePath() {
+    return cachePath;
+  }
+
+  /**
+   * @param maxSegmentSize size in bytes after which a new segment file is started
+   */
+  public void setMaxSegmentSize( final long maxSegmentSize ) {
+    this.maxSegmentSize = maxSegmentSize;
+  }
+
+  /**
+   * @param compactionThreshold live-to-total ratio below which a closed segment gets compacted
+   */
+  public void setCompactionThreshold( final double compactionThreshold ) {
+    this.compactionThreshold = compactionThreshold;
+  }
+
+  /**
+   * @param compactionIntervalSeconds delay between background compaction runs, 0 disables the background thread
+   */
+  public void setCompactionIntervalSeconds( final long compactionIntervalSeconds ) {
+    this.compactionIntervalSeconds = compactionIntervalSeconds;
+  }
+
+  @Override
+  public boolean write( final List<String> key, final Serializable value, final Map<String, Serializable> metaData ) {
+    if ( !open() ) {
+      return false;
+    }
+    final List<String> cleanKey = copyKey( key );
+    final byte[] meta;
+    final byte[] data;
+    try {
+      final HashMap<String, Serializable> writeableMetaData = new HashMap<>();
+      if ( metaData != null ) {
+        writeableMetaData.putAll( metaData );
+      }
+      meta = MetaDataCodec.encode( writeableMetaData );
+      data = value == null ? null : serialize( value );
+    } catch ( final IOException e ) {
+      logger.error( "Can't write cache: ", e );
+      return false;
+    }
+
+    synchronized ( appendLock ) {
+      try {
+        final Location location = append( sequence.incrementAndGet(), PUT, cleanKey, meta, data );
+        markDead( cleanKey, index.put( cleanKey, location ) );
+        return true;
+      } catch ( final IOException e ) {
+        logger.error( "Can't write cache: ", e );
+        return false;
+      }
+    }
+  }
+
+  @Override
+  public Serializable read( final List<String> key ) {
+    if ( !open() ) {
+      return null;
+    }
+    final Object result = readEntry( copyKey( key ), false, SegmentFileCacheBackend::deserialize );
+    return result instanceof Serializable ? (Serializable) result : null;
+  }
+
+  @Override
+  @SuppressWarnings( "unchecked" )
+  public Map<String, Serializable> readMetaData( final List<String> key ) {
+    if ( !open() ) {
+      return null;
+    }
+    final Object result = readEntry( copyKey( key ), true, MetaDataCodec::decode );
+    return result instanceof Map ? (Map<String, Serializable>) result : null;
+  }
+
+  /**
+   * Decodes only the requested field of the stored metadata.
+   */
+  @Override
+  public Serializable readMetaDataField( final List<String> key, final String name ) {
+    if ( !open() ) {
+      return null;
+    }
+    return (Serializable) readEntry( copyKey( key ), true, bytes -> MetaDataCodec.decodeField( bytes, name ) );
+  }
+
+  private Object readEntry( final List<String> key, final boolean metaData, final Decoder decoder ) {
+    // a concurrent compaction may move the record between the index lookup and the read, so look it up again once
+    for ( int attempt = 0; attempt < 2; attempt++ ) {
+      final Location location = index.get( key );
+      if ( location == null || ( !metaData && location.dataLength == NULL_LENGTH ) ) {
+        return null;
+      }
+      try {
+        final byte[] bytes = metaData
+          ? readRegion( location, location.metaOffset, location.metaLength )
+          : readRegion( location, location.dataOffset, location.dataLength );
+        if ( bytes == null ) {
+          continue;
+        }
+        return decoder.decode( bytes );
+      } catch ( final Exception e ) {
+        logger.debug( "Can't read cache: ", e );
+        return null;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Removes the entry and everything stored below it with a single tombstone record.
+   */
+  @Override
+  public boolean purge( final List<String> key ) {
+    if ( !open() ) {
+      return false;
+    }
+    final List<String> cleanKey = copyKey( key );
+    synchronized ( appendLock ) {
+      final long seq = sequence.incrementAndGet();
+      final Location location;
+      try {
+        location = append( seq, DELETE, cleanKey, null, null );
+      } catch ( final IOException e ) {
+        logger.debug( "Can't delete cache: ", e );
+        return false;
+      }
+      removeBelow( cleanKey );
+      final Record tombstone = new Record( seq, DELETE, cleanKey, location );
+      tombstones.put( seq, tombstone );
+      if ( !isShadowing( tombstone ) ) {
+        markDead( tombstone );
+      }
+      return true;
+    }
+  }
+
+  @Override
+  public void purgeSegment( final List<String> key, final BiPredicate<List<String>, Map<String, Serializable>> p ) {
+    if ( !open() ) {
+      return;
+    }
+    final List<String> cleanKey = copyKey( key );
+    for ( final List<String> entryKey : new ArrayList<>( below( index, cleanKey ).keySet() ) ) {
+      if ( entryKey.size() > cleanKey.size() ) {
+        final Map<String, Serializable> metaData = readMetaData( entryKey );
+        if ( metaData != null && p.test( entryKey, metaData ) ) {
+          purge( entryKey );
+        }
+      }
+    }
+  }
+
+  /**
+   * Rewrites the live records of every closed segment whose live ratio fell below the compaction threshold and
+   * deletes the old files. Runs periodically on a background thread, but can be invoked directly.
+   */
+  public void compact() {
+    if ( !open() ) {
+      return;
+    }
+    synchronized ( compactionLock ) {
+      for ( final Segment segment : new ArrayList<>( segments.values() ) ) {
+        if ( segment == active || segment.size.get() == 0 ) {
+          continue;
+        }
+        if ( (double) segment.liveBytes.get() / segment.size.get() >= compactionThreshold ) {
+          continue;
+        }
+        try {
+          compact( segment );
+        } catch ( final IOException e ) {
+          logger.warn( "Can't compact cache segment " + segment.file, e );
+        }
+      }
+      releaseTombstones();
+    }
+  }
+
+  /**
+   * Stops background compaction and closes all segment files.
+   */
+  public synchronized void shutdown() {
+    if ( compactor != null ) {
+      compactor.shutdownNow();
+      compactor = null;
+    }
+    segmentLock.writeLock().lock();
+    try {
+      for ( final Segment segment : segments.values() ) {
+        segment.close();
+      }
+      segments.clear();
+      index.clear();
+      tombstones.clear();
+      active = null;
+      opened = false;
+    } finally {
+      segmentLock.writeLock().unlock();
+    }
+  }
+
+  //for testing purpose
+  int getSegmentCount() {
+    return segments.size();
+  }
+
+  //for testing purpose
+  int getLiveTombstoneCount() {
+    return tombstones.size();
+  }
+
+  private void compact( final Segment segment ) throws IOException {
+    logger.debug( "Compacting cache segment " + segment.file );
+    for ( final Record record : scan( segment ) ) {
+      if ( record.type == DELETE ) {
+        final Record tombstone = tombstones.get( record.seq );
+        if ( tombstone != null && isShadowing( tombstone ) ) {
+          // other segments still hold records this tombstone has to shadow on replay
+          synchronized ( appendLock ) {
+            final Location moved = append( record.seq, DELETE, record.key, null, null );
+            tombstones.put( record.seq, new Record( record.seq, DELETE, record.key, moved ) );
+          }
+        } else if ( tombstone != null ) {
+          tombstones.remove( record.seq, tombstone );
+        }
+        continue;
+      }
+      final Location current = index.get( record.key );
+      if ( current == null || current.segmentId != segment.id || current.offset != record.location.offset ) {
+        continue;
+      }
+      // the segment is only dropped by this thread, so the regions are always there
+      final byte[] meta = readRegion( current, current.metaOffset, current.metaLength );
+      final byte[] data =
+        current.dataLength == NULL_LENGTH ? null : readRegion( current, current.dataOffset, current.dataLength );
+      synchronized ( appendLock ) {
+        final Location moved = append( record.seq, PUT, record.key, meta, data );
+        if ( index.replace( record.key, current, moved ) ) {
+          markDead( record.key, current );
+        } else {
+          // overwritten or purged while we were copying
+          markDead( record.key, moved );
+        }
+      }
+    }
+
+    segmentLock.writeLock().lock();
+    try {
+      segments.remove( segment.id );
+      segment.close();
+      if ( !segment.file.delete() ) {
+        logger.warn( "Can't delete compacted cache segment " + segment.file );
+      }
+    } finally {
+      segmentLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Marks the bytes of a superseded record as dead. The segment remembers the key, tombstones stay live while the
+   * record is in the file.
+   */
+  private void markDead( final List<String> key, final Location previous ) {
+    if ( previous == null ) {
+      return;
+    }
+    final Segment segment = segments.get( previous.segmentId );
+    if ( segment != null ) {
+      segment.liveBytes.addAndGet( -previous.length );
+      segment.deadKeys.merge( key, previous.seq, Math::min );
+    }
+  }
+
+  /**
+   * Marks the bytes of a tombstone that no longer shadows any record as dead.
+   */
+  private void markDead( final Record tombstone ) {
+    if ( !tombstones.remove( tombstone.seq, tombstone ) ) {
+      return;
+    }
+    final Segment segment = segments.get( tombstone.location.segmentId );
+    if ( segment != null ) {
+      segment.liveBytes.addAndGet( -tombstone.location.length );
+    }
+  }
+
+  /**
+   * Marks all tombstones that no longer shadow any record as dead.
+   */
+  private void releaseTombstones() {
+    for ( final Record tombstone : new ArrayList<>( tombstones.values() ) ) {
+      if ( !isShadowing( tombstone ) ) {
+        markDead( tombstone );
+      }
+    }
+  }
+
+  /**
+   * @return true if a segment other than the one holding the tombstone still has an older record below its key
+   */
+  private boolean isShadowing( final Record tombstone ) {
+    for ( final Segment segment : segments.values() ) {
+      if ( segment.id == tombstone.location.segmentId ) {
+        continue;
+      }
+      for ( final Long seq : below( segment.deadKeys, tombstone.key ).values() ) {
+        if ( seq < tombstone.seq ) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Must be called while holding the append lock.
+   */
+  private Location append( final long seq, final byte type, final List<String> key, final byte[] meta,
+                           final byte[] data ) throws IOException {
+    final ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream( bout );
+    out.writeInt( MAGIC );
+    out.writeInt( 0 );
+    out.writeInt( 0 );
+    out.writeLong( seq );
+    out.writeByte( type );
+    out.writeInt( key.size() );
+    for ( final String segment : key ) {
+      out.writeUTF( segment );
+    }
+    out.writeInt( meta == null ? NULL_LENGTH : meta.length );
+    final int metaOffset = out.size();
+    if ( meta != null ) {
+      out.write( meta );
+    }
+    out.writeInt( data == null ? NULL_LENGTH : data.length );
+    final int dataOffset = out.size();
+    if ( data != null ) {
+      out.write( data );
+    }
+    out.flush();
+
+    final ByteBuffer buffer = ByteBuffer.wrap( bout.toByteArray() );
+    final int length = buffer.capacity();
+    final CRC32 crc = new CRC32();
+    crc.update( buffer.array(), HEADER_SIZE, length - HEADER_SIZE );
+    buffer.putInt( 4, length - HEADER_SIZE );
+    buffer.putInt( 8, (int) crc.getValue() );
+
+    Segment segment = active;
+    if ( segment.size.get() > 0 && segment.size.get() + length > maxSegmentSize ) {
+      segment = roll();
+    }
+    final long offset = segment.size.get();
+    while ( buffer.hasRemaining() ) {
+      segment.channel.write( buffer, offset + buffer.position() );
+    }
+    segment.size.addAndGet( length );
+    // tombstones count as live until they no longer shadow a record
+    segment.liveBytes.addAndGet( length );
+    return new Location( seq, segment.id, offset, length, offset + metaOffset, meta == null ? 0 : meta.length,
+      offset + dataOffset, data == null ? NULL_LENGTH : data.length );
+  }
+
+  private Segment roll() throws IOException {
+    final Segment segment = new Segment( active.id + 1 );
+    segments.put( segment.id, segment );
+    active = segment;
+    return segment;
+  }
+
+  private byte[] readRegion( final Location location, final long offset, final int length ) throws IOException {
+    segmentLock.readLock().lock();
+    try {
+      final Segment segment = segments.get( location.segmentId );
+      if ( segment == null ) {
+        return null;
+      }
+      final ByteBuffer buffer = ByteBuffer.allocate( length );
+      while ( buffer.hasRemaining() ) {
+        if ( segment.channel.read( buffer, offset + buffer.position() ) < 0 ) {
+          throw new EOFException();
+        }
+      }
+      return buffer.array();
+    } finally {
+      segmentLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Reads all intact records of a segment. A torn record at the tail of the file is cut off.
+   */
+  private List<Record> scan( final Segment segment ) throws IOException {
+    final List<Record> records = new ArrayList<>();
+    final long size = segment.channel.size();
+    long offset = 0;
+    final ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+    while ( offset + HEADER_SIZE <= size ) {
+      header.clear();
+      segment.channel.read( header, offset );
+      if ( header.getInt( 0 ) != MAGIC ) {
+        break;
+      }
+      final int bodyLength = header.getInt( 4 );
+      if ( bodyLength < 0 || offset + HEADER_SIZE + bodyLength > size ) {
+        break;
+      }
+      final ByteBuffer body = ByteBuffer.allocate( bodyLength );
+      while ( body.hasRemaining() ) {
+        segment.channel.read( body, offset + HEADER_SIZE + body.position() );
+      }
+      final CRC32 crc = new CRC32();
+      crc.update( body.array(), 0, bodyLength );
+      if ( (int) crc.getValue() != header.getInt( 8 ) ) {
+        break;
+      }
+      records.add( parse( segment.id, offset, body.array() ) );
+      offset += HEADER_SIZE + bodyLength;
+    }
+    if ( offset < size ) {
+      logger.warn( "Truncating damaged cache segment " + segment.file + " at " + offset );
+      segment.channel.truncate( offset );
+    }
+    segment.size.set( offset );
+    return records;
+  }
+
+  private Record parse( final int segmentId, final long offset, final byte[] body ) throws IOException {
+    final DataInputStream in = new DataInputStream( new ByteArrayInputStream( body ) );
+    final long seq = in.readLong();
+    final byte type = in.readByte();
+    final int keySize = in.readInt();
+    final List<String> key = new ArrayList<>( keySize );
+    for ( int i = 0; i < keySize; i++ ) {
+      key.add( in.readUTF() );
+    }
+    final int metaLength = in.readInt();
+    final long metaOffset = offset + HEADER_SIZE + body.length - in.available();
+    if ( metaLength > 0 ) {
+      in.skipBytes( metaLength );
+    }
+    final int dataLength = in.readInt();
+    final long dataOffset = offset + HEADER_SIZE + body.length - in.available();
+    final Location location = new Location( seq, segmentId, offset, HEADER_SIZE + body.length, metaOffset,
+      Math.max( metaLength, 0 ), dataOffset, dataLength );
+    return new Record( seq, type, Collections.unmodifiableList( key ), location );
+  }
+
+  /**
+   * @return false if the cache directory can't be opened, the caller treats the cache as empty
+   */
+  private boolean open() {
+    if ( opened ) {
+      return true;
+    }
+    synchronized ( this ) {
+      if ( opened ) {
+        return true;
+      }
+      if ( System.currentTimeMillis() < nextOpenAttempt ) {
+        return false;
+      }
+      try {
+        cacheDir = new File( System.getProperty( "java.io.tmpdir" ), cachePath == null ? "" : cachePath );
+        if ( !cacheDir.isDirectory() && !cacheDir.mkdirs() ) {
+          throw new IOException( "Can't create cache directory " + cacheDir );
+        }
+        recover();
+      } catch ( final IOException e ) {
+        logger.error( "Can't open segment cache in " + cacheDir + ", retrying in " + OPEN_RETRY_MILLIS + " ms: ", e );
+        nextOpenAttempt = System.currentTimeMillis() + OPEN_RETRY_MILLIS;
+        for ( final Segment segment : segments.values() ) {
+          segment.close();
+        }
+        segments.clear();
+        index.clear();
+        tombstones.clear();
+        return false;
+      }
+      if ( compactionIntervalSeconds > 0 ) {
+        compactor = Executors.newSingleThreadScheduledExecutor( r -> {
+          final Thread thread = Executors.defaultThreadFactory().newThread( r );
+          thread.setDaemon( true );
+          thread.setName( "SegmentFileCacheBackend compaction" );
+          return thread;
+        } );
+        compactor.scheduleWithFixedDelay( () -> {
+          try {
+            compact();
+          } catch ( final RuntimeException e ) {
+            logger.error( "Cache compaction failed: ", e );
+          }
+        }, compactionIntervalSeconds, compactionIntervalSeconds, TimeUnit.SECONDS );
+      }
+      opened = true;
+      return true;
+    }
+  }
+
+  /**
+   * Rebuilds the offset index by replaying every record of every segment in sequence order.
+   */
+  private void recover() throws IOException {
+    final List<Record> records = new ArrayList<>();
+    final File[] files = cacheDir.listFiles( ( dir, name ) -> name.startsWith( SEGMENT_PREFIX )
+      && name.endsWith( SEGMENT_EXT ) );
+    if ( files != null ) {
+      for ( final File file : files ) {
+        final String name = file.getName();
+        try {
+          final int id = Integer.parseInt( name.substring( SEGMENT_PREFIX.length(),
+            name.length() - SEGMENT_EXT.length() ) );
+          final Segment segment = new Segment( id );
+          segments.put( id, segment );
+          records.addAll( scan( segment ) );
+        } catch ( final NumberFormatException e ) {
+          logger.debug( "Ignoring unknown file in cache directory: " + name );
+        }
+      }
+    }
+
+    records.sort( Comparator.comparingLong( r -> r.seq ) );
+    long maxSeq = 0;
+    for ( final Record record : records ) {
+      maxSeq = Math.max( maxSeq, record.seq );
+      segments.get( record.location.segmentId ).liveBytes.addAndGet( record.location.length );
+      if ( record.type == PUT ) {
+        markDead( record.key, index.put( record.key, record.location ) );
+      } else {
+        removeBelow( record.key );
+        tombstones.put( record.seq, record );
+      }
+    }
+    sequence.set( maxSeq );
+    releaseTombstones();
+
+    if ( segments.isEmpty() ) {
+      final Segment segment = new Segment( 1 );
+      segments.put( segment.id, segment );
+      active = segment;
+    } else {
+      active = segments.lastEntry().getValue();
+    }
+  }
+
+  /**
+   * Removes the index entries at or below the prefix and marks their records as dead.
+   */
+  private void removeBelow( final List<String> prefix ) {
+    for ( final Map.Entry<List<String>, Location> entry : new ArrayList<>( below( index, prefix ).entrySet() ) ) {
+      if ( index.remove( entry.getKey(), entry.getValue() ) ) {
+        markDead( entry.getKey(), entry.getValue() );
+      }
+    }
+  }
+
+  /**
+   * @return view of the entries stored at or below the prefix
+   */
+  private static <V> NavigableMap<List<String>, V> below( final ConcurrentNavigableMap<List<String>, V> map,
+                                                          final List<String> prefix ) {
+    final NavigableMap<List<String>, V> tail = map.tailMap( prefix, true );
+    for ( final List<String> key : tail.keySet() ) {
+      if ( !startsWith( key, prefix ) ) {
+        return tail.headMap( key, false );
+      }
+    }
+    return tail;
+  }
+
+  private static boolean startsWith( final List<String> key, final List<String> prefix ) {
+    return key.size() >= prefix.size() && key.subList( 0, prefix.size() ).equals( prefix );
+  }
+
+  private static List<String> copyKey( final List<String> key ) {
+    if ( key == null ) {
+      return Collections.emptyList();
+    }
+    return Collections.unmodifiableList( new ArrayList<>( key ) );
+  }
+
+  private static byte[] serialize( final Serializable value ) throws IOException {
+    final ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    try ( final ObjectOutputStream oos = new ObjectOutputStream( bout ) ) {
+      oos.writeObject( value );
+    }
+    return bout.toByteArray();
+  }
+
+  private static Object deserialize( final byte[] bytes ) throws IOException, ClassNotFoundException {
+    try ( final ObjectInputStream ois = new ObjectInputStream( new ByteArrayInputStream( bytes ) ) ) {
+      return ois.readObject();
+    }
+  }
+
+  private interface Decoder {
+    Object decode( byte[] bytes ) throws Exception;
+  }
+
+  private final class Segment {
+    private final int id;
+    private final File file;
+    private final FileChannel channel;
+    private final AtomicLong size = new AtomicLong();
+    private final AtomicLong liveBytes = new AtomicLong();
+    // keys of the superseded records still in the file, with the lowest sequence number among them
+    private final ConcurrentNavigableMap<List<String>, Long> deadKeys = new ConcurrentSkipListMap<>( KEY_ORDER );
+
+    private Segment( final int id ) throws IOException {
+      this.id = id;
+      this.file = new File( cacheDir, String.format( "%s%06d%s", SEGMENT_PREFIX, id, SEGMENT_EXT ) );
+      this.channel = FileChannel.open( file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE );
+      this.size.set( channel.size() );
+    }
+
+    private void close() {
+      try {
+        channel.close();
+      } catch ( final IOException e ) {
+        logger.debug( "Can't close cache segment: ", e );
+      }
+    }
+  }
+
+  private static final class Location {
+    private final long seq;
+    private final int segmentId;
+    private final long offset;
+    private final int length;
+    private final long metaOffset;
+    private final int metaLength;
+    private final long dataOffset;
+    private final int dataLength;
+
+    private Location( final long seq, final int segmentId, final long offset, final int length,
+                      final long metaOffset, final int metaLength, final long dataOffset, final int dataLength ) {
+      this.seq = seq;
+      this.segmentId = segmentId;
+      this.offset = offset;
+      this.length = length;
+      this.metaOffset = metaOffset;
+      this.metaLength = metaLength;
+      this.dataOffset = dataOffset;
+      this.dataLength = dataLength;
+    }
+  }
+
+  private static final class Record {
+    private final long seq;
+    private final byte type;
+    private final List<String> key;
+    private final Location location;
+
+    private Record( final long seq, final byte type, final List<String> key, final Location location ) {
+      this.seq = seq;
+      this.type = type;
+      this.key = key;
+      this.location = location;
+    }
+  }
+}
@@ -0,0 +1,567 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * File system cache backend with a flat, sharded layout. Every entry is stored under the 128-bit hash of its key,
+ * spread over fixed-depth fan-out directories, so no directory grows with the number of cached entries or sessions.
+ * <p>
+ * File names can't be mapped back to keys, so every segment, i.e. a key without its last component, has a manifest
+ * listing its entries and sub-segments. Segment purges walk the manifests instead of listing directories. Manifests are
+ * append-only logs of additions and removals, rewritten once most of their records are superseded, and are loaded on
+ * first use.
+ */
+public class ShardedFileSystemCacheBackend implements IAppendableCacheBackend {
+
+  private static final Log logger = LogFactory.getLog( ShardedFileSystemCacheBackend.class );
+
+  public static final String ENTRIES = "entries";
+  public static final String SEGMENTS = "segments";
+  public static final String DATA = ".data";
+  public static final String METADATA = ".metadata";
+  public static final String MANIFEST = ".manifest";
+  /**
+   * Fan-out directory levels, 256 directories each.
+   */
+  public static final int FAN_OUT_DEPTH = 2;
+
+  private static final int HASH_BYTES = 16;
+  private static final byte ADD_ENTRY = 1;
+  private static final byte REMOVE_ENTRY = 2;
+  private static final byte ADD_SEGMENT = 3;
+  private static final byte REMOVE_SEGMENT = 4;
+  private static final int MIN_COMPACTION_RECORDS = 64;
+
+  private final CacheLockRegistry entryLocks = new CacheLockRegistry();
+  private final CacheLockRegistry segmentLocks = new CacheLockRegistry();
+  private final ConcurrentHashMap<List<String>, Manifest> manifests = new ConcurrentHashMap<>();
+
+  private File cacheDir;
+
+  public ShardedFileSystemCacheBackend() {
+  }
+
+  public void setCachePath( final String cachePath ) {
+    this.cacheDir = new File( System.getProperty( "java.io.tmpdir" ), cachePath == null ? "" : cachePath );
+    manifests.clear();
+  }
+
+  @Override
+  public boolean write( final List<String> key, final Serializable value, final Map<String, Serializable> metaData ) {
+    final List<String> cleanKey = copyKey( key );
+    final List<CacheLockRegistry.Handle> locks = lockEntry( cleanKey, true );
+    try {
+      if ( !register( cleanKey ) ) {
+        return false;
+      }
+      return writeValue( value, getEntryFile( cleanKey, DATA ) )
+        && writeMetaData( metaData, getEntryFile( cleanKey, METADATA ) );
+    } finally {
+      unlock( locks );
+    }
+  }
+
+  @Override
+  public boolean append( final List<String> key, final IReportContent pages,
+                         final Map<String, Serializable> metaData ) {
+    final List<String> cleanKey = copyKey( key );
+    final List<CacheLockRegistry.Handle> locks = lockEntry( cleanKey, true );
+    try {
+      final File dataFile = getEntryFile( cleanKey, DATA );
+      if ( !ReportContentFile.isReportContentFile( dataFile ) ) {
+        return false;
+      }
+      try {
+        if ( !ReportContentFile.append( pages, dataFile ) ) {
+          return false;
+        }
+      } catch ( final IOException e ) {
+        logger.error( "Can't append to cache: ", e );
+        return false;
+      }
+      return writeMetaData( metaData, getEntryFile( cleanKey, METADATA ) );
+    } finally {
+      unlock( locks );
+    }
+  }
+
+  @Override
+  public Serializable read( final List<String> key ) {
+    final List<String> cleanKey = copyKey( key );
+    final List<CacheLockRegistry.Handle> locks = lockEntry( cleanKey, false );
+    try {
+      final File f = getEntryFile( cleanKey, DATA );
+      if ( !f.exists() ) {
+        return null;
+      }
+      //report content is read page by page on demand
+      if ( ReportContentFile.isReportContentFile( f ) ) {
+        return ReportContentFile.open( f );
+      }
+      try ( final FileInputStream fis = new FileInputStream( f );
+            final ObjectInputStream ois = new ObjectInputStream( fis ) ) {
+        return (Serializable) ois.readObject();
+      }
+    } catch ( final Exception e ) {
+      logger.debug( "Can't read cache: ", e );
+      return null;
+    } finally {
+      unlock( locks );
+    }
+  }
+
+  @Override
+  public Map<String, Serializable> readMetaData( final List<String> key ) {
+    return readMetaData( key, MetaDataCodec::read );
+  }
+
+  /**
+   * Decodes only the requested field of the metadata file.
+   */
+  @Override
+  public Serializable readMetaDataField( final List<String> key, final String name ) {
+    return readMetaData( key, f -> MetaDataCodec.readField( f, name ) );
+  }
+
+  private <T> T readMetaData( final List<String> key, final MetaDataReader<T> reader ) {
+    final List<String> cleanKey = copyKey( key );
+    final List<CacheLockRegistry.Handle> locks = lockEntry( cleanKey, false );
+    try {
+      final File f = getEntryFile( cleanKey, METADATA );
+      return f.exists() ? reader.read( f ) : null;
+    } catch ( final IOException e ) {
+      logger.debug( "Can't read cache: ", e );
+      return null;
+    } finally {
+      unlock( locks );
+    }
+  }
+
+  private interface MetaDataReader<T> {
+    T read( File file ) throws IOException;
+  }
+
+  /**
+   * Removes the entry and every entry of the segment with this key.
+   */
+  @Override
+  public boolean purge( final List<String> key ) {
+    final List<String> cleanKey = copyKey( key );
+    final boolean segmentPurged = purgeTree( cleanKey, null );
+    final List<CacheLockRegistry.Handle> locks = lockEntry( cleanKey, true );
+    try {
+      if ( !deleteEntry( cleanKey ) ) {
+        return false;
+      }
+      if ( !cleanKey.isEmpty() ) {
+        final Manifest manifest = getManifest( cleanKey.subList( 0, cleanKey.size() - 1 ), false );
+        if ( manifest != null ) {
+          manifest.update( REMOVE_ENTRY, cleanKey.get( cleanKey.size() - 1 ) );
+        }
+      }
+      return segmentPurged;
+    } finally {
+      unlock( locks );
+    }
+  }
+
+  @Override
+  public void purgeSegment( final List<String> key, final BiPredicate<List<String>, Map<String, Serializable>> p ) {
+    purgeTree( copyKey( key ), p );
+  }
+
+  /**
+   * Purges the entries of a segment and its sub-segments, one segment at a time. Segments left empty are dropped.
+   *
+   * @param p entries to purge, null for all of them
+   * @return false if an entry could not be deleted
+   */
+  private boolean purgeTree( final List<String> segment,
+                             final BiPredicate<List<String>, Map<String, Serializable>> p ) {
+    boolean result = true;
+    final List<String> children;
+    final CacheLockRegistry.Handle lock = segmentLocks.acquire( segment, true );
+    try {
+      final Manifest manifest = getManifest( segment, false );
+      if ( manifest == null ) {
+        return true;
+      }
+      for ( final String name : manifest.getNames( ADD_ENTRY ) ) {
+        final List<String> entryKey = childKey( segment, name );
+        // entries can't be locked by anyone else while the segment is locked exclusively
+        if ( getEntryFile( entryKey, DATA ).exists() ) {
+          final Map<String, Serializable> metaData = readEntryMetaData( entryKey );
+          if ( p != null && !p.test( entryKey, metaData ) ) {
+            continue;
+          }
+          if ( !deleteEntry( entryKey ) ) {
+            result = false;
+            continue;
+          }
+        }
+        manifest.update( REMOVE_ENTRY, name );
+      }
+      children = manifest.getNames( ADD_SEGMENT );
+    } finally {
+      lock.release();
+    }
+    //sub-segments are locked one by one, so entries of this segment are not blocked meanwhile
+    for ( final String name : children ) {
+      result &= purgeTree( childKey( segment, name ), p );
+    }
+    dropIfEmpty( segment );
+    return result;
+  }
+
+  private Map<String, Serializable> readEntryMetaData( final List<String> key ) {
+    final File f = getEntryFile( key, METADATA );
+    try {
+      if ( f.exists() ) {
+        return MetaDataCodec.read( f );
+      }
+    } catch ( final IOException e ) {
+      logger.debug( "Can't read cache: ", e );
+    }
+    return new HashMap<>();
+  }
+
+  /**
+   * Drops the manifest of an empty segment and removes the segment from its parent. Both manifests are locked, so a
+   * concurrent write either sees the dropped manifest and registers the segment again, or keeps it from being dropped.
+   */
+  private void dropIfEmpty( final List<String> segment ) {
+    if ( segment.isEmpty() ) {
+      return;
+    }
+    final Manifest parent = getManifest( segment.subList( 0, segment.size() - 1 ), false );
+    if ( parent == null ) {
+      return;
+    }
+    synchronized ( parent ) {
+      final Manifest manifest = getManifest( segment, false );
+      if ( manifest != null ) {
+        synchronized ( manifest ) {
+          if ( !manifest.isEmpty() ) {
+            return;
+          }
+          manifest.drop();
+        }
+      }
+      if ( !parent.isDropped() ) {
+        parent.update( REMOVE_SEGMENT, segment.get( segment.size() - 1 ) );
+      }
+    }
+  }
+
+  /**
+   * Lists the entry in its segment and the segment in all of its ancestors, before anything is written.
+   */
+  private boolean register( final List<String> key ) {
+    for ( int i = key.size(); i > 0; i-- ) {
+      if ( !register( key.subList( 0, i - 1 ), i == key.size() ? ADD_ENTRY : ADD_SEGMENT, key.get( i - 1 ) ) ) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean register( final List<String> segment, final byte type, final String name ) {
+    while ( true ) {
+      final Manifest manifest = getManifest( segment, true );
+      synchronized ( manifest ) {
+        // dropped by a concurrent purge, a new one is created on the next attempt
+        if ( !manifest.isDropped() ) {
+          return manifest.update( type, name );
+        }
+      }
+    }
+  }
+
+  private Manifest getManifest( final List<String> segment, final boolean create ) {
+    return manifests.computeIfAbsent( segment, k -> {
+      final File file = getManifestFile( k );
+      return create || file.exists() ? new Manifest( k, file ) : null;
+    } );
+  }
+
+  private boolean deleteEntry( final List<String> key ) {
+    final File data = getEntryFile( key, DATA );
+    final File metaData = getEntryFile( key, METADATA );
+    data.delete();
+    metaData.delete();
+    return !data.exists() && !metaData.exists();
+  }
+
+  private boolean writeValue( final Serializable value, final File file ) {
+    try {
+      if ( value instanceof IReportContent ) {
+        ReportContentFile.write( (IReportContent) value, file );
+        return true;
+      }
+      file.getParentFile().mkdirs();
+      try ( final FileOutputStream fout = new FileOutputStream( file );
+            final ObjectOutputStream oos = new ObjectOutputStream( fout ) ) {
+        oos.writeObject( value );
+      }
+      return true;
+    } catch ( final IOException e ) {
+      logger.error( "Can't write cache: ", e );
+      return false;
+    }
+  }
+
+  private boolean writeMetaData( final Map<String, Serializable> metaData, final File file ) {
+    try {
+      MetaDataCodec.write( metaData == null ? new HashMap<String, Serializable>() : metaData, file );
+      return true;
+    } catch ( final IOException e ) {
+      logger.error( "Can't write cache: ", e );
+      return false;
+    }
+  }
+
+  /**
+   * Entries are guarded by a read lock on their segment and a lock on the entry itself, segment purges lock the
+   * segment exclusively.
+   */
+  private List<CacheLockRegistry.Handle> lockEntry( final List<String> key, final boolean exclusive ) {
+    final List<CacheLockRegistry.Handle> retval = new ArrayList<>( 2 );
+    if ( !key.isEmpty() ) {
+      retval.add( segmentLocks.acquire( key.subList( 0, key.size() - 1 ), false ) );
+    }
+    retval.add( entryLocks.acquire( key, exclusive ) );
+    return retval;
+  }
+
+  private void unlock( final List<CacheLockRegistry.Handle> locks ) {
+    for ( int i = locks.size() - 1; i >= 0; i-- ) {
+      locks.get( i ).release();
+    }
+  }
+
+  //for testing purpose
+  int getLockCount() {
+    return entryLocks.size() + segmentLocks.size();
+  }
+
+  File getEntryFile( final List<String> key, final String extension ) {
+    return getFile( ENTRIES, hash( key ), extension );
+  }
+
+  File getManifestFile( final List<String> segment ) {
+    return getFile( SEGMENTS, hash( segment ), MANIFEST );
+  }
+
+  /**
+   * @return file in the fan-out directories selected by the leading characters of the hash
+   */
+  private File getFile( final String area, final String hash, final String extension ) {
+    File dir = new File( cacheDir, area );
+    for ( int i = 0; i < FAN_OUT_DEPTH; i++ ) {
+      dir = new File( dir, hash.substring( i * 2, i * 2 + 2 ) );
+    }
+    return new File( dir, hash + extension );
+  }
+
+  /**
+   * @return hex encoded 128-bit hash of the key, components are length-prefixed so they can't run into each other
+   */
+  static String hash( final List<String> key ) {
+    final MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance( "SHA-256" );
+    } catch ( final NoSuchAlgorithmException e ) {
+      throw new IllegalStateException( e );
+    }
+    for ( final String component : key ) {
+      final byte[] bytes = component == null ? new byte[ 0 ] : component.getBytes( StandardCharsets.UTF_8 );
+      digest.update( new byte[] { (byte) ( bytes.length >>> 24 ), (byte) ( bytes.length >>> 16 ),
+        (byte) ( bytes.length >>> 8 ), (byte) bytes.length } );
+      digest.update( bytes );
+    }
+    final byte[] hash = digest.digest();
+    final StringBuilder sb = new StringBuilder( HASH_BYTES * 2 );
+    for ( int i = 0; i < HASH_BYTES; i++ ) {
+      sb.append( Character.forDigit( ( hash[ i ] >> 4 ) & 0xF, 16 ) );
+      sb.append( Character.forDigit( hash[ i ] & 0xF, 16 ) );
+    }
+    return sb.toString();
+  }
+
+  private static List<String> childKey( final List<String> segment, final String name ) {
+    final List<String> key = new ArrayList<>( segment.size() + 1 );
+    key.addAll( segment );
+    key.add( name );
+    return Collections.unmodifiableList( key );
+  }
+
+  private static List<String> copyKey( final List<String> key ) {
+    if ( key == null ) {
+      return Collections.emptyList();
+    }
+    return Collections.unmodifiableList( new ArrayList<>( key ) );
+  }
+
+  /**
+   * Entries and sub-segments of a segment. Guarded by its own monitor, a dropped manifest is never written again.
+   */
+  private final class Manifest {
+    private final List<String> segment;
+    private final File file;
+    private final Set<String> entries = new LinkedHashSet<>();
+    private final Set<String> segments = new LinkedHashSet<>();
+    private int records;
+    private boolean dropped;
+
+    private Manifest( final List<String> segment, final File file ) {
+      this.segment = segment;
+      this.file = file;
+      load();
+    }
+
+    private void load() {
+      if ( !file.exists() ) {
+        return;
+      }
+      try ( final DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) ) ) {
+        while ( true ) {
+          final byte type = in.readByte();
+          apply( type, in.readUTF() );
+          records++;
+        }
+      } catch ( final EOFException e ) {
+        // end of the log, a record torn by a crash is dropped
+      } catch ( final IOException e ) {
+        logger.debug( "Can't read cache manifest of " + segment + ": ", e );
+      }
+    }
+
+    private boolean apply( final byte type, final String name ) {
+      switch ( type ) {
+        case ADD_ENTRY:
+          return entries.add( name );
+        case REMOVE_ENTRY:
+          return entries.remove( name );
+        case ADD_SEGMENT:
+          return segments.add( name );
+        case REMOVE_SEGMENT:
+          return segments.remove( name );
+        default:
+          return false;
+      }
+    }
+
+    /**
+     * Applies and logs a change, records that don't change anything are not written.
+     *
+     * @return false if the change could not be written
+     */
+    synchronized boolean update( final byte type, final String name ) {
+      if ( dropped || !apply( type, name ) ) {
+        return !dropped;
+      }
+      try {
+        records++;
+        if ( records >= MIN_COMPACTION_RECORDS && records > 2 * ( entries.size() + segments.size() ) ) {
+          compact();
+        } else {
+          file.getParentFile().mkdirs();
+          try ( final DataOutputStream out = new DataOutputStream( new FileOutputStream( file, true ) ) ) {
+            out.writeByte( type );
+            out.writeUTF( name );
+          }
+        }
+        return true;
+      } catch ( final IOException e ) {
+        logger.error( "Can't write cache manifest of " + segment + ": ", e );
+        return false;
+      }
+    }
+
+    /**
+     * Replaces the log with the live names only.
+     */
+    private void compact() throws IOException {
+      final File tmp = new File( file.getParentFile(), file.getName() + "." + Long.toHexString( System.nanoTime() )
+        + ".tmp" );
+      try ( final DataOutputStream out = new DataOutputStream( new BufferedOutputStream(
+        new FileOutputStream( tmp ) ) ) ) {
+        for ( final String name : entries ) {
+          out.writeByte( ADD_ENTRY );
+          out.writeUTF( name );
+        }
+        for ( final String name : segments ) {
+          out.writeByte( ADD_SEGMENT );
+          out.writeUTF( name );
+        }
+      }
+      Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+      records = entries.size() + segments.size();
+    }
+
+    synchronized List<String> getNames( final byte type ) {
+      return new ArrayList<>( type == ADD_ENTRY ? entries : segments );
+    }
+
+    synchronized boolean isEmpty() {
+      return entries.isEmpty() && segments.isEmpty();
+    }
+
+    synchronized boolean isDropped() {
+      return dropped;
+    }
+
+    /**
+     * Deletes the log and forgets the manifest, the next write to the segment starts a new one.
+     */
+    synchronized void drop() {
+      dropped = true;
+      file.delete();
+      manifests.remove( segment, this );
+    }
+  }
+}
@@ -0,0 +1,81 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import org.pentaho.platform.api.engine.IPentahoSession;
+import org.pentaho.platform.engine.security.SecurityHelper;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Long-term cache shared between sessions. Instead of the user name the key contains a fingerprint of the security
+ * profile - the tenant and the roles of the current user - so a report is rendered once for all users with the same
+ * profile. It must only be used for reports whose content does not depend on the user otherwise, see
+ * {@link IPluginCacheManager#getSharedCache()}.
+ */
+public class SharedReportCache extends DeleteOldOnAccessCache {
+
+  private static final String SEGMENT = "shared";
+
+  public SharedReportCache( final ICacheBackend backend ) {
+    super( backend );
+  }
+
+  public SharedReportCache() {
+  }
+
+  @Override protected String getSegment() {
+    return SEGMENT;
+  }
+
+  @Override protected String computeOwner( final IPentahoSession session ) {
+    final StringBuilder profile = new StringBuilder();
+    for ( final String s : getSecurityProfile( session ) ) {
+      profile.append( s ).append( '\n' );
+    }
+    return createKey( profile.toString() );
+  }
+
+  /**
+   * @return sorted tenant and role names of the current user
+   */
+  protected List<String> getSecurityProfile( final IPentahoSession session ) {
+    final List<String> result = new ArrayList<>();
+    final Authentication authentication = SecurityHelper.getInstance().getAuthentication();
+    if ( authentication != null ) {
+      final Collection<? extends GrantedAuthority> roles = authentication.getAuthorities();
+      if ( roles != null ) {
+        for ( final GrantedAuthority role : roles ) {
+          result.add( "role:" + role.getAuthority() );
+        }
+      }
+    }
+    Collections.sort( result );
+    final Object tenant = session == null ? null : session.getAttribute( IPentahoSession.TENANT_ID_KEY );
+    if ( tenant != null ) {
+      result.add( 0, "tenant:" + tenant );
+    }
+    return result;
+  }
+}
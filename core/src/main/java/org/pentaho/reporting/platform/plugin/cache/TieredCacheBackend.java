@@ -0,0 +1,242 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Two-level cache backend: a size-bounded hot tier, usually a {@link MemoryCacheBackend} or an
+ * {@link OffHeapCacheBackend}, in front of a persistent cold tier. Writes go through to both tiers. Entries found only
+ * in the cold tier are promoted into the hot tier on read. Entries evicted from the hot tier are demoted to the cold
+ * tier if the write-through had failed for them. Purges are applied to both tiers, so the semantics of {@link #purge}
+ * and {@link #purgeSegment} stay the same as the ones of the cold tier.
+ */
+public class TieredCacheBackend implements IAppendableCacheBackend {
+
+  private static final Log logger = LogFactory.getLog( TieredCacheBackend.class );
+
+  private ICacheBackend hot;
+  private ICacheBackend cold;
+
+  /**
+   * Keys that only live in the hot tier because the cold write failed.
+   */
+  private final Set<List<String>> dirty = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Incremented on every purge, so that a promotion racing with a purge does not resurrect the purged entry.
+   */
+  private final AtomicLong purgeCount = new AtomicLong();
+
+  private final MemoryCacheBackend.EvictionListener demoteListener = new MemoryCacheBackend.EvictionListener() {
+    @Override public void evicted( final List<String> key, final Serializable value,
+                                   final Map<String, Serializable> metaData ) {
+      demote( key, value, metaData );
+    }
+
+    @Override public boolean accepts( final List<String> key ) {
+      return dirty.contains( key );
+    }
+  };
+
+  public TieredCacheBackend() {
+  }
+
+  public TieredCacheBackend( final ICacheBackend hot, final ICacheBackend cold ) {
+    setHot( hot );
+    setCold( cold );
+  }
+
+  public ICacheBackend getHot() {
+    return hot;
+  }
+
+  public void setHot( final ICacheBackend hot ) {
+    this.hot = hot;
+    if ( hot instanceof MemoryCacheBackend ) {
+      ( (MemoryCacheBackend) hot ).setEvictionListener( demoteListener );
+    } else if ( hot instanceof OffHeapCacheBackend ) {
+      ( (OffHeapCacheBackend) hot ).setEvictionListener( demoteListener );
+    }
+  }
+
+  public ICacheBackend getCold() {
+    return cold;
+  }
+
+  public void setCold( final ICacheBackend cold ) {
+    this.cold = cold;
+  }
+
+  @Override
+  public boolean write( final List<String> key, final Serializable value, final Map<String, Serializable> metaData ) {
+    final List<String> cleanKey = FileSystemCacheBackend.sanitizeKeySegments( key );
+    final long purges = purgeCount.get();
+    final boolean persisted = cold.write( key, value, metaData );
+    if ( purges != purgeCount.get() ) {
+      hot.purge( cleanKey );
+      return persisted;
+    }
+    if ( persisted ) {
+      dirty.remove( cleanKey );
+      hot.write( key, value, metaData );
+      return true;
+    }
+    //keep the entry in memory, it is demoted again once it falls out of the hot tier
+    if ( hot.write( key, value, metaData ) ) {
+      dirty.add( cleanKey );
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Appends to the cold tier if it supports it, the hot copy is dropped and promoted again on the next read.
+   */
+  @Override
+  public boolean append( final List<String> key, final IReportContent pages,
+                         final Map<String, Serializable> metaData ) {
+    final List<String> cleanKey = FileSystemCacheBackend.sanitizeKeySegments( key );
+    if ( !( cold instanceof IAppendableCacheBackend ) || dirty.contains( cleanKey ) ) {
+      return false;
+    }
+    final boolean appended = ( (IAppendableCacheBackend) cold ).append( key, pages, metaData );
+    // promotions of the old content still in progress are discarded
+    purgeCount.incrementAndGet();
+    hot.purge( cleanKey );
+    return appended;
+  }
+
+  @Override
+  public Serializable read( final List<String> key ) {
+    final Serializable hotValue = hot.read( key );
+    if ( hotValue != null ) {
+      return hotValue;
+    }
+    final long purges = purgeCount.get();
+    final Serializable coldValue = cold.read( key );
+    if ( coldValue == null ) {
+      return null;
+    }
+    final Serializable promoted = promote( coldValue );
+    if ( promoted == coldValue && coldValue instanceof FileReportContent && hot instanceof MemoryCacheBackend ) {
+      // too large to be held in memory, serve it from disk
+      return coldValue;
+    }
+    if ( purges == purgeCount.get() ) {
+      hot.write( key, promoted, cold.readMetaData( key ) );
+      if ( purges != purgeCount.get() ) {
+        hot.purge( key );
+      }
+    }
+    return promoted;
+  }
+
+  @Override
+  public Map<String, Serializable> readMetaData( final List<String> key ) {
+    final Map<String, Serializable> metaData = hot.readMetaData( key );
+    if ( metaData != null ) {
+      return metaData;
+    }
+    return cold.readMetaData( key );
+  }
+
+  @Override
+  public Serializable readMetaDataField( final List<String> key, final String name ) {
+    final Serializable value = hot.readMetaDataField( key, name );
+    if ( value != null ) {
+      return value;
+    }
+    return cold.readMetaDataField( key, name );
+  }
+
+  @Override
+  public boolean purge( final List<String> key ) {
+    purgeCount.incrementAndGet();
+    final List<String> cleanKey = FileSystemCacheBackend.sanitizeKeySegments( key );
+    dirty.removeIf( k -> k.size() >= cleanKey.size() && k.subList( 0, cleanKey.size() ).equals( cleanKey ) );
+    hot.purge( key );
+    return cold.purge( key );
+  }
+
+  @Override
+  public void purgeSegment( final List<String> key, final BiPredicate<List<String>, Map<String, Serializable>> p ) {
+    purgeCount.incrementAndGet();
+    cold.purgeSegment( key, ( entryKey, metaData ) -> {
+      if ( p.test( entryKey, metaData ) ) {
+        hot.purge( entryKey );
+        return true;
+      }
+      return false;
+    } );
+    //entries that never made it to the cold tier
+    hot.purgeSegment( key, ( entryKey, metaData ) -> {
+      if ( p.test( entryKey, metaData ) ) {
+        dirty.remove( FileSystemCacheBackend.sanitizeKeySegments( entryKey ) );
+        return true;
+      }
+      return false;
+    } );
+  }
+
+  /**
+   * Copies lazily loaded report content into memory, so a heap tier actually serves it from the heap. Other hot tiers
+   * copy the pages on write anyway.
+   */
+  private Serializable promote( final Serializable value ) {
+    if ( !( value instanceof FileReportContent ) || !( hot instanceof MemoryCacheBackend ) ) {
+      return value;
+    }
+    final FileReportContent content = (FileReportContent) value;
+    if ( hot instanceof MemoryCacheBackend
+      && content.getStoredBytes() > ( (MemoryCacheBackend) hot ).getMaxEntryBytes() ) {
+      return value;
+    }
+    if ( content.getCodec() != PageCodec.IDENTITY ) {
+      // keep the pages compressed in memory as well
+      final CompressedReportContent copy = CompressedReportContent.copyOf( content );
+      return copy == null ? value : copy;
+    }
+    final Map<Integer, byte[]> pages = new HashMap<>();
+    for ( int page = 0; pages.size() < content.getStoredPageCount() && page < content.getPageCount(); page++ ) {
+      final byte[] data = content.getPageData( page );
+      if ( data == null ) {
+        // replaced or purged while copying
+        return value;
+      }
+      pages.put( page, data );
+    }
+    return new ReportContentImpl( content.getPageCount(), pages );
+  }
+
+  private void demote( final List<String> key, final Serializable value, final Map<String, Serializable> metaData ) {
+    if ( dirty.remove( key ) ) {
+      logger.debug( "Demoting cache entry to the persistent tier: " + key );
+      cold.write( key, value, metaData );
+    }
+  }
+}
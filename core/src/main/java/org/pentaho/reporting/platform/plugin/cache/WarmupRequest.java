@@ -0,0 +1,104 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * A report request that can be replayed to warm the cache: the repository path of the report, the parameter values,
+ * the locale and the user the content is rendered for. Parameter values may be arrays, they are compared by content.
+ */
+public final class WarmupRequest {
+
+  private final String user;
+  private final String path;
+  private final String locale;
+  private final Map<String, Object> parameters;
+  private final int hashCode;
+
+  public WarmupRequest( final String user, final String path, final String locale,
+                        final Map<String, Object> parameters ) {
+    this.user = Objects.requireNonNull( user );
+    this.path = Objects.requireNonNull( path );
+    this.locale = locale;
+    this.parameters = Collections.unmodifiableMap( new TreeMap<>( parameters ) );
+    int result = user.hashCode();
+    result = 31 * result + path.hashCode();
+    result = 31 * result + Objects.hashCode( locale );
+    for ( final Map.Entry<String, Object> entry : this.parameters.entrySet() ) {
+      result = 31 * result + entry.getKey().hashCode();
+      result = 31 * result + Arrays.deepHashCode( new Object[] { entry.getValue() } );
+    }
+    this.hashCode = result;
+  }
+
+  public String getUser() {
+    return user;
+  }
+
+  public String getPath() {
+    return path;
+  }
+
+  /**
+   * @return locale as returned by {@link java.util.Locale#toString()}, or null for the default locale
+   */
+  public String getLocale() {
+    return locale;
+  }
+
+  public Map<String, Object> getParameters() {
+    return parameters;
+  }
+
+  @Override
+  public boolean equals( final Object o ) {
+    if ( this == o ) {
+      return true;
+    }
+    if ( o == null || getClass() != o.getClass() ) {
+      return false;
+    }
+    final WarmupRequest that = (WarmupRequest) o;
+    if ( hashCode != that.hashCode || !user.equals( that.user ) || !path.equals( that.path )
+      || !Objects.equals( locale, that.locale ) || !parameters.keySet().equals( that.parameters.keySet() ) ) {
+      return false;
+    }
+    for ( final Map.Entry<String, Object> entry : parameters.entrySet() ) {
+      if ( !Objects.deepEquals( entry.getValue(), that.parameters.get( entry.getKey() ) ) ) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    return hashCode;
+  }
+
+  @Override
+  public String toString() {
+    return "WarmupRequest{user='" + user + "', path='" + path + "', locale='" + locale + "'}";
+  }
+}
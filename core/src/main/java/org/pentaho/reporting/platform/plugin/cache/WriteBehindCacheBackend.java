@@ -0,0 +1,512 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache backend decorator that persists writes on background threads, so the rendering thread does not wait for the
+ * serialization and the disk write. Until an entry is written it is served from memory. Writes to the same key are
+ * coalesced: a write still waiting in the queue persists the newest value of its key.
+ * <p>
+ * The queue is bounded. When it is full the {@link OverloadPolicy} decides whether the caller waits, writes itself or
+ * the write is dropped. A dropped write is not cached at all, the next request renders the report again.
+ * <p>
+ * Queue depth, write counts and latencies are published in {@link CacheStatistics} under the name of the backend.
+ */
+public class WriteBehindCacheBackend implements IAppendableCacheBackend {
+
+  private static final Log logger = LogFactory.getLog( WriteBehindCacheBackend.class );
+
+  private static final int LOCK_STRIPES = 64;
+  private static final String[] GAUGES = { "queueDepth", "pending", "written", "failed", "dropped", "coalesced",
+    "callerRuns", "averageWriteMillis", "maxWriteMillis", "averageQueueMillis" };
+
+  public enum OverloadPolicy {
+    /**
+     * Wait up to the block timeout for space in the queue, then drop the write.
+     */
+    BLOCK,
+    /**
+     * Drop the write immediately.
+     */
+    DROP,
+    /**
+     * Write on the calling thread.
+     */
+    CALLER_RUNS
+  }
+
+  private ICacheBackend delegate;
+  private int queueCapacity = 64;
+  private int writerThreads = 1;
+  private OverloadPolicy overloadPolicy = OverloadPolicy.BLOCK;
+  private long blockTimeoutMillis = 1000;
+  private long shutdownTimeoutSeconds = 30;
+
+  private final ConcurrentHashMap<List<String>, Pending> pending = new ConcurrentHashMap<>();
+  private final Object[] locks = new Object[ LOCK_STRIPES ];
+  private final AtomicLong purgeCount = new AtomicLong();
+  private volatile ThreadPoolExecutor executor;
+  private volatile boolean closed;
+
+  private final AtomicLong writtenCount = new AtomicLong();
+  private final AtomicLong failedCount = new AtomicLong();
+  private final AtomicLong droppedCount = new AtomicLong();
+  private final AtomicLong coalescedCount = new AtomicLong();
+  private final AtomicLong callerRunsCount = new AtomicLong();
+  private final AtomicLong writeNanos = new AtomicLong();
+  private final AtomicLong maxWriteNanos = new AtomicLong();
+  private final AtomicLong queueNanos = new AtomicLong();
+  private String name = "report-content/write-behind";
+
+  public WriteBehindCacheBackend() {
+    for ( int i = 0; i < locks.length; i++ ) {
+      locks[ i ] = new Object();
+    }
+    publish( name );
+  }
+
+  public WriteBehindCacheBackend( final ICacheBackend delegate ) {
+    this();
+    this.delegate = delegate;
+  }
+
+  public ICacheBackend getDelegate() {
+    return delegate;
+  }
+
+  public void setDelegate( final ICacheBackend delegate ) {
+    this.delegate = delegate;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @param name name of the statistics
+   */
+  public void setName( final String name ) {
+    final CacheStatistics previous = CacheStatistics.get( this.name );
+    for ( final String gauge : GAUGES ) {
+      previous.setGauge( gauge, null );
+    }
+    this.name = name;
+    publish( name );
+  }
+
+  /**
+   * @param queueCapacity maximum number of queued writes, takes effect before the first write
+   */
+  public void setQueueCapacity( final int queueCapacity ) {
+    if ( queueCapacity < 1 ) {
+      throw new IllegalArgumentException( "Queue capacity must be positive: " + queueCapacity );
+    }
+    this.queueCapacity = queueCapacity;
+  }
+
+  public int getQueueCapacity() {
+    return queueCapacity;
+  }
+
+  /**
+   * @param writerThreads number of background writers, takes effect before the first write
+   */
+  public void setWriterThreads( final int writerThreads ) {
+    if ( writerThreads < 1 ) {
+      throw new IllegalArgumentException( "Writer thread count must be positive: " + writerThreads );
+    }
+    this.writerThreads = writerThreads;
+  }
+
+  public int getWriterThreads() {
+    return writerThreads;
+  }
+
+  public void setOverloadPolicy( final OverloadPolicy overloadPolicy ) {
+    this.overloadPolicy = overloadPolicy;
+  }
+
+  public OverloadPolicy getOverloadPolicy() {
+    return overloadPolicy;
+  }
+
+  /**
+   * @param blockTimeoutMillis how long a {@link OverloadPolicy#BLOCK} write waits for space in the queue
+   */
+  public void setBlockTimeoutMillis( final long blockTimeoutMillis ) {
+    this.blockTimeoutMillis = blockTimeoutMillis;
+  }
+
+  public long getBlockTimeoutMillis() {
+    return blockTimeoutMillis;
+  }
+
+  /**
+   * @param shutdownTimeoutSeconds how long {@link #shutdown()} waits for the queued writes
+   */
+  public void setShutdownTimeoutSeconds( final long shutdownTimeoutSeconds ) {
+    this.shutdownTimeoutSeconds = shutdownTimeoutSeconds;
+  }
+
+  @Override
+  public boolean write( final List<String> key, final Serializable value, final Map<String, Serializable> metaData ) {
+    final List<String> cleanKey = FileSystemCacheBackend.sanitizeKeySegments( key );
+    final HashMap<String, Serializable> writeableMetaData = new HashMap<>();
+    if ( metaData != null ) {
+      writeableMetaData.putAll( metaData );
+    }
+    if ( closed ) {
+      return delegate.write( key, value, writeableMetaData );
+    }
+    final Pending entry = new Pending( key, value, writeableMetaData );
+    final boolean[] queued = new boolean[ 1 ];
+    pending.compute( cleanKey, ( k, previous ) -> {
+      // a write still waiting in the queue picks up the new value
+      queued[ 0 ] = previous != null && previous.queued;
+      entry.queued = true;
+      return entry;
+    } );
+    if ( queued[ 0 ] ) {
+      coalescedCount.incrementAndGet();
+      return true;
+    }
+    if ( enqueue( () -> persist( cleanKey ) ) ) {
+      return true;
+    }
+    if ( closed || overloadPolicy == OverloadPolicy.CALLER_RUNS ) {
+      callerRunsCount.incrementAndGet();
+      return persist( cleanKey );
+    }
+    final boolean[] coalesced = new boolean[ 1 ];
+    pending.computeIfPresent( cleanKey, ( k, current ) -> {
+      if ( current == entry ) {
+        return null;
+      }
+      // a later write was coalesced into this one while it waited for the queue, it reported success already
+      coalesced[ 0 ] = current.queued;
+      return current;
+    } );
+    if ( coalesced[ 0 ] ) {
+      callerRunsCount.incrementAndGet();
+      return persist( cleanKey );
+    }
+    droppedCount.incrementAndGet();
+    logger.debug( "Write-behind queue is full, dropped cache write: " + cleanKey );
+    return false;
+  }
+
+  /**
+   * Appends directly to the delegate. Entries that are not written yet can't be appended to, the caller writes the
+   * whole content again, which replaces the queued write.
+   */
+  @Override
+  public boolean append( final List<String> key, final IReportContent pages,
+                         final Map<String, Serializable> metaData ) {
+    final List<String> cleanKey = FileSystemCacheBackend.sanitizeKeySegments( key );
+    if ( !( delegate instanceof IAppendableCacheBackend ) || pending.containsKey( cleanKey ) ) {
+      return false;
+    }
+    synchronized ( lockFor( cleanKey ) ) {
+      return !pending.containsKey( cleanKey ) && ( (IAppendableCacheBackend) delegate ).append( key, pages, metaData );
+    }
+  }
+
+  @Override
+  public Serializable read( final List<String> key ) {
+    final Pending entry = pending.get( FileSystemCacheBackend.sanitizeKeySegments( key ) );
+    if ( entry != null ) {
+      return entry.value;
+    }
+    return delegate.read( key );
+  }
+
+  @Override
+  public Map<String, Serializable> readMetaData( final List<String> key ) {
+    final Pending entry = pending.get( FileSystemCacheBackend.sanitizeKeySegments( key ) );
+    if ( entry != null ) {
+      return new HashMap<>( entry.metaData );
+    }
+    return delegate.readMetaData( key );
+  }
+
+  @Override
+  public Serializable readMetaDataField( final List<String> key, final String name ) {
+    final Pending entry = pending.get( FileSystemCacheBackend.sanitizeKeySegments( key ) );
+    if ( entry != null ) {
+      return entry.metaData.get( name );
+    }
+    return delegate.readMetaDataField( key, name );
+  }
+
+  @Override
+  public boolean purge( final List<String> key ) {
+    purgeCount.incrementAndGet();
+    final List<String> cleanKey = FileSystemCacheBackend.sanitizeKeySegments( key );
+    pending.keySet().removeIf( k -> startsWith( k, cleanKey ) );
+    return delegate.purge( key );
+  }
+
+  @Override
+  public void purgeSegment( final List<String> key, final BiPredicate<List<String>, Map<String, Serializable>> p ) {
+    purgeCount.incrementAndGet();
+    final List<String> cleanKey = FileSystemCacheBackend.sanitizeKeySegments( key );
+    final List<Map.Entry<List<String>, Pending>> candidates = new ArrayList<>();
+    for ( final Map.Entry<List<String>, Pending> entry : pending.entrySet() ) {
+      if ( entry.getKey().size() > cleanKey.size() && startsWith( entry.getKey(), cleanKey ) ) {
+        candidates.add( entry );
+      }
+    }
+    for ( final Map.Entry<List<String>, Pending> entry : candidates ) {
+      if ( p.test( entry.getKey(), new HashMap<>( entry.getValue().metaData ) ) ) {
+        pending.remove( entry.getKey(), entry.getValue() );
+      }
+    }
+    delegate.purgeSegment( key, p );
+  }
+
+  /**
+   * Waits until all writes queued so far are persisted.
+   *
+   * @return false if the timeout elapsed first
+   */
+  public boolean flush( final long timeout, final TimeUnit unit ) throws InterruptedException {
+    final long deadline = System.nanoTime() + unit.toNanos( timeout );
+    while ( !pending.isEmpty() ) {
+      if ( System.nanoTime() > deadline ) {
+        return false;
+      }
+      Thread.sleep( 10 );
+    }
+    return true;
+  }
+
+  /**
+   * Stops the writers once the queued writes are persisted. Later writes are persisted on the calling thread.
+   */
+  public synchronized void shutdown() {
+    closed = true;
+    if ( executor == null ) {
+      return;
+    }
+    executor.shutdown();
+    try {
+      if ( !executor.awaitTermination( shutdownTimeoutSeconds, TimeUnit.SECONDS ) ) {
+        logger.warn( "Cache writes still pending at shutdown: " + pending.size() );
+        executor.shutdownNow();
+      }
+    } catch ( final InterruptedException e ) {
+      executor.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+    executor = null;
+  }
+
+  /**
+   * @return number of writes waiting in the queue
+   */
+  public int getQueueDepth() {
+    final ThreadPoolExecutor current = executor;
+    return current == null ? 0 : current.getQueue().size();
+  }
+
+  /**
+   * @return number of entries served from memory because they are not persisted yet
+   */
+  public int getPendingCount() {
+    return pending.size();
+  }
+
+  public long getWrittenCount() {
+    return writtenCount.get();
+  }
+
+  public long getFailedCount() {
+    return failedCount.get();
+  }
+
+  public long getDroppedCount() {
+    return droppedCount.get();
+  }
+
+  /**
+   * @return number of queued writes replaced by a newer write to the same key
+   */
+  public long getCoalescedCount() {
+    return coalescedCount.get();
+  }
+
+  public long getCallerRunsCount() {
+    return callerRunsCount.get();
+  }
+
+  /**
+   * @return average time the delegate took to persist an entry
+   */
+  public double getAverageWriteMillis() {
+    final long count = writtenCount.get() + failedCount.get();
+    return count == 0 ? 0 : writeNanos.get() / 1e6 / count;
+  }
+
+  public double getMaxWriteMillis() {
+    return maxWriteNanos.get() / 1e6;
+  }
+
+  /**
+   * @return average time between the hand-off and the start of the write
+   */
+  public double getAverageQueueMillis() {
+    final long count = writtenCount.get() + failedCount.get();
+    return count == 0 ? 0 : queueNanos.get() / 1e6 / count;
+  }
+
+  private void publish( final String statisticsName ) {
+    final CacheStatistics statistics = CacheStatistics.get( statisticsName );
+    statistics.setGauge( "queueDepth", this::getQueueDepth );
+    statistics.setGauge( "pending", this::getPendingCount );
+    statistics.setGauge( "written", this::getWrittenCount );
+    statistics.setGauge( "failed", this::getFailedCount );
+    statistics.setGauge( "dropped", this::getDroppedCount );
+    statistics.setGauge( "coalesced", this::getCoalescedCount );
+    statistics.setGauge( "callerRuns", this::getCallerRunsCount );
+    statistics.setGauge( "averageWriteMillis", this::getAverageWriteMillis );
+    statistics.setGauge( "maxWriteMillis", this::getMaxWriteMillis );
+    statistics.setGauge( "averageQueueMillis", this::getAverageQueueMillis );
+  }
+
+  private boolean enqueue( final Runnable task ) {
+    final ThreadPoolExecutor current = getExecutor();
+    if ( current == null ) {
+      return false;
+    }
+    try {
+      if ( overloadPolicy == OverloadPolicy.BLOCK ) {
+        return current.getQueue().offer( task, blockTimeoutMillis, TimeUnit.MILLISECONDS );
+      }
+      return current.getQueue().offer( task );
+    } catch ( final InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  /**
+   * Writes the latest value of the key unless it was purged while it was queued.
+   */
+  private boolean persist( final List<String> cleanKey ) {
+    final Pending[] claimed = new Pending[ 1 ];
+    pending.computeIfPresent( cleanKey, ( k, entry ) -> {
+      if ( entry.queued ) {
+        entry.queued = false;
+        claimed[ 0 ] = entry;
+      }
+      return entry;
+    } );
+    final Pending entry = claimed[ 0 ];
+    if ( entry == null ) {
+      return true;
+    }
+    // keeps the writes of a key in order when there are several writers
+    synchronized ( lockFor( cleanKey ) ) {
+      final long purges = purgeCount.get();
+      final long start = System.nanoTime();
+      queueNanos.addAndGet( start - entry.created );
+      boolean written = false;
+      try {
+        written = delegate.write( entry.key, entry.value, entry.metaData );
+      } catch ( final RuntimeException e ) {
+        logger.error( "Can't write to cache: ", e );
+      }
+      final long duration = System.nanoTime() - start;
+      writeNanos.addAndGet( duration );
+      maxWriteNanos.accumulateAndGet( duration, Math::max );
+      ( written ? writtenCount : failedCount ).incrementAndGet();
+      if ( !pending.remove( cleanKey, entry ) && purges != purgeCount.get() && !pending.containsKey( cleanKey ) ) {
+        // purged while it was written
+        delegate.purge( entry.key );
+      }
+      return written;
+    }
+  }
+
+  private ThreadPoolExecutor getExecutor() {
+    final ThreadPoolExecutor current = executor;
+    if ( current != null ) {
+      return current;
+    }
+    synchronized ( this ) {
+      if ( closed ) {
+        return null;
+      }
+      if ( executor == null ) {
+        final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+        executor = new ThreadPoolExecutor( writerThreads, writerThreads, 0, TimeUnit.MILLISECONDS,
+          new ArrayBlockingQueue<>( queueCapacity ), r -> {
+            final Thread thread = defaultFactory.newThread( r );
+            thread.setName( "WriteBehindCacheBackend-writer" );
+            thread.setDaemon( true );
+            return thread;
+          } );
+        // tasks are offered to the queue directly
+        executor.prestartAllCoreThreads();
+      }
+      return executor;
+    }
+  }
+
+  private Object lockFor( final List<String> cleanKey ) {
+    return locks[ ( cleanKey.hashCode() & 0x7fffffff ) % LOCK_STRIPES ];
+  }
+
+  private static boolean startsWith( final List<String> key, final List<String> prefix ) {
+    return key.size() >= prefix.size() && key.subList( 0, prefix.size() ).equals( prefix );
+  }
+
+  private static final class Pending {
+    private final List<String> key;
+    private final Serializable value;
+    private final Map<String, Serializable> metaData;
+    private final long created = System.nanoTime();
+    /**
+     * Set while a queued write will persist this entry, only changed inside the atomic map operations.
+     */
+    private boolean queued;
+
+    private Pending( final List<String> key, final Serializable value, final Map<String, Serializable> metaData ) {
+      this.key = key;
+      this.value = value;
+      this.metaData = metaData;
+    }
+  }
+}
@@ -19,8 +19,10 @@ package org.pentaho.reporting.platform.plugin.output;
 import mondrian.util.Pair;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.pentaho.platform.api.engine.IPentahoSession;
 import org.pentaho.platform.api.repository2.unified.IUnifiedRepository;
 import org.pentaho.platform.api.repository2.unified.RepositoryFile;
+import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
 import org.pentaho.reporting.engine.classic.core.ClassicEngineBoot;
 import org.pentaho.reporting.engine.classic.core.MasterReport;
@@ -34,48 +36,67 @@ import org.pentaho.reporting.engine.classic.core.layout.output.DisplayAllFlowSel
 import org.pentaho.reporting.engine.classic.core.modules.output.pageable.base.PageableReportProcessor;
 import org.pentaho.reporting.engine.classic.core.modules.output.table.html.PageableHtmlOutputProcessor;
 import org.pentaho.reporting.engine.classic.core.parameters.ParameterDefinitionEntry;
-import org.pentaho.reporting.engine.classic.core.parameters.ReportParameterDefinition;
 import org.pentaho.reporting.engine.classic.core.states.PerformanceMonitorContext;
 import org.pentaho.reporting.engine.classic.core.util.ReportParameterValues;
-import org.pentaho.reporting.engine.classic.core.util.beans.BeanException;
-import org.pentaho.reporting.engine.classic.core.util.beans.ConverterRegistry;
 import org.pentaho.reporting.libraries.base.util.FormattedMessage;
 import org.pentaho.reporting.libraries.base.util.PerformanceLoggingStopWatch;
 import org.pentaho.reporting.libraries.repository.ContentIOException;
 import org.pentaho.reporting.libraries.repository.ContentLocation;
 import org.pentaho.reporting.libraries.repository.Repository;
-import org.pentaho.reporting.libraries.resourceloader.ResourceData;
-import org.pentaho.reporting.libraries.resourceloader.ResourceKey;
-import org.pentaho.reporting.libraries.resourceloader.ResourceLoadingException;
-import org.pentaho.reporting.libraries.resourceloader.ResourceManager;
-import org.pentaho.reporting.libraries.xmlns.parser.Base64;
+import org.pentaho.reporting.libraries.xmlns.common.ParserUtil;
+import org.pentaho.reporting.platform.plugin.PentahoPlatformModule;
 import org.pentaho.reporting.platform.plugin.async.AsyncExecutionStatus;
 import org.pentaho.reporting.platform.plugin.async.IAsyncReportListener;
 import org.pentaho.reporting.platform.plugin.async.ReportListenerThreadHolder;
-import org.pentaho.reporting.platform.plugin.cache.IPluginCacheManager;
+import org.pentaho.reporting.platform.plugin.cache.AbstractReportContentCache;
+import org.pentaho.reporting.platform.plugin.cache.CacheWarmingService;
+import org.pentaho.reporting.platform.plugin.cache.CompressedReportContent;
+import org.pentaho.reporting.platform.plugin.cache.DeleteOldOnAccessCache;
+import org.pentaho.reporting.platform.plugin.cache.FileRegion;
+import org.pentaho.reporting.platform.plugin.cache.IEncodedReportContent;
 import org.pentaho.reporting.platform.plugin.cache.IReportContent;
 import org.pentaho.reporting.platform.plugin.cache.IReportContentCache;
+import org.pentaho.reporting.platform.plugin.cache.IStreamableReportContent;
+import org.pentaho.reporting.platform.plugin.cache.PageCodec;
+import org.pentaho.reporting.platform.plugin.cache.ReportContentImpl;
+import org.pentaho.reporting.platform.plugin.cache.ReportVersionCache;
+import org.pentaho.reporting.platform.plugin.cache.WarmupRequest;
 import org.pentaho.reporting.platform.plugin.repository.PentahoNameGenerator;
 import org.pentaho.reporting.platform.plugin.repository.ReportContentRepository;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
-import java.security.MessageDigest;
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 public class CachingPageableHTMLOutput extends PageableHTMLOutput {
 
   private static Log logger = LogFactory.getLog( CachingPageableHTMLOutput.class );
   public static final String IS_QUERY_LIMIT_REACHED = "IsQueryLimitReached";
   public static final String REPORT_ROWS = "ReportRows";
+  public static final String PAGE_CODEC = "PageCodec";
+  public static final String PAGE_CODEC_CONFIG = "org.pentaho.reporting.platform.plugin.output.CachePageCodec";
+  public static final String REGENERATION_TIMEOUT_CONFIG =
+    "org.pentaho.reporting.platform.plugin.output.CacheRegenerationTimeout";
+  private static final int DEFAULT_REGENERATION_TIMEOUT = 300;
+  private static final InFlightRegistry IN_FLIGHT = new InFlightRegistry();
   private PageableReportProcessor processor;
   private String jcrOutputPath;
+  private String acceptEncoding;
+  private Consumer<String> encodingListener;
+  private String contentEncoding;
+  private boolean sharedContent;
+  private String reportSource;
+  private Long reportVersion;
+  private Long softTtl;
+  private Long hardTtl;
+  private InFlightRegistry.Flight flight;
+  private int persistedPages;
+  private volatile String requestedKey;
+  private volatile IReportContent rejectedContent;
 
   private class CacheListener implements ReportProgressListener {
 
@@ -124,7 +145,7 @@ public class CachingPageableHTMLOutput extends PageableHTMLOutput {
         // we finished pagination, and thus have the page numbers ready.
         // we also have pages in repository
         try {
-          persistContent( key, produceReportContent( proc, targetRepository ), reportProgressEvent.getMaximumRow() );
+          persistPages( key, proc, targetRepository, reportProgressEvent.getMaximumRow() );
           lastAcceptedPageWritten = page;
           //Update after pages are in cache
           asyncReportListener.updateGenerationStatus( page - 1 );
@@ -148,12 +169,18 @@ public class CachingPageableHTMLOutput extends PageableHTMLOutput {
       if ( key == null ) {
         key = createKey( report );
       }
+      sharedContent = isSharedContent( report );
+      reportSource = ContentCacheSupport.getReportSource( report );
+      reportVersion = ContentCacheSupport.getReportVersion( report );
+      softTtl = getTimeToLive( report, PentahoPlatformModule.CACHE_SOFT_TTL );
+      hardTtl = getTimeToLive( report, PentahoPlatformModule.CACHE_HARD_TTL );
+      recordRequest( key );
       final IReportContent cachedContent = getCachedContent( key );
       if ( cachedContent != null ) {
         return cachedContent.getPageCount();
       }
 
-      final IReportContent freshCache = regenerateCache( report, yieldRate, key, 0 );
+      final IReportContent freshCache = regenerateCoalesced( report, yieldRate, key, 0, 0 );
       return freshCache.getPageCount();
     } catch ( final CacheKeyException e ) {
       return super.paginate( report, yieldRate );
@@ -175,13 +202,27 @@ public class CachingPageableHTMLOutput extends PageableHTMLOutput {
       if ( key == null ) {
         key = createKey( report );
       }
+      sharedContent = isSharedContent( report );
+      reportSource = ContentCacheSupport.getReportSource( report );
+      reportVersion = ContentCacheSupport.getReportVersion( report );
+      softTtl = getTimeToLive( report, PentahoPlatformModule.CACHE_SOFT_TTL );
+      hardTtl = getTimeToLive( report, PentahoPlatformModule.CACHE_HARD_TTL );
 
       final IAsyncReportListener listener = ReportListenerThreadHolder.getListener();
-      final IReportContent cachedContent = getCachedContent( key );
+      // a warm-up renders the report again, so the cached content gets a fresh timestamp
+      final boolean warming = CacheWarmingService.isWarming();
+      if ( acceptedPage == 0 && !warming && ( listener == null || !listener.isScheduled() ) ) {
+        recordWarmupRequest( report );
+      }
+      if ( !warming ) {
+        recordRequest( key );
+      }
+      final IReportContent cachedContent = warming ? null : getServableContent( report, key, listener );
       final boolean forcePaginated = isForceAllPages( report );
+      final int requiredPage = forcePaginated || ( listener != null && listener.isScheduled() ) ? -1 : acceptedPage;
       if ( cachedContent == null || ( listener != null && listener.isScheduled() && cachedContent.getPageCount() != cachedContent.getStoredPageCount() ) ) {
         logger.warn( "No cached content found for key: " + key );
-        final IReportContent freshCache = regenerateCache( report, yieldRate, key, acceptedPage );
+        final IReportContent freshCache = regenerateCoalesced( report, yieldRate, key, acceptedPage, requiredPage );
 
         if ( freshCache != null ) {
           //write all pages for scheduling case
@@ -207,8 +248,13 @@ public class CachingPageableHTMLOutput extends PageableHTMLOutput {
 
       setQueryLimitReachedToListener( key, listener );
 
-      final byte[] page = cachedContent.getPageData( acceptedPage );
-      if ( page != null && page.length > 0 ) {
+      // streamable content is written straight from the cache storage
+      final boolean streamable = cachedContent instanceof IStreamableReportContent;
+      final byte[] page = streamable ? null : cachedContent.getPageData( acceptedPage );
+      final boolean pageAvailable = streamable
+        ? ( (IStreamableReportContent) cachedContent ).getPageLength( acceptedPage ) > 0
+        : page != null && page.length > 0;
+      if ( pageAvailable ) {
         logger.warn( "Using cached report data for " + key );
         if ( listener != null ) {
           listener.updateGenerationStatus( cachedContent.getStoredPageCount() );
@@ -224,12 +270,15 @@ public class CachingPageableHTMLOutput extends PageableHTMLOutput {
           PaginationControlWrapper.write( outputStream, cachedContent );
           return cachedContent.getPageCount();
         }
-        outputStream.write( page );
-        outputStream.flush();
-        return cachedContent.getPageCount();
+        if ( writeCachedPage( cachedContent, acceptedPage, page, outputStream ) ) {
+          outputStream.flush();
+          return cachedContent.getPageCount();
+        }
+        // evicted or replaced in the meantime, nothing was written
       }
 
-      final IReportContent fullReportCache = regenerateCache( report, yieldRate, key, acceptedPage );
+      final IReportContent fullReportCache =
+        regenerateCoalesced( report, yieldRate, key, acceptedPage, requiredPage );
 
       //BACKLOG-8579
       if ( forcePaginated || ( listener != null && listener.isScheduled() ) ) {
@@ -249,6 +298,93 @@ public class CachingPageableHTMLOutput extends PageableHTMLOutput {
     }
   }
 
+  /**
+   * Writes a cached page. Encoded pages are sent as they are if the client accepts their content encoding.
+   *
+   * @return false if the page vanished from the cache, nothing is written in this case
+   */
+  private boolean writeCachedPage( final IReportContent content, final int acceptedPage, final byte[] pageData,
+                                   final OutputStream outputStream ) throws IOException {
+    contentEncoding = null;
+    if ( pageData != null ) {
+      outputStream.write( pageData );
+      return true;
+    }
+    if ( content instanceof IEncodedReportContent ) {
+      final IEncodedReportContent encoded = (IEncodedReportContent) content;
+      final String encoding = encoded.getCodec().getContentEncoding();
+      if ( encoding != null && isEncodingAccepted( encoding ) ) {
+        return writeEncodedPage( encoded, acceptedPage, encoding, outputStream );
+      }
+    }
+    return ( (IStreamableReportContent) content ).writePageTo( acceptedPage, outputStream );
+  }
+
+  /**
+   * Sends the encoded page as it is. The content encoding is reported once the page is known to be available, pages of
+   * cache files are transferred from the file.
+   *
+   * @return false if the page vanished from the cache, nothing is written in this case
+   */
+  private boolean writeEncodedPage( final IEncodedReportContent content, final int acceptedPage,
+                                    final String encoding, final OutputStream outputStream ) throws IOException {
+    try ( final FileRegion region = content.openEncodedPageRegion( acceptedPage ) ) {
+      if ( region != null ) {
+        reportContentEncoding( encoding );
+        region.transferTo( outputStream );
+        return true;
+      }
+    }
+    final byte[] data = content.getEncodedPageData( acceptedPage );
+    if ( data == null ) {
+      return false;
+    }
+    reportContentEncoding( encoding );
+    outputStream.write( data );
+    return true;
+  }
+
+  private void reportContentEncoding( final String encoding ) {
+    contentEncoding = encoding;
+    encodingListener.accept( encoding );
+  }
+
+  boolean isEncodingAccepted( final String encoding ) {
+    // without a listener nobody would send the Content-Encoding header
+    if ( acceptEncoding == null || encodingListener == null ) {
+      return false;
+    }
+    for ( final String token : acceptEncoding.split( "," ) ) {
+      final String[] parts = token.trim().split( ";" );
+      if ( parts[ 0 ].trim().equalsIgnoreCase( encoding ) ) {
+        // an explicit q=0 refuses the encoding
+        return parts.length < 2 || !parts[ 1 ].trim().matches( "q\\s*=\\s*0(\\.0*)?" );
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Cached pages are sent encoded if the client accepts the content encoding of the page codec.
+   */
+  @Override
+  public void setAcceptEncoding( final String acceptEncoding, final Consumer<String> encodingListener ) {
+    this.acceptEncoding = acceptEncoding;
+    this.encodingListener = encodingListener;
+  }
+
+  /**
+   * @return content encoding of the last page written by {@link #generate} or null if it was written decoded
+   */
+  public String getContentEncoding() {
+    return contentEncoding;
+  }
+
+  protected PageCodec getPageCodec() {
+    return PageCodec.forName(
+      ClassicEngineBoot.getInstance().getGlobalConfig().getConfigProperty( PAGE_CODEC_CONFIG ) );
+  }
+
   protected boolean isJcrImagesAndCss() {
     return getJcrOutputPath() != null && !getJcrOutputPath().isEmpty();
   }
@@ -279,15 +415,39 @@ public class CachingPageableHTMLOutput extends PageableHTMLOutput {
   }
 
   private void setQueryLimitReachedToListener( String key, IAsyncReportListener listener ) {
-    Map<String, Serializable> metaData = getCachedMetaData( key );
-    if ( metaData != null && listener != null ) {
-      Object isQueryLimitReached = metaData.get( IS_QUERY_LIMIT_REACHED );
+    if ( listener != null ) {
+      final Object isQueryLimitReached = getCachedMetaData( key, IS_QUERY_LIMIT_REACHED );
       if ( isQueryLimitReached != null ) {
         listener.setIsQueryLimitReached( (boolean) isQueryLimitReached );
       }
     }
   }
 
+  /**
+   * Regenerates the content, unless a concurrent request already regenerates the same cache entry. In that case the
+   * result of that request is used. If that request fails or times out, one of the waiting requests regenerates the
+   * content for all of them.
+   *
+   * @param requiredPage page the caller needs, negative values wait for the complete content
+   */
+  IReportContent regenerateCoalesced( final MasterReport report, final int yieldRate, final String key,
+                                      final int acceptedPage, final int requiredPage )
+    throws ReportProcessingException {
+    try {
+      return IN_FLIGHT.coalesce( getFlightKey( key ), getRegenerationTimeout() * 1000L, requiredPage, joined -> {
+        flight = joined;
+        try {
+          return regenerateCache( report, yieldRate, key, acceptedPage );
+        } finally {
+          flight = null;
+        }
+      } );
+    } catch ( final InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw new ReportProcessingException( "Interrupted while waiting for report data", e );
+    }
+  }
+
   IReportContent regenerateCache( final MasterReport report, final int yieldRate, final String key,
                                   final int acceptedPage )
     throws ReportProcessingException {
@@ -295,9 +455,9 @@ public class CachingPageableHTMLOutput extends PageableHTMLOutput {
     final IReportContent result = produceCacheablePages( report, yieldRate, key, acceptedPage );
     final IAsyncReportListener listener = ReportListenerThreadHolder.getListener();
     if ( listener != null ) {
-      persistContent( key, result, listener.getTotalRows() );
+      persistResult( key, result, listener.getTotalRows() );
     } else {
-      persistContent( key, result, report.getQueryLimit() );
+      persistResult( key, result, report.getQueryLimit() );
     }
 
     return result;
@@ -309,6 +469,7 @@ public class CachingPageableHTMLOutput extends PageableHTMLOutput {
 
     final PageableReportProcessor proc = createReportProcessor( report, yieldRate );
     processor = proc;
+    persistedPages = 0;
 
     final PageableHtmlOutputProcessor outputProcessor = (PageableHtmlOutputProcessor) proc.getOutputProcessor();
     outputProcessor.setFlowSelector( new DisplayAllFlowSelector() );
@@ -351,130 +512,299 @@ public class CachingPageableHTMLOutput extends PageableHTMLOutput {
   }
 
 
+  /**
+   * @return content of the cache, or the content rendered earlier in this view if the cache did not admit it
+   */
   public IReportContent getCachedContent( final String key ) {
-    final IPluginCacheManager cacheManager = PentahoSystem.get( IPluginCacheManager.class );
-    final IReportContentCache cache = cacheManager.getCache();
-    return cache.get( key );
+    final IReportContent content = getCache().get( key );
+    if ( content == null && rejectedContent != null && key.equals( requestedKey ) ) {
+      return rejectedContent;
+    }
+    return content;
+  }
+
+  /**
+   * Counts the request for the admission policy of the cache. The output handler lives as long as the view of the
+   * report, so paginating and generating the pages of a view count as one request.
+   */
+  private void recordRequest( final String key ) {
+    if ( key.equals( requestedKey ) ) {
+      return;
+    }
+    requestedKey = key;
+    rejectedContent = null;
+    final IReportContentCache cache = getCache();
+    if ( cache != null ) {
+      cache.recordRequest( key );
+    }
+  }
+
+  /**
+   * Stale content is served while the cache warming service renders it again in the background. If the refresh can't
+   * be queued, the content is treated as missing and rendered right away.
+   *
+   * @return the cached content or null if it has to be rendered
+   */
+  private IReportContent getServableContent( final MasterReport report, final String key,
+                                             final IAsyncReportListener listener ) {
+    final IReportContent content = getCachedContent( key );
+    if ( content == null ) {
+      return null;
+    }
+    final IReportContentCache cache = getCache();
+    final boolean stale = cache != null && cache.isStale( key );
+    if ( stale && !refresh( report ) ) {
+      logger.debug( "Stale content can't be refreshed in the background: " + key );
+      return null;
+    }
+    if ( listener != null && cache != null ) {
+      final Serializable timestamp = cache.getMetaData( key, DeleteOldOnAccessCache.TIMESTAMP );
+      listener.setCachedContent( timestamp instanceof Long ? (Long) timestamp : 0L, stale );
+    }
+    return content;
+  }
+
+  /**
+   * @return false if the report can't be refreshed in the background
+   */
+  private boolean refresh( final MasterReport report ) {
+    final CacheWarmingService warmingService = PentahoSystem.get( CacheWarmingService.class );
+    if ( warmingService == null ) {
+      return false;
+    }
+    final WarmupRequest request = createWarmupRequest( report );
+    return request != null && warmingService.refresh( request );
+  }
+
+  private Serializable getCachedMetaData( final String key, final String name ) {
+    return getCache().getMetaData( key, name );
+  }
+
+  /**
+   * @return shared cache for user independent reports if it is configured, the regular cache otherwise
+   */
+  private IReportContentCache getCache() {
+    return ContentCacheSupport.getCache( sharedContent );
+  }
+
+  /**
+   * Regenerations are coalesced per cache entry, so the key includes whatever the cache adds to separate users.
+   */
+  private String getFlightKey( final String key ) {
+    final IReportContentCache cache = getCache();
+    if ( cache instanceof AbstractReportContentCache ) {
+      return String.valueOf( ( (AbstractReportContentCache) cache ).getEntryKey( key ) );
+    }
+    final IPentahoSession session = PentahoSessionHolder.getSession();
+    return ( session == null ? "" : session.getId() ) + "/" + key;
+  }
+
+  protected int getRegenerationTimeout() {
+    return ParserUtil.parseInt(
+      ClassicEngineBoot.getInstance().getGlobalConfig().getConfigProperty( REGENERATION_TIMEOUT_CONFIG ),
+      DEFAULT_REGENERATION_TIMEOUT );
+  }
+
+  /**
+   * Whether the report is marked as independent of the user, see {@link PentahoPlatformModule#SHARED_CONTENT_CACHE}.
+   */
+  boolean isSharedContent( final MasterReport report ) {
+    return ContentCacheSupport.isSharedContent( report );
   }
 
-  private Map<String, Serializable> getCachedMetaData( final String key ) {
-    final IPluginCacheManager cacheManager = PentahoSystem.get( IPluginCacheManager.class );
-    final IReportContentCache cache = cacheManager.getCache();
-    return cache.getMetaData( key );
+  /**
+   * Counts the request for the cache warming service, if the report takes part in warm-ups, see
+   * {@link PentahoPlatformModule#CACHE_WARMING}. Only reports stored in the repository can be rendered again, and
+   * only into a cache that doesn't key its entries by session.
+   */
+  void recordWarmupRequest( final MasterReport report ) {
+    if ( !"true".equals( report.getConfiguration().getConfigProperty( PentahoPlatformModule.CACHE_WARMING ) ) ) {
+      return;
+    }
+    final IReportContentCache cache = getCache();
+    if ( cache == null || !cache.isSessionIndependent() ) {
+      return;
+    }
+    final CacheWarmingService warmingService = PentahoSystem.get( CacheWarmingService.class );
+    if ( warmingService == null ) {
+      return;
+    }
+    final WarmupRequest request = createWarmupRequest( report );
+    if ( request != null ) {
+      warmingService.record( request );
+    }
+  }
+
+  /**
+   * @return request rendering the report again as the current user, null if the report isn't stored in the repository
+   */
+  private static WarmupRequest createWarmupRequest( final MasterReport report ) {
+    final IPentahoSession session = PentahoSessionHolder.getSession();
+    if ( session == null || session.getName() == null ) {
+      return null;
+    }
+    final String source = ContentCacheSupport.getReportSource( report );
+    if ( source == null ) {
+      return null;
+    }
+    final Map<String, Object> parameters = new HashMap<>();
+    final ReportParameterValues parameterValues = report.getParameterValues();
+    for ( final ParameterDefinitionEntry p : report.getParameterDefinition().getParameterDefinitions() ) {
+      final Object value = parameterValues.get( p.getName() );
+      if ( value != null ) {
+        parameters.put( p.getName(), value );
+      }
+    }
+    return new WarmupRequest( session.getName(), source,
+      String.valueOf( report.getReportEnvironment().getLocale() ), parameters );
+  }
+
+  /**
+   * Persists the pages rendered so far. Once a prefix of the pages is stored, only the pages rendered since are read
+   * and appended, if the cache supports it.
+   */
+  private void persistPages( final String key, final PageableReportProcessor proc, final Repository targetRepository,
+                             final int reportTotalRows ) throws ContentIOException, IOException {
+    if ( persistedPages > 0
+      && appendContent( key, produceReportContent( proc, targetRepository, persistedPages ), reportTotalRows ) ) {
+      return;
+    }
+    persistContent( key, produceReportContent( proc, targetRepository ), reportTotalRows );
+  }
+
+  /**
+   * Persists the complete result, appending the pages that are not stored yet if possible.
+   */
+  private void persistResult( final String key, final IReportContent result, final int reportTotalRows ) {
+    if ( result != null && persistedPages > 0 ) {
+      final Map<Integer, byte[]> pages = new HashMap<>();
+      for ( int page = persistedPages; page < result.getPageCount(); page++ ) {
+        final byte[] data = result.getPageData( page );
+        if ( data != null ) {
+          pages.put( page, data );
+        }
+      }
+      if ( appendContent( key, new ReportContentImpl( result.getPageCount(), pages ), reportTotalRows ) ) {
+        if ( flight != null ) {
+          flight.publish( result );
+        }
+        return;
+      }
+    }
+    persistContent( key, result, reportTotalRows );
+  }
+
+  /**
+   * @return false if the cache did not append the pages
+   */
+  private synchronized boolean appendContent( final String key, final IReportContent pages,
+                                              final int reportTotalRows ) {
+    final IReportContentCache cache = getCache();
+    if ( cache == null ) {
+      return false;
+    }
+    final Map<String, Serializable> metaData = cache.getMetaData( key );
+    if ( metaData == null ) {
+      return false;
+    }
+    metaData.put( REPORT_ROWS, reportTotalRows );
+    if ( processor.isQueryLimitReached() ) {
+      updateQueryLimitReachedFlag( metaData );
+    }
+    if ( !cache.append( key, pages, metaData ) ) {
+      return false;
+    }
+    persistedPages += pages.getStoredPageCount();
+    if ( flight != null ) {
+      final IReportContent content = cache.get( key );
+      if ( content != null ) {
+        flight.publish( content );
+      }
+    }
+    return true;
   }
 
   private synchronized void persistContent( final String key, final IReportContent data, final int reportTotalRows ) {
-    final IPluginCacheManager cacheManager = PentahoSystem.get( IPluginCacheManager.class );
-    final IReportContentCache cache = cacheManager.getCache();
+    final IReportContentCache cache = getCache();
     if ( cache != null ) {
       Map<String, Serializable> metaData = cache.getMetaData( key );
       if ( metaData == null ) {
         metaData = new HashMap<>();
       }
       metaData.put( REPORT_ROWS, reportTotalRows );
+      if ( reportSource != null ) {
+        metaData.put( ReportVersionCache.REPORT_SOURCE, reportSource );
+      }
+      if ( reportVersion != null ) {
+        metaData.put( ReportVersionCache.REPORT_VERSION, reportVersion );
+      }
+      putTimeToLive( metaData, DeleteOldOnAccessCache.SOFT_TTL, softTtl );
+      putTimeToLive( metaData, DeleteOldOnAccessCache.HARD_TTL, hardTtl );
 
       if ( processor.isQueryLimitReached() ) {
         updateQueryLimitReachedFlag( metaData );
       }
 
-      cache.put( key, data, metaData );
+      if ( cache.isRejected( key ) ) {
+        // the following requests of this view are served from the output handler
+        if ( key.equals( requestedKey ) ) {
+          rejectedContent = data;
+        }
+      } else {
+        cache.put( key, compress( data, metaData ), metaData );
+      }
+      persistedPages = data == null ? 0 : data.getStoredPageCount();
+      if ( flight != null && data != null ) {
+        flight.publish( data );
+      }
     } else {
       logger.error( "Plugin session cache is not available." );
     }
   }
 
-  private Map<String, Serializable> updateQueryLimitReachedFlag( Map<String, Serializable> metaData ) {
-    if ( metaData == null ) {
-      metaData = new HashMap<>();
-    }
-    metaData.put( IS_QUERY_LIMIT_REACHED, processor.isQueryLimitReached() );
-
-    return metaData;
+  /**
+   * @return time to live in milliseconds set by the report property, null if it is not set
+   */
+  private static Long getTimeToLive( final MasterReport report, final String property ) {
+    final int seconds = ParserUtil.parseInt( report.getConfiguration().getConfigProperty( property ), 0 );
+    return seconds > 0 ? TimeUnit.SECONDS.toMillis( seconds ) : null;
   }
 
-  private Serializable computeCacheKey( final MasterReport report ) throws BeanException {
-    final ResourceKey definitionSource = report.getDefinitionSource();
-
-    //We need a parent because ZipRepository always has the same values
-    final ResourceKey parent = definitionSource.getParent();
-    final List<String> sourceKey;
-    if ( parent != null ) {
-      sourceKey = computeDefSourceKey( report, parent );
+  private static void putTimeToLive( final Map<String, Serializable> metaData, final String name, final Long ttl ) {
+    if ( ttl == null ) {
+      metaData.remove( name );
     } else {
-      sourceKey = computeDefSourceKey( report, definitionSource );
-    }
-    final HashMap<String, String> params = new HashMap<>();
-    params.put( "query-limit", String.valueOf( report.getQueryLimit() ) );
-    final ReportParameterDefinition parameterDefinition = report.getParameterDefinition();
-    final ReportParameterValues parameterValues = report.getParameterValues();
-    for ( final ParameterDefinitionEntry p : parameterDefinition.getParameterDefinitions() ) {
-      final String name = p.getName();
-      final Object o = parameterValues.get( name );
-      if ( o == null ) {
-        params.put( name, null );
-      } else {
-        params.put( name, ConverterRegistry.toAttributeValue( o ) );
-      }
+      metaData.put( name, ttl );
     }
-    final ArrayList<Object> key = new ArrayList<>();
-    key.add( sourceKey );
-    key.add( params );
-    key.add( report.getReportEnvironment().getLocale().toString() );
-    return key;
   }
 
-  private List<String> computeDefSourceKey( final MasterReport report, final ResourceKey definitionSource ) {
-    final ArrayList<String> sourceKey = new ArrayList<>();
-    if ( definitionSource.getIdentifierAsString() != null ) {
-      sourceKey.add( String.valueOf( definitionSource.getSchema() ) );
-      sourceKey.add( definitionSource.getIdentifierAsString() );
-    }
-    //Check if report was replaced in repository
-    final String rawDataVersion = getRawDataVersion( report, definitionSource );
-    if ( null != rawDataVersion ) {
-      sourceKey.add( rawDataVersion );
+  private IReportContent compress( final IReportContent data, final Map<String, Serializable> metaData ) {
+    final PageCodec codec = getPageCodec();
+    try {
+      final IReportContent compressed = CompressedReportContent.compress( data, codec );
+      metaData.put( PAGE_CODEC, codec.getCodecName() );
+      return compressed;
+    } catch ( final IOException e ) {
+      logger.warn( "Can't compress report content, caching it uncompressed", e );
+      metaData.put( PAGE_CODEC, PageCodec.IDENTITY.getCodecName() );
+      return data;
     }
-    return sourceKey;
   }
 
-  private String getRawDataVersion( final MasterReport report, final ResourceKey definitionSource ) {
-    String result = null;
-    ResourceManager resourceManager = report.getResourceManager();
-    if ( resourceManager == null ) {
-      resourceManager = new ResourceManager();
-    }
-    final ResourceData resourceData;
-    try {
-      resourceData = resourceManager.loadRawData( definitionSource );
-      final long version = resourceData.getVersion( resourceManager );
-      if ( version != -1 ) {
-        result = String.valueOf( version );
-      }
-    } catch ( final ResourceLoadingException e ) {
-      logger.warn( "Can't load resource data for cache key computation: ", e );
+  private Map<String, Serializable> updateQueryLimitReachedFlag( Map<String, Serializable> metaData ) {
+    if ( metaData == null ) {
+      metaData = new HashMap<>();
     }
-    return result;
-  }
+    metaData.put( IS_QUERY_LIMIT_REACHED, processor.isQueryLimitReached() );
 
-  private byte[] keyToBytes( final Serializable s ) throws IOException {
-    final ByteArrayOutputStream bout = new ByteArrayOutputStream();
-    final ObjectOutputStream oout = new ObjectOutputStream( bout );
-    oout.writeObject( s );
-    oout.close();
-    bout.toByteArray();
-    return bout.toByteArray();
+    return metaData;
   }
 
   // will be 43 characters long. Good enough for a directory name, even on Windows.
   public String createKey( final MasterReport report )
     throws CacheKeyException {
     try {
-      final Serializable keyRaw = computeCacheKey( report );
-      final byte[] text = keyToBytes( keyRaw );
-      final MessageDigest md = MessageDigest.getInstance( "SHA-256" );
-      md.update( text ); // Change this to "UTF-16" if needed
-      final byte[] digest = md.digest();
-      return new String( Base64.encode( digest ) );
+      return ContentCacheSupport.digest( ContentCacheSupport.computeCacheKey( report ) );
     } catch ( final Exception b ) {
       throw new CacheKeyException( b );
     }
@@ -487,14 +817,8 @@ public class CachingPageableHTMLOutput extends PageableHTMLOutput {
   }
 
   private int getReportTotalRows( final String key ) {
-    final Map<String, Serializable> metaData = getCachedMetaData( key );
-    if ( metaData != null ) {
-      final Object reportTotalRows = metaData.get( REPORT_ROWS );
-      if ( reportTotalRows != null ) {
-        return (int) reportTotalRows;
-      }
-    }
-    return -1;
+    final Object reportTotalRows = getCachedMetaData( key, REPORT_ROWS );
+    return reportTotalRows != null ? (int) reportTotalRows : -1;
   }
 
   public String getJcrOutputPath() {
@@ -0,0 +1,250 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+package org.pentaho.reporting.platform.plugin.output;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.pentaho.reporting.engine.classic.core.ClassicEngineBoot;
+import org.pentaho.reporting.engine.classic.core.MasterReport;
+import org.pentaho.reporting.engine.classic.core.ReportProcessingException;
+import org.pentaho.reporting.libraries.repository.ContentIOException;
+import org.pentaho.reporting.libraries.xmlns.common.ParserUtil;
+import org.pentaho.reporting.platform.plugin.async.IAsyncReportListener;
+import org.pentaho.reporting.platform.plugin.async.ReportListenerThreadHolder;
+import org.pentaho.reporting.platform.plugin.cache.IReportContent;
+import org.pentaho.reporting.platform.plugin.cache.IReportContentCache;
+import org.pentaho.reporting.platform.plugin.cache.IStreamableReportContent;
+import org.pentaho.reporting.platform.plugin.cache.ReportContentImpl;
+import org.pentaho.reporting.platform.plugin.cache.ReportVersionCache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps the finished document of a non paginated output in the {@link IReportContentCache}, so exporting the same
+ * report with the same parameters again streams the stored document instead of running the report. The document is
+ * stored as a single page, keyed by the report version, the parameter values, the locale and the output type.
+ * Scheduled executions always run the report. The document is captured on the heap while it is rendered, so only
+ * documents up to a small maximum size are cached.
+ */
+public class CachingReportOutputHandler implements ReportOutputHandler {
+
+  private static final Log logger = LogFactory.getLog( CachingReportOutputHandler.class );
+  public static final String OUTPUT_TYPE = "OutputType";
+  public static final String MAX_CONTENT_SIZE_CONFIG =
+    "org.pentaho.reporting.platform.plugin.output.CacheExportMaxSize";
+  private static final int DEFAULT_MAX_CONTENT_SIZE = 4 * 1024 * 1024;
+
+  private final ReportOutputHandler delegate;
+  private final String outputType;
+
+  public CachingReportOutputHandler( final ReportOutputHandler delegate, final String outputType ) {
+    if ( delegate == null || outputType == null ) {
+      throw new NullPointerException();
+    }
+    this.delegate = delegate;
+    this.outputType = outputType;
+  }
+
+  public ReportOutputHandler getDelegate() {
+    return delegate;
+  }
+
+  public String getOutputType() {
+    return outputType;
+  }
+
+  @Override
+  public int generate( final MasterReport report, final int acceptedPage, final OutputStream outputStream,
+                       final int yieldRate ) throws ReportProcessingException, IOException, ContentIOException {
+    final IAsyncReportListener listener = ReportListenerThreadHolder.getListener();
+    if ( listener != null && listener.isScheduled() ) {
+      return delegate.generate( report, acceptedPage, outputStream, yieldRate );
+    }
+    final boolean sharedContent = ContentCacheSupport.isSharedContent( report );
+    final IReportContentCache cache = ContentCacheSupport.getCache( sharedContent );
+    final String key = cache == null ? null : createKey( report );
+    if ( key == null ) {
+      return delegate.generate( report, acceptedPage, outputStream, yieldRate );
+    }
+
+    cache.recordRequest( key );
+    final IReportContent cachedContent = cache.get( key );
+    if ( cachedContent != null && writeCachedContent( cachedContent, outputStream ) ) {
+      logger.debug( "Using cached " + outputType + " output for " + key );
+      if ( listener != null ) {
+        final Serializable queryLimitReached =
+          cache.getMetaData( key, CachingPageableHTMLOutput.IS_QUERY_LIMIT_REACHED );
+        if ( queryLimitReached != null ) {
+          listener.setIsQueryLimitReached( (boolean) queryLimitReached );
+        }
+      }
+      outputStream.flush();
+      return 0;
+    }
+
+    final CapturingOutputStream capture = new CapturingOutputStream( outputStream, getMaxContentSize() );
+    final int result = delegate.generate( report, acceptedPage, capture, yieldRate );
+    final byte[] content = capture.getCapturedContent();
+    if ( content != null ) {
+      final Map<String, Serializable> metaData = new HashMap<>();
+      metaData.put( OUTPUT_TYPE, outputType );
+      final String reportSource = ContentCacheSupport.getReportSource( report );
+      if ( reportSource != null ) {
+        metaData.put( ReportVersionCache.REPORT_SOURCE, reportSource );
+        final Long reportVersion = ContentCacheSupport.getReportVersion( report );
+        if ( reportVersion != null ) {
+          metaData.put( ReportVersionCache.REPORT_VERSION, reportVersion );
+        }
+      }
+      if ( listener != null ) {
+        metaData.put( CachingPageableHTMLOutput.IS_QUERY_LIMIT_REACHED, listener.isQueryLimitReached() );
+      }
+      cache.put( key, new ReportContentImpl( 1, Collections.singletonMap( 0, content ) ), metaData );
+    } else {
+      logger.debug( "Output of " + key + " exceeds the cacheable size, it is not cached" );
+    }
+    return result;
+  }
+
+  /**
+   * Streamable content is written straight from the cache storage.
+   *
+   * @return false if the content vanished from the cache, nothing is written in this case
+   */
+  private static boolean writeCachedContent( final IReportContent content, final OutputStream outputStream )
+    throws IOException {
+    if ( content instanceof IStreamableReportContent ) {
+      final IStreamableReportContent streamable = (IStreamableReportContent) content;
+      return streamable.getPageLength( 0 ) >= 0 && streamable.writePageTo( 0, outputStream );
+    }
+    final byte[] data = content.getPageData( 0 );
+    if ( data == null ) {
+      return false;
+    }
+    outputStream.write( data );
+    return true;
+  }
+
+  /**
+   * @return key of the document or null if the report can't be cached
+   */
+  String createKey( final MasterReport report ) {
+    try {
+      final ArrayList<Object> key = new ArrayList<>();
+      final String contentCacheKey = report.getContentCacheKey();
+      if ( contentCacheKey != null ) {
+        key.add( contentCacheKey );
+      } else {
+        key.add( ContentCacheSupport.computeCacheKey( report ) );
+      }
+      key.add( outputType );
+      return ContentCacheSupport.digest( key );
+    } catch ( final Exception e ) {
+      logger.debug( "Can't compute the cache key, the output is not cached: ", e );
+      return null;
+    }
+  }
+
+  protected int getMaxContentSize() {
+    return ParserUtil.parseInt(
+      ClassicEngineBoot.getInstance().getGlobalConfig().getConfigProperty( MAX_CONTENT_SIZE_CONFIG ),
+      DEFAULT_MAX_CONTENT_SIZE );
+  }
+
+  @Override
+  public int paginate( final MasterReport report, final int yieldRate )
+    throws ReportProcessingException, IOException, ContentIOException {
+    return delegate.paginate( report, yieldRate );
+  }
+
+  @Override
+  public void close() {
+    delegate.close();
+  }
+
+  @Override
+  public boolean supportsPagination() {
+    return delegate.supportsPagination();
+  }
+
+  @Override
+  public Object getReportLock() {
+    return delegate.getReportLock();
+  }
+
+  /**
+   * Passes the output on and keeps a copy of it, until the copy grows beyond the limit.
+   */
+  private static class CapturingOutputStream extends OutputStream {
+    private final OutputStream target;
+    private final int limit;
+    private ByteArrayOutputStream copy;
+
+    private CapturingOutputStream( final OutputStream target, final int limit ) {
+      this.target = target;
+      this.limit = limit;
+      this.copy = new ByteArrayOutputStream();
+    }
+
+    @Override public void write( final int b ) throws IOException {
+      target.write( b );
+      if ( reserve( 1 ) ) {
+        copy.write( b );
+      }
+    }
+
+    @Override public void write( final byte[] b, final int off, final int len ) throws IOException {
+      target.write( b, off, len );
+      if ( reserve( len ) ) {
+        copy.write( b, off, len );
+      }
+    }
+
+    /**
+     * @return false if nothing is captured anymore
+     */
+    private boolean reserve( final int len ) {
+      if ( copy != null && copy.size() + (long) len > limit ) {
+        copy = null;
+      }
+      return copy != null;
+    }
+
+    @Override public void flush() throws IOException {
+      target.flush();
+    }
+
+    @Override public void close() throws IOException {
+      target.close();
+    }
+
+    /**
+     * @return the complete output or null if it exceeded the limit
+     */
+    private byte[] getCapturedContent() {
+      return copy == null ? null : copy.toByteArray();
+    }
+  }
+}
@@ -0,0 +1,203 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+package org.pentaho.reporting.platform.plugin.output;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.pentaho.platform.engine.core.system.PentahoSystem;
+import org.pentaho.reporting.engine.classic.core.MasterReport;
+import org.pentaho.reporting.engine.classic.core.parameters.ParameterDefinitionEntry;
+import org.pentaho.reporting.engine.classic.core.parameters.ReportParameterDefinition;
+import org.pentaho.reporting.engine.classic.core.util.ReportParameterValues;
+import org.pentaho.reporting.engine.classic.core.util.beans.BeanException;
+import org.pentaho.reporting.engine.classic.core.util.beans.ConverterRegistry;
+import org.pentaho.reporting.libraries.resourceloader.ResourceData;
+import org.pentaho.reporting.libraries.resourceloader.ResourceKey;
+import org.pentaho.reporting.libraries.resourceloader.ResourceLoadingException;
+import org.pentaho.reporting.libraries.resourceloader.ResourceManager;
+import org.pentaho.reporting.libraries.xmlns.parser.Base64;
+import org.pentaho.reporting.platform.plugin.PentahoPlatformModule;
+import org.pentaho.reporting.platform.plugin.RepositoryResourceLoader;
+import org.pentaho.reporting.platform.plugin.cache.IPluginCacheManager;
+import org.pentaho.reporting.platform.plugin.cache.IReportContentCache;
+import org.pentaho.reporting.platform.plugin.cache.ReportVersionCache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Cache keys and cache lookup shared by the outputs that keep their content in the {@link IReportContentCache}.
+ */
+final class ContentCacheSupport {
+
+  private static final Log logger = LogFactory.getLog( ContentCacheSupport.class );
+
+  private ContentCacheSupport() {
+  }
+
+  /**
+   * @return key made of the report source and its version, the parameter values and the locale
+   */
+  static ArrayList<Object> computeCacheKey( final MasterReport report ) throws BeanException {
+    final ResourceKey definitionSource = report.getDefinitionSource();
+
+    //We need a parent because ZipRepository always has the same values
+    final ResourceKey parent = definitionSource.getParent();
+    final List<String> sourceKey;
+    if ( parent != null ) {
+      sourceKey = computeDefSourceKey( report, parent );
+    } else {
+      sourceKey = computeDefSourceKey( report, definitionSource );
+    }
+    // sorted, so equal parameter sets always serialize to the same key
+    final TreeMap<String, String> params = new TreeMap<>();
+    params.put( "query-limit", String.valueOf( report.getQueryLimit() ) );
+    final ReportParameterDefinition parameterDefinition = report.getParameterDefinition();
+    final ReportParameterValues parameterValues = report.getParameterValues();
+    for ( final ParameterDefinitionEntry p : parameterDefinition.getParameterDefinitions() ) {
+      final String name = p.getName();
+      final Object o = parameterValues.get( name );
+      if ( o == null ) {
+        params.put( name, null );
+      } else {
+        params.put( name, ConverterRegistry.toAttributeValue( o ) );
+      }
+    }
+    final ArrayList<Object> key = new ArrayList<>();
+    key.add( sourceKey );
+    key.add( params );
+    key.add( report.getReportEnvironment().getLocale().toString() );
+    return key;
+  }
+
+  private static List<String> computeDefSourceKey( final MasterReport report, final ResourceKey definitionSource ) {
+    final ArrayList<String> sourceKey = new ArrayList<>();
+    if ( definitionSource.getIdentifierAsString() != null ) {
+      sourceKey.add( String.valueOf( definitionSource.getSchema() ) );
+      sourceKey.add( definitionSource.getIdentifierAsString() );
+    }
+    //Check if report was replaced in repository
+    final String rawDataVersion = getRawDataVersion( report, definitionSource );
+    if ( null != rawDataVersion ) {
+      sourceKey.add( rawDataVersion );
+    }
+    return sourceKey;
+  }
+
+  /**
+   * Versions of repository reports are taken from the {@link ReportVersionCache} if it is configured, so a cache hit
+   * doesn't look up the repository.
+   */
+  private static String getRawDataVersion( final MasterReport report, final ResourceKey definitionSource ) {
+    final ReportVersionCache versionCache = PentahoSystem.get( ReportVersionCache.class );
+    final Long version;
+    if ( versionCache != null
+      && RepositoryResourceLoader.SOLUTION_SCHEMA_NAME.equals( definitionSource.getSchema() ) ) {
+      version = versionCache.getVersion( definitionSource.getIdentifierAsString(),
+        () -> loadRawDataVersion( report, definitionSource ) );
+    } else {
+      version = loadRawDataVersion( report, definitionSource );
+    }
+    return version == null || version == -1 ? null : String.valueOf( version );
+  }
+
+  private static Long loadRawDataVersion( final MasterReport report, final ResourceKey definitionSource ) {
+    ResourceManager resourceManager = report.getResourceManager();
+    if ( resourceManager == null ) {
+      resourceManager = new ResourceManager();
+    }
+    final ResourceData resourceData;
+    try {
+      resourceData = resourceManager.loadRawData( definitionSource );
+      return resourceData.getVersion( resourceManager );
+    } catch ( final ResourceLoadingException e ) {
+      logger.warn( "Can't load resource data for cache key computation: ", e );
+      return null;
+    }
+  }
+
+  /**
+   * @return SHA-256 digest of the serialized key, 43 characters long. Good enough for a directory name, even on
+   * Windows.
+   */
+  static String digest( final Serializable key ) throws IOException, NoSuchAlgorithmException {
+    final ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    try ( final ObjectOutputStream oout = new ObjectOutputStream( bout ) ) {
+      oout.writeObject( key );
+    }
+    final MessageDigest md = MessageDigest.getInstance( "SHA-256" );
+    return new String( Base64.encode( md.digest( bout.toByteArray() ) ) );
+  }
+
+  /**
+   * @return path of the report in the repository, null if it wasn't loaded from the repository
+   */
+  static String getReportSource( final MasterReport report ) {
+    final ResourceKey definitionSource = report.getDefinitionSource();
+    if ( definitionSource == null ) {
+      return null;
+    }
+    final ResourceKey source = definitionSource.getParent() != null ? definitionSource.getParent() : definitionSource;
+    return RepositoryResourceLoader.SOLUTION_SCHEMA_NAME.equals( source.getSchema() )
+      ? source.getIdentifierAsString() : null;
+  }
+
+  /**
+   * @return version of the report in the repository, null if it wasn't loaded from the repository
+   */
+  static Long getReportVersion( final MasterReport report ) {
+    if ( getReportSource( report ) == null ) {
+      return null;
+    }
+    final ResourceKey definitionSource = report.getDefinitionSource();
+    final String version = getRawDataVersion( report,
+      definitionSource.getParent() != null ? definitionSource.getParent() : definitionSource );
+    return version == null ? null : Long.valueOf( version );
+  }
+
+  /**
+   * Whether the report is marked as independent of the user, see {@link PentahoPlatformModule#SHARED_CONTENT_CACHE}.
+   */
+  static boolean isSharedContent( final MasterReport report ) {
+    return "true".equals( report.getConfiguration().getConfigProperty( PentahoPlatformModule.SHARED_CONTENT_CACHE ) );
+  }
+
+  /**
+   * @return shared cache for user independent reports if it is configured, the regular cache otherwise
+   */
+  static IReportContentCache getCache( final boolean sharedContent ) {
+    final IPluginCacheManager cacheManager = PentahoSystem.get( IPluginCacheManager.class );
+    if ( cacheManager == null ) {
+      return null;
+    }
+    if ( sharedContent ) {
+      final IReportContentCache sharedCache = cacheManager.getSharedCache();
+      if ( sharedCache != null ) {
+        return sharedCache;
+      }
+    }
+    return cacheManager.getCache();
+  }
+}
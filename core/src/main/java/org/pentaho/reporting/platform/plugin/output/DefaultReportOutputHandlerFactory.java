@@ -378,31 +378,31 @@ public class DefaultReportOutputHandlerFactory implements ReportOutputHandlerFac
       return createPngOutput();
     }
     if ( XmlPageableModule.PAGEABLE_XML_EXPORT_TYPE.equals( t ) ) {
-      return createXmlPageableOutput();
+      return cacheable( selector, createXmlPageableOutput() );
     }
     if ( XmlTableModule.TABLE_XML_EXPORT_TYPE.equals( t ) ) {
-      return createXmlTableOutput();
+      return cacheable( selector, createXmlTableOutput() );
     }
     if ( PdfPageableModule.PDF_EXPORT_TYPE.equals( t ) ) {
-      return createPdfOutput();
+      return cacheable( selector, createPdfOutput() );
     }
     if ( ExcelTableModule.EXCEL_FLOW_EXPORT_TYPE.equals( t ) ) {
-      return createXlsOutput( selector );
+      return cacheable( selector, createXlsOutput( selector ) );
     }
     if ( ExcelTableModule.XLSX_FLOW_EXPORT_TYPE.equals( t ) ) {
-      return createXlsxOutput( selector );
+      return cacheable( selector, createXlsxOutput( selector ) );
     }
     if ( CSVTableModule.TABLE_CSV_STREAM_EXPORT_TYPE.equals( t ) ) {
-      return createCsvOutput();
+      return cacheable( selector, createCsvOutput() );
     }
     if ( RTFTableModule.TABLE_RTF_FLOW_EXPORT_TYPE.equals( t ) ) {
-      return createRtfOutput();
+      return cacheable( selector, createRtfOutput() );
     }
     if ( SimpleReportingAction.MIME_TYPE_EMAIL.equals( t ) ) {
       return createMailOutput();
     }
     if ( PlainTextPageableModule.PLAINTEXT_EXPORT_TYPE.equals( t ) ) {
-      return createTextOutput();
+      return cacheable( selector, createTextOutput() );
     } else {
       return null;
     }
@@ -537,6 +537,38 @@ public class DefaultReportOutputHandlerFactory implements ReportOutputHandlerFac
     }
   }
 
+  /**
+   * Wraps the handler into a {@link CachingReportOutputHandler} if the content of exported documents is cached.
+   */
+  protected ReportOutputHandler cacheable( final ReportOutputHandlerSelector selector,
+                                           final ReportOutputHandler handler ) {
+    if ( handler == null || !isCacheExportContentEnabled( selector ) ) {
+      return handler;
+    }
+    return new CachingReportOutputHandler( handler, selector.getOutputType() );
+  }
+
+  /**
+   * Documents are cached if the report enables its content cache, or if export caching is configured and the report
+   * doesn't disable it. Excel templates are not part of the cache key, so documents based on a template are never
+   * cached.
+   */
+  protected boolean isCacheExportContentEnabled( final ReportOutputHandlerSelector selector ) {
+    final MasterReport report = selector.getReport();
+    if ( report == null
+      || selector.getInput( SimpleReportingAction.XLS_WORKBOOK_PARAM, null, Object.class ) != null ) {
+      return false;
+    }
+    final Object isAtReportLevelCacheEnabled =
+      report.getAttribute( AttributeNames.Pentaho.NAMESPACE, AttributeNames.Pentaho.DYNAMIC_REPORT_CACHE );
+    if ( isAtReportLevelCacheEnabled != null ) {
+      return Boolean.TRUE.equals( isAtReportLevelCacheEnabled );
+    } else {
+      final ExtendedConfiguration config = ClassicEngineBoot.getInstance().getExtendedConfig();
+      return config.getBoolProperty( "org.pentaho.reporting.platform.plugin.output.CacheExportContent" );
+    }
+  }
+
   protected boolean isCachePageableHtmlContentEnabled( final MasterReport report ) {
     final Object isAtReportLevelCacheEnabled =
       report.getAttribute( AttributeNames.Pentaho.NAMESPACE, AttributeNames.Pentaho.DYNAMIC_REPORT_CACHE );
@@ -0,0 +1,165 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+
+package org.pentaho.reporting.platform.plugin.output;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.pentaho.reporting.engine.classic.core.ReportProcessingException;
+import org.pentaho.reporting.platform.plugin.cache.IReportContent;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of report content regenerations in progress. The first request for a key becomes the leader and renders
+ * the report, concurrent requests for the same key wait for its result instead of rendering the report again.
+ * Pages persisted by the leader are handed to waiters as soon as they are available. A flight expires after a timeout,
+ * so a stuck leader only delays waiters until then, and later requests start a new flight.
+ */
+final class InFlightRegistry {
+
+  private static final Log logger = LogFactory.getLog( InFlightRegistry.class );
+
+  private final ConcurrentHashMap<String, Flight> flights = new ConcurrentHashMap<>();
+
+  /**
+   * Regenerates the content of the key once for all concurrent callers. If the leader fails or its flight expires, the
+   * waiters join again, so exactly one of them becomes the next leader and the others wait for it.
+   *
+   * @param key           content key
+   * @param timeoutMillis maximum time waiters wait for a leader
+   * @param page          page the caller needs, negative values wait for the complete content
+   * @param regeneration  renders the content if the caller is the leader
+   * @return content containing the page
+   * @throws InterruptedException if the waiting thread is interrupted
+   */
+  IReportContent coalesce( final String key, final long timeoutMillis, final int page,
+                           final Regeneration regeneration ) throws ReportProcessingException, InterruptedException {
+    while ( true ) {
+      final Flight flight = join( key, timeoutMillis );
+      if ( flight.isLeader() ) {
+        IReportContent result = null;
+        try {
+          result = regeneration.regenerate( flight );
+          return result;
+        } finally {
+          complete( key, flight, result );
+        }
+      }
+      final IReportContent result = flight.await( page );
+      if ( result != null ) {
+        logger.debug( "Using report data regenerated by a concurrent request for " + key );
+        return result;
+      }
+      logger.warn( "Concurrent regeneration failed or timed out for " + key + ", joining again" );
+    }
+  }
+
+  /**
+   * Joins the regeneration of the key or starts a new one. The caller is the leader if {@link Flight#isLeader()}
+   * returns true, it must call {@link #complete(String, Flight, IReportContent)} in any case.
+   *
+   * @param key           content key
+   * @param timeoutMillis maximum time waiters wait for the leader
+   * @return flight of the key
+   */
+  Flight join( final String key, final long timeoutMillis ) {
+    final Flight candidate = new Flight( System.currentTimeMillis() + timeoutMillis );
+    return flights.compute( key, ( k, flight ) -> flight == null || flight.isExpired() ? candidate : flight );
+  }
+
+  /**
+   * Hands the result to the waiters and removes the flight.
+   *
+   * @param content result or null if the regeneration failed
+   */
+  void complete( final String key, final Flight flight, final IReportContent content ) {
+    flights.remove( key, flight );
+    flight.complete( content );
+  }
+
+  int size() {
+    return flights.size();
+  }
+
+  /**
+   * Renders the content of a flight the caller leads.
+   */
+  interface Regeneration {
+    IReportContent regenerate( Flight flight ) throws ReportProcessingException;
+  }
+
+  static final class Flight {
+    private final long deadline;
+    private final Thread leader;
+    private IReportContent content;
+    private boolean done;
+
+    private Flight( final long deadline ) {
+      this.deadline = deadline;
+      this.leader = Thread.currentThread();
+    }
+
+    boolean isLeader() {
+      return leader == Thread.currentThread();
+    }
+
+    private boolean isExpired() {
+      return System.currentTimeMillis() >= deadline;
+    }
+
+    /**
+     * Publishes partial content persisted by the leader.
+     */
+    synchronized void publish( final IReportContent content ) {
+      if ( !done ) {
+        this.content = content;
+        notifyAll();
+      }
+    }
+
+    private synchronized void complete( final IReportContent content ) {
+      this.content = content;
+      this.done = true;
+      notifyAll();
+    }
+
+    /**
+     * Waits for the leader.
+     *
+     * @param page page the caller needs, negative values wait for the complete content
+     * @return content containing the page, or null if the leader failed or did not finish in time
+     * @throws InterruptedException if the waiting thread is interrupted
+     */
+    synchronized IReportContent await( final int page ) throws InterruptedException {
+      while ( true ) {
+        if ( done ) {
+          return content;
+        }
+        if ( page >= 0 && content != null && content.getPageData( page ) != null ) {
+          return content;
+        }
+        final long remaining = deadline - System.currentTimeMillis();
+        if ( remaining <= 0 ) {
+          return null;
+        }
+        wait( remaining );
+      }
+    }
+  }
+}
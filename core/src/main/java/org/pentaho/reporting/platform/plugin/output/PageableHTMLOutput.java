@@ -295,6 +295,15 @@ public class PageableHTMLOutput extends AbstractHtmlOutput {
   protected IReportContent produceReportContent( final PageableReportProcessor proc,
                                                  final Repository targetRepository )
           throws ContentIOException, IOException {
+    return produceReportContent( proc, targetRepository, 0 );
+  }
+
+  /**
+   * @param firstPage pages before this one are not read
+   */
+  protected IReportContent produceReportContent( final PageableReportProcessor proc,
+                                                 final Repository targetRepository, final int firstPage )
+          throws ContentIOException, IOException {
     final int pageCount = proc.getLogicalPageCount();
     final ContentLocation root = targetRepository.getRoot();
     final Map<Integer, byte[]> pages = new HashMap<>();
@@ -304,7 +313,7 @@ public class PageableHTMLOutput extends AbstractHtmlOutput {
         final ContentItem ci = (ContentItem) contentEntities;
         final String name = ci.getName();
         final int pageNumber = extractPageFromName( name );
-        if ( pageNumber >= 0 ) {
+        if ( pageNumber >= firstPage ) {
           pages.put( pageNumber, read( ci.getInputStream() ) );
         }
       }
@@ -26,6 +26,7 @@ import org.pentaho.reporting.platform.plugin.async.IAsyncReportListener;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.function.Consumer;
 
 public interface ReportOutputHandler {
   /**
@@ -79,4 +80,15 @@ public interface ReportOutputHandler {
   default YieldReportListener getYieldListener( final int yieldRate ) {
     return new YieldReportListener( yieldRate );
   }
+
+  /**
+   * Lets the handler write its output in a content encoding the client accepts, e.g. cached pages compressed with
+   * gzip. Handlers that don't encode their output ignore it.
+   *
+   * @param acceptEncoding   value of the client's Accept-Encoding header, null to write decoded output
+   * @param encodingListener called with the content encoding before encoded output is written, the caller has to send
+   *                         it as Content-Encoding header
+   */
+  default void setAcceptEncoding( final String acceptEncoding, final Consumer<String> encodingListener ) {
+  }
 }
@@ -27,9 +27,9 @@ import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
 import org.pentaho.platform.util.UUIDUtil;
 import org.pentaho.reporting.libraries.base.util.ArgumentNullException;
+import org.pentaho.reporting.platform.plugin.cache.ChannelOutputStream;
 import org.pentaho.platform.api.util.ITempFileDeleter;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -98,7 +98,8 @@ public class AsyncJobFileStagingHandler {
       tmpFile.deleteOnExit();
     }
 
-    fileTrackingStream = new BufferedOutputStream( new FileOutputStream( tmpFile ) );
+    // cached pages are transferred straight to the file channel
+    fileTrackingStream = new ChannelOutputStream( new FileOutputStream( tmpFile ) );
   }
 
   private Path getStagingExecutionFolder( final String userSession ) {
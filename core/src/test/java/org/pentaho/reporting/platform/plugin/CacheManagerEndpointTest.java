@@ -26,16 +26,23 @@ import org.pentaho.platform.engine.core.system.PentahoSystem;
 import org.pentaho.reporting.engine.classic.core.cache.DataCache;
 import org.pentaho.reporting.engine.classic.core.cache.DataCacheFactory;
 import org.pentaho.reporting.engine.classic.core.cache.DataCacheManager;
+import org.pentaho.reporting.platform.plugin.cache.CacheStatistics;
 import org.pentaho.reporting.platform.plugin.cache.IPluginCacheManager;
 import org.pentaho.reporting.platform.plugin.cache.IReportContentCache;
+import org.pentaho.reporting.platform.plugin.cache.InstrumentedCacheBackend;
+import org.pentaho.reporting.platform.plugin.cache.MemoryCacheBackend;
+import org.pentaho.reporting.platform.plugin.cache.ReportVersionCache;
 import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 import org.powermock.core.classloader.annotations.PowerMockIgnore;
 
 import javax.ws.rs.core.Response;
+import java.util.Arrays;
+import java.util.HashMap;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.*;
 
 @RunWith( PowerMockRunner.class )
@@ -74,4 +81,64 @@ public class CacheManagerEndpointTest {
     assertEquals( 500, clear.getStatus() );
   }
 
+  @Test
+  public void stats() throws Exception {
+    CacheStatistics.get( "endpoint-test" ).recordHit( 1000 );
+    final Response stats = new CacheManagerEndpoint().stats();
+
+    assertEquals( 200, stats.getStatus() );
+    final String json = (String) stats.getEntity();
+    assertTrue( json.contains( "\"endpoint-test\":{\"hits\":1" ) );
+  }
+
+  @Test
+  public void entries() throws Exception {
+    final InstrumentedCacheBackend backend = new InstrumentedCacheBackend( new MemoryCacheBackend() );
+    backend.setName( "endpoint-test" );
+    backend.write( Arrays.asList( "long_term", "admin", "report" ), new byte[ 10 ], new HashMap<>() );
+    final CacheManagerEndpoint endpoint = new CacheManagerEndpoint() {
+      @Override protected boolean isAdministrator() {
+        return true;
+      }
+    };
+    final Response entries = endpoint.entries( 10 );
+
+    assertEquals( 200, entries.getStatus() );
+    final String json = (String) entries.getEntity();
+    assertTrue( json.contains( "\"largest\":[{" ) );
+    assertTrue( json.contains( "\"cache\":\"endpoint-test\"" ) );
+    assertTrue( json.contains( "\"key\":[\"long_term\",\"admin\",\"report\"]" ) );
+  }
+
+  @Test
+  public void entriesForbidden() throws Exception {
+    final Response entries = new CacheManagerEndpoint().entries( 10 );
+    assertEquals( 403, entries.getStatus() );
+  }
+
+  @Test
+  public void invalidate() throws Exception {
+    try {
+      final ReportVersionCache versionCache = mock( ReportVersionCache.class );
+      PentahoSystem.registerObject( versionCache, ReportVersionCache.class );
+      final CacheManagerEndpoint endpoint = new CacheManagerEndpoint() {
+        @Override protected boolean isAdministrator() {
+          return true;
+        }
+      };
+
+      assertEquals( 200, endpoint.invalidate( "/public/report.prpt" ).getStatus() );
+      assertEquals( 400, endpoint.invalidate( null ).getStatus() );
+      verify( versionCache, times( 1 ) ).invalidate( "/public/report.prpt" );
+    } finally {
+      PentahoSystem.shutdown();
+    }
+  }
+
+  @Test
+  public void invalidateForbidden() throws Exception {
+    final Response invalidate = new CacheManagerEndpoint().invalidate( "/public/report.prpt" );
+    assertEquals( 403, invalidate.getStatus() );
+  }
+
 }
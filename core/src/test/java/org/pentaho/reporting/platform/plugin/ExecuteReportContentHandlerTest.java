@@ -22,6 +22,7 @@ import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.pentaho.platform.api.engine.IParameterProvider;
 import org.pentaho.platform.api.engine.IPentahoSession;
 import org.pentaho.platform.api.locale.IPentahoLocale;
@@ -44,6 +45,7 @@ import org.pentaho.reporting.libraries.resourceloader.ResourceException;
 import org.pentaho.reporting.platform.plugin.messages.Messages;
 import org.pentaho.test.platform.engine.core.SimpleObjectFactory;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -55,6 +57,7 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
 import java.util.UUID;
+import java.util.function.Consumer;
 
 import static org.junit.Assert.*;
 import static org.mockito.Matchers.eq;
@@ -317,6 +320,41 @@ public class ExecuteReportContentHandlerTest {
 
   }
 
+  /**
+   * Cached pages may be sent compressed, the content encoding reported by the output becomes a response header.
+   */
+  @Test
+  public void testAcceptEncoding() throws Exception {
+    final ExecuteReportContentHandler handler = new ExecuteReportContentHandler( contentGenerator );
+    final HttpServletRequest request = mock( HttpServletRequest.class );
+    when( request.getHeader( "Accept-Encoding" ) ).thenReturn( "gzip, deflate" );
+    when( prameterProvider.getParameter( eq( "httprequest" ) ) ).thenReturn( request );
+    when( reportComponent.validate() ).thenReturn( true );
+    when( reportComponent.execute() ).thenReturn( true );
+
+    handler.createReportContent( outputStream, fileId, path, true, reportComponent, audit );
+
+    final ArgumentCaptor<Consumer> listener = ArgumentCaptor.forClass( Consumer.class );
+    verify( reportComponent, times( 1 ) ).setAcceptEncoding( eq( "gzip, deflate" ), listener.capture() );
+    verify( response, times( 1 ) ).setHeader( eq( "Vary" ), eq( "Accept-Encoding" ) );
+    verify( response, times( 0 ) ).setHeader( eq( "Content-Encoding" ), anyString() );
+
+    listener.getValue().accept( "gzip" );
+    verify( response, times( 1 ) ).setHeader( eq( "Content-Encoding" ), eq( "gzip" ) );
+  }
+
+  @Test
+  public void testNoAcceptEncoding() throws Exception {
+    final ExecuteReportContentHandler handler = new ExecuteReportContentHandler( contentGenerator );
+    when( reportComponent.validate() ).thenReturn( true );
+    when( reportComponent.execute() ).thenReturn( true );
+
+    handler.createReportContent( outputStream, fileId, path, true, reportComponent, audit );
+
+    verify( reportComponent, times( 0 ) ).setAcceptEncoding( anyString(), any( Consumer.class ) );
+    verify( response, times( 0 ) ).setHeader( eq( "Vary" ), anyString() );
+  }
+
   @Test
   public void setFailedHeadersTest() throws Exception {
     final ExecuteReportContentHandler handler = new ExecuteReportContentHandler( contentGenerator );
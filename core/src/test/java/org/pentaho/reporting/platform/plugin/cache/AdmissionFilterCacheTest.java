@@ -0,0 +1,125 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
+import org.pentaho.platform.engine.core.system.StandaloneSession;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AdmissionFilterCacheTest {
+
+  private static final IReportContent SOME_VALUE =
+    new ReportContentImpl( 1, Collections.singletonMap( 0, new byte[] { 1, 3, 4, 5 } ) );
+
+  @BeforeClass
+  public static void setUp() {
+    PentahoSessionHolder.setSession( new StandaloneSession( "test", "admission" ) );
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    PentahoSessionHolder.removeSession();
+  }
+
+  @Test
+  public void testOneOffIsRejected() {
+    final AdmissionFilterCache cache = new AdmissionFilterCache( new PluginSessionCache( new MemoryCacheBackend() ) );
+    cache.recordRequest( "once" );
+    assertTrue( cache.isRejected( "once" ) );
+    assertNull( cache.get( "once" ) );
+    assertFalse( cache.put( "once", SOME_VALUE ) );
+    assertNull( cache.getDelegate().get( "once" ) );
+    assertEquals( 0, cache.getAdmittedCount() );
+    assertEquals( 1, cache.getRejectedCount() );
+    assertEquals( 1.0, cache.getRejectionRate(), 0.0 );
+  }
+
+  @Test
+  public void testReusedIsAdmitted() {
+    final AdmissionFilterCache cache = new AdmissionFilterCache( new PluginSessionCache( new MemoryCacheBackend() ) );
+    cache.recordRequest( "twice" );
+    assertNull( cache.get( "twice" ) );
+    assertFalse( cache.put( "twice", SOME_VALUE ) );
+    cache.recordRequest( "twice" );
+    assertNull( cache.get( "twice" ) );
+    assertTrue( cache.put( "twice", SOME_VALUE ) );
+    assertNotNull( cache.get( "twice" ) );
+    assertEquals( 0.5, cache.getAdmissionRate(), 0.0 );
+  }
+
+  @Test
+  public void testLookupsAreNotCounted() {
+    final AdmissionFilterCache cache = new AdmissionFilterCache( new PluginSessionCache( new MemoryCacheBackend() ) );
+    cache.recordRequest( "looked-up" );
+    // a view paginates and then generates the page
+    assertNull( cache.get( "looked-up" ) );
+    assertNull( cache.get( "looked-up" ) );
+    assertFalse( cache.put( "looked-up", SOME_VALUE ) );
+    assertNull( cache.getDelegate().get( "looked-up" ) );
+  }
+
+  @Test
+  public void testStatistics() {
+    final AdmissionFilterCache cache = new AdmissionFilterCache( new PluginSessionCache( new MemoryCacheBackend() ) );
+    cache.setName( "test-admission" );
+    cache.recordRequest( "stats" );
+    final Map<String, Object> statistics = CacheStatistics.get( "test-admission" ).toMap();
+    assertEquals( 0L, statistics.get( "admitted" ) );
+    assertEquals( 1L, statistics.get( "rejected" ) );
+    assertEquals( 0.0, statistics.get( "admissionRate" ) );
+  }
+
+  @Test
+  public void testThreshold() {
+    final AdmissionFilterCache cache = new AdmissionFilterCache( new PluginSessionCache( new MemoryCacheBackend() ) );
+    cache.setAdmissionThreshold( 0 );
+    assertTrue( cache.put( "any", SOME_VALUE ) );
+    assertNotNull( cache.get( "any" ) );
+  }
+
+  @Test( expected = IllegalArgumentException.class )
+  public void testInvalidThreshold() {
+    new AdmissionFilterCache().setAdmissionThreshold( FrequencySketch.MAX_FREQUENCY + 1 );
+  }
+
+  @Test
+  public void testSketchAging() {
+    final FrequencySketch sketch = new FrequencySketch( 16 );
+    for ( int i = 0; i < 20; i++ ) {
+      sketch.increment( "hot" );
+    }
+    assertEquals( FrequencySketch.MAX_FREQUENCY, sketch.frequency( "hot" ) );
+    assertEquals( 0, sketch.frequency( "cold" ) );
+    for ( int i = 0; i < sketch.getSampleSize(); i++ ) {
+      sketch.increment( "other" + i );
+    }
+    assertTrue( sketch.frequency( "hot" ) < FrequencySketch.MAX_FREQUENCY );
+  }
+}
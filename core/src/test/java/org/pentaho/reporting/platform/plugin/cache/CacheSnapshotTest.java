@@ -0,0 +1,158 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
+import org.pentaho.platform.engine.core.system.StandaloneSession;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CacheSnapshotTest {
+
+  private static final String REPORT = "/public/report.prpt";
+  private static final byte[] PAGE = "<html><body>page</body></html>".getBytes();
+
+  private File file;
+
+  @Before
+  public void setUp() throws IOException {
+    PentahoSessionHolder.setSession( new StandaloneSession( "bill" ) );
+    file = File.createTempFile( "cache", ".snapshot" );
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+    PentahoSessionHolder.removeSession();
+  }
+
+  @Test
+  public void testExportImport() throws Exception {
+    final FileSystemCacheBackend fileSystemCacheBackend = new FileSystemCacheBackend();
+    fileSystemCacheBackend.setCachePath( "/test-snapshot-cache/" );
+    final DeleteOldOnAccessCache source = createCache( fileSystemCacheBackend );
+    source.put( "plain", new ReportContentImpl( 3, Collections.singletonMap( 0, PAGE ) ), metaData( 1L ) );
+    source.put( "gzip", CompressedReportContent.compress(
+      new ReportContentImpl( 2, Collections.singletonMap( 1, PAGE ) ), PageCodec.GZIP ), metaData( 1L ) );
+    final Serializable timestamp = source.getMetaData( "plain", DeleteOldOnAccessCache.TIMESTAMP );
+    assertEquals( 2, source.exportSnapshot( file ) );
+    assertTrue( fileSystemCacheBackend.purge( Collections.singletonList( "" ) ) );
+
+    final DeleteOldOnAccessCache target = createCache( new MemoryCacheBackend() );
+    assertEquals( 2, target.importSnapshot( file, md -> true ) );
+    assertEquals( 2, target.getIndexSize() );
+
+    final IReportContent plain = target.get( "plain" );
+    assertEquals( 3, plain.getPageCount() );
+    assertArrayEquals( PAGE, plain.getPageData( 0 ) );
+    assertEquals( timestamp, target.getMetaData( "plain", DeleteOldOnAccessCache.TIMESTAMP ) );
+    assertEquals( REPORT, target.getMetaData( "plain", ReportVersionCache.REPORT_SOURCE ) );
+
+    final IReportContent gzip = target.get( "gzip" );
+    assertTrue( gzip instanceof IEncodedReportContent );
+    assertEquals( PageCodec.GZIP, ( (IEncodedReportContent) gzip ).getCodec() );
+    assertEquals( 2, gzip.getPageCount() );
+    assertArrayEquals( PAGE, gzip.getPageData( 1 ) );
+  }
+
+  @Test
+  public void testImportValidatesEntries() throws Exception {
+    final DeleteOldOnAccessCache source = createCache( new MemoryCacheBackend() );
+    source.put( "old", new ReportContentImpl( 1, Collections.singletonMap( 0, PAGE ) ), metaData( 1L ) );
+    source.put( "current", new ReportContentImpl( 1, Collections.singletonMap( 0, PAGE ) ), metaData( 2L ) );
+    source.exportSnapshot( file );
+
+    final DeleteOldOnAccessCache target = createCache( new MemoryCacheBackend() );
+    assertEquals( 1, target.importSnapshot( file,
+      md -> Long.valueOf( 2 ).equals( md.get( ReportVersionCache.REPORT_VERSION ) ) ) );
+    assertNull( target.get( "old" ) );
+    assertNotNull( target.get( "current" ) );
+  }
+
+  @Test
+  public void testImportKeepsExistingEntries() throws Exception {
+    final DeleteOldOnAccessCache source = createCache( new MemoryCacheBackend() );
+    source.put( "key", new ReportContentImpl( 1, Collections.singletonMap( 0, PAGE ) ), metaData( 1L ) );
+    source.exportSnapshot( file );
+
+    final DeleteOldOnAccessCache target = createCache( new MemoryCacheBackend() );
+    target.put( "key", new ReportContentImpl( 5, Collections.singletonMap( 0, PAGE ) ), metaData( 1L ) );
+    assertEquals( 0, target.importSnapshot( file, md -> true ) );
+    assertEquals( 5, target.get( "key" ).getPageCount() );
+  }
+
+  @Test
+  public void testExpiredEntriesAreNotExported() throws Exception {
+    final DeleteOldOnAccessCache source = createCache( new MemoryCacheBackend() );
+    final Map<String, Serializable> metaData = metaData( 1L );
+    metaData.put( DeleteOldOnAccessCache.HARD_TTL, 1L );
+    source.put( "key", new ReportContentImpl( 1, Collections.singletonMap( 0, PAGE ) ), metaData );
+    Thread.sleep( 10 );
+    assertEquals( 0, source.exportSnapshot( file ) );
+  }
+
+  @Test
+  public void testImportChecksSegment() throws Exception {
+    final DeleteOldOnAccessCache source = createCache( new MemoryCacheBackend() );
+    source.put( "key", new ReportContentImpl( 1, Collections.singletonMap( 0, PAGE ) ), metaData( 1L ) );
+    source.exportSnapshot( file );
+
+    final MemoryCacheBackend backend = new MemoryCacheBackend();
+    try {
+      CacheSnapshot.read( backend, "shared", ( k, md ) -> true, file );
+      fail();
+    } catch ( final IOException e ) {
+      // expected
+    }
+    final Map<List<String>, Map<String, Serializable>> imported =
+      CacheSnapshot.read( backend, "long_term", ( k, md ) -> true, file );
+    assertEquals( 1, imported.size() );
+    assertNotNull( backend.read( imported.keySet().iterator().next() ) );
+  }
+
+  private static DeleteOldOnAccessCache createCache( final ICacheBackend backend ) {
+    final DeleteOldOnAccessCache cache = new DeleteOldOnAccessCache( backend );
+    cache.setDaysToLive( 1L );
+    cache.setSweepIntervalSeconds( 0 );
+    return cache;
+  }
+
+  private static Map<String, Serializable> metaData( final long version ) {
+    final Map<String, Serializable> metaData = new HashMap<>();
+    metaData.put( ReportVersionCache.REPORT_SOURCE, REPORT );
+    metaData.put( ReportVersionCache.REPORT_VERSION, version );
+    return metaData;
+  }
+}
@@ -0,0 +1,97 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CacheStatisticsTest {
+
+  @Test
+  public void testRegistry() {
+    final CacheStatistics statistics = CacheStatistics.get( "test-registry" );
+    assertEquals( statistics, CacheStatistics.get( "test-registry" ) );
+    assertEquals( statistics, CacheStatistics.getAll().get( "test-registry" ) );
+  }
+
+  @Test
+  public void testCounters() {
+    final CacheStatistics statistics = new CacheStatistics( "test" );
+    statistics.recordHit( 1000 );
+    statistics.recordHit( 1000 );
+    statistics.recordHit( 1000 );
+    statistics.recordMiss( 1000 );
+    statistics.recordWrite( 1000 );
+    statistics.recordEvictions( 2 );
+    statistics.recordPurges( 1 );
+    statistics.addEntries( 3, 300 );
+    statistics.addEntries( -1, -100 );
+
+    assertEquals( 0.75, statistics.getHitRate(), 0.001 );
+    assertEquals( 1, statistics.getWrites() );
+    assertEquals( 2, statistics.getEvictions() );
+    assertEquals( 1, statistics.getPurges() );
+    assertEquals( 2, statistics.getEntries() );
+    assertEquals( 200, statistics.getBytes() );
+    assertEquals( 4, statistics.getReadLatency().getCount() );
+
+    final Map<String, Object> map = statistics.toMap();
+    assertEquals( 3L, map.get( "hits" ) );
+    assertEquals( 1L, map.get( "purges" ) );
+    assertEquals( 200L, map.get( "trackedBytes" ) );
+
+    statistics.setGauge( "queueDepth", () -> 5 );
+    assertEquals( 5, statistics.toMap().get( "queueDepth" ) );
+
+    statistics.clear();
+    assertEquals( 5, statistics.getGauges().get( "queueDepth" ) );
+    statistics.setGauge( "queueDepth", null );
+    assertTrue( statistics.getGauges().isEmpty() );
+    assertEquals( 0, statistics.getHits() );
+    assertEquals( 0, statistics.getReadLatency().getCount() );
+    assertEquals( 0, statistics.getHitRate(), 0 );
+  }
+
+  @Test
+  public void testLatencyHistogram() {
+    final CacheStatistics.LatencyHistogram histogram = new CacheStatistics.LatencyHistogram();
+    for ( int i = 0; i < 98; i++ ) {
+      histogram.record( 3000 );
+    }
+    histogram.record( 1000000 );
+    histogram.record( 100000000000L );
+
+    assertEquals( 100, histogram.getCount() );
+    // 3 microseconds fall into the bucket up to 4
+    assertEquals( 0.004, histogram.getPercentileMillis( 50 ), 0 );
+    assertEquals( 0.004, histogram.getPercentileMillis( 95 ), 0 );
+    assertEquals( 1.024, histogram.getPercentileMillis( 99 ), 0 );
+    assertEquals( 100000, histogram.getMaxMillis(), 0 );
+    assertEquals( ( 98 * 3000 + 1000000 + 100000000000L ) / 1e6 / 100, histogram.getAverageMillis(), 0.001 );
+
+    @SuppressWarnings( "unchecked" )
+    final Map<String, Long> buckets = (Map<String, Long>) histogram.toMap().get( "buckets" );
+    assertEquals( Long.valueOf( 98 ), buckets.get( "le4us" ) );
+    assertEquals( Long.valueOf( 1 ), buckets.get( "inf" ) );
+  }
+}
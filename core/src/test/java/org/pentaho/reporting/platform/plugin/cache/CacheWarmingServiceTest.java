@@ -0,0 +1,236 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CacheWarmingServiceTest {
+
+  private static WarmupRequest request( final String path, final Object value ) {
+    final Map<String, Object> parameters = new HashMap<>();
+    parameters.put( "p", value );
+    return new WarmupRequest( "admin", path, "en_US", parameters );
+  }
+
+  private static void useUserKeyedCache( final CacheWarmingService service ) {
+    service.setCacheManager( new PluginCacheManagerImpl( new DeleteOldOnAccessCache( new MemoryCacheBackend() ) ) );
+  }
+
+  private static void record( final CacheWarmingService service, final WarmupRequest request, final int times ) {
+    for ( int i = 0; i < times; i++ ) {
+      service.record( request );
+    }
+  }
+
+  @Test
+  public void testRequestEquality() {
+    assertEquals( request( "/a.prpt", new String[] { "x", "y" } ), request( "/a.prpt", new String[] { "x", "y" } ) );
+    assertEquals( request( "/a.prpt", new String[] { "x", "y" } ).hashCode(),
+      request( "/a.prpt", new String[] { "x", "y" } ).hashCode() );
+    assertFalse( request( "/a.prpt", new String[] { "x" } ).equals( request( "/a.prpt", new String[] { "y" } ) ) );
+    assertFalse( request( "/a.prpt", 1 ).equals( new WarmupRequest( "other", "/a.prpt", "en_US",
+      Collections.singletonMap( "p", 1 ) ) ) );
+  }
+
+  @Test
+  public void testCandidates() {
+    final CacheWarmingService service = new CacheWarmingService();
+    service.setMinRequests( 2 );
+    service.setMaxReports( 2 );
+    record( service, request( "/a.prpt", 1 ), 5 );
+    record( service, request( "/a.prpt", 2 ), 1 );
+    record( service, request( "/b.prpt", 1 ), 3 );
+    record( service, request( "/c.prpt", 1 ), 2 );
+
+    final List<WarmupRequest> candidates = service.getCandidates();
+    assertEquals( 2, candidates.size() );
+    assertEquals( request( "/a.prpt", 1 ), candidates.get( 0 ) );
+    assertEquals( request( "/b.prpt", 1 ), candidates.get( 1 ) );
+  }
+
+  @Test
+  public void testMaxTrackedRequests() {
+    final CacheWarmingService service = new CacheWarmingService();
+    service.setMaxTrackedRequests( 1 );
+    record( service, request( "/a.prpt", 1 ), 2 );
+    record( service, request( "/b.prpt", 1 ), 2 );
+    assertEquals( 2, service.getRequestCount( request( "/a.prpt", 1 ) ) );
+    assertEquals( 0, service.getRequestCount( request( "/b.prpt", 1 ) ) );
+  }
+
+  @Test
+  public void testWarmUpDecaysCounts() {
+    final CacheWarmingService service = new CacheWarmingService() {
+      @Override protected boolean render( final WarmupRequest request ) {
+        assertTrue( isWarming() );
+        return true;
+      }
+    };
+    useUserKeyedCache( service );
+    record( service, request( "/a.prpt", 1 ), 4 );
+    record( service, request( "/b.prpt", 1 ), 1 );
+
+    assertEquals( 1, service.warmUp() );
+    assertEquals( 2, service.getRequestCount( request( "/a.prpt", 1 ) ) );
+    assertEquals( 0, service.getRequestCount( request( "/b.prpt", 1 ) ) );
+    assertFalse( CacheWarmingService.isWarming() );
+  }
+
+  @Test
+  public void testConcurrency() {
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+    final CacheWarmingService service = new CacheWarmingService() {
+      @Override protected boolean render( final WarmupRequest request ) throws Exception {
+        maxRunning.accumulateAndGet( running.incrementAndGet(), Math::max );
+        Thread.sleep( 50 );
+        running.decrementAndGet();
+        return true;
+      }
+    };
+    useUserKeyedCache( service );
+    service.setConcurrency( 2 );
+    for ( int i = 0; i < 6; i++ ) {
+      record( service, request( "/a.prpt", i ), 2 );
+    }
+    assertEquals( 6, service.warmUp() );
+    assertEquals( 2, maxRunning.get() );
+  }
+
+  @Test
+  public void testTimeBudget() {
+    final CacheWarmingService service = new CacheWarmingService() {
+      @Override protected boolean render( final WarmupRequest request ) {
+        return true;
+      }
+    };
+    useUserKeyedCache( service );
+    service.setTimeBudgetMinutes( 0 );
+    record( service, request( "/a.prpt", 1 ), 2 );
+    assertEquals( 0, service.warmUp() );
+  }
+
+  @Test
+  public void testRefresh() throws Exception {
+    final CountDownLatch started = new CountDownLatch( 1 );
+    final CountDownLatch release = new CountDownLatch( 1 );
+    final AtomicInteger rendered = new AtomicInteger();
+    final CacheWarmingService service = new CacheWarmingService() {
+      @Override protected boolean render( final WarmupRequest request ) throws Exception {
+        assertTrue( isWarming() );
+        started.countDown();
+        release.await();
+        rendered.incrementAndGet();
+        return true;
+      }
+    };
+    useUserKeyedCache( service );
+    try {
+      assertTrue( service.refresh( request( "/a.prpt", 1 ) ) );
+      assertTrue( started.await( 5, TimeUnit.SECONDS ) );
+      // coalesced with the running refresh
+      assertTrue( service.refresh( request( "/a.prpt", 1 ) ) );
+      assertTrue( service.isRefreshing( request( "/a.prpt", 1 ) ) );
+      assertEquals( 0, service.getRequestCount( request( "/a.prpt", 1 ) ) );
+
+      release.countDown();
+      final long deadline = System.currentTimeMillis() + 5000;
+      while ( service.isRefreshing( request( "/a.prpt", 1 ) ) && System.currentTimeMillis() < deadline ) {
+        Thread.sleep( 10 );
+      }
+      assertFalse( service.isRefreshing( request( "/a.prpt", 1 ) ) );
+      assertEquals( 1, rendered.get() );
+    } finally {
+      service.shutdown();
+    }
+  }
+
+  @Test
+  public void testRefreshQueueLimit() throws Exception {
+    final CountDownLatch release = new CountDownLatch( 1 );
+    final CacheWarmingService service = new CacheWarmingService() {
+      @Override protected boolean render( final WarmupRequest request ) throws Exception {
+        release.await();
+        return true;
+      }
+    };
+    useUserKeyedCache( service );
+    service.setMaxQueuedRefreshes( 1 );
+    try {
+      assertTrue( service.refresh( request( "/a.prpt", 1 ) ) );
+      final long deadline = System.currentTimeMillis() + 5000;
+      boolean rejected = false;
+      for ( int i = 2; i < 10 && !rejected && System.currentTimeMillis() < deadline; i++ ) {
+        rejected = !service.refresh( request( "/a.prpt", i ) );
+      }
+      assertTrue( rejected );
+    } finally {
+      release.countDown();
+      service.shutdown();
+    }
+  }
+
+  @Test
+  public void testSessionKeyedCacheIsNotWarmed() {
+    final AtomicInteger rendered = new AtomicInteger();
+    final CacheWarmingService service = new CacheWarmingService() {
+      @Override protected boolean render( final WarmupRequest request ) {
+        rendered.incrementAndGet();
+        return true;
+      }
+    };
+    service.setCacheManager( new PluginCacheManagerImpl( new PluginSessionCache( new MemoryCacheBackend() ) ) );
+    assertFalse( service.isCacheWarmable() );
+    record( service, request( "/a.prpt", 1 ), 2 );
+
+    assertEquals( 0, service.warmUp() );
+    assertFalse( service.refresh( request( "/a.prpt", 1 ) ) );
+    assertEquals( 0, rendered.get() );
+    assertFalse( service.isRefreshing( request( "/a.prpt", 1 ) ) );
+
+    // an admission filter in front of a user keyed cache
+    service.setCacheManager( new PluginCacheManagerImpl(
+      new AdmissionFilterCache( new DeleteOldOnAccessCache( new MemoryCacheBackend() ) ) ) );
+    assertTrue( service.isCacheWarmable() );
+    assertEquals( 1, service.warmUp() );
+  }
+
+  @Test
+  public void testWarmupTime() {
+    final CacheWarmingService service = new CacheWarmingService();
+    service.setWarmupTime( "05:15" );
+    assertEquals( "05:15", service.getWarmupTime() );
+    service.setWarmupTime( "" );
+    assertEquals( "", service.getWarmupTime() );
+    service.start();
+    service.shutdown();
+  }
+}
@@ -0,0 +1,132 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CompressedReportContentTest {
+
+  private static byte[] page( final int page ) {
+    final StringBuilder html = new StringBuilder( "<html><head><style>.style-1 { font-family: sans-serif; }"
+      + ".style-2 { border: 1px solid black; }</style></head><body><table>" );
+    for ( int row = 0; row < 20; row++ ) {
+      html.append( "<tr><td class=\"style-1\">row " ).append( page * 100 + row )
+        .append( "</td><td class=\"style-2\">value</td></tr>" );
+    }
+    return html.append( "</table></body></html>" ).toString().getBytes( StandardCharsets.UTF_8 );
+  }
+
+  private static IReportContent content( final int pageCount, final int storedPages ) {
+    final Map<Integer, byte[]> pages = new HashMap<>();
+    for ( int i = 0; i < storedPages; i++ ) {
+      pages.put( i, page( i ) );
+    }
+    return new ReportContentImpl( pageCount, pages );
+  }
+
+  @Test
+  public void testIdentity() throws Exception {
+    final IReportContent content = content( 3, 3 );
+    assertSame( content, CompressedReportContent.compress( content, PageCodec.IDENTITY ) );
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    for ( final PageCodec codec : new PageCodec[] { PageCodec.GZIP, PageCodec.DEFLATE_DICTIONARY } ) {
+      final CompressedReportContent result =
+        (CompressedReportContent) CompressedReportContent.compress( content( 5, 4 ), codec );
+      assertEquals( codec, result.getCodec() );
+      assertEquals( 5, result.getPageCount() );
+      assertEquals( 4, result.getStoredPageCount() );
+      for ( int i = 0; i < 4; i++ ) {
+        assertArrayEquals( page( i ), result.getPageData( i ) );
+        assertEquals( page( i ).length, result.getPageLength( i ) );
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue( result.writePageTo( i, out ) );
+        assertArrayEquals( page( i ), out.toByteArray() );
+      }
+      assertNull( result.getPageData( 4 ) );
+      assertEquals( -1, result.getPageLength( 4 ) );
+    }
+  }
+
+  @Test
+  public void testDictionaryImprovesSmallPages() throws Exception {
+    final CompressedReportContent gzip =
+      (CompressedReportContent) CompressedReportContent.compress( content( 10, 10 ), PageCodec.GZIP );
+    final CompressedReportContent deflate =
+      (CompressedReportContent) CompressedReportContent.compress( content( 10, 10 ), PageCodec.DEFLATE_DICTIONARY );
+    assertTrue( deflate.getDictionary().length > 0 );
+    assertTrue( deflate.getEncodedPageData( 5 ).length < gzip.getEncodedPageData( 5 ).length );
+  }
+
+  @Test
+  public void testGzipPagesAreStandalone() throws Exception {
+    final CompressedReportContent result =
+      (CompressedReportContent) CompressedReportContent.compress( content( 2, 2 ), PageCodec.GZIP );
+    assertEquals( "gzip", result.getCodec().getContentEncoding() );
+    final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+    assertTrue( result.writeEncodedPageTo( 1, encoded ) );
+
+    final ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+    try ( final GZIPInputStream in = new GZIPInputStream( new ByteArrayInputStream( encoded.toByteArray() ) ) ) {
+      final byte[] buffer = new byte[ 1024 ];
+      int read;
+      while ( ( read = in.read( buffer ) ) >= 0 ) {
+        decoded.write( buffer, 0, read );
+      }
+    }
+    assertArrayEquals( page( 1 ), decoded.toByteArray() );
+  }
+
+  @Test
+  public void testSerialization() throws Exception {
+    final IReportContent result = CompressedReportContent.compress( content( 3, 3 ), PageCodec.DEFLATE_DICTIONARY );
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try ( final ObjectOutputStream out = new ObjectOutputStream( bytes ) ) {
+      out.writeObject( result );
+    }
+    try ( final ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( bytes.toByteArray() ) ) ) {
+      final IReportContent copy = (IReportContent) in.readObject();
+      assertArrayEquals( page( 2 ), copy.getPageData( 2 ) );
+    }
+  }
+
+  @Test
+  public void testCodecNames() {
+    assertEquals( PageCodec.DEFLATE_DICTIONARY, PageCodec.forName( "Deflate-Dictionary" ) );
+    assertEquals( PageCodec.GZIP, PageCodec.forName( " gzip " ) );
+    assertEquals( PageCodec.IDENTITY, PageCodec.forName( null ) );
+    assertEquals( PageCodec.IDENTITY, PageCodec.forName( "brotli" ) );
+  }
+}
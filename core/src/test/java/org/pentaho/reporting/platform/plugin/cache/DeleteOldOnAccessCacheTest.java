@@ -18,16 +18,27 @@
 package org.pentaho.reporting.platform.plugin.cache;
 
 import junit.framework.Assert;
+import org.apache.commons.lang.StringUtils;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
 import org.pentaho.platform.engine.core.system.StandaloneSession;
 
+import java.io.File;
+import java.io.Serializable;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 
 public class DeleteOldOnAccessCacheTest {
@@ -35,6 +46,8 @@ public class DeleteOldOnAccessCacheTest {
   private static final String SOME_KEY = "some_key";
   private static final IReportContent SOME_VALUE =
     new ReportContentImpl( 100, Collections.singletonMap( 1, new byte[] { 1, 3, 4, 5 } ) );
+  private static final IReportContent PAGE =
+    new ReportContentImpl( 1, Collections.singletonMap( 0, new byte[ 100 ] ) );
   private static FileSystemCacheBackend fileSystemCacheBackend;
 
   @BeforeClass
@@ -101,4 +114,357 @@ public class DeleteOldOnAccessCacheTest {
     cache.cleanupCurrentSession();
     assertNull( cache.get( SOME_KEY ) );
   }
+
+  @Test
+  public void testInvalidate() throws Exception {
+    final StandaloneSession bill = new StandaloneSession( "bill" );
+    final StandaloneSession steve = new StandaloneSession( "steve" );
+    final DeleteOldOnAccessCache cache = new DeleteOldOnAccessCache( fileSystemCacheBackend );
+    cache.setDaysToLive( 1L );
+    final Map<String, Serializable> changed = new HashMap<>();
+    changed.put( ReportVersionCache.REPORT_SOURCE, "/public/changed.prpt" );
+    final Map<String, Serializable> other = new HashMap<>();
+    other.put( ReportVersionCache.REPORT_SOURCE, "/public/other.prpt" );
+    PentahoSessionHolder.setSession( bill );
+    cache.put( SOME_KEY, SOME_VALUE, changed );
+    cache.put( "other", SOME_VALUE, other );
+    PentahoSessionHolder.setSession( steve );
+    cache.put( SOME_KEY, SOME_VALUE, changed );
+
+    cache.invalidate( ReportVersionCache.REPORT_SOURCE, "/public/changed.prpt" );
+    assertNull( cache.get( SOME_KEY ) );
+    PentahoSessionHolder.setSession( bill );
+    assertNull( cache.get( SOME_KEY ) );
+    assertNotNull( cache.get( "other" ) );
+    cache.cleanupCurrentSession();
+  }
+
+  @Test
+  public void testWithoutMetaData() throws Exception {
+    fileSystemCacheBackend.purge( Collections.singletonList( "long_term" ) );
+    PentahoSessionHolder.setSession( new StandaloneSession( "nometadata" ) );
+    final DeleteOldOnAccessCache cache = new DeleteOldOnAccessCache( fileSystemCacheBackend );
+    cache.setSweepIntervalSeconds( 0 );
+    cache.setDaysToLive( 1L );
+    cache.put( SOME_KEY, SOME_VALUE );
+    final File metaDataFile = new File( fileSystemCacheBackend.getSystemTmp() + "/test-cache/"
+      + StringUtils.join( FileSystemCacheBackend.sanitizeKeySegments( cache.computeKey( SOME_KEY ) ), File.separator )
+      + FileSystemCacheBackend.METADATA );
+    assertTrue( metaDataFile.delete() );
+
+    cache.invalidate( ReportVersionCache.REPORT_SOURCE, "/public/changed.prpt" );
+    assertNotNull( fileSystemCacheBackend.read( cache.computeKey( SOME_KEY ) ) );
+    //a fresh instance indexes the cache and exports a snapshot without the entry
+    final DeleteOldOnAccessCache other = new DeleteOldOnAccessCache( fileSystemCacheBackend );
+    other.setSweepIntervalSeconds( 0 );
+    other.setDaysToLive( 1L );
+    other.sweep();
+    final File snapshot = File.createTempFile( "snapshot", ".bin" );
+    try {
+      assertEquals( 0, other.exportSnapshot( snapshot ) );
+    } finally {
+      snapshot.delete();
+    }
+  }
+
+  @Test
+  public void testAccessDoesNotScan() throws Exception {
+    final AtomicInteger scans = new AtomicInteger();
+    final ICacheBackend countingBackend = new ICacheBackend() {
+      @Override public boolean write( final List<String> key, final Serializable value,
+                                      final Map<String, Serializable> metaData ) {
+        return fileSystemCacheBackend.write( key, value, metaData );
+      }
+
+      @Override public Serializable read( final List<String> key ) {
+        return fileSystemCacheBackend.read( key );
+      }
+
+      @Override public Map<String, Serializable> readMetaData( final List<String> key ) {
+        return fileSystemCacheBackend.readMetaData( key );
+      }
+
+      @Override public boolean purge( final List<String> key ) {
+        return fileSystemCacheBackend.purge( key );
+      }
+
+      @Override public void purgeSegment( final List<String> key,
+                                          final BiPredicate<List<String>, Map<String, Serializable>> p ) {
+        scans.incrementAndGet();
+        fileSystemCacheBackend.purgeSegment( key, p );
+      }
+    };
+    final DeleteOldOnAccessCache cache = new DeleteOldOnAccessCache( countingBackend );
+    cache.setSweepIntervalSeconds( 0 );
+    cache.setDaysToLive( 1L );
+    cache.put( SOME_KEY, SOME_VALUE );
+    assertNotNull( cache.get( SOME_KEY ) );
+    assertNotNull( cache.getMetaData( SOME_KEY ) );
+    assertEquals( 0, scans.get() );
+  }
+
+  @Test
+  public void testExpiryIsCountedAsEviction() throws Exception {
+    PentahoSessionHolder.setSession( new StandaloneSession( "eviction" ) );
+    final InstrumentedCacheBackend instrumented = new InstrumentedCacheBackend( new MemoryCacheBackend() );
+    instrumented.setName( "test-eviction" );
+    final CacheStatistics statistics = CacheStatistics.get( "test-eviction/long_term" );
+    final DeleteOldOnAccessCache cache = new DeleteOldOnAccessCache( instrumented );
+    cache.setSweepIntervalSeconds( 0 );
+    cache.setDaysToLive( 1L );
+    try {
+      cache.put( SOME_KEY, SOME_VALUE );
+      cache.cleanupCurrentSession();
+      assertEquals( 1, statistics.getPurges() );
+      assertEquals( 0, statistics.getEvictions() );
+
+      cache.put( SOME_KEY, SOME_VALUE );
+      cache.setMillisToLive( 0 );
+      Thread.sleep( 10 );
+      assertNull( cache.get( SOME_KEY ) );
+      assertEquals( 1, statistics.getPurges() );
+      assertEquals( 1, statistics.getEvictions() );
+    } finally {
+      statistics.clear();
+    }
+  }
+
+  @Test
+  public void testSweep() throws Exception {
+    fileSystemCacheBackend.purge( Collections.singletonList( "long_term" ) );
+    PentahoSessionHolder.setSession( new StandaloneSession( "sweep" ) );
+    final DeleteOldOnAccessCache writer = new DeleteOldOnAccessCache( fileSystemCacheBackend );
+    writer.setSweepIntervalSeconds( 0 );
+    writer.setDaysToLive( 1L );
+    writer.put( "old", SOME_VALUE );
+    final List<String> oldKey = writer.computeKey( "old" );
+
+    //a fresh instance learns about existing entries from the first sweep
+    final DeleteOldOnAccessCache cache = new DeleteOldOnAccessCache( fileSystemCacheBackend );
+    cache.setSweepIntervalSeconds( 0 );
+    cache.setDaysToLive( 1L );
+    cache.sweep();
+    assertNotNull( fileSystemCacheBackend.read( oldKey ) );
+    assertEquals( 1, cache.getIndexSize() );
+
+    cache.put( "new", SOME_VALUE );
+    final List<String> newKey = cache.computeKey( "new" );
+    cache.setMillisToLive( 0 );
+    Thread.sleep( 10 );
+    cache.sweep();
+    assertNull( fileSystemCacheBackend.read( oldKey ) );
+    assertNull( fileSystemCacheBackend.read( newKey ) );
+    assertEquals( 0, cache.getIndexSize() );
+  }
+
+  @Test
+  public void testSweepKeepsRewrittenEntries() throws Exception {
+    fileSystemCacheBackend.purge( Collections.singletonList( "long_term" ) );
+    PentahoSessionHolder.setSession( new StandaloneSession( "rewrite" ) );
+    final DeleteOldOnAccessCache cache = new DeleteOldOnAccessCache( fileSystemCacheBackend );
+    cache.setSweepIntervalSeconds( 0 );
+    cache.setMillisToLive( 50 );
+    cache.sweep();
+    cache.put( SOME_KEY, SOME_VALUE );
+
+    //rewritten through another instance, this one still has the old timestamp
+    Thread.sleep( 60 );
+    final DeleteOldOnAccessCache other = new DeleteOldOnAccessCache( fileSystemCacheBackend );
+    other.setSweepIntervalSeconds( 0 );
+    other.put( SOME_KEY, SOME_VALUE );
+
+    cache.sweep();
+    assertNotNull( fileSystemCacheBackend.read( cache.computeKey( SOME_KEY ) ) );
+    assertEquals( 1, cache.getIndexSize() );
+  }
+
+  @Test
+  public void testSweepHardTtl() throws Exception {
+    fileSystemCacheBackend.purge( Collections.singletonList( "long_term" ) );
+    PentahoSessionHolder.setSession( new StandaloneSession( "sweepHardTtl" ) );
+    final DeleteOldOnAccessCache cache = new DeleteOldOnAccessCache( fileSystemCacheBackend );
+    cache.setSweepIntervalSeconds( 0 );
+    cache.setDaysToLive( 1L );
+    cache.sweep();
+    final Map<String, Serializable> metaData = new HashMap<>();
+    metaData.put( DeleteOldOnAccessCache.HARD_TTL, 1L );
+    cache.put( "hard", SOME_VALUE, metaData );
+    cache.put( "kept", SOME_VALUE );
+    Thread.sleep( 10 );
+
+    //the report's hard time to live is much shorter than the days to live of the cache
+    cache.sweep();
+    assertNull( fileSystemCacheBackend.read( cache.computeKey( "hard" ) ) );
+    assertNotNull( fileSystemCacheBackend.read( cache.computeKey( "kept" ) ) );
+    assertEquals( 1, cache.getIndexSize() );
+  }
+
+  @Test
+  public void testSoftTtl() throws Exception {
+    final DeleteOldOnAccessCache cache = new DeleteOldOnAccessCache( fileSystemCacheBackend );
+    cache.setDaysToLive( 1L );
+    final Map<String, Serializable> metaData = new HashMap<>();
+    metaData.put( DeleteOldOnAccessCache.SOFT_TTL, 1L );
+    cache.put( "soft", SOME_VALUE, metaData );
+    cache.put( "fresh", SOME_VALUE );
+    Thread.sleep( 10 );
+    // stale entries are still served
+    assertNotNull( cache.get( "soft" ) );
+    assertTrue( cache.isStale( "soft" ) );
+    assertFalse( cache.isStale( "fresh" ) );
+    assertFalse( cache.isStale( "missing" ) );
+  }
+
+  @Test
+  public void testHardTtl() throws Exception {
+    final DeleteOldOnAccessCache cache = new DeleteOldOnAccessCache( fileSystemCacheBackend );
+    cache.setDaysToLive( 1L );
+    final Map<String, Serializable> metaData = new HashMap<>();
+    metaData.put( DeleteOldOnAccessCache.HARD_TTL, 1L );
+    cache.put( "hard", SOME_VALUE, metaData );
+    cache.put( "kept", SOME_VALUE );
+    Thread.sleep( 10 );
+    assertNull( cache.get( "hard" ) );
+    assertNotNull( cache.get( "kept" ) );
+
+    // a fresh instance reads the lifetime back from the stored metadata
+    metaData.put( DeleteOldOnAccessCache.HARD_TTL, 1L );
+    cache.put( "hard", SOME_VALUE, metaData );
+    Thread.sleep( 10 );
+    final DeleteOldOnAccessCache other = new DeleteOldOnAccessCache( fileSystemCacheBackend );
+    other.setDaysToLive( 1L );
+    assertNull( other.get( "hard" ) );
+  }
+
+  @Test
+  public void testExpiryIndex() {
+    final ExpiryIndex index = new ExpiryIndex( lifetime -> lifetime == null ? 100 : lifetime.getHardMillis() );
+    final List<String> a = Collections.singletonList( "a" );
+    final List<String> b = Collections.singletonList( "b" );
+    index.put( a, 10 );
+    index.put( b, 20 );
+    index.put( a, 30 );
+    assertEquals( Collections.singletonList( b ), index.pollExpired( 125 ) );
+    assertEquals( Long.valueOf( 30 ), index.get( a ) );
+    final Map<String, Serializable> metaData = new HashMap<>();
+    metaData.put( DeleteOldOnAccessCache.HARD_TTL, 50L );
+    index.put( b, 20, Lifetime.of( metaData ) );
+    index.put( b, 40 );
+    assertEquals( 50, index.getLifetime( b ).getHardMillis() );
+    //queued at its own expiry, before the older entry without a lifetime
+    assertEquals( Collections.singletonList( b ), index.pollExpired( 125 ) );
+    index.put( b, 40, null );
+    assertNull( index.getLifetime( b ) );
+    index.removePrefix( Collections.<String>emptyList() );
+    assertEquals( 0, index.size() );
+    assertEquals( Collections.emptyList(), index.pollExpired( 1000 ) );
+  }
+
+  @Test
+  public void testMaxBytes() throws Exception {
+    fileSystemCacheBackend.purge( Collections.singletonList( "long_term" ) );
+    PentahoSessionHolder.setSession( new StandaloneSession( "quota" ) );
+    final long size = MemoryCacheBackend.sizeOf( (Serializable) PAGE );
+    final DeleteOldOnAccessCache cache = new DeleteOldOnAccessCache( fileSystemCacheBackend );
+    cache.setSweepIntervalSeconds( 0 );
+    cache.setDaysToLive( 1L );
+    cache.setMaxBytes( 2 * size );
+    cache.put( "a", PAGE );
+    Thread.sleep( 2 );
+    cache.put( "b", PAGE );
+    Thread.sleep( 2 );
+    assertNotNull( cache.get( "a" ) );
+    cache.put( "c", PAGE );
+    //the least recently used entry is gone
+    assertNull( cache.get( "b" ) );
+    assertNotNull( cache.get( "a" ) );
+    assertNotNull( cache.get( "c" ) );
+    assertEquals( 2 * size, cache.getBytes() );
+    assertEquals( size, cache.getMetaData( "c" ).get( DeleteOldOnAccessCache.SIZE ) );
+
+    //a fresh instance restores the sizes from the metadata
+    final DeleteOldOnAccessCache other = new DeleteOldOnAccessCache( fileSystemCacheBackend );
+    other.setSweepIntervalSeconds( 0 );
+    other.setDaysToLive( 1L );
+    other.setMaxBytes( size );
+    other.sweep();
+    assertEquals( size, other.getBytes() );
+    assertNull( fileSystemCacheBackend.read( other.computeKey( "a" ) ) );
+    assertNotNull( fileSystemCacheBackend.read( other.computeKey( "c" ) ) );
+  }
+
+  @Test
+  public void testAppendCountsEncodedPages() throws Exception {
+    PentahoSessionHolder.setSession( new StandaloneSession( "append" ) );
+    final DeleteOldOnAccessCache cache = new DeleteOldOnAccessCache( fileSystemCacheBackend );
+    cache.setSweepIntervalSeconds( 0 );
+    cache.setDaysToLive( 1L );
+    final Map<Integer, byte[]> first = new HashMap<>();
+    first.put( 0, new byte[ 1000 ] );
+    cache.put( "appended", CompressedReportContent.compress( new ReportContentImpl( 2, first ), PageCodec.GZIP ) );
+    final Map<Integer, byte[]> second = new HashMap<>();
+    second.put( 1, new byte[ 1000 ] );
+    assertTrue( cache.append( "appended", new ReportContentImpl( 2, second ), cache.getMetaData( "appended" ) ) );
+
+    final FileReportContent stored = (FileReportContent) cache.get( "appended" );
+    assertEquals( 2, stored.getStoredPageCount() );
+    assertArrayEquals( new byte[ 1000 ], stored.getPageData( 1 ) );
+    // the compressed size, not the size of the pages
+    assertEquals( stored.getStoredBytes(), cache.getMetaData( "appended" ).get( DeleteOldOnAccessCache.SIZE ) );
+    assertTrue( stored.getStoredBytes() < 2000 );
+    cache.cleanupCurrentSession();
+  }
+
+  @Test
+  public void testMaxBytesPerUser() throws Exception {
+    fileSystemCacheBackend.purge( Collections.singletonList( "long_term" ) );
+    final long size = MemoryCacheBackend.sizeOf( (Serializable) PAGE );
+    final DeleteOldOnAccessCache cache = new DeleteOldOnAccessCache( fileSystemCacheBackend );
+    cache.setSweepIntervalSeconds( 0 );
+    cache.setDaysToLive( 1L );
+    cache.setMaxBytesPerUser( size );
+    PentahoSessionHolder.setSession( new StandaloneSession( "bill" ) );
+    cache.put( "a", PAGE );
+    PentahoSessionHolder.setSession( new StandaloneSession( "steve" ) );
+    cache.put( "a", PAGE );
+    cache.put( "b", PAGE );
+    assertNull( cache.get( "a" ) );
+    assertNotNull( cache.get( "b" ) );
+    //other users are not affected
+    PentahoSessionHolder.setSession( new StandaloneSession( "bill" ) );
+    assertNotNull( cache.get( "a" ) );
+  }
+
+  @Test
+  public void testEvictionPolicies() {
+    final List<String> a = Collections.singletonList( "a" );
+    final List<String> b = Collections.singletonList( "b" );
+    final List<String> c = Collections.singletonList( "c" );
+
+    final QuotaIndex lfu = new QuotaIndex();
+    lfu.setPolicy( EvictionPolicy.LFU );
+    lfu.setMaxBytes( 20 );
+    lfu.put( a, "user", 10, 1, 1 );
+    lfu.put( b, "user", 10, 1, 2 );
+    lfu.touch( b, 3 );
+    lfu.touch( a, 4 );
+    lfu.touch( b, 5 );
+    assertEquals( Collections.singletonList( a ), lfu.put( c, "user", 10, 1, 6 ) );
+
+    final QuotaIndex greedyDual = new QuotaIndex();
+    greedyDual.setPolicy( EvictionPolicy.GREEDY_DUAL );
+    greedyDual.setMaxBytes( 100 );
+    greedyDual.put( a, "user", 80, 1, 1 );
+    greedyDual.put( b, "user", 10, 1, 2 );
+    //the large entry goes first, even though it is newer
+    assertEquals( Collections.singletonList( a ), greedyDual.put( c, "user", 20, 1, 3 ) );
+    assertEquals( 30, greedyDual.getBytes() );
+
+    final QuotaIndex owners = new QuotaIndex();
+    owners.setMaxOwnerBytes( 10 );
+    owners.put( a, "bill", 10, 1, 1 );
+    assertEquals( Collections.singletonList( b ), owners.put( b, "steve", 20, 1, 2 ) );
+    assertEquals( 10, owners.getBytes( "bill" ) );
+    assertEquals( 0, owners.getBytes( "steve" ) );
+  }
 }
@@ -0,0 +1,41 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Memory backend that fails whenever the complete metadata of an entry is read, decorators must pass single field reads
+ * through.
+ */
+class FieldOnlyCacheBackend extends MemoryCacheBackend {
+
+  @Override
+  public synchronized Map<String, Serializable> readMetaData( final List<String> key ) {
+    throw new AssertionError( "Complete metadata read for " + key );
+  }
+
+  @Override
+  public Serializable readMetaDataField( final List<String> key, final String name ) {
+    final Map<String, Serializable> metaData = super.readMetaData( key );
+    return metaData == null ? null : metaData.get( name );
+  }
+}
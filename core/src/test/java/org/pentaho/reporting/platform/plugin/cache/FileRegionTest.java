@@ -0,0 +1,140 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.reporting.platform.plugin.output.CachingPageableHTMLOutput;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FileRegionTest {
+
+  private File file;
+  private File target;
+  private byte[] page;
+
+  @Before
+  public void setUp() throws Exception {
+    file = File.createTempFile( "report-content", ".data" );
+    target = File.createTempFile( "report-target", ".tmp" );
+    // spans several copy buffers
+    page = new byte[ FileRegion.COPY_BUFFER_SIZE * 2 + 17 ];
+    new Random( 42 ).nextBytes( page );
+    ReportContentFile.write( new ReportContentImpl( 2, Collections.singletonMap( 1, page ) ), file );
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+    target.delete();
+  }
+
+  @Test
+  public void testCopy() throws Exception {
+    final FileReportContent content = ReportContentFile.open( file );
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try ( final FileRegion region = content.openEncodedPageRegion( 1 ) ) {
+      assertEquals( page.length, region.getLength() );
+      region.transferTo( out );
+    }
+    assertArrayEquals( page, out.toByteArray() );
+    assertNull( content.openEncodedPageRegion( 0 ) );
+  }
+
+  @Test
+  public void testTransferToChannel() throws Exception {
+    final FileReportContent content = ReportContentFile.open( file );
+    try ( final ChannelOutputStream out = new ChannelOutputStream( new FileOutputStream( target ) ) ) {
+      out.write( 'a' );
+      assertTrue( content.writePageTo( 1, out ) );
+      out.write( 'b' );
+    }
+    final byte[] written = Files.readAllBytes( target.toPath() );
+    assertEquals( page.length + 2, written.length );
+    assertEquals( 'a', written[ 0 ] );
+    assertEquals( page[ page.length - 1 ], written[ page.length ] );
+    assertEquals( 'b', written[ page.length + 1 ] );
+
+    try ( final FileOutputStream out = new FileOutputStream( target ) ) {
+      assertTrue( content.writePageTo( 1, out ) );
+    }
+    assertArrayEquals( page, Files.readAllBytes( target.toPath() ) );
+  }
+
+  @Test
+  public void testDefaultCodec() throws Exception {
+    final Properties configuration = new Properties();
+    try ( final InputStream in = getClass().getResourceAsStream(
+      "/org/pentaho/reporting/platform/plugin/configuration.properties" ) ) {
+      configuration.load( in );
+    }
+    final PageCodec codec =
+      PageCodec.forName( configuration.getProperty( CachingPageableHTMLOutput.PAGE_CODEC_CONFIG ) );
+    // the shipped codec can be sent to clients as it is
+    assertEquals( "gzip", codec.getContentEncoding() );
+
+    final byte[] html = new byte[ FileRegion.COPY_BUFFER_SIZE * 3 ];
+    Arrays.fill( html, (byte) 'x' );
+    ReportContentFile.write(
+      CompressedReportContent.compress( new ReportContentImpl( 2, Collections.singletonMap( 1, html ) ), codec ), file );
+    final FileReportContent content = ReportContentFile.open( file );
+    assertEquals( codec, content.getCodec() );
+
+    final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+    try ( final FileRegion region = content.openEncodedPageRegion( 1 ) ) {
+      region.transferTo( encoded );
+    }
+    assertArrayEquals( content.getEncodedPageData( 1 ), encoded.toByteArray() );
+    assertArrayEquals( html, codec.decode( encoded.toByteArray(), null ) );
+
+    // clients that don't accept the encoding get the page decoded from the file
+    final ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+    assertTrue( content.writePageTo( 1, decoded ) );
+    assertArrayEquals( html, decoded.toByteArray() );
+    assertFalse( content.writePageTo( 0, decoded ) );
+  }
+
+  @Test
+  public void testRegionOutlivesEntry() throws Exception {
+    final FileReportContent content = ReportContentFile.open( file );
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try ( final FileRegion region = content.openEncodedPageRegion( 1 ) ) {
+      ReportContentFile.write( new ReportContentImpl( 1, Collections.singletonMap( 0, new byte[] { 1 } ) ), file );
+      assertNull( content.openEncodedPageRegion( 1 ) );
+      region.transferTo( out );
+    }
+    assertArrayEquals( page, out.toByteArray() );
+  }
+}
@@ -24,24 +24,24 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
 import org.pentaho.platform.engine.core.system.StandaloneSession;
-import org.powermock.reflect.Whitebox;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.file.Files;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
@@ -84,6 +84,53 @@ public class FileSystemCacheBackendTest {
     assertEquals( fileSystemCacheBackend.read( Arrays.asList( directoryKey, key ) ), value );
   }
 
+  @Test
+  public void testAppend() throws Exception {
+    final List<String> pagedKey = Arrays.asList( directoryKey, "paged.html" );
+    final HashMap<Integer, byte[]> pages = new HashMap<>();
+    pages.put( 0, "page-0".getBytes() );
+    assertTrue( fileSystemCacheBackend.write( pagedKey, new ReportContentImpl( 5, pages ),
+      new HashMap<String, Serializable>() ) );
+    pages.put( 1, "page-1".getBytes() );
+    final HashMap<String, Serializable> metaData = new HashMap<>();
+    metaData.put( "rows", 20 );
+    assertTrue( fileSystemCacheBackend.append( pagedKey, new ReportContentImpl( 5, pages ), metaData ) );
+
+    final IReportContent result = (IReportContent) fileSystemCacheBackend.read( pagedKey );
+    assertEquals( 2, result.getStoredPageCount() );
+    assertEquals( "page-1", new String( result.getPageData( 1 ) ) );
+    assertEquals( 20, fileSystemCacheBackend.readMetaData( pagedKey ).get( "rows" ) );
+
+    assertFalse( fileSystemCacheBackend.append( Arrays.asList( directoryKey, "missing.html" ),
+      new ReportContentImpl( 5, pages ), metaData ) );
+    assertTrue( fileSystemCacheBackend.write( Arrays.asList( directoryKey, key ), value,
+      new HashMap<String, Serializable>() ) );
+    assertFalse( fileSystemCacheBackend.append( Arrays.asList( directoryKey, key ),
+      new ReportContentImpl( 5, pages ), metaData ) );
+  }
+
+  @Test
+  public void testLegacyMetaData() throws Exception {
+    final List<String> legacyKey = Arrays.asList( directoryKey, "legacy.html" );
+    assertTrue( fileSystemCacheBackend.write( legacyKey, value, new HashMap<String, Serializable>() ) );
+    final File metaDataFile = new File( fileSystemCacheBackend.getSystemTmp() + "/test-cache/" + directoryKey
+      + File.separator + "legacy.html" + FileSystemCacheBackend.METADATA );
+    final HashMap<String, Serializable> legacy = new HashMap<>();
+    legacy.put( "rows", 20 );
+    try ( final ObjectOutputStream oos = new ObjectOutputStream( new FileOutputStream( metaDataFile ) ) ) {
+      oos.writeObject( legacy );
+    }
+
+    assertEquals( legacy, fileSystemCacheBackend.readMetaData( legacyKey ) );
+    assertEquals( 20, fileSystemCacheBackend.readMetaDataField( legacyKey, "rows" ) );
+
+    // migrated when the entry is written again
+    assertTrue( fileSystemCacheBackend.write( legacyKey, value, legacy ) );
+    assertTrue( MetaDataCodec.isEncoded( Files.readAllBytes( metaDataFile.toPath() ) ) );
+    assertEquals( 20, fileSystemCacheBackend.readMetaDataField( legacyKey, "rows" ) );
+    assertNull( fileSystemCacheBackend.readMetaDataField( legacyKey, "missing" ) );
+  }
+
   @Test
   public void testPurge() throws Exception {
     assertTrue(
@@ -103,12 +150,66 @@ public class FileSystemCacheBackendTest {
   }
 
   @Test
-  public void testPurgeSyncMapCleaning() {
-    List<String> randomKey = Arrays.asList( UUID.randomUUID().toString() );
-    Map<List<String>, ReentrantReadWriteLock> syncMap = new HashMap<List<String>, ReentrantReadWriteLock>();
-    Whitebox.setInternalState( fileSystemCacheBackend, "syncMap", syncMap );
-    fileSystemCacheBackend.purge( randomKey );
-    assertFalse( ((Map<List<String>, ReentrantReadWriteLock>) Whitebox.getInternalState( fileSystemCacheBackend, "syncMap" )).containsKey( randomKey ) );
+  public void testLockRegistryPruning() {
+    final List<String> randomKey = Arrays.asList( UUID.randomUUID().toString(), key );
+    assertTrue( fileSystemCacheBackend.write( randomKey, value, new HashMap<String, Serializable>() ) );
+    assertEquals( value, fileSystemCacheBackend.read( randomKey ) );
+    assertTrue( fileSystemCacheBackend.purge( randomKey.subList( 0, 1 ) ) );
+    assertEquals( 0, fileSystemCacheBackend.getLockRegistry().size() );
+  }
+
+  @Test
+  public void testPurgeDirWithSubSegments() {
+    final List<String> nested = Arrays.asList( directoryKey, "sub", key );
+    assertTrue( fileSystemCacheBackend.write( nested, value, new HashMap<String, Serializable>() ) );
+    assertTrue( fileSystemCacheBackend.purge( Collections.singletonList( directoryKey ) ) );
+    assertNull( fileSystemCacheBackend.read( nested ) );
+    assertEquals( 0, fileSystemCacheBackend.getLockRegistry().size() );
+  }
+
+  @Test
+  public void testPurgeDirMovesToTrash() throws Exception {
+    final List<String> nested = Arrays.asList( "trashed", "sub", key );
+    assertTrue( fileSystemCacheBackend.write( nested, value, new HashMap<String, Serializable>() ) );
+    final File directory = new File( fileSystemCacheBackend.getSystemTmp() + "/test-cache/trashed" );
+    assertTrue( directory.isDirectory() );
+    assertTrue( fileSystemCacheBackend.purge( Collections.singletonList( "trashed" ) ) );
+    assertFalse( directory.exists() );
+    assertNull( fileSystemCacheBackend.read( nested ) );
+
+    // a fresh directory is used by the next write
+    assertTrue( fileSystemCacheBackend.write( nested, value, new HashMap<String, Serializable>() ) );
+    assertEquals( value, fileSystemCacheBackend.read( nested ) );
+    assertTrue( fileSystemCacheBackend.purge( Collections.singletonList( "trashed" ) ) );
+
+    final File trash = fileSystemCacheBackend.getTrashDir();
+    final long deadline = System.currentTimeMillis() + 5000;
+    while ( trash.list() != null && trash.list().length > 0 && System.currentTimeMillis() < deadline ) {
+      Thread.sleep( 10 );
+    }
+    assertEquals( 0, trash.list().length );
+    assertEquals( 0, fileSystemCacheBackend.getLockRegistry().size() );
+  }
+
+  @Test
+  public void testWriteIntoNewDirWaitsForPurge() throws Exception {
+    final List<String> nested = Arrays.asList( "guarded", "fresh", key );
+    final CacheLockRegistry.Handle purgeLock =
+      fileSystemCacheBackend.getLockRegistry().acquire( Collections.singletonList( "guarded" ), true );
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      final Future<Boolean> write = executor.submit(
+        () -> fileSystemCacheBackend.write( nested, value, new HashMap<String, Serializable>() ) );
+      Thread.sleep( 200 );
+      assertFalse( write.isDone() );
+      assertFalse( new File( fileSystemCacheBackend.getSystemTmp() + "/test-cache/guarded/fresh" ).exists() );
+      purgeLock.release();
+      assertTrue( write.get() );
+    } finally {
+      executor.shutdown();
+    }
+    assertEquals( value, fileSystemCacheBackend.read( nested ) );
+    assertTrue( fileSystemCacheBackend.purge( Collections.singletonList( "guarded" ) ) );
   }
 
   @Test
@@ -0,0 +1,178 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class InstrumentedCacheBackendTest {
+
+  private static final List<String> SMALL = Arrays.asList( "long_term", "user", "small" );
+  private static final List<String> LARGE = Arrays.asList( "long_term", "user", "large" );
+  private static final List<String> SESSION = Arrays.asList( "session", "id", "report" );
+
+  private InstrumentedCacheBackend backend;
+  private CacheStatistics longTerm;
+  private CacheStatistics session;
+
+  @Before
+  public void setUp() {
+    backend = new InstrumentedCacheBackend( new MemoryCacheBackend() );
+    backend.setName( "test-instrumented" );
+    longTerm = CacheStatistics.get( "test-instrumented/long_term" );
+    session = CacheStatistics.get( "test-instrumented/session" );
+  }
+
+  @After
+  public void tearDown() {
+    longTerm.clear();
+    session.clear();
+  }
+
+  @Test
+  public void testSegments() {
+    assertTrue( backend.write( SMALL, new byte[ 10 ], new HashMap<>() ) );
+    assertTrue( backend.write( SESSION, new byte[ 20 ], new HashMap<>() ) );
+    backend.read( SMALL );
+    backend.read( SMALL );
+    backend.read( LARGE );
+
+    assertEquals( 2, longTerm.getHits() );
+    assertEquals( 1, longTerm.getMisses() );
+    assertEquals( 1, longTerm.getWrites() );
+    assertEquals( 1, longTerm.getEntries() );
+    assertEquals( 10, longTerm.getBytes() );
+    assertEquals( 3, longTerm.getReadLatency().getCount() );
+    assertEquals( 1, session.getEntries() );
+    assertEquals( 0, session.getHits() );
+  }
+
+  @Test
+  public void testLargestAndHottest() {
+    backend.write( SMALL, new byte[ 10 ], new HashMap<>() );
+    backend.write( LARGE, new byte[ 1000 ], new HashMap<>() );
+    backend.write( SESSION, new byte[ 100 ], new HashMap<>() );
+    backend.read( SMALL );
+    backend.read( SMALL );
+    backend.read( SESSION );
+
+    final List<InstrumentedCacheBackend.EntryInfo> largest = backend.getLargestEntries( 2 );
+    assertEquals( 2, largest.size() );
+    assertEquals( LARGE, largest.get( 0 ).getKey() );
+    assertEquals( SESSION, largest.get( 1 ).getKey() );
+
+    final List<InstrumentedCacheBackend.EntryInfo> hottest = backend.getHottestEntries( 10 );
+    assertEquals( 3, hottest.size() );
+    assertEquals( SMALL, hottest.get( 0 ).getKey() );
+    assertEquals( 2, hottest.get( 0 ).getHits() );
+
+    // rewriting keeps the hit count
+    backend.write( SMALL, new byte[ 20 ], new HashMap<>() );
+    assertEquals( 2, backend.getHottestEntries( 1 ).get( 0 ).getHits() );
+    assertEquals( 1020, longTerm.getBytes() );
+  }
+
+  @Test
+  public void testPurge() {
+    backend.write( SMALL, new byte[ 10 ], new HashMap<>() );
+    backend.write( LARGE, new byte[ 1000 ], new HashMap<>() );
+    assertTrue( backend.purge( Arrays.asList( "long_term", "user" ) ) );
+
+    assertNull( backend.read( SMALL ) );
+    assertEquals( 2, longTerm.getPurges() );
+    assertEquals( 0, longTerm.getEvictions() );
+    assertEquals( 0, longTerm.getEntries() );
+    assertEquals( 0, longTerm.getBytes() );
+  }
+
+  @Test
+  public void testPurgeSegment() {
+    backend.write( SMALL, new byte[ 10 ], new HashMap<>() );
+    backend.write( LARGE, new byte[ 1000 ], new HashMap<>() );
+    backend.purgeSegment( Collections.singletonList( "long_term" ), ( key, metaData ) -> key.equals( LARGE ) );
+
+    assertEquals( 1, longTerm.getPurges() );
+    assertEquals( 0, longTerm.getEvictions() );
+    assertEquals( 1, longTerm.getEntries() );
+    assertEquals( 10, longTerm.getBytes() );
+    assertEquals( 1, backend.getLargestEntries( 10 ).size() );
+  }
+
+  @Test
+  public void testEvict() {
+    backend.write( SMALL, new byte[ 10 ], new HashMap<>() );
+    backend.write( LARGE, new byte[ 1000 ], new HashMap<>() );
+    assertTrue( backend.evict( SMALL ) );
+    backend.evictSegment( Collections.singletonList( "long_term" ), ( key, metaData ) -> key.equals( LARGE ) );
+
+    assertEquals( 2, longTerm.getEvictions() );
+    assertEquals( 0, longTerm.getPurges() );
+    assertEquals( 0, longTerm.getEntries() );
+  }
+
+  @Test
+  public void testSizeFromMetaData() {
+    final MemoryCacheBackend memory = new MemoryCacheBackend();
+    backend.setDelegate( memory );
+    final HashMap<String, Serializable> metaData = new HashMap<>();
+    metaData.put( DeleteOldOnAccessCache.SIZE, 100L );
+    assertTrue( backend.write( SMALL, "value", metaData ) );
+    assertEquals( 100, longTerm.getBytes() );
+
+    // entries written before startup are sized from their metadata on the first read
+    metaData.put( DeleteOldOnAccessCache.SIZE, 1000L );
+    assertTrue( memory.write( LARGE, "value", metaData ) );
+    assertTrue( memory.write( SESSION, "value", new HashMap<>() ) );
+    backend.read( LARGE );
+    backend.read( SESSION );
+    assertEquals( 1100, longTerm.getBytes() );
+    assertEquals( 0, session.getBytes() );
+    assertEquals( 1, session.getEntries() );
+  }
+
+  @Test
+  public void testTrackingLimit() {
+    backend.setMaxTrackedEntries( 1 );
+    backend.write( SMALL, new byte[ 10 ], new HashMap<>() );
+    backend.write( LARGE, new byte[ 1000 ], new HashMap<>() );
+    assertEquals( 1, backend.getLargestEntries( 10 ).size() );
+    assertEquals( 2, longTerm.getWrites() );
+    assertTrue( InstrumentedCacheBackend.getInstances().contains( backend ) );
+  }
+
+  @Test
+  public void testReadMetaDataField() {
+    final InstrumentedCacheBackend instrumented = new InstrumentedCacheBackend( new FieldOnlyCacheBackend() );
+    final HashMap<String, Serializable> metaData = new HashMap<>();
+    metaData.put( "field", 42L );
+    assertTrue( instrumented.write( SMALL, new byte[ 10 ], metaData ) );
+    assertEquals( 42L, instrumented.readMetaDataField( SMALL, "field" ) );
+  }
+}
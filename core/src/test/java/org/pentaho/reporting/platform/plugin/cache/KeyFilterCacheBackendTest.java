@@ -0,0 +1,281 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class KeyFilterCacheBackendTest {
+
+  private static final List<String> KEY = Arrays.asList( "session", "id344324", "file1.html" );
+  private static final String VALUE = "SerializableObject";
+
+  private String snapshotPath;
+  private CountingBackend delegate;
+  private KeyFilterCacheBackend backend;
+
+  @Before
+  public void setUp() {
+    snapshotPath = "/test-key-filter-" + UUID.randomUUID() + ".bin";
+    delegate = new CountingBackend();
+    backend = create();
+  }
+
+  @After
+  public void tearDown() {
+    backend.shutdown();
+    new File( System.getProperty( "java.io.tmpdir" ), snapshotPath ).delete();
+  }
+
+  private KeyFilterCacheBackend create() {
+    final KeyFilterCacheBackend result = new KeyFilterCacheBackend( delegate );
+    result.setSnapshotPath( snapshotPath );
+    result.setPersistIntervalSeconds( 0 );
+    return result;
+  }
+
+  private void awaitReady( final KeyFilterCacheBackend filter ) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + 5000;
+    while ( !filter.isReady() && System.currentTimeMillis() < deadline ) {
+      Thread.sleep( 10 );
+    }
+    assertTrue( filter.isReady() );
+  }
+
+  @Test
+  public void testMissDoesNotReachDelegate() throws Exception {
+    awaitReady( backend );
+    assertTrue( backend.write( KEY, VALUE, null ) );
+    assertEquals( VALUE, backend.read( KEY ) );
+    assertEquals( 1, delegate.reads.get() );
+
+    final List<String> missing = Arrays.asList( "session", "id344324", "other.html" );
+    assertNull( backend.read( missing ) );
+    assertNull( backend.readMetaData( missing ) );
+    assertNull( backend.readMetaDataField( missing, "timestamp" ) );
+    assertNull( backend.read( Arrays.asList( "session", "unknown", "file1.html" ) ) );
+    assertEquals( 1, delegate.reads.get() );
+    assertEquals( 4, backend.getFilteredReads() );
+  }
+
+  @Test
+  public void testPurge() throws Exception {
+    awaitReady( backend );
+    final List<String> other = Arrays.asList( "session", "id344324", "file2.html" );
+    final List<String> longTerm = Arrays.asList( "long_term", "user", "file1.html" );
+    backend.write( KEY, VALUE, null );
+    backend.write( other, VALUE, null );
+    backend.write( longTerm, VALUE, null );
+
+    assertTrue( backend.purge( KEY ) );
+    assertNull( backend.read( KEY ) );
+    assertEquals( VALUE, backend.read( other ) );
+
+    assertTrue( backend.purge( Collections.singletonList( "session" ) ) );
+    assertNull( backend.read( other ) );
+    assertEquals( VALUE, backend.read( longTerm ) );
+    assertEquals( 2, delegate.reads.get() );
+
+    backend.purgeSegment( Collections.singletonList( "long_term" ), ( k, md ) -> true );
+    assertNull( backend.read( longTerm ) );
+    assertEquals( 2, delegate.reads.get() );
+  }
+
+  @Test
+  public void testRewriteAndPurge() throws Exception {
+    awaitReady( backend );
+    backend.write( KEY, VALUE, null );
+    backend.write( KEY, VALUE, null );
+    assertTrue( backend.purge( KEY ) );
+    // a purge of a key that isn't stored doesn't touch the filter
+    assertTrue( backend.purge( KEY ) );
+    assertNull( backend.read( KEY ) );
+    assertEquals( 0, delegate.reads.get() );
+    assertEquals( 1, backend.getFilteredReads() );
+  }
+
+  @Test
+  public void testWriteDuringPurge() throws Exception {
+    awaitReady( backend );
+    final List<String> other = Arrays.asList( "session", "id344324", "file2.html" );
+    backend.write( KEY, VALUE, null );
+    final CountDownLatch purged = new CountDownLatch( 1 );
+    final CountDownLatch release = new CountDownLatch( 1 );
+    delegate.purgeListener = () -> {
+      purged.countDown();
+      try {
+        release.await();
+      } catch ( final InterruptedException e ) {
+        Thread.currentThread().interrupt();
+      }
+    };
+    final Thread purger = new Thread( () -> backend.purge( Collections.singletonList( "session" ) ) );
+    purger.start();
+    assertTrue( purged.await( 5, TimeUnit.SECONDS ) );
+
+    // the delegate is purged already, the write must not be hidden by the filter update that follows
+    final Thread writer = new Thread( () -> backend.write( other, VALUE, null ) );
+    writer.start();
+    Thread.sleep( 100 );
+    release.countDown();
+    purger.join( 5000 );
+    writer.join( 5000 );
+    assertEquals( VALUE, backend.read( other ) );
+    assertNull( backend.read( KEY ) );
+  }
+
+  @Test
+  public void testRebuild() throws Exception {
+    delegate.write( KEY, VALUE, new HashMap<String, Serializable>() );
+    awaitReady( backend );
+    assertEquals( VALUE, backend.read( KEY ) );
+    assertNull( backend.read( Arrays.asList( "session", "id344324", "other.html" ) ) );
+    assertEquals( 1, backend.getFilteredReads() );
+  }
+
+  @Test
+  public void testRebuildFromFiles() throws Exception {
+    final String cachePath = "/test-key-filter-cache-" + UUID.randomUUID() + "/";
+    final FileSystemCacheBackend files = new FileSystemCacheBackend();
+    files.setCachePath( cachePath );
+    assertTrue( files.write( KEY, VALUE, new HashMap<String, Serializable>() ) );
+    final KeyFilterCacheBackend filtered = new KeyFilterCacheBackend( files );
+    try {
+      // the walk reports the keys with the extension of the data file
+      awaitReady( filtered );
+      assertEquals( VALUE, filtered.read( KEY ) );
+      assertEquals( 0, filtered.getFilteredReads() );
+    } finally {
+      filtered.shutdown();
+      FileUtils.deleteDirectory( new File( System.getProperty( "java.io.tmpdir" ), cachePath ) );
+    }
+  }
+
+  @Test
+  public void testSnapshot() throws Exception {
+    awaitReady( backend );
+    backend.write( KEY, VALUE, null );
+    backend.shutdown();
+
+    // the walk would not find the entry
+    delegate.hidden = true;
+    backend = create();
+    assertTrue( backend.isReady() );
+    delegate.hidden = false;
+    assertEquals( VALUE, backend.read( KEY ) );
+    assertNull( backend.read( Arrays.asList( "session", "id344324", "other.html" ) ) );
+  }
+
+  @Test
+  public void testAppend() throws Exception {
+    final String cachePath = "/test-key-filter-cache-" + UUID.randomUUID() + "/";
+    final ShardedFileSystemCacheBackend files = new ShardedFileSystemCacheBackend();
+    files.setCachePath( cachePath );
+    final KeyFilterCacheBackend filtered = new KeyFilterCacheBackend( files );
+    try {
+      awaitReady( filtered );
+      final HashMap<Integer, byte[]> pages = new HashMap<>();
+      pages.put( 0, "page-0".getBytes() );
+      assertTrue( filtered.write( KEY, new ReportContentImpl( 2, pages ), null ) );
+      pages.put( 1, "page-1".getBytes() );
+      assertTrue( filtered.append( KEY, new ReportContentImpl( 2, pages ), null ) );
+
+      // stored behind the filter's back, so only the filter can reject it
+      final List<String> bypassed = Arrays.asList( "session", "id344324", "bypassed.html" );
+      assertTrue( files.write( bypassed, new ReportContentImpl( 2, pages ), null ) );
+      assertFalse( filtered.append( bypassed, new ReportContentImpl( 2, pages ), null ) );
+      assertEquals( 1, filtered.getFilteredReads() );
+    } finally {
+      filtered.shutdown();
+      FileUtils.deleteDirectory( new File( System.getProperty( "java.io.tmpdir" ), cachePath ) );
+    }
+  }
+
+  @Test
+  public void testFingerprintFilter() {
+    final FingerprintFilter filter = new FingerprintFilter();
+    final List<Integer> fingerprints = new ArrayList<>();
+    for ( int i = 0; i < 1000; i++ ) {
+      final int fingerprint = FingerprintFilter.fingerprint( Arrays.asList( "segment", "key" + i ) );
+      fingerprints.add( fingerprint );
+      assertTrue( filter.add( fingerprint ) );
+    }
+    assertFalse( filter.add( fingerprints.get( 0 ) ) );
+    assertEquals( 1000, filter.size() );
+    assertEquals( 1001, filter.toArray().length );
+    // shared by two keys, the first removal keeps it
+    assertFalse( filter.remove( fingerprints.get( 0 ) ) );
+    assertTrue( filter.contains( fingerprints.get( 0 ) ) );
+    for ( int i = 0; i < 1000; i += 2 ) {
+      assertTrue( filter.remove( fingerprints.get( i ) ) );
+    }
+    for ( int i = 0; i < 1000; i++ ) {
+      assertEquals( i % 2 == 1, filter.contains( fingerprints.get( i ) ) );
+    }
+    assertEquals( 500, filter.toArray().length );
+    assertFalse( FingerprintFilter.fingerprint( Arrays.asList( "ab", "c" ) )
+      == FingerprintFilter.fingerprint( Arrays.asList( "a", "bc" ) ) );
+  }
+
+  private static class CountingBackend extends MemoryCacheBackend {
+    private final AtomicInteger reads = new AtomicInteger();
+    private volatile boolean hidden;
+    private volatile Runnable purgeListener;
+
+    @Override public boolean purge( final List<String> key ) {
+      final boolean result = super.purge( key );
+      if ( purgeListener != null ) {
+        purgeListener.run();
+      }
+      return result;
+    }
+
+    @Override public synchronized Serializable read( final List<String> key ) {
+      reads.incrementAndGet();
+      return super.read( key );
+    }
+
+    @Override public void purgeSegment( final List<String> key,
+                                        final BiPredicate<List<String>, Map<String, Serializable>> p ) {
+      if ( !hidden ) {
+        super.purgeSegment( key, p );
+      }
+    }
+  }
+}
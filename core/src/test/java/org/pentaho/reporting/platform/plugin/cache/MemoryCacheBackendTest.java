@@ -0,0 +1,99 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import org.junit.Test;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MemoryCacheBackendTest {
+
+  private static IReportContent content( final int size ) {
+    return new ReportContentImpl( 1, Collections.singletonMap( 0, new byte[ size ] ) );
+  }
+
+  @Test
+  public void testByteBoundedEviction() {
+    final MemoryCacheBackend backend = new MemoryCacheBackend( 10000 );
+    final List<List<String>> evicted = new ArrayList<>();
+    backend.setEvictionListener( ( key, value, metaData ) -> evicted.add( key ) );
+
+    assertTrue( backend.write( Arrays.asList( "session", "a" ), content( 4000 ), null ) );
+    assertTrue( backend.write( Arrays.asList( "session", "b" ), content( 4000 ), null ) );
+    // touch "a", so "b" is the least recently used one
+    assertNotNull( backend.read( Arrays.asList( "session", "a" ) ) );
+    assertTrue( backend.write( Arrays.asList( "session", "c" ), content( 4000 ), null ) );
+
+    assertNull( backend.read( Arrays.asList( "session", "b" ) ) );
+    assertNotNull( backend.read( Arrays.asList( "session", "a" ) ) );
+    assertEquals( Collections.singletonList( Arrays.asList( "session", "b" ) ), evicted );
+    assertTrue( backend.getBytes() <= 10000 );
+  }
+
+  @Test
+  public void testTooLargeEntry() {
+    final MemoryCacheBackend backend = new MemoryCacheBackend( 10000 );
+    assertFalse( backend.write( Arrays.asList( "session", "a" ), content( 20000 ), null ) );
+    assertEquals( 0, backend.getEntryCount() );
+    assertEquals( 0, backend.getBytes() );
+  }
+
+  @Test
+  public void testPurge() {
+    final MemoryCacheBackend backend = new MemoryCacheBackend();
+    backend.write( Arrays.asList( "session", "1", "a" ), "a", null );
+    backend.write( Arrays.asList( "session", "2", "a" ), "a", null );
+    backend.purge( Arrays.asList( "session", "1" ) );
+    assertNull( backend.read( Arrays.asList( "session", "1", "a" ) ) );
+    assertEquals( "a", backend.read( Arrays.asList( "session", "2", "a" ) ) );
+    backend.purge( Collections.singletonList( "session" ) );
+    assertEquals( 0, backend.getEntryCount() );
+    assertEquals( 0, backend.getBytes() );
+  }
+
+  @Test
+  public void testPurgeSegment() {
+    final MemoryCacheBackend backend = new MemoryCacheBackend();
+    final Map<String, Serializable> old = new HashMap<>();
+    old.put( "timestamp", 1L );
+    backend.write( Arrays.asList( "long_term", "user", "old" ), "a", old );
+    backend.write( Arrays.asList( "long_term", "user", "new" ), "a", new HashMap<>() );
+    backend.purgeSegment( Collections.singletonList( "long_term" ), ( k, md ) -> md.containsKey( "timestamp" ) );
+    assertNull( backend.read( Arrays.asList( "long_term", "user", "old" ) ) );
+    assertEquals( "a", backend.read( Arrays.asList( "long_term", "user", "new" ) ) );
+  }
+
+  @Test
+  public void testSanitizedKeys() {
+    final MemoryCacheBackend backend = new MemoryCacheBackend();
+    backend.write( Arrays.asList( "long_term", "a/b" ), "a", null );
+    assertEquals( "a", backend.read( Arrays.asList( "long_term", "a_b" ) ) );
+  }
+}
@@ -0,0 +1,146 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MetaDataCodecTest {
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    final char[] longText = new char[ 70000 ];
+    Arrays.fill( longText, 'x' );
+    final Map<String, Serializable> metaData = new HashMap<>();
+    metaData.put( "null", null );
+    metaData.put( "string", "value" );
+    metaData.put( "long-string", new String( longText ) );
+    metaData.put( "boolean", true );
+    metaData.put( "integer", 42 );
+    metaData.put( "long", 42L );
+    metaData.put( "double", 0.5 );
+    metaData.put( "bytes", new byte[] { 1, 2, 3 } );
+    metaData.put( "date", new Date( 1000 ) );
+
+    final byte[] data = MetaDataCodec.encode( metaData );
+    assertTrue( MetaDataCodec.isEncoded( data ) );
+    final Map<String, Serializable> decoded = MetaDataCodec.decode( data );
+
+    assertEquals( metaData.size(), decoded.size() );
+    assertTrue( decoded.containsKey( "null" ) );
+    assertNull( decoded.get( "null" ) );
+    assertEquals( "value", decoded.get( "string" ) );
+    assertEquals( 70000, ( (String) decoded.get( "long-string" ) ).length() );
+    assertEquals( Boolean.TRUE, decoded.get( "boolean" ) );
+    assertEquals( 42, decoded.get( "integer" ) );
+    assertEquals( 42L, decoded.get( "long" ) );
+    assertEquals( 0.5, decoded.get( "double" ) );
+    assertArrayEquals( new byte[] { 1, 2, 3 }, (byte[]) decoded.get( "bytes" ) );
+    assertEquals( new Date( 1000 ), decoded.get( "date" ) );
+  }
+
+  @Test
+  public void testDecodeField() throws Exception {
+    final Map<String, Serializable> metaData = new HashMap<>();
+    metaData.put( "ReportRows", 100 );
+    metaData.put( "IsQueryLimitReached", false );
+    metaData.put( "Timestamp", 123L );
+    final byte[] data = MetaDataCodec.encode( metaData );
+
+    assertEquals( 100, MetaDataCodec.decodeField( data, "ReportRows" ) );
+    assertEquals( Boolean.FALSE, MetaDataCodec.decodeField( data, "IsQueryLimitReached" ) );
+    assertEquals( 123L, MetaDataCodec.decodeField( data, "Timestamp" ) );
+    assertNull( MetaDataCodec.decodeField( data, "missing" ) );
+  }
+
+  @Test
+  public void testDecodeFieldSkipsOtherValues() throws Exception {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream( bytes );
+    out.writeInt( MetaDataCodec.MAGIC );
+    out.writeInt( MetaDataCodec.VERSION );
+    out.writeInt( 2 );
+    writeName( out, "broken" );
+    out.writeByte( MetaDataCodec.SERIALIZED );
+    out.writeInt( 3 );
+    out.write( new byte[] { 1, 2, 3 } );
+    writeName( out, "rows" );
+    out.writeByte( MetaDataCodec.INTEGER );
+    out.writeInt( 7 );
+    final byte[] data = bytes.toByteArray();
+
+    // the serialized value is never deserialized
+    assertEquals( 7, MetaDataCodec.decodeField( data, "rows" ) );
+    try {
+      MetaDataCodec.decode( data );
+      fail();
+    } catch ( final IOException e ) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testLegacyMetaData() throws Exception {
+    final HashMap<String, Serializable> metaData = new HashMap<>();
+    metaData.put( "ReportRows", 100 );
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try ( final ObjectOutputStream oos = new ObjectOutputStream( bytes ) ) {
+      oos.writeObject( metaData );
+    }
+    final byte[] data = bytes.toByteArray();
+
+    assertFalse( MetaDataCodec.isEncoded( data ) );
+    assertEquals( metaData, MetaDataCodec.decode( data ) );
+    assertEquals( 100, MetaDataCodec.decodeField( data, "ReportRows" ) );
+  }
+
+  @Test
+  public void testUnsupportedVersion() throws Exception {
+    final byte[] data = MetaDataCodec.encode( new HashMap<>() );
+    data[ 7 ] = (byte) ( MetaDataCodec.VERSION + 1 );
+    try {
+      MetaDataCodec.decode( data );
+      fail();
+    } catch ( final IOException e ) {
+      assertTrue( e.getMessage().contains( "version" ) );
+    }
+  }
+
+  private static void writeName( final DataOutputStream out, final String name ) throws IOException {
+    final byte[] data = name.getBytes( StandardCharsets.UTF_8 );
+    out.writeInt( data.length );
+    out.write( data );
+  }
+}
@@ -0,0 +1,167 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OffHeapCacheBackendTest {
+
+  private static byte[] bytes( final int size, final int seed ) {
+    final byte[] result = new byte[ size ];
+    for ( int i = 0; i < size; i++ ) {
+      result[ i ] = (byte) ( i * 31 + seed );
+    }
+    return result;
+  }
+
+  private static IReportContent content( final int... pageSizes ) {
+    final Map<Integer, byte[]> pages = new HashMap<>();
+    for ( int i = 0; i < pageSizes.length; i++ ) {
+      pages.put( i, bytes( pageSizes[ i ], i ) );
+    }
+    return new ReportContentImpl( pageSizes.length + 1, pages );
+  }
+
+  @Test
+  public void testWriteRead() throws Exception {
+    final OffHeapCacheBackend backend = new OffHeapCacheBackend( 64 * 1024, 16 * 1024, 1024 );
+    assertTrue( backend.write( Arrays.asList( "session", "a" ), content( 2500, 0, 1024 ), null ) );
+
+    final IStreamableReportContent result = (IStreamableReportContent) backend.read( Arrays.asList( "session", "a" ) );
+    assertEquals( 4, result.getPageCount() );
+    assertEquals( 3, result.getStoredPageCount() );
+    assertArrayEquals( bytes( 2500, 0 ), result.getPageData( 0 ) );
+    assertArrayEquals( new byte[ 0 ], result.getPageData( 1 ) );
+    assertArrayEquals( bytes( 1024, 2 ), result.getPageData( 2 ) );
+    assertNull( result.getPageData( 3 ) );
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertTrue( result.writePageTo( 0, out ) );
+    assertArrayEquals( bytes( 2500, 0 ), out.toByteArray() );
+    assertEquals( 2500, result.getPageLength( 0 ) );
+    assertEquals( -1, result.getPageLength( 3 ) );
+  }
+
+  @Test
+  public void testPlainValue() {
+    final OffHeapCacheBackend backend = new OffHeapCacheBackend( 64 * 1024, 16 * 1024, 1024 );
+    final Map<String, Serializable> metaData = new HashMap<>();
+    metaData.put( "rows", 10 );
+    assertTrue( backend.write( Arrays.asList( "session", "a" ), "value", metaData ) );
+    assertEquals( "value", backend.read( Arrays.asList( "session", "a" ) ) );
+    assertEquals( 10, backend.readMetaData( Arrays.asList( "session", "a" ) ).get( "rows" ) );
+  }
+
+  @Test
+  public void testEvictionAndBlockReuse() {
+    final OffHeapCacheBackend backend = new OffHeapCacheBackend( 16 * 1024, 8 * 1024, 1024 );
+    final List<List<String>> evicted = new ArrayList<>();
+    backend.setEvictionListener( ( key, value, metaData ) -> {
+      // the evicted content is still readable while the listener runs
+      assertArrayEquals( bytes( 6000, 0 ), ( (IReportContent) value ).getPageData( 0 ) );
+      evicted.add( key );
+    } );
+    backend.write( Arrays.asList( "session", "a" ), content( 6000 ), null );
+    backend.write( Arrays.asList( "session", "b" ), content( 6000 ), null );
+    assertNotNull( backend.read( Arrays.asList( "session", "a" ) ) );
+    backend.write( Arrays.asList( "session", "c" ), content( 6000 ), null );
+
+    assertEquals( Collections.singletonList( Arrays.asList( "session", "b" ) ), evicted );
+    assertNull( backend.read( Arrays.asList( "session", "b" ) ) );
+    final OffHeapCacheBackend.SlabStats stats = backend.getStats();
+    assertEquals( 2, stats.getSlabCount() );
+    assertEquals( 2, stats.getEntryCount() );
+    assertEquals( 12000, stats.getStoredBytes() );
+    assertEquals( 12, stats.getUsedBlocks() );
+    assertEquals( 1, stats.getEvictions() );
+    assertEquals( 12 * 1024 - 12000, stats.getWastedBytes() );
+  }
+
+  @Test
+  public void testTooLargeEntry() {
+    final OffHeapCacheBackend backend = new OffHeapCacheBackend( 16 * 1024, 8 * 1024, 1024 );
+    backend.write( Arrays.asList( "session", "a" ), content( 1000 ), null );
+    assertFalse( backend.write( Arrays.asList( "session", "b" ), content( 20000 ), null ) );
+    assertEquals( 1, backend.getStats().getUsedBlocks() );
+  }
+
+  @Test
+  public void testPinnedViewSurvivesPurge() throws Exception {
+    final OffHeapCacheBackend backend = new OffHeapCacheBackend( 16 * 1024, 8 * 1024, 1024 );
+    backend.write( Arrays.asList( "session", "a" ), content( 3000 ), null );
+    final IStreamableReportContent view = (IStreamableReportContent) backend.read( Arrays.asList( "session", "a" ) );
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream() {
+      @Override public synchronized void write( final byte[] b, final int off, final int len ) {
+        // purge and reuse the blocks while the page is being written
+        backend.purge( Collections.singletonList( "session" ) );
+        backend.write( Arrays.asList( "session", "b" ), content( 13 * 1024 ), null );
+        super.write( b, off, len );
+      }
+    };
+    assertTrue( view.writePageTo( 0, out ) );
+    assertArrayEquals( bytes( 3000, 0 ), out.toByteArray() );
+
+    // the purged entry is reported as missing, its blocks are free again
+    assertNull( view.getPageData( 0 ) );
+    assertFalse( view.writePageTo( 0, new ByteArrayOutputStream() ) );
+    assertTrue( backend.write( Arrays.asList( "session", "c" ), content( 3000 ), null ) );
+  }
+
+  @Test
+  public void testPurgeSegment() {
+    final OffHeapCacheBackend backend = new OffHeapCacheBackend();
+    final Map<String, Serializable> old = new HashMap<>();
+    old.put( "timestamp", 1L );
+    backend.write( Arrays.asList( "long_term", "user", "old" ), content( 100 ), old );
+    backend.write( Arrays.asList( "long_term", "user", "new" ), content( 100 ), new HashMap<>() );
+    backend.purgeSegment( Collections.singletonList( "long_term" ), ( k, md ) -> md.containsKey( "timestamp" ) );
+    assertNull( backend.read( Arrays.asList( "long_term", "user", "old" ) ) );
+    assertNotNull( backend.read( Arrays.asList( "long_term", "user", "new" ) ) );
+    assertEquals( 1, backend.getStats().getUsedBlocks() );
+  }
+
+  @Test
+  public void testSlabFragmentation() {
+    final OffHeapCacheBackend backend = new OffHeapCacheBackend( 16 * 1024, 8 * 1024, 1024 );
+    backend.write( Arrays.asList( "session", "a" ), content( 4096 ), null );
+    backend.write( Arrays.asList( "session", "b" ), content( 4096 ), null );
+    assertEquals( 0, backend.getStats().getSlabFragmentation(), 0.0001 );
+    backend.purge( Arrays.asList( "session", "a" ) );
+    final OffHeapCacheBackend.SlabStats stats = backend.getStats();
+    assertEquals( 1, stats.getSlabCount() );
+    assertEquals( 1, stats.getPartiallyUsedSlabs() );
+    assertEquals( 1, stats.getSlabFragmentation(), 0.0001 );
+  }
+}
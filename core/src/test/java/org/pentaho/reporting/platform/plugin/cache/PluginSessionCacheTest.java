@@ -18,6 +18,7 @@
 package org.pentaho.reporting.platform.plugin.cache;
 
 import junit.framework.Assert;
+import org.apache.commons.lang.StringUtils;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -25,6 +26,8 @@ import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
 import org.pentaho.platform.engine.core.system.StandaloneSession;
 
+import java.io.File;
+import java.io.Serializable;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -109,5 +112,38 @@ public class PluginSessionCacheTest {
     assertNull( cache.get( SOME_KEY ) );
   }
 
+  @Test
+  public void testInvalidate() throws Exception {
+    final StandaloneSession session = new StandaloneSession( "test", "100500" );
+    final StandaloneSession session1 = new StandaloneSession( "test1", "100501" );
+    final IReportContentCache cache = new PluginSessionCache( fileSystemCacheBackend );
+    final Map<String, Serializable> metaData = new HashMap<>();
+    metaData.put( ReportVersionCache.REPORT_SOURCE, "/public/report.prpt" );
+    PentahoSessionHolder.setSession( session );
+    cache.put( SOME_KEY, SOME_VALUE, metaData );
+    cache.put( "other", SOME_VALUE );
+    PentahoSessionHolder.setSession( session1 );
+    cache.put( SOME_KEY, SOME_VALUE, metaData );
+
+    cache.invalidate( ReportVersionCache.REPORT_SOURCE, "/public/report.prpt" );
+    assertNull( cache.get( SOME_KEY ) );
+    PentahoSessionHolder.setSession( session );
+    assertNull( cache.get( SOME_KEY ) );
+    assertNotNull( cache.get( "other" ) );
+  }
+
+  @Test
+  public void testInvalidateWithoutMetaData() throws Exception {
+    final StandaloneSession session = new StandaloneSession( "test", "100502" );
+    final PluginSessionCache cache = new PluginSessionCache( fileSystemCacheBackend );
+    PentahoSessionHolder.setSession( session );
+    cache.put( SOME_KEY, SOME_VALUE );
+    final File metaDataFile = new File( fileSystemCacheBackend.getSystemTmp() + "/test-cache/"
+      + StringUtils.join( cache.computeKey( SOME_KEY ), File.separator ) + FileSystemCacheBackend.METADATA );
+    assertTrue( metaDataFile.delete() );
+
+    cache.invalidate( ReportVersionCache.REPORT_SOURCE, "/public/report.prpt" );
+    assertNotNull( cache.get( SOME_KEY ) );
+  }
 
 }
@@ -0,0 +1,268 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RemoteCacheBackendTest {
+
+  private static final String HOST = InetAddress.getLoopbackAddress().getHostAddress();
+  private static final List<String> KEY = Arrays.asList( "long_term", "user", "report" );
+
+  private MemoryCacheBackend storage;
+  private RemoteCacheServer server;
+  private final List<RemoteCacheBackend> clients = new ArrayList<>();
+
+  @Before
+  public void setUp() throws Exception {
+    storage = new MemoryCacheBackend();
+    server = new RemoteCacheServer( storage );
+    server.setPort( 0 );
+    server.start();
+  }
+
+  @After
+  public void tearDown() {
+    for ( final RemoteCacheBackend client : clients ) {
+      client.shutdown();
+    }
+    server.shutdown();
+  }
+
+  private RemoteCacheBackend client( final boolean nearCache ) {
+    final RemoteCacheBackend client = new RemoteCacheBackend( HOST, server.getPort() );
+    if ( !nearCache ) {
+      client.setNearCacheMaxBytes( 0 );
+    }
+    clients.add( client );
+    return client;
+  }
+
+  private static Map<String, Serializable> metaData( final String name, final Serializable value ) {
+    final Map<String, Serializable> metaData = new HashMap<>();
+    metaData.put( name, value );
+    return metaData;
+  }
+
+  @Test
+  public void testSharedBetweenClients() {
+    final RemoteCacheBackend nodeA = client( false );
+    final RemoteCacheBackend nodeB = client( false );
+    final IReportContent content = new ReportContentImpl( 2, Collections.singletonMap( 0, new byte[] { 1, 2, 3 } ) );
+
+    assertTrue( nodeA.write( KEY, (Serializable) content, metaData( "ReportRows", 10 ) ) );
+
+    final IReportContent read = (IReportContent) nodeB.read( KEY );
+    assertNotNull( read );
+    assertEquals( 2, read.getPageCount() );
+    assertTrue( Arrays.equals( new byte[] { 1, 2, 3 }, read.getPageData( 0 ) ) );
+    assertEquals( 10, nodeB.readMetaData( KEY ).get( "ReportRows" ) );
+    assertNotNull( storage.read( KEY ) );
+
+    assertTrue( nodeB.purge( KEY ) );
+    assertNull( nodeA.read( KEY ) );
+    assertNull( nodeA.readMetaData( KEY ) );
+  }
+
+  @Test
+  public void testNearCache() {
+    final RemoteCacheBackend nodeA = client( true );
+    final RemoteCacheBackend nodeB = client( false );
+    assertTrue( nodeA.write( KEY, "value", new HashMap<>() ) );
+    final long calls = nodeA.getRemoteCallCount();
+
+    assertEquals( "value", nodeA.read( KEY ) );
+    assertTrue( nodeA.readMetaData( KEY ).isEmpty() );
+    assertEquals( calls, nodeA.getRemoteCallCount() );
+    assertEquals( 2, nodeA.getNearHitCount() );
+
+    // changes of other nodes are seen once the near cache entry expires
+    nodeB.purge( KEY );
+    assertEquals( "value", nodeA.read( KEY ) );
+    nodeA.setNearCacheTtlMillis( -1 );
+    assertNull( nodeA.read( KEY ) );
+  }
+
+  @Test
+  public void testPurgeSegment() {
+    final RemoteCacheBackend client = client( true );
+    for ( int i = 0; i < 5; i++ ) {
+      client.write( Arrays.asList( "long_term", "user", "report" + i ), "value" + i, metaData( "index", i ) );
+    }
+    client.write( Arrays.asList( "session", "id", "report" ), "session", metaData( "index", 0 ) );
+
+    client.purgeSegment( Collections.singletonList( "long_term" ), ( k, m ) -> (Integer) m.get( "index" ) % 2 == 0 );
+
+    for ( int i = 0; i < 5; i++ ) {
+      final List<String> key = Arrays.asList( "long_term", "user", "report" + i );
+      if ( i % 2 == 0 ) {
+        assertNull( client.read( key ) );
+        assertNull( storage.read( key ) );
+      } else {
+        assertEquals( "value" + i, client.read( key ) );
+      }
+    }
+    assertEquals( "session", storage.read( Arrays.asList( "session", "id", "report" ) ) );
+    assertEquals( 0, client.getFailureCount() );
+    assertEquals( 1, client.getIdleConnectionCount() );
+  }
+
+  @Test
+  public void testSecret() throws Exception {
+    server.shutdown();
+    server.setSecret( "secret" );
+    server.start();
+    final RemoteCacheBackend intruder = client( false );
+    assertFalse( intruder.write( KEY, "value", new HashMap<>() ) );
+    assertEquals( 1, intruder.getFailureCount() );
+    assertNull( storage.read( KEY ) );
+
+    final RemoteCacheBackend client = client( false );
+    client.setSecret( "secret" );
+    assertTrue( client.write( KEY, "value", new HashMap<>() ) );
+  }
+
+  @Test
+  public void testDisallowedClassKeepsConnection() {
+    final RemoteCacheBackend client = client( false );
+    assertFalse( client.write( KEY, new AtomicLong( 1 ), new HashMap<>() ) );
+    assertNull( storage.read( KEY ) );
+    assertTrue( client.write( KEY, "value", new HashMap<>() ) );
+    assertEquals( 1, client.getIdleConnectionCount() );
+
+    assertTrue( RemoteCacheProtocol.isAllowed( "[B" ) );
+    assertTrue( RemoteCacheProtocol.isAllowed( "[Ljava.lang.String;" ) );
+    assertTrue( RemoteCacheProtocol.isAllowed( "java.util.Collections$SingletonMap" ) );
+    assertTrue( RemoteCacheProtocol.isAllowed( ReportContentImpl.class.getName() ) );
+    assertFalse( RemoteCacheProtocol.isAllowed( "java.lang.reflect.Proxy" ) );
+    assertFalse( RemoteCacheProtocol.isAllowed( "org.apache.commons.collections.functors.InvokerTransformer" ) );
+  }
+
+  @Test
+  public void testReconnect() throws Exception {
+    server.setIdleTimeoutSeconds( 1 );
+    final RemoteCacheBackend client = client( false );
+    assertTrue( client.write( KEY, "value", new HashMap<>() ) );
+    final long deadline = System.currentTimeMillis() + 5000;
+    while ( server.getConnectionCount() > 0 && System.currentTimeMillis() < deadline ) {
+      Thread.sleep( 50 );
+    }
+    assertEquals( 0, server.getConnectionCount() );
+
+    // the pooled connection was closed by the server, the request is retried on a new one
+    assertEquals( "value", client.read( KEY ) );
+    assertEquals( 0, client.getFailureCount() );
+  }
+
+  @Test
+  public void testServerUnavailable() throws Exception {
+    final int port;
+    try ( final ServerSocket socket = new ServerSocket( 0 ) ) {
+      port = socket.getLocalPort();
+    }
+    final RemoteCacheBackend client = new RemoteCacheBackend( HOST, port );
+    clients.add( client );
+    assertNull( client.read( KEY ) );
+    assertFalse( client.write( KEY, "value", new HashMap<>() ) );
+    // the server is not tried again until the retry interval passed
+    assertEquals( 1, client.getRemoteCallCount() );
+    assertEquals( 1, client.getFailureCount() );
+  }
+
+  @Test
+  public void testConcurrentClients() throws Exception {
+    final RemoteCacheBackend client = client( false );
+    client.setMaxConnections( 2 );
+    final ExecutorService executor = Executors.newFixedThreadPool( 8 );
+    try {
+      final List<Future<Boolean>> results = new ArrayList<>();
+      for ( int i = 0; i < 8; i++ ) {
+        final List<String> key = Arrays.asList( "long_term", "user", "report" + i );
+        final String value = "value" + i;
+        results.add( executor.submit( () -> {
+          for ( int j = 0; j < 20; j++ ) {
+            if ( !client.write( key, value, new HashMap<>() ) || !value.equals( client.read( key ) ) ) {
+              return false;
+            }
+          }
+          return true;
+        } ) );
+      }
+      for ( final Future<Boolean> result : results ) {
+        assertTrue( result.get() );
+      }
+    } finally {
+      executor.shutdown();
+    }
+    assertTrue( client.getIdleConnectionCount() <= 2 );
+    assertEquals( 0, client.getFailureCount() );
+  }
+
+  @Test
+  public void testReadMetaDataField() throws Exception {
+    server.shutdown();
+    server = new RemoteCacheServer( new FieldOnlyCacheBackend() );
+    server.setPort( 0 );
+    server.start();
+    final RemoteCacheBackend client = client( false );
+    assertTrue( client.write( KEY, "value", metaData( "field", 42L ) ) );
+    assertEquals( 42L, client.readMetaDataField( KEY, "field" ) );
+    assertNull( client.readMetaDataField( KEY, "missing" ) );
+    assertNull( client.readMetaDataField( Arrays.asList( "long_term", "user", "missing" ), "field" ) );
+  }
+
+  @Test
+  public void testNonLoopbackBindNeedsSecret() throws Exception {
+    final RemoteCacheServer exposed = new RemoteCacheServer( storage );
+    exposed.setPort( 0 );
+    exposed.setBindAddress( "" );
+    exposed.setSecret( "changeit" );
+    try {
+      exposed.start();
+      fail( "started without a strong secret" );
+    } catch ( final IllegalStateException e ) {
+      // expected
+    }
+    exposed.setSecret( "0123456789abcdef" );
+    exposed.start();
+    exposed.shutdown();
+  }
+}
@@ -0,0 +1,195 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ReportContentFileTest {
+
+  private File file;
+
+  @Before
+  public void setUp() throws Exception {
+    file = File.createTempFile( "report-content", ".data" );
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  private static IReportContent content( final int pageCount, final int storedPages ) {
+    final Map<Integer, byte[]> pages = new HashMap<>();
+    for ( int i = 0; i < storedPages; i++ ) {
+      pages.put( i, ( "page-" + i ).getBytes() );
+    }
+    return new ReportContentImpl( pageCount, pages );
+  }
+
+  @Test
+  public void testWriteOpen() throws Exception {
+    ReportContentFile.write( content( 10, 3 ), file );
+    assertTrue( ReportContentFile.isReportContentFile( file ) );
+
+    final FileReportContent result = ReportContentFile.open( file );
+    assertEquals( 10, result.getPageCount() );
+    assertEquals( 3, result.getStoredPageCount() );
+    assertArrayEquals( "page-0".getBytes(), result.getPageData( 0 ) );
+    assertArrayEquals( "page-2".getBytes(), result.getPageData( 2 ) );
+    assertNull( result.getPageData( 3 ) );
+    assertNull( result.getPageData( -1 ) );
+  }
+
+  @Test
+  public void testEncodedContent() throws Exception {
+    final IReportContent compressed =
+      CompressedReportContent.compress( content( 10, 3 ), PageCodec.DEFLATE_DICTIONARY );
+    ReportContentFile.write( compressed, file );
+
+    final FileReportContent result = ReportContentFile.open( file );
+    assertEquals( PageCodec.DEFLATE_DICTIONARY, result.getCodec() );
+    assertArrayEquals( "page-1".getBytes(), result.getPageData( 1 ) );
+    assertEquals( 6, result.getPageLength( 1 ) );
+    assertArrayEquals( ( (IEncodedReportContent) compressed ).getEncodedPageData( 1 ),
+      result.getEncodedPageData( 1 ) );
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertTrue( result.writePageTo( 2, out ) );
+    assertArrayEquals( "page-2".getBytes(), out.toByteArray() );
+
+    // copies stay encoded
+    final CompressedReportContent copy = CompressedReportContent.copyOf( result );
+    assertArrayEquals( result.getEncodedPageData( 0 ), copy.getEncodedPageData( 0 ) );
+    assertArrayEquals( "page-0".getBytes(), copy.getPageData( 0 ) );
+  }
+
+  @Test
+  public void testVersion1File() throws Exception {
+    final byte[] page = "page-0".getBytes();
+    final ByteBuffer buffer = ByteBuffer.allocate( ReportContentFile.HEADER_SIZE + page.length + 8 + 16 );
+    buffer.putInt( ReportContentFile.MAGIC ).putInt( 1 ).putLong( 42L )
+      .putLong( ReportContentFile.HEADER_SIZE + page.length );
+    buffer.put( page );
+    buffer.putInt( 2 ).putInt( 1 ).putInt( 0 ).putLong( ReportContentFile.HEADER_SIZE ).putInt( page.length );
+    Files.write( file.toPath(), buffer.array() );
+
+    assertTrue( ReportContentFile.isReportContentFile( file ) );
+    final FileReportContent result = ReportContentFile.open( file );
+    assertEquals( PageCodec.IDENTITY, result.getCodec() );
+    assertEquals( 2, result.getPageCount() );
+    assertArrayEquals( page, result.getPageData( 0 ) );
+  }
+
+  @Test
+  public void testWritePageTo() throws Exception {
+    ReportContentFile.write( content( 10, 3 ), file );
+    final FileReportContent result = ReportContentFile.open( file );
+    assertEquals( 6, result.getPageLength( 1 ) );
+    assertEquals( -1, result.getPageLength( 3 ) );
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertTrue( result.writePageTo( 1, out ) );
+    assertArrayEquals( "page-1".getBytes(), out.toByteArray() );
+    assertFalse( result.writePageTo( 3, out ) );
+
+    ReportContentFile.write( content( 10, 3 ), file );
+    assertFalse( result.writePageTo( 1, out ) );
+  }
+
+  @Test
+  public void testReplacedEntry() throws Exception {
+    ReportContentFile.write( content( 10, 3 ), file );
+    final FileReportContent old = ReportContentFile.open( file );
+    ReportContentFile.write( content( 10, 5 ), file );
+    assertNull( old.getPageData( 0 ) );
+    assertEquals( 5, ReportContentFile.open( file ).getStoredPageCount() );
+  }
+
+  @Test
+  public void testPurgedEntry() throws Exception {
+    ReportContentFile.write( content( 1, 1 ), file );
+    final FileReportContent result = ReportContentFile.open( file );
+    assertTrue( file.delete() );
+    assertNull( result.getPageData( 0 ) );
+  }
+
+  @Test
+  public void testSerializedAsDetachedCopy() throws Exception {
+    ReportContentFile.write( content( 4, 2 ), file );
+    final ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    try ( final ObjectOutputStream out = new ObjectOutputStream( bout ) ) {
+      out.writeObject( ReportContentFile.open( file ) );
+    }
+    try ( final ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( bout.toByteArray() ) ) ) {
+      final IReportContent copy = (IReportContent) in.readObject();
+      assertTrue( copy instanceof ReportContentImpl );
+      assertEquals( 4, copy.getPageCount() );
+      assertArrayEquals( "page-1".getBytes(), copy.getPageData( 1 ) );
+    }
+  }
+
+  @Test
+  public void testAppend() throws Exception {
+    ReportContentFile.write( CompressedReportContent.compress( content( 10, 2 ), PageCodec.DEFLATE_DICTIONARY ), file );
+    final FileReportContent before = ReportContentFile.open( file );
+
+    assertTrue( ReportContentFile.append( content( 12, 5 ), file ) );
+    final FileReportContent result = ReportContentFile.open( file );
+    assertEquals( PageCodec.DEFLATE_DICTIONARY, result.getCodec() );
+    assertEquals( 12, result.getPageCount() );
+    assertEquals( 5, result.getStoredPageCount() );
+    assertArrayEquals( "page-0".getBytes(), result.getPageData( 0 ) );
+    assertArrayEquals( "page-4".getBytes(), result.getPageData( 4 ) );
+
+    // readers opened before the append still see their prefix
+    assertArrayEquals( "page-1".getBytes(), before.getPageData( 1 ) );
+    assertNull( before.getPageData( 2 ) );
+  }
+
+  @Test
+  public void testAppendRejected() throws Exception {
+    final Map<Integer, byte[]> gapped = new HashMap<>();
+    gapped.put( 0, "page-0".getBytes() );
+    gapped.put( 2, "page-2".getBytes() );
+    ReportContentFile.write( new ReportContentImpl( 4, gapped ), file );
+    assertFalse( ReportContentFile.append( content( 4, 4 ), file ) );
+    assertArrayEquals( "page-2".getBytes(), ReportContentFile.open( file ).getPageData( 2 ) );
+  }
+
+  @Test
+  public void testPlainFileIsNotPaged() throws Exception {
+    assertFalse( ReportContentFile.isReportContentFile( file ) );
+  }
+}
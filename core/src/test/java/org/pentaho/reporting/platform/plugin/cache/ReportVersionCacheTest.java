@@ -0,0 +1,180 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import org.junit.Test;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ReportVersionCacheTest {
+
+  private static final String REPORT = "/public/report.prpt";
+
+  @Test
+  public void testVersionIsCached() {
+    final ReportVersionCache cache = new TestVersionCache();
+    final AtomicInteger loads = new AtomicInteger();
+    assertEquals( Long.valueOf( 1 ), cache.getVersion( REPORT, () -> (long) loads.incrementAndGet() ) );
+    assertEquals( Long.valueOf( 1 ), cache.getVersion( REPORT, () -> (long) loads.incrementAndGet() ) );
+    assertEquals( 1, loads.get() );
+    assertEquals( 1, cache.getHitCount() );
+    assertEquals( 1, cache.getMissCount() );
+  }
+
+  @Test
+  public void testFailedLoadIsNotCached() {
+    final ReportVersionCache cache = new TestVersionCache();
+    assertNull( cache.getVersion( REPORT, () -> null ) );
+    assertEquals( 0, cache.getEntryCount() );
+    assertEquals( Long.valueOf( 2 ), cache.getVersion( REPORT, () -> 2L ) );
+  }
+
+  @Test
+  public void testInvalidate() {
+    final TestVersionCache cache = new TestVersionCache();
+    cache.getVersion( REPORT, () -> 1L );
+    cache.invalidate( REPORT );
+
+    assertEquals( 0, cache.getEntryCount() );
+    assertEquals( 1, cache.purged.size() );
+    assertEquals( REPORT, cache.purged.get( 0 ) );
+    assertEquals( Long.valueOf( 2 ), cache.getVersion( REPORT, () -> 2L ) );
+  }
+
+  @Test
+  public void testLoadOverlappingInvalidationIsNotStored() {
+    final ReportVersionCache cache = new TestVersionCache();
+    assertEquals( Long.valueOf( 1 ), cache.getVersion( REPORT, () -> {
+      cache.invalidate( REPORT );
+      return 1L;
+    } ) );
+    assertEquals( 0, cache.getEntryCount() );
+  }
+
+  @Test
+  public void testRevalidate() {
+    final TestVersionCache cache = new TestVersionCache();
+    cache.repository.put( REPORT, 1L );
+    cache.repository.put( "/public/other.prpt", 5L );
+    cache.getVersion( REPORT, () -> 1L );
+    cache.getVersion( "/public/other.prpt", () -> 5L );
+
+    cache.revalidate();
+    assertTrue( cache.purged.isEmpty() );
+
+    cache.repository.put( REPORT, 2L );
+    cache.getVersion( REPORT, () -> 3L );
+    cache.revalidate();
+    assertEquals( 1, cache.purged.size() );
+    assertEquals( REPORT, cache.purged.get( 0 ) );
+    assertEquals( 1, cache.getChangeCount() );
+    assertEquals( Long.valueOf( 2 ), cache.getVersion( REPORT, () -> 3L ) );
+
+    // unreadable repository keeps the known version and checks it again
+    cache.repository.remove( REPORT );
+    cache.revalidate();
+    assertEquals( 1, cache.purged.size() );
+    cache.repository.put( REPORT, 4L );
+    cache.revalidate();
+    assertEquals( 2, cache.purged.size() );
+  }
+
+  @Test
+  public void testRevalidateOnlyChecksUsedReports() {
+    final TestVersionCache cache = new TestVersionCache();
+    cache.setMaxChecksPerRevalidation( 1 );
+    cache.repository.put( "a", 1L );
+    cache.repository.put( "b", 1L );
+    cache.getVersion( "a", () -> 1L );
+    cache.getVersion( "b", () -> 1L );
+    cache.repository.put( "a", 2L );
+    cache.repository.put( "b", 2L );
+
+    cache.revalidate();
+    assertEquals( 1, cache.lookups.get() );
+    assertEquals( 1, cache.purged.size() );
+    assertEquals( "a", cache.purged.get( 0 ) );
+    // the rest is checked by the next run
+    cache.revalidate();
+    assertEquals( 2, cache.lookups.get() );
+    assertEquals( "b", cache.purged.get( 1 ) );
+
+    // nothing was used since
+    cache.revalidate();
+    assertEquals( 2, cache.lookups.get() );
+    cache.getVersion( "a", () -> 3L );
+    cache.revalidate();
+    assertEquals( 3, cache.lookups.get() );
+  }
+
+  @Test
+  public void testMaxEntries() {
+    final ReportVersionCache cache = new TestVersionCache();
+    cache.setMaxEntries( 2 );
+    cache.getVersion( "a", () -> 1L );
+    cache.getVersion( "b", () -> 1L );
+    cache.getVersion( "a", () -> 2L );
+    cache.getVersion( "c", () -> 1L );
+
+    assertEquals( 2, cache.getEntryCount() );
+    assertEquals( Long.valueOf( 1 ), cache.getVersion( "a", () -> 2L ) );
+    assertEquals( Long.valueOf( 2 ), cache.getVersion( "b", () -> 2L ) );
+  }
+
+  @Test
+  public void testIsCurrent() {
+    final TestVersionCache cache = new TestVersionCache();
+    cache.repository.put( REPORT, 2L );
+    final Map<String, Serializable> metaData = new HashMap<>();
+    assertFalse( cache.isCurrent( metaData ) );
+
+    metaData.put( ReportVersionCache.REPORT_SOURCE, REPORT );
+    metaData.put( ReportVersionCache.REPORT_VERSION, 1L );
+    assertFalse( cache.isCurrent( metaData ) );
+    metaData.put( ReportVersionCache.REPORT_VERSION, 2L );
+    assertTrue( cache.isCurrent( metaData ) );
+
+    metaData.put( ReportVersionCache.REPORT_SOURCE, "/public/deleted.prpt" );
+    assertFalse( cache.isCurrent( metaData ) );
+  }
+
+  private static class TestVersionCache extends ReportVersionCache {
+    private final Map<String, Long> repository = new HashMap<>();
+    private final List<String> purged = new ArrayList<>();
+    private final AtomicInteger lookups = new AtomicInteger();
+
+    @Override protected Long loadVersion( final String path ) {
+      lookups.incrementAndGet();
+      return repository.get( path );
+    }
+
+    @Override protected void purgeContent( final String path ) {
+      purged.add( path );
+    }
+  }
+}
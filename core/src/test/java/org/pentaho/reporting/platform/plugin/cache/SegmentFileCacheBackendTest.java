@@ -0,0 +1,245 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SegmentFileCacheBackendTest {
+
+  private static final List<String> KEY = Arrays.asList( "session", "id344324", "file1.html" );
+  private static final String VALUE = "SerializableObject";
+
+  private String cachePath;
+  private SegmentFileCacheBackend backend;
+
+  @Before
+  public void setUp() {
+    cachePath = "/test-segment-cache-" + UUID.randomUUID() + "/";
+    backend = create();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    backend.shutdown();
+    FileUtils.deleteDirectory( new File( System.getProperty( "java.io.tmpdir" ), cachePath ) );
+  }
+
+  private SegmentFileCacheBackend create() {
+    final SegmentFileCacheBackend result = new SegmentFileCacheBackend();
+    result.setCachePath( cachePath );
+    result.setCompactionIntervalSeconds( 0 );
+    result.setMaxSegmentSize( 1024 );
+    return result;
+  }
+
+  @Test
+  public void testWriteRead() {
+    final HashMap<String, Serializable> metaData = new HashMap<>();
+    metaData.put( "timestamp", 1L );
+    assertTrue( backend.write( KEY, VALUE, metaData ) );
+    assertEquals( VALUE, backend.read( KEY ) );
+    assertEquals( 1L, backend.readMetaData( KEY ).get( "timestamp" ) );
+    assertNull( backend.read( Arrays.asList( "session", "other" ) ) );
+  }
+
+  @Test
+  public void testOverwrite() {
+    assertTrue( backend.write( KEY, VALUE, null ) );
+    assertTrue( backend.write( KEY, "other", null ) );
+    assertEquals( "other", backend.read( KEY ) );
+  }
+
+  @Test
+  public void testPurgePrefix() {
+    assertTrue( backend.write( KEY, VALUE, null ) );
+    final List<String> other = Arrays.asList( "long_term", "user", "file1.html" );
+    assertTrue( backend.write( other, VALUE, null ) );
+    assertTrue( backend.purge( Arrays.asList( "session", "id344324" ) ) );
+    assertNull( backend.read( KEY ) );
+    assertEquals( VALUE, backend.read( other ) );
+  }
+
+  @Test
+  public void testPurgeSegment() {
+    final List<String> old = Arrays.asList( "long_term", "user", "old" );
+    final HashMap<String, Serializable> oldMeta = new HashMap<>();
+    oldMeta.put( "timestamp", 1L );
+    backend.write( old, VALUE, oldMeta );
+    final List<String> fresh = Arrays.asList( "long_term", "user", "fresh" );
+    final HashMap<String, Serializable> freshMeta = new HashMap<>();
+    freshMeta.put( "timestamp", 2L );
+    backend.write( fresh, VALUE, freshMeta );
+
+    backend.purgeSegment( Collections.singletonList( "long_term" ),
+      ( key, md ) -> Long.valueOf( 1L ).equals( md.get( "timestamp" ) ) );
+    assertNull( backend.read( old ) );
+    assertEquals( VALUE, backend.read( fresh ) );
+  }
+
+  @Test
+  public void testRecovery() {
+    backend.write( KEY, VALUE, null );
+    final List<String> purged = Arrays.asList( "session", "gone", "file1.html" );
+    backend.write( purged, VALUE, null );
+    backend.purge( Arrays.asList( "session", "gone" ) );
+    backend.shutdown();
+
+    backend = create();
+    assertEquals( VALUE, backend.read( KEY ) );
+    assertNull( backend.read( purged ) );
+  }
+
+  @Test
+  public void testCompaction() {
+    final List<String> purged = Arrays.asList( "session", "gone", "file1.html" );
+    backend.write( purged, VALUE, null );
+    backend.purge( Arrays.asList( "session", "gone" ) );
+    for ( int i = 0; i < 50; i++ ) {
+      backend.write( KEY, VALUE + i, null );
+    }
+    final int before = backend.getSegmentCount();
+    assertTrue( before > 2 );
+    backend.compact();
+    assertTrue( backend.getSegmentCount() < before );
+    assertEquals( VALUE + 49, backend.read( KEY ) );
+
+    backend.shutdown();
+    backend = create();
+    assertEquals( VALUE + 49, backend.read( KEY ) );
+    assertNull( backend.read( purged ) );
+  }
+
+  @Test
+  public void testTombstoneLiveness() {
+    final List<String> purged = Arrays.asList( "session", "gone", "file1.html" );
+    backend.write( purged, VALUE, null );
+    for ( int i = 0; i < 20; i++ ) {
+      backend.write( KEY, VALUE + i, null );
+    }
+    // the purged record is in an older segment, the tombstone has to shadow it
+    backend.purge( Arrays.asList( "session", "gone" ) );
+    assertEquals( 1, backend.getLiveTombstoneCount() );
+    // shadows nothing
+    backend.purge( Arrays.asList( "session", "unknown" ) );
+    assertEquals( 1, backend.getLiveTombstoneCount() );
+    for ( int i = 20; i < 40; i++ ) {
+      backend.write( KEY, VALUE + i, null );
+    }
+
+    backend.compact();
+    // the tombstone went with the purged record, only the active segment is left
+    assertEquals( 0, backend.getLiveTombstoneCount() );
+    assertEquals( 1, backend.getSegmentCount() );
+    assertEquals( VALUE + 39, backend.read( KEY ) );
+
+    backend.shutdown();
+    backend = create();
+    assertEquals( VALUE + 39, backend.read( KEY ) );
+    assertNull( backend.read( purged ) );
+    assertEquals( 0, backend.getLiveTombstoneCount() );
+  }
+
+  @Test
+  public void testTombstoneCarried() {
+    final List<String> purged = Arrays.asList( "session", "gone", "file1.html" );
+    backend.write( purged, VALUE, null );
+    // the first segment stays mostly live, so it is not compacted
+    for ( int i = 0; backend.getSegmentCount() == 1; i++ ) {
+      backend.write( Arrays.asList( "session", "live", "file" + i ), VALUE, null );
+    }
+    backend.purge( Arrays.asList( "session", "gone" ) );
+    for ( int i = 0; backend.getSegmentCount() < 4; i++ ) {
+      backend.write( KEY, VALUE + i, null );
+    }
+
+    backend.compact();
+    assertEquals( 1, backend.getLiveTombstoneCount() );
+    backend.shutdown();
+    backend = create();
+    assertNull( backend.read( purged ) );
+    assertEquals( 1, backend.getLiveTombstoneCount() );
+  }
+
+  @Test
+  public void testNullValue() {
+    assertTrue( backend.write( null, null, null ) );
+    assertNull( backend.read( null ) );
+    final Map<String, Serializable> metaData = backend.readMetaData( null );
+    assertNotNull( metaData );
+    assertTrue( metaData.isEmpty() );
+  }
+
+  @Test
+  public void testBrokenDirectoryIsEmpty() throws Exception {
+    final File file = new File( System.getProperty( "java.io.tmpdir" ), "test-segment-file-" + UUID.randomUUID() );
+    assertTrue( file.createNewFile() );
+    final SegmentFileCacheBackend broken = new SegmentFileCacheBackend();
+    broken.setCachePath( file.getName() + "/cache/" );
+    broken.setCompactionIntervalSeconds( 0 );
+    try {
+      assertFalse( broken.write( KEY, VALUE, null ) );
+      assertNull( broken.read( KEY ) );
+      assertNull( broken.readMetaData( KEY ) );
+      assertFalse( broken.purge( KEY ) );
+      broken.purgeSegment( Collections.singletonList( "session" ), ( key, md ) -> true );
+      broken.compact();
+    } finally {
+      broken.shutdown();
+      assertTrue( file.delete() );
+    }
+  }
+
+  @Test
+  public void testPurgeOnlyAffectsPrefix() {
+    final List<String> sibling = Arrays.asList( "session", "id344324x", "file1.html" );
+    final List<String> parent = Arrays.asList( "session", "id344324" );
+    final List<String> nested = Arrays.asList( "session", "id344324", "dir", "file2.html" );
+    assertTrue( backend.write( KEY, VALUE, null ) );
+    assertTrue( backend.write( sibling, VALUE, null ) );
+    assertTrue( backend.write( parent, VALUE, null ) );
+    assertTrue( backend.write( nested, VALUE, null ) );
+    assertTrue( backend.purge( parent ) );
+    assertNull( backend.read( KEY ) );
+    assertNull( backend.read( parent ) );
+    assertNull( backend.read( nested ) );
+    assertEquals( VALUE, backend.read( sibling ) );
+
+    backend.shutdown();
+    backend = create();
+    assertNull( backend.read( nested ) );
+    assertEquals( VALUE, backend.read( sibling ) );
+  }
+}
@@ -0,0 +1,199 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ShardedFileSystemCacheBackendTest {
+
+  private static final List<String> KEY = Arrays.asList( "session", "id344324", "file1.html" );
+  private static final String VALUE = "SerializableObject";
+
+  private String cachePath;
+  private ShardedFileSystemCacheBackend backend;
+
+  @Before
+  public void setUp() {
+    cachePath = "/test-sharded-cache-" + UUID.randomUUID() + "/";
+    backend = create();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    FileUtils.deleteDirectory( new File( System.getProperty( "java.io.tmpdir" ), cachePath ) );
+  }
+
+  private ShardedFileSystemCacheBackend create() {
+    final ShardedFileSystemCacheBackend result = new ShardedFileSystemCacheBackend();
+    result.setCachePath( cachePath );
+    return result;
+  }
+
+  @Test
+  public void testWriteRead() {
+    final HashMap<String, Serializable> metaData = new HashMap<>();
+    metaData.put( "timestamp", 1L );
+    assertTrue( backend.write( KEY, VALUE, metaData ) );
+    assertEquals( VALUE, backend.read( KEY ) );
+    assertEquals( 1L, backend.readMetaData( KEY ).get( "timestamp" ) );
+    assertEquals( 1L, backend.readMetaDataField( KEY, "timestamp" ) );
+    assertNull( backend.read( Arrays.asList( "session", "other" ) ) );
+    assertNull( backend.readMetaData( Arrays.asList( "session", "other" ) ) );
+  }
+
+  @Test
+  public void testLayout() {
+    assertTrue( backend.write( KEY, VALUE, null ) );
+    final File data = backend.getEntryFile( KEY, ShardedFileSystemCacheBackend.DATA );
+    assertTrue( data.exists() );
+    assertEquals( 32 + ShardedFileSystemCacheBackend.DATA.length(), data.getName().length() );
+    final File entries = new File( new File( System.getProperty( "java.io.tmpdir" ), cachePath ),
+      ShardedFileSystemCacheBackend.ENTRIES );
+    File dir = data.getParentFile();
+    for ( int i = 0; i < ShardedFileSystemCacheBackend.FAN_OUT_DEPTH; i++ ) {
+      assertEquals( 2, dir.getName().length() );
+      dir = dir.getParentFile();
+    }
+    assertEquals( entries.getAbsoluteFile(), dir.getAbsoluteFile() );
+
+    // components are length-prefixed
+    assertNotEquals( ShardedFileSystemCacheBackend.hash( Arrays.asList( "ab", "c" ) ),
+      ShardedFileSystemCacheBackend.hash( Arrays.asList( "a", "bc" ) ) );
+    assertEquals( ShardedFileSystemCacheBackend.hash( KEY ), ShardedFileSystemCacheBackend.hash( KEY ) );
+  }
+
+  @Test
+  public void testAppend() {
+    final HashMap<Integer, byte[]> pages = new HashMap<>();
+    pages.put( 0, "page-0".getBytes() );
+    assertTrue( backend.write( KEY, new ReportContentImpl( 5, pages ), null ) );
+    pages.put( 1, "page-1".getBytes() );
+    final HashMap<String, Serializable> metaData = new HashMap<>();
+    metaData.put( "rows", 20 );
+    assertTrue( backend.append( KEY, new ReportContentImpl( 5, pages ), metaData ) );
+
+    final IReportContent result = (IReportContent) backend.read( KEY );
+    assertEquals( 2, result.getStoredPageCount() );
+    assertEquals( "page-1", new String( result.getPageData( 1 ) ) );
+    assertEquals( 20, backend.readMetaData( KEY ).get( "rows" ) );
+    assertFalse( backend.append( Arrays.asList( "session", "missing" ), new ReportContentImpl( 5, pages ), metaData ) );
+  }
+
+  @Test
+  public void testPurge() {
+    assertTrue( backend.write( KEY, VALUE, null ) );
+    final List<String> other = Arrays.asList( "session", "id344324", "file2.html" );
+    assertTrue( backend.write( other, VALUE, null ) );
+    assertTrue( backend.purge( KEY ) );
+    assertNull( backend.read( KEY ) );
+    assertEquals( VALUE, backend.read( other ) );
+    assertTrue( backend.purge( Arrays.asList( "session", "missing" ) ) );
+    assertEquals( 0, backend.getLockCount() );
+  }
+
+  @Test
+  public void testPurgePrefix() {
+    assertTrue( backend.write( KEY, VALUE, null ) );
+    final List<String> nested = Arrays.asList( "session", "id344324", "sub", "file1.html" );
+    assertTrue( backend.write( nested, VALUE, null ) );
+    final List<String> other = Arrays.asList( "long_term", "user", "file1.html" );
+    assertTrue( backend.write( other, VALUE, null ) );
+    assertTrue( backend.purge( Collections.singletonList( "session" ) ) );
+    assertNull( backend.read( KEY ) );
+    assertNull( backend.read( nested ) );
+    assertEquals( VALUE, backend.read( other ) );
+
+    // written again after the segment was dropped
+    assertTrue( backend.write( KEY, VALUE, null ) );
+    assertTrue( backend.purge( Collections.<String>emptyList() ) );
+    assertNull( backend.read( KEY ) );
+    assertNull( backend.read( other ) );
+    assertEquals( 0, backend.getLockCount() );
+  }
+
+  @Test
+  public void testPurgeSegment() {
+    final List<String> old = Arrays.asList( "long_term", "user", "old" );
+    final HashMap<String, Serializable> oldMeta = new HashMap<>();
+    oldMeta.put( "timestamp", 1L );
+    backend.write( old, VALUE, oldMeta );
+    final List<String> fresh = Arrays.asList( "long_term", "user", "fresh" );
+    final HashMap<String, Serializable> freshMeta = new HashMap<>();
+    freshMeta.put( "timestamp", 2L );
+    backend.write( fresh, VALUE, freshMeta );
+
+    backend.purgeSegment( Collections.singletonList( "long_term" ), ( key, md ) -> {
+      assertTrue( key.equals( old ) || key.equals( fresh ) );
+      return Long.valueOf( 1L ).equals( md.get( "timestamp" ) );
+    } );
+    assertNull( backend.read( old ) );
+    assertEquals( VALUE, backend.read( fresh ) );
+  }
+
+  @Test
+  public void testManifestRecovery() {
+    backend.write( KEY, VALUE, null );
+    final List<String> purged = Arrays.asList( "session", "gone", "file1.html" );
+    backend.write( purged, VALUE, null );
+    backend.purge( Arrays.asList( "session", "gone" ) );
+
+    // manifests are read back from disk
+    backend = create();
+    assertEquals( VALUE, backend.read( KEY ) );
+    assertNull( backend.read( purged ) );
+    assertTrue( backend.purge( Collections.singletonList( "session" ) ) );
+    assertNull( backend.read( KEY ) );
+  }
+
+  @Test
+  public void testManifestCompaction() {
+    final List<String> segment = Arrays.asList( "session", "id344324" );
+    for ( int i = 0; i < 200; i++ ) {
+      final List<String> key = Arrays.asList( "session", "id344324", "file" + i );
+      assertTrue( backend.write( key, VALUE, null ) );
+      if ( i > 0 ) {
+        assertTrue( backend.purge( Arrays.asList( "session", "id344324", "file" + ( i - 1 ) ) ) );
+      }
+    }
+    // one live record after compaction and fewer than the compaction threshold after it
+    assertTrue( backend.getManifestFile( segment ).length() < 64 * 16 );
+
+    backend = create();
+    final List<List<String>> visited = new ArrayList<>();
+    backend.purgeSegment( segment, ( key, md ) -> visited.add( key ) );
+    assertEquals( Collections.singletonList( Arrays.asList( "session", "id344324", "file199" ) ), visited );
+  }
+}
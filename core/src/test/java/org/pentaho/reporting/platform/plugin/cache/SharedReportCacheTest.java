@@ -0,0 +1,98 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.platform.api.engine.IPentahoSession;
+import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
+import org.pentaho.platform.engine.core.system.StandaloneSession;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class SharedReportCacheTest {
+
+  private static final String SOME_KEY = "some_key";
+  private static final IReportContent SOME_VALUE =
+    new ReportContentImpl( 1, Collections.singletonMap( 0, new byte[] { 1, 3, 4, 5 } ) );
+  private static FileSystemCacheBackend fileSystemCacheBackend;
+
+  @BeforeClass
+  public static void setUp() {
+    fileSystemCacheBackend = new FileSystemCacheBackend();
+    fileSystemCacheBackend.setCachePath( "/test-cache/" );
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    fileSystemCacheBackend.purge( Collections.singletonList( "" ) );
+    PentahoSessionHolder.removeSession();
+  }
+
+  @Test
+  public void testSameProfileIsShared() {
+    final SharedReportCache cache = createCache();
+    PentahoSessionHolder.setSession( new StandaloneSession( "bill" ) );
+    cache.put( SOME_KEY, SOME_VALUE );
+    PentahoSessionHolder.setSession( new StandaloneSession( "steve" ) );
+    assertNotNull( cache.get( SOME_KEY ) );
+    PentahoSessionHolder.setSession( new StandaloneSession( "admin" ) );
+    assertNull( cache.get( SOME_KEY ) );
+  }
+
+  @Test
+  public void testTenantIsPartOfTheProfile() {
+    final SharedReportCache cache = createCache();
+    final IPentahoSession bill = new StandaloneSession( "bill" );
+    final IPentahoSession other = new StandaloneSession( "bill" );
+    other.setAttribute( IPentahoSession.TENANT_ID_KEY, "other" );
+    assertNotEquals( cache.computeOwner( bill ), cache.computeOwner( other ) );
+  }
+
+  @Test
+  public void testKeySegment() {
+    PentahoSessionHolder.setSession( new StandaloneSession( "bill" ) );
+    final List<String> key = createCache().computeKey( SOME_KEY );
+    assertEquals( "shared", key.get( 0 ) );
+    assertEquals( SOME_KEY, key.get( 2 ) );
+  }
+
+  private static SharedReportCache createCache() {
+    final SharedReportCache cache = new SharedReportCache( fileSystemCacheBackend ) {
+      @Override protected List<String> getSecurityProfile( final IPentahoSession session ) {
+        final List<String> profile = "admin".equals( session.getName() )
+          ? Arrays.asList( "role:Administrator", "role:Authenticated" )
+          : Collections.singletonList( "role:Authenticated" );
+        final Object tenant = session.getAttribute( IPentahoSession.TENANT_ID_KEY );
+        return tenant == null ? profile : Arrays.asList( "tenant:" + tenant, profile.get( 0 ) );
+      }
+    };
+    cache.setSweepIntervalSeconds( 0 );
+    cache.setDaysToLive( 1L );
+    return cache;
+  }
+}
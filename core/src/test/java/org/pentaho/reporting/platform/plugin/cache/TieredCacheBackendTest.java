@@ -0,0 +1,181 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TieredCacheBackendTest {
+
+  private static final List<String> KEY = Arrays.asList( "long_term", "user", "report" );
+  private static FileSystemCacheBackend fileSystemCacheBackend;
+
+  private MemoryCacheBackend hot;
+  private TieredCacheBackend backend;
+
+  @BeforeClass
+  public static void setUpClass() {
+    fileSystemCacheBackend = new FileSystemCacheBackend();
+    fileSystemCacheBackend.setCachePath( "/test-tiered-cache/" );
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    assertTrue( fileSystemCacheBackend.purge( Collections.singletonList( "" ) ) );
+  }
+
+  @Before
+  public void setUp() {
+    fileSystemCacheBackend.purge( Collections.singletonList( "" ) );
+    hot = new MemoryCacheBackend( 100000 );
+    backend = new TieredCacheBackend( hot, fileSystemCacheBackend );
+  }
+
+  private static IReportContent content() {
+    return new ReportContentImpl( 2, Collections.singletonMap( 0, new byte[] { 1, 2, 3 } ) );
+  }
+
+  @Test
+  public void testWriteThrough() {
+    assertTrue( backend.write( KEY, content(), new HashMap<>() ) );
+    assertNotNull( hot.read( KEY ) );
+    assertNotNull( fileSystemCacheBackend.read( KEY ) );
+  }
+
+  @Test
+  public void testPromotion() {
+    fileSystemCacheBackend.write( KEY, content(), new HashMap<>() );
+    assertNull( hot.read( KEY ) );
+
+    final IReportContent result = (IReportContent) backend.read( KEY );
+    assertArrayEquals( new byte[] { 1, 2, 3 }, result.getPageData( 0 ) );
+    final Serializable promoted = hot.read( KEY );
+    assertTrue( promoted instanceof ReportContentImpl );
+    assertEquals( 2, ( (IReportContent) promoted ).getPageCount() );
+  }
+
+  @Test
+  public void testPurgeBothTiers() {
+    backend.write( KEY, content(), new HashMap<>() );
+    backend.purge( Arrays.asList( "long_term", "user" ) );
+    assertNull( hot.read( KEY ) );
+    assertNull( fileSystemCacheBackend.read( KEY ) );
+    assertNull( backend.read( KEY ) );
+  }
+
+  @Test
+  public void testPurgeSegmentBothTiers() {
+    final Map<String, Serializable> old = new HashMap<>();
+    old.put( "timestamp", 1L );
+    backend.write( KEY, content(), old );
+    final List<String> fresh = Arrays.asList( "long_term", "user", "fresh" );
+    backend.write( fresh, content(), new HashMap<>() );
+
+    backend.purgeSegment( Collections.singletonList( "long_term" ), ( k, md ) -> md.containsKey( "timestamp" ) );
+    assertNull( hot.read( KEY ) );
+    assertNull( backend.read( KEY ) );
+    assertNotNull( hot.read( fresh ) );
+    assertNotNull( backend.read( fresh ) );
+  }
+
+  @Test
+  public void testOffHeapHotTier() {
+    final OffHeapCacheBackend offHeap = new OffHeapCacheBackend( 64 * 1024, 16 * 1024, 1024 );
+    final TieredCacheBackend tiered = new TieredCacheBackend( offHeap, fileSystemCacheBackend );
+    fileSystemCacheBackend.write( KEY, content(), new HashMap<>() );
+
+    assertTrue( tiered.read( KEY ) instanceof FileReportContent );
+    assertNotNull( offHeap.read( KEY ) );
+    final Serializable promoted = tiered.read( KEY );
+    assertTrue( promoted instanceof IStreamableReportContent );
+    assertArrayEquals( new byte[] { 1, 2, 3 }, ( (IReportContent) promoted ).getPageData( 0 ) );
+    tiered.purge( KEY );
+    assertNull( offHeap.read( KEY ) );
+  }
+
+  @Test
+  public void testDemotionOfUnpersistedEntry() {
+    final MemoryCacheBackend cold = new MemoryCacheBackend();
+    final ICacheBackend failing = new ICacheBackend() {
+      private boolean fail = true;
+
+      @Override public boolean write( final List<String> key, final Serializable value,
+                                      final Map<String, Serializable> metaData ) {
+        if ( fail ) {
+          fail = false;
+          return false;
+        }
+        return cold.write( key, value, metaData );
+      }
+
+      @Override public Serializable read( final List<String> key ) {
+        return cold.read( key );
+      }
+
+      @Override public Map<String, Serializable> readMetaData( final List<String> key ) {
+        return cold.readMetaData( key );
+      }
+
+      @Override public boolean purge( final List<String> key ) {
+        return cold.purge( key );
+      }
+
+      @Override public void purgeSegment( final List<String> key,
+                                          final BiPredicate<List<String>, Map<String, Serializable>> p ) {
+        cold.purgeSegment( key, p );
+      }
+    };
+    final MemoryCacheBackend small = new MemoryCacheBackend( 3000 );
+    final TieredCacheBackend tiered = new TieredCacheBackend( small, failing );
+    assertTrue( tiered.write( KEY, new byte[ 1000 ], null ) );
+    assertNull( cold.read( KEY ) );
+    // pushes the first entry out of the hot tier
+    tiered.write( Arrays.asList( "long_term", "user", "other" ), new byte[ 1000 ], null );
+    assertNull( small.read( KEY ) );
+    assertNotNull( cold.read( KEY ) );
+  }
+
+  @Test
+  public void testReadMetaDataField() {
+    final FieldOnlyCacheBackend fieldHot = new FieldOnlyCacheBackend();
+    final FieldOnlyCacheBackend fieldCold = new FieldOnlyCacheBackend();
+    final TieredCacheBackend tiered = new TieredCacheBackend( fieldHot, fieldCold );
+    final HashMap<String, Serializable> metaData = new HashMap<>();
+    metaData.put( "field", 42L );
+    assertTrue( tiered.write( KEY, content(), metaData ) );
+    assertEquals( 42L, tiered.readMetaDataField( KEY, "field" ) );
+    // the cold tier answers once the entry fell out of the hot one
+    fieldHot.purge( KEY );
+    assertEquals( 42L, tiered.readMetaDataField( KEY, "field" ) );
+  }
+}
@@ -0,0 +1,264 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+
+package org.pentaho.reporting.platform.plugin.cache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class WriteBehindCacheBackendTest {
+
+  private static final List<String> BLOCKING = Arrays.asList( "long_term", "user", "blocking" );
+  private static final List<String> KEY = Arrays.asList( "long_term", "user", "report" );
+  private static final List<String> OTHER = Arrays.asList( "long_term", "user", "other" );
+
+  private CountDownLatch writeStarted;
+  private CountDownLatch release;
+  private MemoryCacheBackend delegate;
+  private WriteBehindCacheBackend backend;
+
+  @Before
+  public void setUp() {
+    writeStarted = new CountDownLatch( 1 );
+    release = new CountDownLatch( 1 );
+    delegate = new MemoryCacheBackend() {
+      @Override
+      public boolean write( final List<String> key, final Serializable value,
+                            final Map<String, Serializable> metaData ) {
+        if ( BLOCKING.equals( key ) ) {
+          writeStarted.countDown();
+          try {
+            release.await( 10, TimeUnit.SECONDS );
+          } catch ( final InterruptedException e ) {
+            Thread.currentThread().interrupt();
+          }
+        }
+        return super.write( key, value, metaData );
+      }
+    };
+    backend = new WriteBehindCacheBackend( delegate );
+    backend.setQueueCapacity( 1 );
+  }
+
+  @After
+  public void tearDown() {
+    release.countDown();
+    backend.shutdown();
+  }
+
+  private void blockWriter() throws InterruptedException {
+    assertTrue( backend.write( BLOCKING, "blocking", new HashMap<>() ) );
+    assertTrue( writeStarted.await( 10, TimeUnit.SECONDS ) );
+  }
+
+  private void releaseWriter() throws InterruptedException {
+    release.countDown();
+    assertTrue( backend.flush( 10, TimeUnit.SECONDS ) );
+  }
+
+  @Test
+  public void testServedFromMemoryUntilWritten() throws Exception {
+    blockWriter();
+    final Map<String, Serializable> metaData = new HashMap<>();
+    metaData.put( "rows", 10 );
+    assertTrue( backend.write( KEY, "value", metaData ) );
+
+    assertEquals( "value", backend.read( KEY ) );
+    assertEquals( 10, backend.readMetaData( KEY ).get( "rows" ) );
+    assertNull( delegate.read( KEY ) );
+    assertEquals( 2, backend.getPendingCount() );
+    assertEquals( 1, backend.getQueueDepth() );
+
+    releaseWriter();
+    assertEquals( "value", delegate.read( KEY ) );
+    assertEquals( 0, backend.getPendingCount() );
+    assertEquals( 2, backend.getWrittenCount() );
+    assertTrue( backend.getMaxWriteMillis() > 0 );
+  }
+
+  @Test
+  public void testCoalescing() throws Exception {
+    blockWriter();
+    assertTrue( backend.write( KEY, "first", new HashMap<>() ) );
+    backend.setOverloadPolicy( WriteBehindCacheBackend.OverloadPolicy.DROP );
+    // the queue is full, but the queued write persists the latest value
+    assertTrue( backend.write( KEY, "second", new HashMap<>() ) );
+
+    releaseWriter();
+    assertEquals( "second", delegate.read( KEY ) );
+    assertEquals( 1, backend.getCoalescedCount() );
+  }
+
+  @Test
+  public void testDrop() throws Exception {
+    backend.setOverloadPolicy( WriteBehindCacheBackend.OverloadPolicy.DROP );
+    blockWriter();
+    assertTrue( backend.write( KEY, "value", new HashMap<>() ) );
+    assertFalse( backend.write( OTHER, "other", new HashMap<>() ) );
+    assertNull( backend.read( OTHER ) );
+    assertEquals( 1, backend.getDroppedCount() );
+
+    releaseWriter();
+    assertNull( delegate.read( OTHER ) );
+  }
+
+  @Test
+  public void testStatistics() throws Exception {
+    backend.setName( "test-write-behind" );
+    backend.setOverloadPolicy( WriteBehindCacheBackend.OverloadPolicy.DROP );
+    blockWriter();
+    assertTrue( backend.write( KEY, "value", new HashMap<>() ) );
+    assertFalse( backend.write( OTHER, "other", new HashMap<>() ) );
+    final Map<String, Object> statistics = CacheStatistics.get( "test-write-behind" ).toMap();
+    assertEquals( 1, statistics.get( "queueDepth" ) );
+    assertEquals( 2, statistics.get( "pending" ) );
+    assertEquals( 1L, statistics.get( "dropped" ) );
+
+    releaseWriter();
+    assertEquals( 2L, CacheStatistics.get( "test-write-behind" ).toMap().get( "written" ) );
+  }
+
+  @Test
+  public void testBlockTimeout() throws Exception {
+    backend.setBlockTimeoutMillis( 50 );
+    blockWriter();
+    assertTrue( backend.write( KEY, "value", new HashMap<>() ) );
+    assertFalse( backend.write( OTHER, "other", new HashMap<>() ) );
+    assertEquals( 1, backend.getDroppedCount() );
+  }
+
+  @Test
+  public void testCoalescedIntoDroppedWrite() throws Exception {
+    backend.setBlockTimeoutMillis( 500 );
+    blockWriter();
+    assertTrue( backend.write( OTHER, "other", new HashMap<>() ) );
+    // the queue is full, the first write of the key waits for space
+    final boolean[] first = new boolean[ 1 ];
+    final Thread writer = new Thread( () -> first[ 0 ] = backend.write( KEY, "first", new HashMap<>() ) );
+    writer.start();
+    while ( backend.read( KEY ) == null ) {
+      Thread.sleep( 5 );
+    }
+    // coalesced into the waiting write
+    assertTrue( backend.write( KEY, "second", new HashMap<>() ) );
+    writer.join( 10000 );
+
+    // the coalesced write is persisted by the writer that couldn't queue it
+    assertTrue( first[ 0 ] );
+    assertEquals( "second", delegate.read( KEY ) );
+    assertEquals( 1, backend.getCallerRunsCount() );
+    releaseWriter();
+    assertEquals( 0, backend.getPendingCount() );
+    assertEquals( "second", delegate.read( KEY ) );
+  }
+
+  @Test
+  public void testCallerRuns() throws Exception {
+    backend.setOverloadPolicy( WriteBehindCacheBackend.OverloadPolicy.CALLER_RUNS );
+    blockWriter();
+    assertTrue( backend.write( KEY, "value", new HashMap<>() ) );
+    assertTrue( backend.write( OTHER, "other", new HashMap<>() ) );
+    assertEquals( "other", delegate.read( OTHER ) );
+    assertEquals( 1, backend.getCallerRunsCount() );
+  }
+
+  @Test
+  public void testPurgeWhilePending() throws Exception {
+    blockWriter();
+    assertTrue( backend.write( KEY, "value", new HashMap<>() ) );
+    assertTrue( backend.purge( Collections.singletonList( "long_term" ) ) );
+    assertNull( backend.read( KEY ) );
+
+    releaseWriter();
+    assertNull( delegate.read( KEY ) );
+    assertNull( delegate.read( BLOCKING ) );
+  }
+
+  @Test
+  public void testPurgeSegmentWhilePending() throws Exception {
+    blockWriter();
+    final Map<String, Serializable> metaData = new HashMap<>();
+    metaData.put( "stale", true );
+    assertTrue( backend.write( KEY, "value", metaData ) );
+    backend.purgeSegment( Collections.singletonList( "long_term" ), ( k, m ) -> m.containsKey( "stale" ) );
+    assertNull( backend.read( KEY ) );
+
+    releaseWriter();
+    assertNull( delegate.read( KEY ) );
+    assertEquals( "blocking", delegate.read( BLOCKING ) );
+  }
+
+  @Test
+  public void testAppend() throws Exception {
+    final FileSystemCacheBackend fileSystemCacheBackend = new FileSystemCacheBackend();
+    fileSystemCacheBackend.setCachePath( "/test-write-behind-cache/" );
+    final WriteBehindCacheBackend appendable = new WriteBehindCacheBackend( fileSystemCacheBackend );
+    try {
+      final Map<Integer, byte[]> pages = new HashMap<>();
+      pages.put( 0, new byte[] { 1 } );
+      assertTrue( appendable.write( KEY, new ReportContentImpl( 3, pages ), new HashMap<>() ) );
+      assertTrue( appendable.flush( 10, TimeUnit.SECONDS ) );
+      pages.put( 1, new byte[] { 2 } );
+      assertTrue( appendable.append( KEY, new ReportContentImpl( 3, pages ), new HashMap<>() ) );
+      assertEquals( 2, ( (IReportContent) appendable.read( KEY ) ).getStoredPageCount() );
+    } finally {
+      appendable.shutdown();
+      fileSystemCacheBackend.purge( Collections.singletonList( "" ) );
+    }
+  }
+
+  @Test
+  public void testShutdown() throws Exception {
+    assertTrue( backend.write( KEY, "value", new HashMap<>() ) );
+    backend.shutdown();
+    assertEquals( "value", delegate.read( KEY ) );
+
+    assertTrue( backend.write( OTHER, "other", new HashMap<>() ) );
+    assertEquals( "other", delegate.read( OTHER ) );
+  }
+
+  @Test
+  public void testReadMetaDataField() throws Exception {
+    final WriteBehindCacheBackend writeBehind = new WriteBehindCacheBackend( new FieldOnlyCacheBackend() );
+    try {
+      final HashMap<String, Serializable> metaData = new HashMap<>();
+      metaData.put( "field", 42L );
+      assertTrue( writeBehind.write( KEY, "value", metaData ) );
+      assertEquals( 42L, writeBehind.readMetaDataField( KEY, "field" ) );
+      assertTrue( writeBehind.flush( 5, TimeUnit.SECONDS ) );
+      assertEquals( 42L, writeBehind.readMetaDataField( KEY, "field" ) );
+    } finally {
+      writeBehind.shutdown();
+    }
+  }
+}
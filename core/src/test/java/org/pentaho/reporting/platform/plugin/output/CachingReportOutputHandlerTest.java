@@ -0,0 +1,185 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+package org.pentaho.reporting.platform.plugin.output;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
+import org.pentaho.platform.engine.core.system.StandaloneSession;
+import org.pentaho.reporting.engine.classic.core.MasterReport;
+import org.pentaho.reporting.libraries.base.config.Configuration;
+import org.pentaho.reporting.platform.plugin.MicroPlatformFactory;
+import org.pentaho.reporting.platform.plugin.async.IAsyncReportListener;
+import org.pentaho.reporting.platform.plugin.async.ReportListenerThreadHolder;
+import org.pentaho.reporting.platform.plugin.cache.IPluginCacheManager;
+import org.pentaho.reporting.platform.plugin.cache.MemoryCacheBackend;
+import org.pentaho.reporting.platform.plugin.cache.PluginCacheManagerImpl;
+import org.pentaho.reporting.platform.plugin.cache.PluginSessionCache;
+import org.pentaho.test.platform.engine.core.MicroPlatform;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CachingReportOutputHandlerTest {
+
+  private static final byte[] DOCUMENT = "%PDF-1.4 document".getBytes( StandardCharsets.UTF_8 );
+
+  private static MicroPlatform microPlatform;
+  private static MemoryCacheBackend backend;
+
+  private ReportOutputHandler delegate;
+  private MasterReport report;
+
+  @BeforeClass
+  public static void setUpClass() throws Exception {
+    backend = new MemoryCacheBackend();
+    microPlatform = MicroPlatformFactory.create();
+    microPlatform.define( "IPluginCacheManager", new PluginCacheManagerImpl( new PluginSessionCache( backend ) ) );
+    microPlatform.start();
+  }
+
+  @AfterClass
+  public static void tearDownClass() {
+    microPlatform.stop();
+    microPlatform = null;
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    PentahoSessionHolder.setSession( new StandaloneSession( "joe", "joe-id" ) );
+    delegate = mock( ReportOutputHandler.class );
+    doAnswer( invocation -> {
+      ( (OutputStream) invocation.getArguments()[ 2 ] ).write( DOCUMENT );
+      return 0;
+    } ).when( delegate ).generate( any( MasterReport.class ), anyInt(), any( OutputStream.class ), anyInt() );
+    report = mock( MasterReport.class );
+    when( report.getConfiguration() ).thenReturn( mock( Configuration.class ) );
+  }
+
+  @After
+  public void tearDown() {
+    ReportListenerThreadHolder.clear();
+    backend.purge( Collections.singletonList( "session" ) );
+  }
+
+  private CachingReportOutputHandler createHandler( final String key, final int maxContentSize ) {
+    return new CachingReportOutputHandler( delegate, "pageable/pdf" ) {
+      @Override String createKey( final MasterReport r ) {
+        return key;
+      }
+
+      @Override protected int getMaxContentSize() {
+        return maxContentSize;
+      }
+    };
+  }
+
+  @Test
+  public void testCachedDocumentIsServed() throws Exception {
+    final CachingReportOutputHandler handler = createHandler( "key", 1024 );
+
+    final ByteArrayOutputStream first = new ByteArrayOutputStream();
+    handler.generate( report, 0, first, 0 );
+    final ByteArrayOutputStream second = new ByteArrayOutputStream();
+    handler.generate( report, 0, second, 0 );
+
+    assertArrayEquals( DOCUMENT, first.toByteArray() );
+    assertArrayEquals( DOCUMENT, second.toByteArray() );
+    verify( delegate, times( 1 ) ).generate( any( MasterReport.class ), anyInt(), any( OutputStream.class ), anyInt() );
+  }
+
+  @Test
+  public void testOversizedDocumentIsNotCached() throws Exception {
+    final CachingReportOutputHandler handler = createHandler( "key", DOCUMENT.length - 1 );
+
+    handler.generate( report, 0, new ByteArrayOutputStream(), 0 );
+    final ByteArrayOutputStream second = new ByteArrayOutputStream();
+    handler.generate( report, 0, second, 0 );
+
+    assertArrayEquals( DOCUMENT, second.toByteArray() );
+    verify( delegate, times( 2 ) ).generate( any( MasterReport.class ), anyInt(), any( OutputStream.class ), anyInt() );
+  }
+
+  @Test
+  public void testScheduledExecutionBypassesCache() throws Exception {
+    final IAsyncReportListener listener = mock( IAsyncReportListener.class );
+    when( listener.isScheduled() ).thenReturn( true );
+    ReportListenerThreadHolder.setListener( listener );
+    final CachingReportOutputHandler handler = createHandler( "key", 1024 );
+
+    handler.generate( report, 0, new ByteArrayOutputStream(), 0 );
+    handler.generate( report, 0, new ByteArrayOutputStream(), 0 );
+
+    verify( delegate, times( 2 ) ).generate( any( MasterReport.class ), anyInt(), any( OutputStream.class ), anyInt() );
+    assertNull( new PluginSessionCache( backend ).get( "key" ) );
+  }
+
+  @Test
+  public void testQueryLimitFlagIsRestored() throws Exception {
+    final IAsyncReportListener listener = mock( IAsyncReportListener.class );
+    when( listener.isQueryLimitReached() ).thenReturn( true );
+    ReportListenerThreadHolder.setListener( listener );
+    final CachingReportOutputHandler handler = createHandler( "key", 1024 );
+    handler.generate( report, 0, new ByteArrayOutputStream(), 0 );
+
+    final IAsyncReportListener secondListener = mock( IAsyncReportListener.class );
+    ReportListenerThreadHolder.setListener( secondListener );
+    handler.generate( report, 0, new ByteArrayOutputStream(), 0 );
+
+    verify( secondListener ).setIsQueryLimitReached( true );
+  }
+
+  @Test
+  public void testOutputTypeIsStored() throws Exception {
+    createHandler( "key", 1024 ).generate( report, 0, new ByteArrayOutputStream(), 0 );
+
+    final PluginSessionCache cache = new PluginSessionCache( backend );
+    assertEquals( "pageable/pdf", cache.getMetaData( "key", CachingReportOutputHandler.OUTPUT_TYPE ) );
+    assertEquals( DOCUMENT.length, cache.get( "key" ).getPageData( 0 ).length );
+  }
+
+  @Test
+  public void testUncachableReportIsGenerated() throws Exception {
+    final CachingReportOutputHandler handler = createHandler( null, 1024 );
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    handler.generate( report, 0, out, 0 );
+    handler.generate( report, 0, new ByteArrayOutputStream(), 0 );
+
+    assertArrayEquals( DOCUMENT, out.toByteArray() );
+    verify( delegate, times( 2 ) ).generate( any( MasterReport.class ), anyInt(), any( OutputStream.class ), anyInt() );
+    assertTrue( handler.getDelegate() == delegate );
+  }
+}
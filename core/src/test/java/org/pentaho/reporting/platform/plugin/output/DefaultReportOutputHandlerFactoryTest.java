@@ -19,6 +19,8 @@ package org.pentaho.reporting.platform.plugin.output;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.pentaho.reporting.engine.classic.core.AttributeNames;
+import org.pentaho.reporting.engine.classic.core.MasterReport;
 import org.pentaho.reporting.platform.plugin.SimpleReportingAction;
 import org.pentaho.reporting.platform.plugin.messages.Messages;
 
@@ -320,6 +322,37 @@ public class DefaultReportOutputHandlerFactoryTest {
     assertNull( roh.createOutputHandlerForOutputType( selector ) );
   }
 
+  @Test
+  public void testCreateCachingOutputHandler() throws Exception {
+    final MasterReport report = mock( MasterReport.class );
+    when( report.getAttribute( AttributeNames.Pentaho.NAMESPACE, AttributeNames.Pentaho.DYNAMIC_REPORT_CACHE ) )
+      .thenReturn( Boolean.TRUE );
+    final ReportOutputHandlerSelector selector = mock( ReportOutputHandlerSelector.class );
+    when( selector.getReport() ).thenReturn( report );
+
+    when( selector.getOutputType() ).thenReturn( "pageable/pdf" ); //$NON-NLS-1$
+    final ReportOutputHandler pdf = roh.createOutputHandlerForOutputType( selector );
+    assertTrue( pdf instanceof CachingReportOutputHandler );
+    assertTrue( ( (CachingReportOutputHandler) pdf ).getDelegate() instanceof PDFOutput );
+    assertEquals( "pageable/pdf", ( (CachingReportOutputHandler) pdf ).getOutputType() );
+
+    when( selector.getOutputType() ).thenReturn( "pageable/X-AWT-Graphics;image-type=png" ); //$NON-NLS-1$
+    assertTrue( roh.createOutputHandlerForOutputType( selector ) instanceof PNGOutput );
+
+    // templates are not part of the cache key
+    when( selector.getOutputType() ).thenReturn( "table/excel;page-mode=flow" ); //$NON-NLS-1$
+    when( selector.getInput( SimpleReportingAction.XLS_WORKBOOK_PARAM, null, Object.class ) )
+      .thenReturn( new Object() );
+    assertTrue( roh.createOutputHandlerForOutputType( selector ) instanceof XLSOutput );
+    assertFalse( roh.isCacheExportContentEnabled( selector ) );
+
+    when( selector.getInput( SimpleReportingAction.XLS_WORKBOOK_PARAM, null, Object.class ) ).thenReturn( null );
+    when( report.getAttribute( AttributeNames.Pentaho.NAMESPACE, AttributeNames.Pentaho.DYNAMIC_REPORT_CACHE ) )
+      .thenReturn( Boolean.FALSE );
+    when( selector.getOutputType() ).thenReturn( "table/csv;page-mode=stream" ); //$NON-NLS-1$
+    assertTrue( roh.createOutputHandlerForOutputType( selector ) instanceof CSVOutput );
+  }
+
   @Test
   public void htmlNotAvailable() {
     roh.setHtmlPageAvailable( false );
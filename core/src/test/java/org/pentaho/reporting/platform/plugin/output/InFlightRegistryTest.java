@@ -0,0 +1,170 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2024 Hitachi Vantara.  All rights reserved.
+ */
+
+
+package org.pentaho.reporting.platform.plugin.output;
+
+import org.junit.Test;
+import org.pentaho.reporting.platform.plugin.cache.IReportContent;
+import org.pentaho.reporting.platform.plugin.cache.ReportContentImpl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class InFlightRegistryTest {
+
+  private static final long TIMEOUT = 10000;
+
+  @Test
+  public void testWaiterGetsLeaderResult() throws Exception {
+    final InFlightRegistry registry = new InFlightRegistry();
+    final InFlightRegistry.Flight leader = registry.join( "key", TIMEOUT );
+    assertTrue( leader.isLeader() );
+
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      final Future<IReportContent> waiter = executor.submit( () -> {
+        final InFlightRegistry.Flight flight = registry.join( "key", TIMEOUT );
+        assertFalse( flight.isLeader() );
+        return flight.await( -1 );
+      } );
+      final IReportContent content = content( 2 );
+      Thread.sleep( 50 );
+      registry.complete( "key", leader, content );
+      assertSame( content, waiter.get( TIMEOUT, TimeUnit.MILLISECONDS ) );
+      assertEquals( 0, registry.size() );
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testWaiterGetsPublishedPage() throws Exception {
+    final InFlightRegistry registry = new InFlightRegistry();
+    final InFlightRegistry.Flight leader = registry.join( "key", TIMEOUT );
+
+    final ExecutorService executor = Executors.newFixedThreadPool( 2 );
+    try {
+      final Future<IReportContent> firstPage = executor.submit( () -> registry.join( "key", TIMEOUT ).await( 0 ) );
+      final Future<IReportContent> allPages = executor.submit( () -> registry.join( "key", TIMEOUT ).await( -1 ) );
+      final IReportContent partial = content( 1 );
+      Thread.sleep( 50 );
+      leader.publish( partial );
+      assertSame( partial, firstPage.get( TIMEOUT, TimeUnit.MILLISECONDS ) );
+      assertFalse( allPages.isDone() );
+
+      final IReportContent complete = content( 3 );
+      registry.complete( "key", leader, complete );
+      assertSame( complete, allPages.get( TIMEOUT, TimeUnit.MILLISECONDS ) );
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testTimeout() throws Exception {
+    final InFlightRegistry registry = new InFlightRegistry();
+    final InFlightRegistry.Flight stuck = registry.join( "key", 50 );
+
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      final Future<IReportContent> waiter = executor.submit( () -> registry.join( "key", TIMEOUT ).await( 0 ) );
+      assertNull( waiter.get( TIMEOUT, TimeUnit.MILLISECONDS ) );
+
+      //an expired flight is replaced by a new one
+      final InFlightRegistry.Flight next = registry.join( "key", TIMEOUT );
+      assertNotSame( stuck, next );
+      registry.complete( "key", stuck, null );
+      assertEquals( 1, registry.size() );
+      registry.complete( "key", next, null );
+      assertEquals( 0, registry.size() );
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testFailedLeader() throws Exception {
+    final InFlightRegistry registry = new InFlightRegistry();
+    final InFlightRegistry.Flight leader = registry.join( "key", TIMEOUT );
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      final Future<IReportContent> waiter = executor.submit( () -> registry.join( "key", TIMEOUT ).await( 0 ) );
+      Thread.sleep( 50 );
+      registry.complete( "key", leader, null );
+      assertNull( waiter.get( TIMEOUT, TimeUnit.MILLISECONDS ) );
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testStuckLeaderIsReplacedOnce() throws Exception {
+    final InFlightRegistry registry = new InFlightRegistry();
+    final InFlightRegistry.Flight stuck = registry.join( "key", 100 );
+    final AtomicInteger renders = new AtomicInteger();
+    final IReportContent content = content( 2 );
+
+    final ExecutorService executor = Executors.newFixedThreadPool( 5 );
+    try {
+      final List<Future<IReportContent>> waiters = new ArrayList<>();
+      for ( int i = 0; i < 5; i++ ) {
+        waiters.add( executor.submit( () -> registry.coalesce( "key", TIMEOUT, -1, flight -> {
+          renders.incrementAndGet();
+          try {
+            Thread.sleep( 100 );
+          } catch ( final InterruptedException e ) {
+            Thread.currentThread().interrupt();
+          }
+          return content;
+        } ) ) );
+      }
+      for ( final Future<IReportContent> waiter : waiters ) {
+        assertSame( content, waiter.get( TIMEOUT, TimeUnit.MILLISECONDS ) );
+      }
+      //a single waiter took over from the stuck leader
+      assertEquals( 1, renders.get() );
+      registry.complete( "key", stuck, null );
+      assertEquals( 0, registry.size() );
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static IReportContent content( final int pages ) {
+    final Map<Integer, byte[]> data = new HashMap<>();
+    for ( int i = 0; i < pages; i++ ) {
+      data.put( i, new byte[] { (byte) i } );
+    }
+    return new ReportContentImpl( pages, Collections.unmodifiableMap( data ) );
+  }
+}
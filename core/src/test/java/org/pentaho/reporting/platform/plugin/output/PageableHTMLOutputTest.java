@@ -44,10 +44,18 @@ import org.pentaho.reporting.platform.plugin.async.AsyncExecutionStatus;
 import org.pentaho.reporting.platform.plugin.async.IAsyncReportListener;
 import org.pentaho.reporting.platform.plugin.async.ReportListenerThreadHolder;
 import org.pentaho.reporting.platform.plugin.async.TestListener;
+import org.pentaho.reporting.platform.plugin.cache.AdmissionFilterCache;
+import org.pentaho.reporting.platform.plugin.cache.CompressedReportContent;
+import org.pentaho.reporting.platform.plugin.cache.IEncodedReportContent;
 import org.pentaho.reporting.platform.plugin.cache.IPluginCacheManager;
 import org.pentaho.reporting.platform.plugin.cache.IReportContent;
 import org.pentaho.reporting.platform.plugin.cache.IReportContentCache;
+import org.pentaho.reporting.platform.plugin.cache.IStreamableReportContent;
+import org.pentaho.reporting.platform.plugin.cache.MemoryCacheBackend;
+import org.pentaho.reporting.platform.plugin.cache.PageCodec;
 import org.pentaho.reporting.platform.plugin.cache.PluginCacheManagerImpl;
+import org.pentaho.reporting.platform.plugin.cache.PluginSessionCache;
+import org.pentaho.reporting.platform.plugin.cache.ReportContentImpl;
 import org.pentaho.test.platform.engine.core.MicroPlatform;
 import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PrepareForTest;
@@ -57,11 +65,15 @@ import org.powermock.modules.junit4.PowerMockRunner;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Random;
 import java.util.UUID;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyObject;
@@ -69,9 +81,11 @@ import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.CALLS_REAL_METHODS;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doCallRealMethod;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -288,6 +302,148 @@ public class PageableHTMLOutputTest {
   }
 
 
+  @Test
+  public void testStreamableCachedPage() throws PlatformInitializationException, ContentIOException,
+    ReportProcessingException, IOException,
+    ResourceException {
+    ClassicEngineBoot.getInstance().start();
+
+    MicroPlatform microPlatform = MicroPlatformFactory.create();
+
+    try {
+      microPlatform.define( ReportOutputHandlerFactory.class, FastExportReportOutputHandlerFactory.class );
+      final IReportContentCache mockCache = mock( IReportContentCache.class );
+      final IStreamableReportContent iReportContent = mock( IStreamableReportContent.class );
+      when( iReportContent.getPageCount() ).thenReturn( 5 );
+      when( iReportContent.getStoredPageCount() ).thenReturn( 5 );
+      when( iReportContent.getPageLength( 3 ) ).thenReturn( 10 );
+      final OutputStream outputStream = mock( OutputStream.class );
+      when( iReportContent.writePageTo( 3, outputStream ) ).thenReturn( true );
+
+      final String key = "test";
+      when( mockCache.get( key ) ).thenReturn( iReportContent );
+      final IPluginCacheManager iPluginCacheManager =
+        new PluginCacheManagerImpl( mockCache );
+      microPlatform.define( "IPluginCacheManager", iPluginCacheManager );
+      microPlatform.start();
+
+      final IPentahoSession session = new StandaloneSession();
+      PentahoSessionHolder.setSession( session );
+
+      final CachingPageableHTMLOutput cachingPageableHTMLOutput = spy( new CachingPageableHTMLOutput() );
+      final ResourceManager mgr = new ResourceManager();
+      final File src = new File( "target/test/resource/solution/test/reporting/report1.prpt" );
+      final MasterReport r = (MasterReport) mgr.createDirectly( src, MasterReport.class ).getResource();
+      r.setContentCacheKey( key );
+
+      assertEquals( 5, cachingPageableHTMLOutput.generate( r, 3, outputStream, 1 ) );
+
+      verify( iReportContent ).writePageTo( 3, outputStream );
+      verify( iReportContent, never() ).getPageData( anyInt() );
+      verify( cachingPageableHTMLOutput, never() ).regenerateCache( r, 1, key, 3 );
+    } finally {
+      microPlatform.stop();
+      microPlatform = null;
+    }
+  }
+
+  @Test
+  public void testAcceptEncoding() {
+    final CachingPageableHTMLOutput output = new CachingPageableHTMLOutput();
+    assertFalse( output.isEncodingAccepted( "gzip" ) );
+    output.setAcceptEncoding( "deflate, GZIP;q=0.8", encoding -> { } );
+    assertTrue( output.isEncodingAccepted( "gzip" ) );
+    output.setAcceptEncoding( "gzip;q=0, deflate", encoding -> { } );
+    assertFalse( output.isEncodingAccepted( "gzip" ) );
+    output.setAcceptEncoding( "br", encoding -> { } );
+    assertFalse( output.isEncodingAccepted( "gzip" ) );
+    // nobody would send the Content-Encoding header
+    output.setAcceptEncoding( "gzip", null );
+    assertFalse( output.isEncodingAccepted( "gzip" ) );
+  }
+
+  @Test
+  public void testEncodedCachedPage() throws Exception {
+    ClassicEngineBoot.getInstance().start();
+
+    MicroPlatform microPlatform = MicroPlatformFactory.create();
+
+    try {
+      microPlatform.define( ReportOutputHandlerFactory.class, FastExportReportOutputHandlerFactory.class );
+      final byte[] page = "<html><body>cached page</body></html>".getBytes();
+      final IReportContent content = CompressedReportContent.compress(
+        new ReportContentImpl( 2, Collections.singletonMap( 1, page ) ), PageCodec.GZIP );
+      final IReportContentCache mockCache = mock( IReportContentCache.class );
+      final String key = "test";
+      when( mockCache.get( key ) ).thenReturn( content );
+      microPlatform.define( "IPluginCacheManager", new PluginCacheManagerImpl( mockCache ) );
+      microPlatform.start();
+      PentahoSessionHolder.setSession( new StandaloneSession() );
+
+      final ResourceManager mgr = new ResourceManager();
+      final File src = new File( "target/test/resource/solution/test/reporting/report1.prpt" );
+      final MasterReport r = (MasterReport) mgr.createDirectly( src, MasterReport.class ).getResource();
+      r.setContentCacheKey( key );
+
+      final CachingPageableHTMLOutput output = new CachingPageableHTMLOutput();
+      final List<String> encodings = new ArrayList<>();
+      output.setAcceptEncoding( "gzip, deflate", encodings::add );
+      final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+      assertEquals( 2, output.generate( r, 1, encoded, 1 ) );
+      assertEquals( Collections.singletonList( "gzip" ), encodings );
+      assertEquals( "gzip", output.getContentEncoding() );
+      Assert.assertArrayEquals( ( (IEncodedReportContent) content ).getEncodedPageData( 1 ), encoded.toByteArray() );
+
+      // clients without gzip get the decoded page
+      encodings.clear();
+      output.setAcceptEncoding( "br", encodings::add );
+      final ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+      assertEquals( 2, output.generate( r, 1, decoded, 1 ) );
+      assertTrue( encodings.isEmpty() );
+      Assert.assertArrayEquals( page, decoded.toByteArray() );
+    } finally {
+      microPlatform.stop();
+      microPlatform = null;
+    }
+  }
+
+  @Test
+  public void testRejectedContentIsReusedInView() throws Exception {
+    ClassicEngineBoot.getInstance().start();
+
+    MicroPlatform microPlatform = MicroPlatformFactory.create();
+
+    try {
+      microPlatform.define( ReportOutputHandlerFactory.class, FastExportReportOutputHandlerFactory.class );
+      final AdmissionFilterCache cache =
+        new AdmissionFilterCache( new PluginSessionCache( new MemoryCacheBackend() ) );
+      microPlatform.define( "IPluginCacheManager", new PluginCacheManagerImpl( cache ) );
+      microPlatform.start();
+      PentahoSessionHolder.setSession( new StandaloneSession() );
+
+      final ResourceManager mgr = new ResourceManager();
+      final File src = new File( "target/test/resource/solution/test/reporting/report1.prpt" );
+      final MasterReport r = (MasterReport) mgr.createDirectly( src, MasterReport.class ).getResource();
+      final String key = UUID.randomUUID().toString();
+      r.setContentCacheKey( key );
+
+      // a view paginates first and then generates the page
+      final CachingPageableHTMLOutput output = spy( new CachingPageableHTMLOutput() );
+      final int pageCount = output.paginate( r, 1 );
+      final ByteArrayOutputStream page = new ByteArrayOutputStream();
+      assertEquals( pageCount, output.generate( r, 0, page, 1 ) );
+
+      assertTrue( page.size() > 0 );
+      verify( output, times( 1 ) ).regenerateCache( any( MasterReport.class ), anyInt(), anyString(), anyInt() );
+      assertNull( cache.getDelegate().get( key ) );
+      assertEquals( 0, cache.getAdmittedCount() );
+      assertEquals( 1, cache.getRejectedCount() );
+    } finally {
+      microPlatform.stop();
+      microPlatform = null;
+    }
+  }
+
   @Test
   public void testPaginateInCache() throws PlatformInitializationException, ContentIOException,
     ReportProcessingException, IOException,
@@ -422,6 +578,7 @@ public class PageableHTMLOutputTest {
     doReturn( key ).when( mockMasterReport ).getContentCacheKey();
     doReturn( null ).when( mockCachingPageableHTMLOutput ).getCachedContent( key );
     doReturn( null ).when( mockCachingPageableHTMLOutput ).regenerateCache( mockMasterReport, 1, key, 1 );
+    doCallRealMethod().when( mockCachingPageableHTMLOutput ).regenerateCoalesced( mockMasterReport, 1, key, 1, 1 );
     when( mockCachingPageableHTMLOutput.generate( mockMasterReport, 1, baos, 1 ) ).thenCallRealMethod();
 
     int returnedValue = mockCachingPageableHTMLOutput.generate( mockMasterReport, 1, baos, 1 );